@@ -0,0 +1,215 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.mapcatalog.benchmarks;
+
+import org.orbisgis.server.mapcatalog.MapCatalog;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * An in-memory map catalog filled with synthetic users, workspaces, contexts and comments, used by the
+ * benchmarks. The schema is either the one created by ups.sql alone, as in the databases of version 6, or the
+ * one completed by the update6.sql migration.
+ */
+public final class CatalogFixture {
+
+        /**
+         * The number of workspaces each user monitors.
+         */
+        public static final int MONITORED = 5;
+        /**
+         * The number of comments written about each context.
+         */
+        public static final int COMMENTS = 20;
+
+        private static int count = 0;
+
+        private final MapCatalog mc;
+        private final int users;
+
+        /**
+         * Creates and fills a new database.
+         * @param users The number of users, and of workspaces. There is a context for every ten workspaces.
+         * @param migrated True to run the update6.sql migration on the schema.
+         * @throws SQLException If the database can't be filled.
+         * @throws IOException If the scripts can't be read.
+         */
+        public CatalogFixture(int users, boolean migrated) throws SQLException, IOException {
+                this.users = users;
+                mc = new MapCatalog("jdbc:h2:mem:catalog-bench-" + (count++) + ";DB_CLOSE_DELAY=-1", "sa", "");
+                execute(read("ups.sql"));
+                if (migrated) {
+                        execute(read("update6.sql"));
+                }
+                fill();
+        }
+
+        /**
+         * Gets the catalog to query.
+         * @return The catalog.
+         */
+        public MapCatalog getMapCatalog() {
+                return mc;
+        }
+
+        /**
+         * Gets the number of users, and of workspaces, in the database.
+         * @return The number of users.
+         */
+        public int getUsers() {
+                return users;
+        }
+
+        /**
+         * Gets the number of contexts in the database.
+         * @return The number of contexts.
+         */
+        public int getContexts() {
+                return Math.max(1, users / 10);
+        }
+
+        /**
+         * Gets the email of the given user.
+         * @param id_user The id of the user, from 1 to {@link #getUsers()}.
+         * @return The email.
+         */
+        public static String getEmail(int id_user) {
+                return "user" + id_user + "@bench.org";
+        }
+
+        /**
+         * Gets the verification code of the given user.
+         * @param id_user The id of the user, from 1 to {@link #getUsers()}.
+         * @return The verification code.
+         */
+        public static String getVerification(int id_user) {
+                return "verification" + id_user;
+        }
+
+        /**
+         * Drops the database and closes its connections.
+         */
+        public void close() {
+                try {
+                        execute("DROP ALL OBJECTS");
+                } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                } finally {
+                        mc.getPool().close();
+                }
+        }
+
+        private void fill() throws SQLException {
+                Connection c = mc.getConnection();
+                try {
+                        c.setAutoCommit(false);
+                        PreparedStatement user = c.prepareStatement("INSERT INTO user (name,email,password," +
+                                "verification) VALUES (?, ?, '', ?)");
+                        PreparedStatement workspace = c.prepareStatement("INSERT INTO workspace (id_creator,name," +
+                                "all_read,all_write,all_manage,description) VALUES (?, ?, 0, 0, 0, '')");
+                        PreparedStatement monitor = c.prepareStatement("INSERT INTO user_workspace (id_user," +
+                                "id_workspace,read,write,manage_user) VALUES (?, ?, 1, 0, 0)");
+                        PreparedStatement context = c.prepareStatement("INSERT INTO owscontext (id_root,id_uploader," +
+                                "title) VALUES (?, ?, ?)");
+                        PreparedStatement comment = c.prepareStatement("INSERT INTO comment (id_writer,id_map," +
+                                "content,title) VALUES (?, ?, '', 'title')");
+                        for (int i = 1; i <= users; i++) {
+                                user.setString(1, "user" + i);
+                                user.setString(2, getEmail(i));
+                                user.setString(3, getVerification(i));
+                                user.addBatch();
+                                workspace.setInt(1, i);
+                                workspace.setString(2, "workspace" + i);
+                                workspace.addBatch();
+                        }
+                        user.executeBatch();
+                        workspace.executeBatch();
+                        for (int i = 1; i <= users; i++) {
+                                for (int k = 1; k <= MONITORED; k++) {
+                                        monitor.setInt(1, i);
+                                        monitor.setInt(2, (i + k * 7) % users + 1);
+                                        monitor.addBatch();
+                                }
+                        }
+                        monitor.executeBatch();
+                        for (int i = 1; i <= getContexts(); i++) {
+                                context.setInt(1, i * 10 % users + 1);
+                                context.setInt(2, i);
+                                context.setString(3, "context" + i);
+                                context.addBatch();
+                                for (int k = 0; k < COMMENTS; k++) {
+                                        comment.setInt(1, (i + k) % users + 1);
+                                        comment.setInt(2, i);
+                                        comment.addBatch();
+                                }
+                        }
+                        context.executeBatch();
+                        comment.executeBatch();
+                        c.commit();
+                } finally {
+                        c.setAutoCommit(true);
+                        c.close();
+                }
+        }
+
+        private void execute(String sql) throws SQLException {
+                Connection c = mc.getConnection();
+                try {
+                        Statement st = c.createStatement();
+                        st.execute(sql);
+                        st.close();
+                } finally {
+                        c.close();
+                }
+        }
+
+        private static String read(String file) throws IOException {
+                InputStream is = MapCatalog.class.getResourceAsStream(file);
+                if (is == null) {
+                        throw new IOException("Can't find the script " + file);
+                }
+                BufferedReader br = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+                try {
+                        StringBuilder sb = new StringBuilder();
+                        String s;
+                        while ((s = br.readLine()) != null) {
+                                sb.append(s);
+                        }
+                        return sb.toString();
+                } finally {
+                        br.close();
+                }
+        }
+}
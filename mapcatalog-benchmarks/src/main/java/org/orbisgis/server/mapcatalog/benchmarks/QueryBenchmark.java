@@ -0,0 +1,133 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.mapcatalog.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.orbisgis.server.mapcatalog.Comment;
+import org.orbisgis.server.mapcatalog.MapCatalog;
+import org.orbisgis.server.mapcatalog.User;
+import org.orbisgis.server.mapcatalog.UserWorkspace;
+import org.orbisgis.server.mapcatalog.Workspace;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The listings and the permission checks of the map catalog, on the schema of version 6 and on the one migrated
+ * by update6.sql. Each benchmark cycles through the users, workspaces or contexts of the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class QueryBenchmark {
+
+        private static final String[] EMAIL = {"email"};
+        private static final String[] VERIFICATION = {"verification"};
+
+        @Param({"1000", "20000"})
+        public int users;
+
+        @Param({"false", "true"})
+        public boolean migrated;
+
+        private CatalogFixture fixture;
+        private MapCatalog mc;
+        private int next = 0;
+
+        @Setup
+        public void setUp() throws Exception {
+                fixture = new CatalogFixture(users, migrated);
+                mc = fixture.getMapCatalog();
+        }
+
+        @TearDown
+        public void tearDown() {
+                fixture.close();
+        }
+
+        private String nextId(int max) {
+                next = next % max + 1;
+                return Integer.toString(next);
+        }
+
+        @Benchmark
+        public Map<UserWorkspace, Workspace> monitoredWorkspaces() throws SQLException {
+                return UserWorkspace.pageWithWorkspaceAfter(mc, nextId(users), null);
+        }
+
+        @Benchmark
+        public Map<UserWorkspace, User> workspaceMembers() throws SQLException {
+                return UserWorkspace.pageWithUser(mc, nextId(users));
+        }
+
+        @Benchmark
+        public boolean readRight() throws SQLException {
+                String id = nextId(users);
+                return UserWorkspace.hasReadRight(mc, id, id);
+        }
+
+        @Benchmark
+        public boolean creator() throws SQLException {
+                String id = nextId(users);
+                return Workspace.isCreator(mc, id, id);
+        }
+
+        @Benchmark
+        public SortedMap<Comment, User> comments() throws SQLException {
+                return Comment.pageWithMapBefore(mc, nextId(fixture.getContexts()), null);
+        }
+
+        @Benchmark
+        public List<User> login() throws SQLException {
+                nextId(users);
+                return User.page(mc, EMAIL, new String[]{CatalogFixture.getEmail(next)});
+        }
+
+        @Benchmark
+        public List<User> verification() throws SQLException {
+                nextId(users);
+                return User.page(mc, VERIFICATION, new String[]{CatalogFixture.getVerification(next)});
+        }
+}
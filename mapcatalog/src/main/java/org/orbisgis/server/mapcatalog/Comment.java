@@ -27,7 +27,6 @@ package org.orbisgis.server.mapcatalog; /**
  */
 
 import java.io.InputStream;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
@@ -89,21 +88,43 @@ public class Comment implements Comparable{
     }
 
     /**
-     * Gets an input stream for the content of a comment in the database
+     * Builds a comment from a row of the comment table
+     */
+    static final RowMapper<Comment> MAPPER = new RowMapper<Comment>() {
+        @Override
+        public Comment map(ResultSet rs) throws SQLException {
+            String id_comment = rs.getString("id_comment");
+            String id_writer = rs.getString("id_writer");
+            String id_map = rs.getString("id_map");
+            String title = rs.getString("title");
+            Timestamp date = rs.getTimestamp("date");
+            return new Comment(id_comment,id_writer,id_map,title,date);
+        }
+    };
+
+    /**
+     * The columns that can be used in the where clause of {@link #page(MapCatalog, String[], String[])}
+     */
+    static final Set<String> COLUMNS = Query.columns("id_comment", "id_writer", "id_map", "title", "date");
+
+    private static final String CONTENT = "SELECT content FROM comment WHERE id_comment = ?";
+    private static final String INSERT = "INSERT INTO comment (id_writer,id_map,content,title) VALUES (? , ? , ? , ?);";
+    private static final String DELETE = "DELETE FROM comment WHERE id_comment = ? ;";
+    private static final String SELECT = "SELECT * FROM comment";
+    private static final String SELECT_WITH_MAP = "SELECT * FROM comment JOIN user ON comment.id_writer=user.id_user WHERE comment.id_map=? ORDER BY id_comment DESC NULLS LAST LIMIT ? offset ?";
+    private static final String SELECT_WITH_MAP_BEFORE = "SELECT * FROM comment JOIN user ON comment.id_writer=user.id_user WHERE comment.id_map=? AND id_comment < ? ORDER BY id_comment DESC LIMIT ?";
+    private static final String COUNT_WITH_MAP = "SELECT count(*) FROM comment JOIN user ON comment.id_writer=user.id_user WHERE comment.id_map=?";
+    private static final String UPDATE = "UPDATE comment SET title = ?, content = ? WHERE id_comment = ?;";
+
+    /**
+     * Gets an input stream for the content of a comment in the database. The content is read before the
+     * connection is given back, so the stream stays valid.
      * @param MC The instance of MapCatalog to get connection to database from
      * @return An InputStream containing content of a comment
      * @throws SQLException
      */
     public InputStream getContent(MapCatalog MC) throws SQLException{
-        String query = "SELECT content FROM comment WHERE id_comment = ?";
-        InputStream content = null;
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, id_comment);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            content = rs.getAsciiStream("content");
-        }
-        return content;
+        return Query.content(MC, CONTENT, id_comment);
     }
 
     public String getTitle() {
@@ -124,21 +145,7 @@ public class Comment implements Comparable{
      * @return The ID of the comment just created (primary key)
      */
     public Long save(MapCatalog MC, InputStream content) throws SQLException{
-        Long last = null;
-        String query = "INSERT INTO comment (id_writer,id_map,content,title) VALUES (? , ? , ? , ?);";
-        PreparedStatement pstmt = MC.getConnection().prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
-        pstmt.setString(1, id_writer);
-        pstmt.setString(2, id_map);
-        pstmt.setAsciiStream(3, content);
-        pstmt.setString(4, title);
-        pstmt.executeUpdate();
-        ResultSet rs = pstmt.getGeneratedKeys();
-        if(rs.next()){
-            last = rs.getLong(1);
-        }
-        rs.close();
-        pstmt.close();
-        return last;
+        return Query.insert(MC, INSERT, id_writer, id_map, content, title);
     }
 
     /**
@@ -147,62 +154,20 @@ public class Comment implements Comparable{
      * @param id_comment The primary key of the comment
      */
     public static void delete(MapCatalog MC, Long id_comment) throws SQLException{
-        String query = "DELETE FROM comment WHERE id_comment = ? ;";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setLong(1, id_comment);
-        stmt.executeUpdate();
-        stmt.close();
+        Query.update(MC, DELETE, id_comment);
     }
 
     /**
-     * Method that queries the database for comments, with a where clause, be careful, as only the values in the where clause will be checked for SQL injections
+     * Method that queries the database for comments, with a where clause. Only the known columns of the
+     * comment table can be used as attributes, the values are checked for SQL injections.
      * @param MC the mapcatalog object for the connection
      * @param attributes The attributes in the where clause, you should NEVER let the user bias this parameter, always hard code it.
      * @param values The values of the attributes, this is totally SQL injection safe
      * @return A list of Comment containing the result of the query
      */
     public static List<Comment> page(MapCatalog MC, String[] attributes, String[] values) throws SQLException{
-        String query = "SELECT * FROM comment WHERE ";
-        List<Comment> paged = new LinkedList<Comment>();
-        //case argument invalid
-        if(attributes == null || values == null){
-            throw new IllegalArgumentException("Arguments cannot be null");
-        }
-        if(attributes.length != values.length){
-            throw new IllegalArgumentException("String arrays have to be of the same length");
-        }
-        //preparation of the query
-        query+=attributes[0]+" = ?";
-        for(int i=1; i<attributes.length; i++){
-            if(values[i]==null){
-                query += "AND "+attributes[i]+" IS NULL";
-            }else{
-                query += " AND "+attributes[i]+" = ?";
-            }
-        }
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        int j=1;
-        for (String value : values) {
-            if (value != null) {
-                stmt.setString(j, value);
-                j++;
-            }
-        }
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_comment = rs.getString("id_Comment");
-            String id_writer = rs.getString("id_writer");
-            String id_map = rs.getString("id_map");
-            String title = rs.getString("title");
-            Timestamp date = rs.getTimestamp("date");
-            Comment com = new Comment(id_comment,id_writer,id_map,title,date);
-            paged.add(com);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        String query = SELECT + " WHERE " + Query.where(COLUMNS, attributes, values);
+        return Query.list(MC, query, MAPPER, Query.parameters(values));
     }
 
     /**
@@ -211,61 +176,36 @@ public class Comment implements Comparable{
      * @return A list of comment containing the result of the query
      */
     public static List<Comment> page(MapCatalog MC) throws SQLException{
-        String query = "SELECT * FROM comment";
-        List<Comment> paged = new LinkedList<Comment>();
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_comment = rs.getString("id_Comment");
-            String id_writer = rs.getString("id_writer");
-            String id_map = rs.getString("id_map");
-            String title = rs.getString("title");
-            Timestamp date = rs.getTimestamp("date");
-            Comment com = new Comment(id_comment,id_writer,id_map,title, date);
-            paged.add(com);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        return Query.list(MC, SELECT, MAPPER);
     }
 
     /**
-     * This method returns a hash map containing all Comments linked to their writer (user). The password is not specified. Only ten comments are returned, begining at offset, in date order desc
+     * This method returns a hash map containing all Comments linked to their writer (user). The password is not specified. Only a page of comments (MapCatalog#getPageSize) is returned, begining at offset, in date order desc
      * @param MC The mapcatalog instance to get the connection to database
      * @param id_owscontext The id of the map context containing the comments
-     * @param offset the number of the first of ten comments returned
+     * @param offset the number of the first of the comments returned
      * @return A hash map comment user
      * @throws SQLException
      */
     public static SortedMap<Comment, User> pageWithMap(MapCatalog MC, String id_owscontext, int offset) throws SQLException {
-        String query = "SELECT * FROM comment JOIN user ON comment.id_writer=user.id_user WHERE comment.id_map=? ORDER BY id_comment DESC NULLS LAST LIMIT '10' offset ?";
-        TreeMap<Comment, User> paged = new TreeMap<Comment,User>();
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, id_owscontext);
-        stmt.setInt(2, offset);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_comment = rs.getString("id_comment");
-            String id_writer = rs.getString("id_writer");
-            String id_map = rs.getString("id_map");
-            String title = rs.getString("title");
-            Timestamp date = rs.getTimestamp("date");
-            Comment com = new Comment(id_comment, id_writer, id_map, title, date);
-            String id_user = rs.getString("id_user");
-            String name = rs.getString("name");
-            String email = rs.getString("email");
-            String location = rs.getString("location");
-            String profession = rs.getString("profession");
-            String additional = rs.getString("additional");
-            String admin_wms = rs.getString("admin_wms");
-            String admin_mapcatalog = rs.getString("admin_mapcatalog");
-            String admin_wps = rs.getString("admin_wps");
-            String verification = rs.getString(("verification"));
-            User use = new User(id_user, name, email, null, location, profession, additional, admin_wms, admin_mapcatalog, admin_wps, verification);
-            paged.put(com, use);
-        }
-        rs.close();
-        stmt.close();
+        TreeMap<Comment, User> paged = Query.map(MC, SELECT_WITH_MAP, MAPPER, User.PUBLIC_MAPPER,
+                new TreeMap<Comment, User>(), id_owscontext, MC.getPageSize(), offset);
+        return paged.descendingMap();
+    }
+
+    /**
+     * This method returns a page of the comments of a map linked to their writer (user), the newest first,
+     * beginning before the given comment. The password is not specified. The page is found with the primary key,
+     * whatever its number.
+     * @param MC The mapcatalog instance to get the connection to database
+     * @param id_owscontext The id of the map context containing the comments
+     * @param before The id of the last comment of the previous page, null for the first page
+     * @return A sorted map comment user
+     * @throws SQLException
+     */
+    public static SortedMap<Comment, User> pageWithMapBefore(MapCatalog MC, String id_owscontext, String before) throws SQLException {
+        TreeMap<Comment, User> paged = Query.map(MC, SELECT_WITH_MAP_BEFORE, MAPPER, User.PUBLIC_MAPPER,
+                new TreeMap<Comment, User>(), id_owscontext, Query.before(before), MC.getPageSize());
         return paged.descendingMap();
     }
 
@@ -277,17 +217,7 @@ public class Comment implements Comparable{
      * @throws SQLException
      */
     public static int pageWithMapCount(MapCatalog MC, String id_owscontext) throws SQLException {
-        String query = "SELECT count(*) FROM comment JOIN user ON comment.id_writer=user.id_user WHERE comment.id_map=?";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, id_owscontext);
-        int count = 0;
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            count = rs.getInt("count(*)");
-        }
-        rs.close();
-        stmt.close();
-        return count;
+        return Query.count(MC, COUNT_WITH_MAP, id_owscontext);
     }
 
     /**
@@ -295,13 +225,6 @@ public class Comment implements Comparable{
      * @param MC the mapcatalog used for database connection
      */
     public void update(MapCatalog MC, InputStream content) throws SQLException{
-        String query = "UPDATE comment SET title = ?, content = ? WHERE id_comment = ?;";
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, title);
-        stmt.setAsciiStream(2, content);
-        stmt.setString(3, id_comment);
-        stmt.executeUpdate();
-        stmt.close();
+        Query.update(MC, UPDATE, title, content, id_comment);
     }
 }
@@ -0,0 +1,624 @@
+package org.orbisgis.server.mapcatalog;
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * A pool of connections to the database. The connections given by {@link #getConnection()} go back to the pool
+ * when they are closed, with the statements they have created. At most a given number of connections are open
+ * at the same time : the next callers wait for one to be closed. Idle connections are closed after a while, and
+ * the connections kept for too long are reported as leaks, with the place they have been taken from. The leaks
+ * are looked for by a background timer as well, so that they are reported even when nobody asks for a connection.
+ * <p>
+ * Each connection keeps its most recently used prepared statements : preparing the same SQL again on a
+ * connection of the pool gives back the statement already parsed by the database, whose close method only makes
+ * it available for the next caller.
+ */
+public class ConnectionPool {
+    public static final int DEFAULT_MAX_SIZE = 10;
+    public static final int DEFAULT_IDLE_TIMEOUT = 300;
+    public static final int DEFAULT_WAIT_TIMEOUT = 30;
+    public static final int DEFAULT_LEAK_THRESHOLD = 60;
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long idleTimeout;
+    private final long waitTimeout;
+    private final long leakThreshold;
+    private volatile int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+    private final LinkedList<Pooled> idle = new LinkedList<Pooled>();
+    private final Set<Lease> leased = new HashSet<Lease>();
+    private int open = 0;
+    private boolean closed = false;
+    private Timer leakTimer = null;
+    private long created = 0;
+    private long leases = 0;
+    private long waits = 0;
+    private long timeouts = 0;
+    private long leaks = 0;
+    private long statementHits = 0;
+    private long statementMisses = 0;
+
+    /**
+     * Builds a pool with the default settings.
+     * @param url The URL of the database
+     * @param user The Username to connect to database
+     * @param password The password to connect to database
+     */
+    public ConnectionPool(String url, String user, String password) {
+        this(url, user, password, DEFAULT_MAX_SIZE, DEFAULT_IDLE_TIMEOUT, DEFAULT_WAIT_TIMEOUT, DEFAULT_LEAK_THRESHOLD);
+    }
+
+    /**
+     * Builds a pool.
+     * @param url The URL of the database
+     * @param user The Username to connect to database
+     * @param password The password to connect to database
+     * @param maxSize The maximum number of open connections
+     * @param idleTimeout The number of seconds after which an idle connection is closed, 0 to keep them open
+     * @param waitTimeout The number of seconds to wait for a free connection before failing
+     * @param leakThreshold The number of seconds after which a connection that has not been closed is reported,
+     *                      0 to disable the leak detection
+     */
+    public ConnectionPool(String url, String user, String password, int maxSize, int idleTimeout, int waitTimeout,
+                          int leakThreshold) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+        this.idleTimeout = Math.max(0, idleTimeout) * MILLIS_PER_SECOND;
+        this.waitTimeout = Math.max(0, waitTimeout) * MILLIS_PER_SECOND;
+        this.leakThreshold = Math.max(0, leakThreshold) * MILLIS_PER_SECOND;
+    }
+
+    /**
+     * Builds a pool configured with the given properties
+     * @param mcp The properties of connection to database
+     * @return The pool
+     */
+    public static ConnectionPool create(MapCatalogProperties mcp) {
+        ConnectionPool pool = new ConnectionPool(
+                mcp.getProperty(MapCatalogProperties.DATABASE_URL).toString(),
+                mcp.getProperty(MapCatalogProperties.DATABASE_USER).toString(),
+                mcp.getProperty(MapCatalogProperties.DATABASE_PASSWORD).toString(),
+                mcp.getIntProperty(MapCatalogProperties.POOL_SIZE, DEFAULT_MAX_SIZE),
+                mcp.getIntProperty(MapCatalogProperties.POOL_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT),
+                mcp.getIntProperty(MapCatalogProperties.POOL_WAIT_TIMEOUT, DEFAULT_WAIT_TIMEOUT),
+                mcp.getIntProperty(MapCatalogProperties.POOL_LEAK_THRESHOLD, DEFAULT_LEAK_THRESHOLD));
+        pool.setStatementCacheSize(mcp.getIntProperty(MapCatalogProperties.POOL_STATEMENTS,
+                DEFAULT_STATEMENT_CACHE_SIZE));
+        return pool;
+    }
+
+    /**
+     * Sets the number of prepared statements kept by each connection
+     * @param size The number of statements, 0 to disable the cache
+     */
+    public void setStatementCacheSize(int size) {
+        statementCacheSize = Math.max(0, size);
+    }
+
+    /**
+     * Leases a connection, that must be closed once it is not used anymore
+     * @return The connection
+     * @throws SQLException if no connection can be opened, or if none has been closed in time
+     */
+    public Connection getConnection() throws SQLException {
+        Pooled pooled = null;
+        boolean create = false;
+        List<Pooled> expired = new ArrayList<Pooled>();
+        List<Lease> leaking;
+        synchronized (this) {
+            leaking = findLeaks();
+        }
+        reportLeaks(leaking);
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + waitTimeout;
+            boolean waited = false;
+            while (pooled == null && !create) {
+                if (closed) {
+                    throw new SQLException("The connection pool is closed");
+                }
+                evictIdle(expired);
+                if (!idle.isEmpty()) {
+                    pooled = idle.removeFirst();
+                } else if (open < maxSize) {
+                    open++;
+                    create = true;
+                } else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        timeouts++;
+                        throw new SQLException("No database connection has been released in time, "
+                                + leased.size() + " of them are in use");
+                    }
+                    if (!waited) {
+                        waits++;
+                        waited = true;
+                    }
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a database connection");
+                    }
+                }
+            }
+        }
+        for (Pooled p : expired) {
+            p.close();
+        }
+        if (create) {
+            try {
+                pooled = new Pooled(DriverManager.getConnection(url, user, password));
+            } catch (SQLException e) {
+                synchronized (this) {
+                    open--;
+                    notifyAll();
+                }
+                throw e;
+            }
+            synchronized (this) {
+                created++;
+            }
+        }
+        Lease lease = new Lease(pooled, leakThreshold > 0 ? new Throwable("Connection leased here") : null);
+        synchronized (this) {
+            leases++;
+            leased.add(lease);
+            startLeakTimer();
+        }
+        return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, lease);
+    }
+
+    /**
+     * Closes the idle connections. The leased ones are closed when they are released.
+     */
+    public void close() {
+        List<Pooled> toClose;
+        synchronized (this) {
+            closed = true;
+            if (leakTimer != null) {
+                leakTimer.cancel();
+                leakTimer = null;
+            }
+            toClose = new ArrayList<Pooled>(idle);
+            open -= idle.size();
+            idle.clear();
+            notifyAll();
+        }
+        for (Pooled p : toClose) {
+            p.close();
+        }
+    }
+
+    /**
+     * @return The number of connections in use
+     */
+    public synchronized int getActiveCount() {
+        return leased.size();
+    }
+
+    /**
+     * @return The number of open connections waiting to be used
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return The number of connections opened since the pool has been built
+     */
+    public synchronized long getCreatedCount() {
+        return created;
+    }
+
+    /**
+     * @return The number of connections that have been leased
+     */
+    public synchronized long getLeaseCount() {
+        return leases;
+    }
+
+    /**
+     * @return The number of callers that had to wait for a connection
+     */
+    public synchronized long getWaitCount() {
+        return waits;
+    }
+
+    /**
+     * @return The number of callers that did not get a connection in time
+     */
+    public synchronized long getTimeoutCount() {
+        return timeouts;
+    }
+
+    /**
+     * @return The number of connections that have been kept for too long
+     */
+    public synchronized long getLeakCount() {
+        return leaks;
+    }
+
+    /**
+     * @return The number of statements found in the cache of their connection
+     */
+    public synchronized long getStatementHitCount() {
+        return statementHits;
+    }
+
+    /**
+     * @return The number of statements that had to be prepared by the database
+     */
+    public synchronized long getStatementMissCount() {
+        return statementMisses;
+    }
+
+    private synchronized void countStatement(boolean hit) {
+        if (hit) {
+            statementHits++;
+        } else {
+            statementMisses++;
+        }
+    }
+
+    private void evictIdle(List<Pooled> expired) {
+        if (idleTimeout <= 0) {
+            return;
+        }
+        long limit = System.currentTimeMillis() - idleTimeout;
+        // The most recently released connections are at the head of the list
+        while (!idle.isEmpty() && idle.getLast().since < limit) {
+            expired.add(idle.removeLast());
+            open--;
+        }
+    }
+
+    /**
+     * Gets the leases kept for too long that have not been reported yet, and marks them as reported. The caller
+     * holds the lock of the pool and reports them once it has released it.
+     */
+    private List<Lease> findLeaks() {
+        List<Lease> found = new ArrayList<Lease>();
+        if (leakThreshold <= 0) {
+            return found;
+        }
+        long limit = System.currentTimeMillis() - leakThreshold;
+        for (Lease l : leased) {
+            if (!l.reported && l.since < limit) {
+                l.reported = true;
+                leaks++;
+                found.add(l);
+            }
+        }
+        return found;
+    }
+
+    private static void reportLeaks(List<Lease> found) {
+        for (Lease l : found) {
+            System.out.println("[Database WARNING] : a connection has not been closed for "
+                    + (System.currentTimeMillis() - l.since) / MILLIS_PER_SECOND + " seconds");
+            l.origin.printStackTrace(System.out);
+        }
+    }
+
+    /**
+     * Starts the timer that looks for the leaks twice per threshold, once the first connection has been leased.
+     */
+    private void startLeakTimer() {
+        if (leakThreshold <= 0 || leakTimer != null || closed) {
+            return;
+        }
+        long period = Math.max(MILLIS_PER_SECOND, leakThreshold / 2);
+        leakTimer = new Timer("Connection pool leak detection", true);
+        leakTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                List<Lease> leaking;
+                synchronized (ConnectionPool.this) {
+                    leaking = findLeaks();
+                }
+                reportLeaks(leaking);
+            }
+        }, period, period);
+    }
+
+    private void release(Lease lease) {
+        Pooled pooled = lease.pooled;
+        boolean usable;
+        try {
+            lease.closeStatements();
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            usable = !pooled.physical.isClosed();
+        } catch (SQLException e) {
+            usable = false;
+        }
+        synchronized (this) {
+            leased.remove(lease);
+            if (usable && !closed) {
+                pooled.since = System.currentTimeMillis();
+                idle.addFirst(pooled);
+            } else {
+                open--;
+            }
+            notifyAll();
+            if (usable && !closed) {
+                return;
+            }
+        }
+        pooled.close();
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // The statement is dropped anyway
+        }
+    }
+
+    /**
+     * An open connection and its prepared statements, the most recently used last
+     */
+    private final class Pooled {
+        private final Connection physical;
+        private final Map<String, Cached> statements = new LinkedHashMap<String, Cached>(16, 0.75f, true);
+        private long since = System.currentTimeMillis();
+
+        private Pooled(Connection physical) {
+            this.physical = physical;
+        }
+
+        /**
+         * Gets the cached statement for the given SQL, or prepares and caches it
+         * @return The statement, or null if the cached one is already in use
+         */
+        private Cached prepare(String key, String sql, int autoGeneratedKeys) throws SQLException {
+            Cached c = statements.get(key);
+            if (c != null) {
+                if (c.inUse) {
+                    return null;
+                }
+                countStatement(true);
+            } else {
+                countStatement(false);
+                c = new Cached(physical.prepareStatement(sql, autoGeneratedKeys));
+                statements.put(key, c);
+                Iterator<Cached> it = statements.values().iterator();
+                while (statements.size() > statementCacheSize && it.hasNext()) {
+                    Cached eldest = it.next();
+                    if (!eldest.inUse) {
+                        it.remove();
+                        closeQuietly(eldest.statement);
+                    }
+                }
+                if (!statements.containsValue(c)) {
+                    // The cache is disabled
+                    return null;
+                }
+            }
+            c.inUse = true;
+            return c;
+        }
+
+        private void close() {
+            for (Cached c : statements.values()) {
+                closeQuietly(c.statement);
+            }
+            statements.clear();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                // The connection is dropped anyway
+            }
+        }
+    }
+
+    /**
+     * A prepared statement kept by a connection
+     */
+    private static final class Cached {
+        private final PreparedStatement statement;
+        private volatile boolean inUse = false;
+
+        private Cached(PreparedStatement statement) {
+            this.statement = statement;
+        }
+    }
+
+    /**
+     * A leased connection, seen through a proxy whose close method gives it back to the pool
+     */
+    private final class Lease implements InvocationHandler {
+        private final Pooled pooled;
+        private final Throwable origin;
+        private final long since = System.currentTimeMillis();
+        private final List<Statement> statements = new ArrayList<Statement>();
+        private final List<CachedHandler> cached = new ArrayList<CachedHandler>();
+        private boolean released = false;
+        private boolean reported = false;
+
+        private Lease(Pooled pooled, Throwable origin) {
+            this.pooled = pooled;
+            this.origin = origin;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                synchronized (this) {
+                    if (released) {
+                        return null;
+                    }
+                    released = true;
+                }
+                release(this);
+                return null;
+            } else if (name.equals("isClosed")) {
+                synchronized (this) {
+                    if (released) {
+                        return true;
+                    }
+                }
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString")) {
+                return "Pooled " + pooled.physical;
+            }
+            synchronized (this) {
+                if (released) {
+                    throw new SQLException("The connection is closed");
+                }
+                if (name.equals("prepareStatement") && isCacheable(method)) {
+                    String sql = (String) args[0];
+                    int keys = args.length > 1 ? (Integer) args[1] : Statement.NO_GENERATED_KEYS;
+                    Cached c = pooled.prepare(keys + ":" + sql, sql, keys);
+                    if (c != null) {
+                        CachedHandler handler = new CachedHandler(c);
+                        cached.add(handler);
+                        return Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                                new Class<?>[]{PreparedStatement.class}, handler);
+                    }
+                }
+            }
+            Object ret = ConnectionPool.invoke(pooled.physical, method, args);
+            if (ret instanceof Statement) {
+                synchronized (this) {
+                    statements.add((Statement) ret);
+                }
+            }
+            return ret;
+        }
+
+        private boolean isCacheable(Method method) {
+            Class<?>[] types = method.getParameterTypes();
+            return statementCacheSize > 0 && (types.length == 1
+                    || (types.length == 2 && types[1] == int.class));
+        }
+
+        private synchronized void closeStatements() {
+            for (Statement s : statements) {
+                closeQuietly(s);
+            }
+            statements.clear();
+            for (CachedHandler h : cached) {
+                h.giveBack();
+            }
+            cached.clear();
+        }
+    }
+
+    /**
+     * A cached statement lent to a lease, whose close method gives it back to its connection
+     */
+    private static final class CachedHandler implements InvocationHandler {
+        private final Cached cached;
+        private boolean closed = false;
+
+        private CachedHandler(Cached cached) {
+            this.cached = cached;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                giveBack();
+                return null;
+            } else if (name.equals("isClosed")) {
+                synchronized (this) {
+                    if (closed) {
+                        return true;
+                    }
+                }
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            synchronized (this) {
+                if (closed) {
+                    throw new SQLException("The statement is closed");
+                }
+            }
+            return ConnectionPool.invoke(cached.statement, method, args);
+        }
+
+        private synchronized void giveBack() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                cached.statement.clearParameters();
+                cached.statement.clearWarnings();
+            } catch (SQLException e) {
+                // The next caller sets its own parameters anyway
+            }
+            cached.inUse = false;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package org.orbisgis.server.mapcatalog;
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the results of the COUNT(*) queries, so that the number of pages of a listing is not counted again
+ * for each page. The whole cache is cleared by every write made through the map catalog, the timeout only
+ * bounds the error on the writes made by other processes. The number of counts is bounded too, the least
+ * recently used ones being forgotten first, as each search text makes its own query.
+ */
+final class CountCache {
+    /**
+     * The default maximum number of counts kept
+     */
+    static final int DEFAULT_SIZE = 1024;
+    private final int maxSize;
+    // Access-ordered : the first entry is the least recently used one.
+    private final Map<String, Entry> counts = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxSize;
+        }
+    };
+    private long timeout;
+    private long generation = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Builds a cache that keeps its counts for the given number of seconds
+     * @param timeout The number of seconds, 0 to disable the cache
+     */
+    CountCache(int timeout) {
+        this(timeout, DEFAULT_SIZE);
+    }
+
+    /**
+     * Builds a cache that keeps at most maxSize counts for the given number of seconds
+     * @param timeout The number of seconds, 0 to disable the cache
+     * @param maxSize The maximum number of counts kept
+     */
+    CountCache(int timeout, int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+        setTimeout(timeout);
+    }
+
+    /**
+     * Sets the number of seconds a count is kept
+     * @param timeout The number of seconds, 0 to disable the cache
+     */
+    synchronized void setTimeout(int timeout) {
+        this.timeout = Math.max(0, timeout) * 1000L;
+        counts.clear();
+    }
+
+    /**
+     * Tells if the counts are kept
+     * @return true if the timeout is not 0
+     */
+    synchronized boolean isEnabled() {
+        return timeout > 0;
+    }
+
+    /**
+     * Builds the key of a query
+     * @param sql The query
+     * @param parameters The parameters of the query
+     * @return The key of the count
+     */
+    static String key(String sql, Object[] parameters) {
+        return sql + Arrays.toString(parameters);
+    }
+
+    /**
+     * Gets the generation of the cache, to give with the count to {@link #put(String, long, int)}
+     * @return The number of times the cache has been cleared
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Gets a count that has not expired
+     * @param key The key of the query
+     * @return The count, or null if it must be queried
+     */
+    synchronized Integer get(String key) {
+        Entry e = counts.get(key);
+        if (e != null && !e.isExpired(System.currentTimeMillis(), timeout)) {
+            hits++;
+            return e.count;
+        }
+        if (e != null) {
+            counts.remove(key);
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Keeps a count, unless the cache has been cleared since the count was queried
+     * @param key The key of the query
+     * @param generation The generation of the cache before the query
+     * @param count The count
+     */
+    synchronized void put(String key, long generation, int count) {
+        if (timeout > 0 && generation == this.generation) {
+            long now = System.currentTimeMillis();
+            Iterator<Entry> it = counts.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().isExpired(now, timeout)) {
+                    it.remove();
+                }
+            }
+            counts.put(key, new Entry(count));
+        }
+    }
+
+    /**
+     * Forgets all the counts, after a write
+     */
+    synchronized void clear() {
+        generation++;
+        counts.clear();
+    }
+
+    /**
+     * Gets the number of counts read from the cache
+     * @return The number of hits
+     */
+    synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of counts that had to be queried
+     * @return The number of misses
+     */
+    synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of counts kept, expired or not
+     * @return The number of counts
+     */
+    synchronized int size() {
+        return counts.size();
+    }
+
+    private static final class Entry {
+        private final int count;
+        private final long since = System.currentTimeMillis();
+
+        private Entry(int count) {
+            this.count = count;
+        }
+
+        private boolean isExpired(long now, long timeout) {
+            return now - since >= timeout;
+        }
+    }
+}
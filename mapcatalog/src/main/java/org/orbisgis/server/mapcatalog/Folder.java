@@ -26,12 +26,12 @@ package org.orbisgis.server.mapcatalog; /**
  * directly: info_at_ orbisgis.org
  */
 
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * The class of the folder model representation
@@ -85,26 +85,38 @@ public class Folder {
         return name;
     }
 
+    /**
+     * Builds a folder from a row of the folder table
+     */
+    static final RowMapper<Folder> MAPPER = new RowMapper<Folder>() {
+        @Override
+        public Folder map(ResultSet rs) throws SQLException {
+            String id_folder = rs.getString("id_folder");
+            String id_root = rs.getString("id_root");
+            String id_parent = rs.getString("id_parent");
+            String name = rs.getString("name");
+            return new Folder(id_folder,id_root,id_parent,name);
+        }
+    };
+
+    /**
+     * The columns that can be used in the where clause of {@link #page(MapCatalog, String[], String[])}
+     */
+    static final Set<String> COLUMNS = Query.columns("id_folder", "id_root", "id_parent", "name");
+
+    private static final String INSERT = "INSERT INTO folder (id_root,id_parent,name) VALUES (? , ? , ?);";
+    private static final String DELETE = "DELETE FROM folder WHERE id_folder = ? ;";
+    private static final String SELECT = "SELECT * FROM folder";
+    private static final String SEARCH = "SELECT f.* FROM folder f JOIN %s m ON m.id = f.id_folder WHERE f.id_root = ? ORDER BY m.score DESC, f.id_folder";
+    private static final String UPDATE = "UPDATE folder SET id_root = ? , id_parent = ? , name = ? WHERE id_folder = ?;";
+
     /**
      * Method that saves a instantiated folder into database. Handles SQL injections. Auto increments primary key
      * @param MC the mapcatalog object for the connection
      * @return The ID of the folder just created (primary key)
      */
     public  Long save(MapCatalog MC) throws SQLException{
-        Long last = null;
-        String query = "INSERT INTO folder (id_root,id_parent,name) VALUES (? , ? , ?);";
-        PreparedStatement pstmt = MC.getConnection().prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
-        pstmt.setString(1, id_root);
-        pstmt.setString(2, id_parent);
-        pstmt.setString(3, name);
-        pstmt.executeUpdate();
-        ResultSet rs = pstmt.getGeneratedKeys();
-        if(rs.next()){
-            last = rs.getLong(1);
-        }
-        rs.close();
-        pstmt.close();
-        return last;
+        return Query.insert(MC, INSERT, id_root, id_parent, name);
     }
 
     /**
@@ -113,61 +125,20 @@ public class Folder {
      * @param id_folder The primary key of the folder
      */
     public static void delete(MapCatalog MC, Long id_folder) throws SQLException{
-        String query = "DELETE FROM folder WHERE id_folder = ? ;";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setLong(1, id_folder);
-        stmt.executeUpdate();
-        stmt.close();
+        Query.update(MC, DELETE, id_folder);
     }
 
     /**
-     * Method that queries the database for folders, with a where clause, be careful, as only the values in the where clause will be checked for SQL injections
+     * Method that queries the database for folders, with a where clause. Only the known columns of the
+     * folder table can be used as attributes, the values are checked for SQL injections.
      * @param MC the mapcatalog object for the connection
      * @param attributes The attributes in the where clause, you should NEVER let the user bias this parameter, always hard code it.
      * @param values The values of the attributes, this is totally SQL injection safe
      * @return A list of Folder containing the result of the query
      */
     public static List<Folder> page(MapCatalog MC, String[] attributes, String[] values) throws SQLException{
-        String query = "SELECT * FROM folder WHERE ";
-        List<Folder> paged = new LinkedList<Folder>();
-        //case argument invalid
-        if(attributes == null || values == null){
-            throw new IllegalArgumentException("Arguments cannot be null");
-        }
-        if(attributes.length != values.length){
-            throw new IllegalArgumentException("String arrays have to be of the same length");
-        }
-        //preparation of the query
-        query+=attributes[0]+" = ?";
-        for(int i=1; i<attributes.length; i++){
-            if(values[i]==null){
-                query += "AND "+attributes[i]+" IS NULL";
-            }else{
-            query += " AND "+attributes[i]+" = ?";
-            }
-        }
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        int j=1;
-        for (String value : values) {
-            if (value != null) {
-                stmt.setString(j, value);
-                j++;
-            }
-        }
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_folder = rs.getString("id_folder");
-            String id_root = rs.getString("id_root");
-            String id_parent = rs.getString("id_parent");
-            String name = rs.getString("name");
-            Folder fol = new Folder(id_folder,id_root,id_parent,name);
-            paged.add(fol);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        String query = SELECT + " WHERE " + Query.where(COLUMNS, attributes, values);
+        return Query.list(MC, query, MAPPER, Query.parameters(values));
     }
 
     /**
@@ -176,21 +147,7 @@ public class Folder {
      * @return A list of folder containing the result of the query
      */
     public static List<Folder> page(MapCatalog MC) throws SQLException{
-        String query = "SELECT * FROM folder";
-        List<Folder> paged = new LinkedList<Folder>();
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_folder = rs.getString("id_folder");
-            String id_root = rs.getString("id_root");
-            String id_parent = rs.getString("id_parent");
-            String name = rs.getString("name");
-            Folder fol = new Folder(id_folder,id_root,id_parent,name);
-            paged.add(fol);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        return Query.list(MC, SELECT, MAPPER);
     }
 
     /**
@@ -216,27 +173,13 @@ public class Folder {
 
     /**
      *Queries database to search for a folder containing a certain expression in his name
-     * @param expression the String to run the search on, case insensitive
+     * @param expression the words to look for, case and accent insensitive, the best matches come first
      * @return The list of workspaces corresponding to the search
      */
     public static List<Folder> search(MapCatalog MC, String id_root, String expression) throws SQLException{
-        String query = "SELECT * FROM FOLDER WHERE (LOWER(name) LIKE ?) AND (id_root = ?)";
-        List<Folder> searched = new LinkedList<Folder>();
-        expression = "%" + expression.toLowerCase() + "%";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, expression);
-        stmt.setString(2, id_root);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_folder = rs.getString("id_folder");
-            String id_parent = rs.getString("id_parent");
-            String name = rs.getString("name");
-            Folder fol = new Folder(id_folder,id_root,id_parent,name);
-            searched.add(fol);
-        }
-        rs.close();
-        stmt.close();
-        return searched;
+        List<String> terms = SearchIndex.terms(expression);
+        return Query.list(MC, SearchIndex.query(SEARCH, "FOLDER", "id_folder", terms), MAPPER,
+                SearchIndex.parameters(terms, id_root));
     }
 
     /**
@@ -244,14 +187,6 @@ public class Folder {
      * @param MC the mapcatalog used for database connection
      */
     public void update(MapCatalog MC) throws SQLException{
-        String query = "UPDATE folder SET id_root = ? , id_parent = ? , name = ? WHERE id_folder = ?;";
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, id_root);
-        stmt.setString(2, id_parent);
-        stmt.setString(3, name);
-        stmt.setString(4, id_folder);
-        stmt.executeUpdate();
-        stmt.close();
+        Query.update(MC, UPDATE, id_root, id_parent, name, id_folder);
     }
 }
@@ -51,7 +51,9 @@ import java.util.List;
  */
 public class MapCatalog {
 
-    private static final int VERSION = 6;
+    private static final int VERSION = 8;
+    public static final int DEFAULT_PAGE_SIZE = 10;
+    public static final int DEFAULT_COUNT_CACHE_TIMEOUT = 30;
     static {
         try
         {
@@ -63,9 +65,12 @@ public class MapCatalog {
             e.printStackTrace();
         }
     }
-    private String URL = "jdbc:h2:~/test";
-    private String USER = "sa";
-    private String PASSWORD = "";
+    private static final String URL = "jdbc:h2:~/test";
+    private static final String USER = "sa";
+    private static final String PASSWORD = "";
+    private final ConnectionPool pool;
+    private final CountCache counts = new CountCache(DEFAULT_COUNT_CACHE_TIMEOUT);
+    private volatile int pageSize = DEFAULT_PAGE_SIZE;
     static final String URL_TEST = "jdbc:h2:./target/testdb";
     static final String USER_TEST = "sa";
     static final String PASSWORD_TEST = "";
@@ -77,22 +82,95 @@ public class MapCatalog {
      * @param PASSWORD The password to connect to database
      */
     public MapCatalog (String URL, String USER, String PASSWORD){
-        this.URL = URL;
-        this.USER = USER;
-        this.PASSWORD = PASSWORD;
+        this(new ConnectionPool(URL, USER, PASSWORD));
+    }
+
+    /**
+     * Constructor to connect to a database through the given pool
+     * @param pool The pool of connections to the database
+     */
+    public MapCatalog (ConnectionPool pool){
+        this.pool = pool;
     }
 
     public MapCatalog (){
+        this(URL, USER, PASSWORD);
     }
 
     /**
-     * Getter for the connection to database
+     * Getter for the connection to database. The connection is leased from the pool, it must be closed, in a
+     * finally block, to be given back.
      * @return The connection
      * @throws SQLException if the connection is invalid
      */
     public Connection getConnection() throws SQLException
     {
-        return DriverManager.getConnection(URL, USER, PASSWORD);
+        return pool.getConnection();
+    }
+
+    /**
+     * Getter for the pool of connections, and its metrics
+     * @return The pool
+     */
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Gets the number of rows in a page of the listings
+     * @return The page size
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Sets the number of rows in a page of the listings
+     * @param pageSize The page size, at least 1
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    /**
+     * Sets the number of seconds the number of rows of a listing is kept. The counts are forgotten at each
+     * write made through this map catalog, so the timeout only matters when other processes write in the
+     * database.
+     * @param timeout The number of seconds, 0 to count the rows each time
+     */
+    public void setCountCacheTimeout(int timeout) {
+        counts.setTimeout(timeout);
+    }
+
+    /**
+     * Gets the number of counts that have been read from the cache
+     * @return The number of cache hits
+     */
+    public long getCountHitCount() {
+        return counts.getHitCount();
+    }
+
+    /**
+     * Gets the number of counts that have been queried
+     * @return The number of cache misses
+     */
+    public long getCountMissCount() {
+        return counts.getMissCount();
+    }
+
+    /**
+     * Gets the cache of the counts, that the queries read and clear
+     * @return The cache
+     */
+    CountCache getCounts() {
+        return counts;
+    }
+
+    /**
+     * Closes the connections to the database
+     */
+    public void close() {
+        pool.close();
     }
 
     /**
@@ -101,23 +179,14 @@ public class MapCatalog {
      * @return The current instance of MapCatalog
      */
     public static MapCatalog init(MapCatalogProperties mcp) throws SQLException{
-        String URL = mcp.getProperty(MapCatalogProperties.DATABASE_URL).toString();
-        String user = mcp.getProperty(MapCatalogProperties.DATABASE_USER).toString();
-        String password = mcp.getProperty(MapCatalogProperties.DATABASE_PASSWORD).toString();
         //Connection creation
-        MapCatalog mc = new MapCatalog(URL, user, password);
+        MapCatalog mc = new MapCatalog(ConnectionPool.create(mcp));
+        mc.setPageSize(mcp.getIntProperty(MapCatalogProperties.PAGE_SIZE, DEFAULT_PAGE_SIZE));
+        mc.setCountCacheTimeout(mcp.getIntProperty(MapCatalogProperties.COUNT_CACHE_TIMEOUT,
+                DEFAULT_COUNT_CACHE_TIMEOUT));
         //Database initialization
         mc.executeSQL("ups.sql");
-        //Verification of version
-        System.out.println("[Database INFO] : latest release version is "+VERSION);
-        int dbVersion = mc.getVersion();
-        System.out.println("[Database INFO] : current version is "+dbVersion);
-        while(dbVersion<VERSION){
-            System.out.println("[Database INFO] : Upgrading from "+dbVersion+" to "+(dbVersion+1));
-            mc.updateVersion(dbVersion);
-            dbVersion = mc.getVersion();
-            System.out.println("[Database INFO] : current version is "+dbVersion);
-        }
+        mc.upgrade();
         //Admin creation, default password is thecakeisalie
         String[] attributes = {"email"};
         String[] values = {"admin@admin.com"};
@@ -128,6 +197,21 @@ public class MapCatalog {
         return mc;
     }
 
+    /**
+     * Runs the update scripts from the version of the database up to the latest one
+     */
+    void upgrade() throws SQLException{
+        System.out.println("[Database INFO] : latest release version is "+VERSION);
+        int dbVersion = getVersion();
+        System.out.println("[Database INFO] : current version is "+dbVersion);
+        while(dbVersion<VERSION){
+            System.out.println("[Database INFO] : Upgrading from "+dbVersion+" to "+(dbVersion+1));
+            updateVersion(dbVersion);
+            dbVersion = getVersion();
+            System.out.println("[Database INFO] : current version is "+dbVersion);
+        }
+    }
+
     /**
      * Executes a .sql file
      * @param file The name of the sql file (stocked in resources) to be executed
@@ -143,9 +227,14 @@ public class MapCatalog {
             }
             br.close();
             Connection c = this.getConnection();
-            Statement st = c.createStatement();
-            st.execute(sb.toString());
-            c.close();
+            try {
+                Statement st = c.createStatement();
+                st.execute(sb.toString());
+                st.close();
+            } finally {
+                c.close();
+                counts.clear();
+            }
         } catch(IOException e){
             e.printStackTrace(); //unreachable code
         }
@@ -306,13 +395,18 @@ public class MapCatalog {
     private int getVersion() throws SQLException{
         String query = "SELECT * FROM version";
         int version=0;
-        PreparedStatement stmt = this.getConnection().prepareStatement(query);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            version = rs.getInt("version");
+        Connection connection = this.getConnection();
+        try {
+            PreparedStatement stmt = connection.prepareStatement(query);
+            ResultSet rs = stmt.executeQuery();
+            while(rs.next()){
+                version = rs.getInt("version");
+            }
+            rs.close();
+            stmt.close();
+        } finally {
+            connection.close();
         }
-        rs.close();
-        stmt.close();
         return version;
     }
 
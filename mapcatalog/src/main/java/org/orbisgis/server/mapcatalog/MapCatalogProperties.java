@@ -39,6 +39,13 @@ public class MapCatalogProperties {
     public static final String DATABASE_URL = "db.default.url";
     public static final String DATABASE_USER = "db.default.user";
     public static final String DATABASE_PASSWORD = "db.default.password";
+    public static final String POOL_SIZE = "mapcatalog.pool.size";
+    public static final String POOL_IDLE_TIMEOUT = "mapcatalog.pool.idle";
+    public static final String POOL_WAIT_TIMEOUT = "mapcatalog.pool.timeout";
+    public static final String POOL_LEAK_THRESHOLD = "mapcatalog.pool.leak";
+    public static final String POOL_STATEMENTS = "mapcatalog.pool.statements";
+    public static final String PAGE_SIZE = "mapcatalog.page.size";
+    public static final String COUNT_CACHE_TIMEOUT = "mapcatalog.count.cache";
 
     private HashMap<String,Object> values = new HashMap<String, Object>();
 
@@ -51,6 +58,13 @@ public class MapCatalogProperties {
         ret.add(DATABASE_URL);
         ret.add(DATABASE_USER);
         ret.add(DATABASE_PASSWORD);
+        ret.add(POOL_SIZE);
+        ret.add(POOL_IDLE_TIMEOUT);
+        ret.add(POOL_WAIT_TIMEOUT);
+        ret.add(POOL_LEAK_THRESHOLD);
+        ret.add(POOL_STATEMENTS);
+        ret.add(PAGE_SIZE);
+        ret.add(COUNT_CACHE_TIMEOUT);
         return ret;
     }
 
@@ -80,4 +94,25 @@ public class MapCatalogProperties {
     public Object getProperty(String name){
         return values.get(name);
     }
+
+    /**
+     * Gets the property with the given name as an int. Values may have been stored as numbers or, when they
+     * come from the Play configuration, as Strings.
+     * @param name The name of the property.
+     * @param defaultValue The value returned if the property is missing or can't be read as an int.
+     * @return The int value of the property.
+     */
+    public int getIntProperty(String name, int defaultValue){
+        Object val = values.get(name);
+        if(val instanceof Number){
+            return ((Number) val).intValue();
+        } else if(val instanceof String){
+            try{
+                return Integer.valueOf(((String) val).trim());
+            } catch(NumberFormatException nfe){
+                return defaultValue;
+            }
+        }
+        return defaultValue;
+    }
 }
@@ -28,11 +28,10 @@ package org.orbisgis.server.mapcatalog; /**
 
 import java.io.InputStream;
 import java.sql.Date;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Java model of the table OWSContext
@@ -102,21 +101,45 @@ public class OWSContext {
     }
 
     /**
-     * Gets an input stream for the xml content of a context in the database
+     * Builds a context from a row of the owscontext table, without its XML content
+     */
+    static final RowMapper<OWSContext> MAPPER = new RowMapper<OWSContext>() {
+        @Override
+        public OWSContext map(ResultSet rs) throws SQLException {
+            String id_owscontext = rs.getString("id_owscontext");
+            String id_root = rs.getString("id_root");
+            String id_parent = rs.getString("id_parent");
+            String id_uploader = rs.getString("id_uploader");
+            String title = rs.getString("title");
+            Date date = rs.getDate("date");
+            String description = rs.getString("description");
+            return new OWSContext(id_owscontext,id_root,id_parent,id_uploader,title,date,description);
+        }
+    };
+
+    /**
+     * The columns that can be used in the where clause of {@link #page(MapCatalog, String[], String[])}
+     */
+    static final Set<String> COLUMNS = Query.columns("id_owscontext", "id_root", "id_parent", "id_uploader",
+            "title", "date", "description");
+
+    private static final String CONTENT = "SELECT content FROM owscontext WHERE id_owscontext = ?";
+    private static final String INSERT = "INSERT INTO owscontext (id_root,id_parent,id_uploader,content, title, description) VALUES (? , ? , ? , ? , ? , ?);";
+    private static final String DELETE = "DELETE FROM owscontext WHERE id_owscontext = ? ;";
+    private static final String SELECT = "SELECT * FROM owscontext";
+    private static final String SEARCH = "SELECT o.* FROM owscontext o JOIN %s m ON m.id = o.id_owscontext WHERE o.id_root = ? ORDER BY m.score DESC, o.id_owscontext";
+    private static final String UPDATE_CONTENT = "UPDATE owscontext SET id_root = ? , id_parent = ? , id_uploader = ? , content = ? , title = ? WHERE id_owscontext = ?;";
+    private static final String UPDATE = "UPDATE owscontext SET id_root = ? , id_parent = ? , id_uploader = ? , title = ? , description = ? WHERE id_owscontext = ?;";
+
+    /**
+     * Gets an input stream for the xml content of a context in the database. The content is read before the
+     * connection is given back to the pool.
      * @param MC The instance of MapCatalog to get connection to database from
      * @return An InputStream containing the XML content of a context
      * @throws SQLException
      */
     public InputStream getContent(MapCatalog MC) throws SQLException{
-        String query = "SELECT content FROM owscontext WHERE id_owscontext = ?";
-        InputStream content = null;
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, id_owscontext);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            content = rs.getAsciiStream("content");
-        }
-        return content;
+        return Query.content(MC, CONTENT, id_owscontext);
     }
 
     public String getTitle() {
@@ -134,23 +157,7 @@ public class OWSContext {
      * @return The ID of the OWSContext just created (primary key)
      */
     public  Long save(MapCatalog MC, InputStream content) throws SQLException{
-        Long last = null;
-        String query = "INSERT INTO owscontext (id_root,id_parent,id_uploader,content, title, description) VALUES (? , ? , ? , ? , ? , ?);";
-        PreparedStatement pstmt = MC.getConnection().prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
-        pstmt.setString(1, id_root);
-        pstmt.setString(2, id_parent);
-        pstmt.setString(3, id_uploader);
-        pstmt.setAsciiStream(4, content);
-        pstmt.setString(5, title);
-        pstmt.setString(6, description);
-        pstmt.executeUpdate();
-        ResultSet rs = pstmt.getGeneratedKeys();
-        if(rs.next()){
-            last = rs.getLong(1);
-        }
-        rs.close();
-        pstmt.close();
-        return last;
+        return Query.insert(MC, INSERT, id_root, id_parent, id_uploader, content, title, description);
     }
 
     /**
@@ -159,64 +166,20 @@ public class OWSContext {
      * @param id_owscontext The primary key of the owscontext
      */
     public static void delete(MapCatalog MC, Long id_owscontext) throws SQLException{
-        String query = "DELETE FROM owscontext WHERE id_owscontext = ? ;";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setLong(1, id_owscontext);
-        stmt.executeUpdate();
-        stmt.close();
+        Query.update(MC, DELETE, id_owscontext);
     }
 
     /**
-     * Method that queries the database for owscontext, with a where clause, be careful, as only the values in the where clause will be checked for SQL injections
+     * Method that queries the database for owscontext, with a where clause. Only the known columns of the
+     * owscontext table can be used as attributes, the values are checked for SQL injections.
      * @param MC the mapcatalog object for the connection
      * @param attributes The attributes in the where clause, you should NEVER let the user bias this parameter, always hard code it.
      * @param values The values of the attributes, this is totally SQL injection safe
      * @return A list of owscontext containing the result of the query
      */
     public static List<OWSContext> page(MapCatalog MC, String[] attributes, String[] values) throws SQLException{
-        String query = "SELECT * FROM owscontext WHERE ";
-        List<OWSContext> paged = new LinkedList<OWSContext>();
-        //case argument invalid
-        if(attributes == null || values == null){
-            throw new IllegalArgumentException("Arguments cannot be null");
-        }
-        if(attributes.length != values.length){
-            throw new IllegalArgumentException("String arrays have to be of the same length");
-        }
-        //preparation of the query
-        query+=attributes[0]+" = ?";
-        for(int i=1; i<attributes.length; i++){
-            if(values[i]==null){
-                query += "AND "+attributes[i]+" IS NULL";
-            }else{
-                query += " AND "+attributes[i]+" = ?";
-            }
-        }
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        int j=1;
-        for (String value : values) {
-            if (value != null) {
-                stmt.setString(j, value);
-                j++;
-            }
-        }
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_owscontext = rs.getString("id_owscontext");
-            String id_root = rs.getString("id_root");
-            String id_parent = rs.getString("id_parent");
-            String id_uploader = rs.getString("id_uploader");
-            String title = rs.getString("title");
-            Date date = rs.getDate("date");
-            String description = rs.getString("description");
-            OWSContext ows = new OWSContext(id_owscontext,id_root,id_parent,id_uploader,title,date, description);
-            paged.add(ows);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        String query = SELECT + " WHERE " + Query.where(COLUMNS, attributes, values);
+        return Query.list(MC, query, MAPPER, Query.parameters(values));
     }
 
     /**
@@ -225,53 +188,18 @@ public class OWSContext {
      * @return A list of owscontext containing the result of the query
      */
     public static List<OWSContext> page(MapCatalog MC) throws SQLException{
-        String query = "SELECT * FROM owscontext";
-        List<OWSContext> paged = new LinkedList<OWSContext>();
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_owscontext = rs.getString("id_owscontext");
-            String id_root = rs.getString("id_root");
-            String id_parent = rs.getString("id_parent");
-            String id_uploader = rs.getString("id_uploader");
-            String title = rs.getString("title");
-            Date date = rs.getDate("date");
-            String description = rs.getString("description");
-            OWSContext ows = new OWSContext(id_owscontext,id_root,id_parent,id_uploader,title,date,description);
-            paged.add(ows);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        return Query.list(MC, SELECT, MAPPER);
     }
 
     /**
-     *Queries database to search for a owscontext containing a certain expression in his name
-     * @param expression the String to run the search on, case insensitive
+     *Queries database to search for a owscontext containing a certain expression in his title, his description or the abstract of his content
+     * @param expression the words to look for, case and accent insensitive, the best matches come first
      * @return The list of workspaces corresponding to the search
      */
     public static List<OWSContext> search(MapCatalog MC, String id_root, String expression) throws SQLException{
-        String query = "SELECT * FROM OWSCONTEXT WHERE (LOWER(title) LIKE ?) AND (id_root = ?)";
-        List<OWSContext> searched = new LinkedList<OWSContext>();
-        expression = "%" + expression.toLowerCase() + "%";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, expression);
-        stmt.setString(2, id_root);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_owscontext = rs.getString("id_owscontext");
-            id_root = rs.getString("id_root");
-            String id_parent = rs.getString("id_parent");
-            String id_uploader = rs.getString("id_uploader");
-            String title = rs.getString("title");
-            Date date = rs.getDate("date");
-            String description = rs.getString("description");
-            OWSContext ows = new OWSContext(id_owscontext,id_root,id_parent,id_uploader,title,date,description);
-            searched.add(ows);
-        }
-        rs.close();
-        stmt.close();
-        return searched;
+        List<String> terms = SearchIndex.terms(expression);
+        return Query.list(MC, SearchIndex.query(SEARCH, "OWSCONTEXT", "id_owscontext", terms), MAPPER,
+                SearchIndex.parameters(terms, id_root));
     }
 
     /**
@@ -279,17 +207,7 @@ public class OWSContext {
      * @param MC the mapcatalog used for database connection
      */
     public void update(MapCatalog MC, InputStream content) throws SQLException{
-        String query = "UPDATE owscontext SET id_root = ? , id_parent = ? , id_uploader = ? , content = ? , title = ? WHERE id_owscontext = ?;";
-        //preparation of the statement
-        PreparedStatement pstmt = MC.getConnection().prepareStatement(query);
-        pstmt.setString(1, id_root);
-        pstmt.setString(2, id_parent);
-        pstmt.setString(3, id_uploader);
-        pstmt.setAsciiStream(4, content);
-        pstmt.setString(5, title);
-        pstmt.setString(6, id_owscontext);
-        pstmt.executeUpdate();
-        pstmt.close();
+        Query.update(MC, UPDATE_CONTENT, id_root, id_parent, id_uploader, content, title, id_owscontext);
     }
 
     /**
@@ -297,16 +215,6 @@ public class OWSContext {
      * @param MC the mapcatalog used for database connection
      */
     public void update(MapCatalog MC) throws SQLException{
-        String query = "UPDATE owscontext SET id_root = ? , id_parent = ? , id_uploader = ? , title = ? , description = ? WHERE id_owscontext = ?;";
-        //preparation of the statement
-        PreparedStatement pstmt = MC.getConnection().prepareStatement(query);
-        pstmt.setString(1, id_root);
-        pstmt.setString(2, id_parent);
-        pstmt.setString(3, id_uploader);
-        pstmt.setString(4, title);
-        pstmt.setString(5, description);
-        pstmt.setString(6, id_owscontext);
-        pstmt.executeUpdate();
-        pstmt.close();
+        Query.update(MC, UPDATE, id_root, id_parent, id_uploader, title, description, id_owscontext);
     }
 }
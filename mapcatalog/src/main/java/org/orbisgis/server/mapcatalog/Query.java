@@ -0,0 +1,363 @@
+package org.orbisgis.server.mapcatalog;
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The queries shared by the model classes. Each method leases a connection, runs one statement with the given
+ * parameters and gives the connection back. The SQL must be a constant of the calling class, so that the
+ * statement prepared for it is found again in the cache of the connection. The parameters are bound according
+ * to their class : Integer, Long, InputStream (as an ASCII stream) or String, null being bound as a null String.
+ * The counts are kept in the cache of the map catalog, that every update or insert clears.
+ */
+final class Query {
+
+    private Query() {
+    }
+
+    /**
+     * Builds the set of the columns that can be used in the where clause of a query
+     * @param names The names of the columns
+     * @return The set of lower case names
+     */
+    static Set<String> columns(String... names) {
+        Set<String> ret = new HashSet<String>();
+        for (String name : names) {
+            ret.add(name.toLowerCase());
+        }
+        return Collections.unmodifiableSet(ret);
+    }
+
+    /**
+     * Builds a where clause that tests the given attributes, with a parameter for each non null value.
+     * @param columns The columns that can be tested
+     * @param attributes The attributes in the where clause
+     * @param values The values of the attributes, a null value is tested with IS NULL
+     * @return The where clause, without the WHERE keyword
+     * @throws IllegalArgumentException if the arrays are invalid or if an attribute is not a known column
+     */
+    static String where(Set<String> columns, String[] attributes, String[] values) {
+        //case argument invalid
+        if(attributes == null || values == null){
+            throw new IllegalArgumentException("Arguments cannot be null");
+        }
+        if(attributes.length != values.length){
+            throw new IllegalArgumentException("String arrays have to be of the same length");
+        }
+        if(attributes.length == 0){
+            throw new IllegalArgumentException("At least one attribute is needed");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < attributes.length; i++) {
+            if (!columns.contains(attributes[i].toLowerCase())) {
+                throw new IllegalArgumentException("The column " + attributes[i] + " can't be used in a where clause");
+            }
+            if (i > 0) {
+                sb.append(" AND ");
+            }
+            sb.append(attributes[i]).append(values[i] == null ? " IS NULL" : " = ?");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Gets the parameters of a where clause built by {@link #where}, followed by other parameters
+     * @param values The values of the attributes
+     * @param others The parameters that follow the where clause
+     * @return The parameters of the query
+     */
+    static Object[] parameters(String[] values, Object... others) {
+        List<Object> ret = new ArrayList<Object>();
+        for (String value : values) {
+            if (value != null) {
+                ret.add(value);
+            }
+        }
+        ret.addAll(Arrays.asList(others));
+        return ret.toArray();
+    }
+
+    /**
+     * Runs a query and maps each row of the result
+     * @param MC the mapcatalog object for the connection
+     * @param sql The query
+     * @param mapper The mapper of the rows
+     * @param parameters The parameters of the query
+     * @return The list of the mapped rows
+     */
+    static <T> List<T> list(MapCatalog MC, String sql, RowMapper<T> mapper, Object... parameters) throws SQLException {
+        List<T> ret = new ArrayList<T>();
+        Connection connection = MC.getConnection();
+        try {
+            PreparedStatement stmt = prepare(connection, sql, parameters);
+            ResultSet rs = stmt.executeQuery();
+            while(rs.next()){
+                ret.add(mapper.map(rs));
+            }
+            rs.close();
+            stmt.close();
+        } finally {
+            connection.close();
+        }
+        return ret;
+    }
+
+    /**
+     * Runs a query and puts each row of the result in a map
+     * @param MC the mapcatalog object for the connection
+     * @param sql The query
+     * @param keys The mapper of the keys
+     * @param values The mapper of the values
+     * @param target The map to fill
+     * @param parameters The parameters of the query
+     * @return The target map
+     */
+    static <K, V, M extends Map<K, V>> M map(MapCatalog MC, String sql, RowMapper<K> keys, RowMapper<V> values,
+                                            M target, Object... parameters) throws SQLException {
+        Connection connection = MC.getConnection();
+        try {
+            PreparedStatement stmt = prepare(connection, sql, parameters);
+            ResultSet rs = stmt.executeQuery();
+            while(rs.next()){
+                target.put(keys.map(rs), values.map(rs));
+            }
+            rs.close();
+            stmt.close();
+        } finally {
+            connection.close();
+        }
+        return target;
+    }
+
+    /**
+     * Runs a query whose result is a number, like a COUNT(*)
+     * @param MC the mapcatalog object for the connection
+     * @param sql The query
+     * @param parameters The parameters of the query
+     * @return The first column of the first row, 0 if there is none
+     */
+    static int count(MapCatalog MC, String sql, Object... parameters) throws SQLException {
+        CountCache counts = MC.getCounts();
+        String key = null;
+        long generation = counts.getGeneration();
+        if (counts.isEnabled()) {
+            key = CountCache.key(sql, parameters);
+            Integer cached = counts.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        int count = 0;
+        Connection connection = MC.getConnection();
+        try {
+            PreparedStatement stmt = prepare(connection, sql, parameters);
+            ResultSet rs = stmt.executeQuery();
+            if(rs.next()){
+                count = rs.getInt(1);
+            }
+            rs.close();
+            stmt.close();
+        } finally {
+            connection.close();
+        }
+        if (key != null) {
+            counts.put(key, generation, count);
+        }
+        return count;
+    }
+
+    /**
+     * Runs a query whose result is a String
+     * @param MC the mapcatalog object for the connection
+     * @param sql The query
+     * @param parameters The parameters of the query
+     * @return The first column of the first row, null if there is none
+     */
+    static String string(MapCatalog MC, String sql, Object... parameters) throws SQLException {
+        String ret = null;
+        Connection connection = MC.getConnection();
+        try {
+            PreparedStatement stmt = prepare(connection, sql, parameters);
+            ResultSet rs = stmt.executeQuery();
+            if(rs.next()){
+                ret = rs.getString(1);
+            }
+            rs.close();
+            stmt.close();
+        } finally {
+            connection.close();
+        }
+        return ret;
+    }
+
+    /**
+     * Runs a query whose result is a CLOB, read before the connection is given back
+     * @param MC the mapcatalog object for the connection
+     * @param sql The query
+     * @param parameters The parameters of the query
+     * @return The content of the last row, null if there is none
+     */
+    static InputStream content(MapCatalog MC, String sql, Object... parameters) throws SQLException {
+        InputStream content = null;
+        Connection connection = MC.getConnection();
+        try {
+            PreparedStatement stmt = prepare(connection, sql, parameters);
+            ResultSet rs = stmt.executeQuery();
+            while(rs.next()){
+                content = copy(rs.getAsciiStream(1));
+            }
+            rs.close();
+            stmt.close();
+        } finally {
+            connection.close();
+        }
+        return content;
+    }
+
+    /**
+     * Runs an UPDATE or DELETE statement
+     * @param MC the mapcatalog object for the connection
+     * @param sql The statement
+     * @param parameters The parameters of the statement
+     * @return The number of rows changed
+     */
+    static int update(MapCatalog MC, String sql, Object... parameters) throws SQLException {
+        Connection connection = MC.getConnection();
+        try {
+            PreparedStatement stmt = prepare(connection, sql, parameters);
+            int ret = stmt.executeUpdate();
+            stmt.close();
+            return ret;
+        } finally {
+            connection.close();
+            MC.getCounts().clear();
+        }
+    }
+
+    /**
+     * Runs an INSERT statement
+     * @param MC the mapcatalog object for the connection
+     * @param sql The statement
+     * @param parameters The parameters of the statement
+     * @return The generated primary key, or null if there is none
+     */
+    static Long insert(MapCatalog MC, String sql, Object... parameters) throws SQLException {
+        Long last = null;
+        Connection connection = MC.getConnection();
+        try {
+            PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            bind(pstmt, parameters);
+            pstmt.executeUpdate();
+            ResultSet rs = pstmt.getGeneratedKeys();
+            if(rs.next()){
+                last = rs.getLong(1);
+            }
+            rs.close();
+            pstmt.close();
+        } finally {
+            connection.close();
+            MC.getCounts().clear();
+        }
+        return last;
+    }
+
+    /**
+     * Gets the key a page of an ascending listing begins after
+     * @param after The id of the last row of the previous page, null for the first page
+     * @return The key to give to the query
+     */
+    static String after(String after) {
+        return after == null ? "0" : after;
+    }
+
+    /**
+     * Gets the key a page of a descending listing begins before
+     * @param before The id of the last row of the previous page, null for the first page
+     * @return The key to give to the query
+     */
+    static String before(String before) {
+        return before == null ? Long.toString(Long.MAX_VALUE) : before;
+    }
+
+    private static PreparedStatement prepare(Connection connection, String sql, Object[] parameters)
+            throws SQLException {
+        PreparedStatement stmt = connection.prepareStatement(sql);
+        bind(stmt, parameters);
+        return stmt;
+    }
+
+    private static void bind(PreparedStatement stmt, Object[] parameters) throws SQLException {
+        for (int i = 0; i < parameters.length; i++) {
+            Object p = parameters[i];
+            if (p instanceof Integer) {
+                stmt.setInt(i + 1, (Integer) p);
+            } else if (p instanceof Long) {
+                stmt.setLong(i + 1, (Long) p);
+            } else if (p instanceof InputStream) {
+                stmt.setAsciiStream(i + 1, (InputStream) p);
+            } else {
+                stmt.setString(i + 1, (String) p);
+            }
+        }
+    }
+
+    private static InputStream copy(InputStream in) throws SQLException {
+        if(in == null){
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try {
+            int n = in.read(buffer);
+            while(n >= 0){
+                out.write(buffer, 0, n);
+                n = in.read(buffer);
+            }
+            in.close();
+        } catch (IOException e) {
+            throw new SQLException("The content can't be read", e);
+        }
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+}
@@ -0,0 +1,175 @@
+package org.orbisgis.server.mapcatalog;
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The full-text index of the map catalog. The table search_index links each word of the indexed columns to the
+ * rows it appears in, with a weight that counts its occurrences, the words of the titles and names weighting
+ * more than the ones of the descriptions. The table is kept up to date by {@link SearchTrigger}, the model
+ * classes use the subqueries built here to rank the rows that contain every word of a search. The words of a
+ * search are matched as prefixes, so that the results follow the typing.
+ */
+final class SearchIndex {
+
+    /**
+     * The weight of a word in a title or a name
+     */
+    static final int TITLE = 3;
+    /**
+     * The weight of a word in a description, an abstract or an email
+     */
+    static final int TEXT = 1;
+    /**
+     * The longest indexed word, longer words are cut
+     */
+    static final int WORD_LENGTH = 64;
+    /**
+     * The most words of a search that are taken into account
+     */
+    static final int TERMS = 8;
+
+    private SearchIndex() {
+    }
+
+    /**
+     * Splits a text in lower case words, without accents
+     * @param text The text, may be null
+     * @return The words of the text, in their order
+     */
+    static List<String> words(String text) {
+        List<String> ret = new ArrayList<String>();
+        if (text == null) {
+            return ret;
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD).toLowerCase(Locale.ENGLISH);
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (word.length() < WORD_LENGTH) {
+                    word.append(c);
+                }
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK && word.length() > 0) {
+                ret.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            ret.add(word.toString());
+        }
+        return ret;
+    }
+
+    /**
+     * Adds the words of a text to the weights of a row
+     * @param weights The weight of each word of the row
+     * @param text The text, may be null
+     * @param weight The weight of each occurrence of a word of the text
+     */
+    static void weigh(Map<String, Integer> weights, String text, int weight) {
+        for (String word : words(text)) {
+            Integer old = weights.get(word);
+            weights.put(word, old == null ? weight : old + weight);
+        }
+    }
+
+    /**
+     * Gets the distinct words of a search
+     * @param expression The search, as typed by the user
+     * @return The words to look for, at most {@link #TERMS}
+     */
+    static List<String> terms(String expression) {
+        Set<String> ret = new LinkedHashSet<String>(words(expression));
+        List<String> terms = new ArrayList<String>(ret);
+        return terms.size() > TERMS ? terms.subList(terms.size() - TERMS, terms.size()) : terms;
+    }
+
+    /**
+     * Builds a subquery that gives the id and the score of the rows of a table that contain all the terms of a
+     * search. Each term matches the words it begins, a whole word counting twice. Without term, every row of the
+     * table is given with a zero score.
+     * @param type The indexed table, its name is also the type of its rows in the index
+     * @param key The primary key of the table
+     * @param terms The number of terms
+     * @return The subquery, with two parameters for each term, given by {@link #parameters}
+     */
+    static String rank(String type, String key, int terms) {
+        if (terms == 0) {
+            return "(SELECT " + key + " AS id, 0 AS score FROM " + type + ")";
+        }
+        StringBuilder score = new StringBuilder("t0.score");
+        StringBuilder from = new StringBuilder(term(type, 0));
+        for (int i = 1; i < terms; i++) {
+            score.append(" + t").append(i).append(".score");
+            from.append(" JOIN ").append(term(type, i)).append(" ON t").append(i).append(".id = t0.id");
+        }
+        return "(SELECT t0.id AS id, " + score + " AS score FROM " + from + ")";
+    }
+
+    /**
+     * Puts the subquery built by {@link #rank} in a query
+     * @param sql The query, with a %s in place of the subquery, aliased in the query
+     * @param type The indexed table
+     * @param key The primary key of the table
+     * @param terms The terms of the search
+     * @return The query
+     */
+    static String query(String sql, String type, String key, List<String> terms) {
+        return String.format(sql, rank(type, key, terms.size()));
+    }
+
+    private static String term(String type, int i) {
+        return "(SELECT id, SUM(CASE WHEN word = ? THEN 2 * weight ELSE weight END) AS score FROM search_index" +
+                " WHERE type = '" + type + "' AND word LIKE ? GROUP BY id) t" + i;
+    }
+
+    /**
+     * Gets the parameters of a subquery built by {@link #rank}, followed by other parameters
+     * @param terms The terms of the search
+     * @param others The parameters that follow the subquery
+     * @return The parameters of the query
+     */
+    static Object[] parameters(List<String> terms, Object... others) {
+        List<Object> ret = new ArrayList<Object>();
+        for (String term : terms) {
+            ret.add(term);
+            ret.add(term + "%");
+        }
+        ret.addAll(Arrays.asList(others));
+        return ret.toArray();
+    }
+}
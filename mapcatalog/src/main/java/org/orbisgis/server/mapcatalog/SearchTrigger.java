@@ -0,0 +1,189 @@
+package org.orbisgis.server.mapcatalog;
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+
+import org.h2.api.Trigger;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The H2 trigger that keeps the full-text index up to date. It is fired after each insert, update or delete
+ * of a row of the workspace, folder, owscontext and user tables, including the deletes cascaded by the foreign
+ * keys, and replaces the words of the row in the table search_index. The words of a context are taken from its
+ * title, its description and the abstract of its XML content.
+ */
+public class SearchTrigger implements Trigger {
+    private static final String DELETE = "DELETE FROM search_index WHERE type = ? AND id = ?";
+    private static final String INSERT = "INSERT INTO search_index (type, id, word, weight) VALUES (?, ?, ?, ?)";
+
+    private String type;
+    private int key = -1;
+    private int title = -1;
+    private int text = -1;
+    private int content = -1;
+
+    @Override
+    public void init(Connection conn, String schemaName, String triggerName, String tableName, boolean before,
+                     int type) throws SQLException {
+        this.type = tableName.toUpperCase();
+        Map<String, Integer> columns = new HashMap<String, Integer>();
+        DatabaseMetaData meta = conn.getMetaData();
+        ResultSet rs = meta.getColumns(null, schemaName, tableName, null);
+        while (rs.next()) {
+            columns.put(rs.getString("COLUMN_NAME").toLowerCase(), rs.getInt("ORDINAL_POSITION") - 1);
+        }
+        rs.close();
+        if (this.type.equals("WORKSPACE")) {
+            key = columns.get("id_workspace");
+            title = columns.get("name");
+            text = columns.get("description");
+        } else if (this.type.equals("FOLDER")) {
+            key = columns.get("id_folder");
+            title = columns.get("name");
+        } else if (this.type.equals("OWSCONTEXT")) {
+            key = columns.get("id_owscontext");
+            title = columns.get("title");
+            text = columns.get("description");
+            content = columns.get("content");
+        } else if (this.type.equals("USER")) {
+            key = columns.get("id_user");
+            title = columns.get("name");
+            text = columns.get("email");
+        } else {
+            throw new SQLException("The table " + tableName + " is not indexed");
+        }
+    }
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+        if (oldRow != null) {
+            PreparedStatement stmt = conn.prepareStatement(DELETE);
+            stmt.setString(1, type);
+            stmt.setObject(2, oldRow[key]);
+            stmt.executeUpdate();
+            stmt.close();
+        }
+        if (newRow != null) {
+            Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+            SearchIndex.weigh(weights, string(newRow, title), SearchIndex.TITLE);
+            SearchIndex.weigh(weights, string(newRow, text), SearchIndex.TEXT);
+            if (content >= 0) {
+                SearchIndex.weigh(weights, getAbstract(newRow[content]), SearchIndex.TEXT);
+            }
+            if (weights.isEmpty()) {
+                return;
+            }
+            PreparedStatement stmt = conn.prepareStatement(INSERT);
+            for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+                stmt.setString(1, type);
+                stmt.setObject(2, newRow[key]);
+                stmt.setString(3, entry.getKey());
+                stmt.setInt(4, entry.getValue());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            stmt.close();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void remove() {
+    }
+
+    private static String string(Object[] row, int column) {
+        return column < 0 || row[column] == null ? null : row[column].toString();
+    }
+
+    /**
+     * Builds a parser for the uploaded contexts. They must not declare a DTD : its external entities would let
+     * an upload read local files into the index, or fetch URLs while the transaction is open.
+     * @return The parser
+     */
+    private static DocumentBuilder newParser() throws ParserConfigurationException {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+        factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+        factory.setXIncludeAware(false);
+        factory.setExpandEntityReferences(false);
+        return factory.newDocumentBuilder();
+    }
+
+    /**
+     * Gets the abstract of the XML content of a context. A content that can't be parsed has no abstract.
+     * @param content The content, as a Reader, a Clob or a String
+     * @return The abstract, null if there is none
+     */
+    private static String getAbstract(Object content) throws SQLException {
+        Reader reader;
+        if (content instanceof Reader) {
+            reader = (Reader) content;
+        } else if (content instanceof Clob) {
+            reader = ((Clob) content).getCharacterStream();
+        } else if (content != null) {
+            reader = new StringReader(content.toString());
+        } else {
+            return null;
+        }
+        try {
+            try {
+                Document doc = newParser().parse(new InputSource(reader));
+                return XMLTools.getAbstract(doc);
+            } finally {
+                reader.close();
+            }
+        } catch (ParserConfigurationException e) {
+            return null;
+        } catch (SAXException e) {
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
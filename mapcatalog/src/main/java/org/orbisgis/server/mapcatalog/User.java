@@ -27,11 +27,10 @@ package org.orbisgis.server.mapcatalog; /**
  */
 
 import java.security.NoSuchAlgorithmException;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Java model of the table User
@@ -158,6 +157,38 @@ public class User {
         this.admin_wps = admin_wps;
     }
 
+    /**
+     * Builds a user from a row of the user table, with the password
+     */
+    static final RowMapper<User> MAPPER = new Mapper(true);
+
+    /**
+     * Builds a user from a row of the user table, without the password
+     */
+    static final RowMapper<User> PUBLIC_MAPPER = new Mapper(false);
+
+    /**
+     * The columns that can be used in the where clause of {@link #page(MapCatalog, String[], String[])}
+     */
+    static final Set<String> COLUMNS = Query.columns("id_user", "name", "email", "password", "location",
+            "profession", "additional", "admin_wms", "admin_mapcatalog", "admin_wps", "verification", "reset_pass");
+
+    private static final String INSERT = "INSERT INTO user (name,email,password,location,profession,additional,verification) VALUES (? , ? , ? , ? , ? , ? , ?);";
+    private static final String DELETE = "DELETE FROM user WHERE id_user = ? ;";
+    private static final String SELECT = "SELECT * FROM user";
+    private static final String SELECT_OFFSET = "SELECT * FROM user ORDER BY id_user LIMIT ? OFFSET ?";
+    private static final String SELECT_AFTER = "SELECT * FROM user WHERE id_user > ? ORDER BY id_user LIMIT ?";
+    private static final String COUNT = "SELECT COUNT(*) FROM user";
+    private static final String UPDATE = "UPDATE user SET name = ? , email = ? , location = ?, profession = ? , additional = ? WHERE id_user = ?;";
+    private static final String UPDATE_PASS = "UPDATE user SET password = ? WHERE id_user = ?;";
+    private static final String UPDATE_ADMIN = "UPDATE user SET admin_wms = ?, admin_mapcatalog = ?, admin_wps = ? WHERE id_user = ?;";
+    private static final String SEARCH = "SELECT u.* FROM user u JOIN %s m ON m.id = u.id_user ORDER BY m.score DESC, u.id_user LIMIT ? OFFSET ?;";
+    private static final String SEARCH_COUNT = "SELECT COUNT(*) FROM user u JOIN %s m ON m.id = u.id_user;";
+    private static final String RESET_VERIFICATION = "UPDATE user SET verification = NULL WHERE id_user = ?;";
+    private static final String SET_RESET_PASS = "UPDATE user SET reset_pass = ? WHERE id_user = ?;";
+    private static final String GET_RESET_PASS = "SELECT reset_pass FROM user WHERE id_user = ?;";
+    private static final String RESET_RESET_PASS = "UPDATE user SET reset_pass = NULL WHERE id_user = ?;";
+
     /**
      * Method that saves a instantiated User into database. Handles SQL injections. This creates a new Verification attribute, unique in the database.
      * @param MC the mapcatalog object for the connection
@@ -165,24 +196,7 @@ public class User {
      */
     public  Long save(MapCatalog MC) throws SQLException, NoSuchAlgorithmException {
         this.setVerification(MC);
-        Long last = null;
-        String query = "INSERT INTO user (name,email,password,location,profession,additional,verification) VALUES (? , ? , ? , ? , ? , ? , ?);";
-        PreparedStatement pstmt = MC.getConnection().prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
-        pstmt.setString(1, name);
-        pstmt.setString(2, email);
-        pstmt.setString(3, password);
-        pstmt.setString(4, location);
-        pstmt.setString(5, profession);
-        pstmt.setString(6, additional);
-        pstmt.setString(7, verification);
-        pstmt.executeUpdate();
-        ResultSet rs = pstmt.getGeneratedKeys();
-        if(rs.next()){
-            last = rs.getLong(1);
-        }
-        rs.close();
-        pstmt.close();
-        return last;
+        return Query.insert(MC, INSERT, name, email, password, location, profession, additional, verification);
     }
 
     /**
@@ -191,68 +205,20 @@ public class User {
      * @param id_user The primary key of the user
      */
     public static void delete(MapCatalog MC, Long id_user) throws SQLException{
-        String query = "DELETE FROM user WHERE id_user = ? ;";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setLong(1, id_user);
-        stmt.executeUpdate();
-        stmt.close();
+        Query.update(MC, DELETE, id_user);
     }
 
     /**
-     * Method that queries the database for users, with a where clause, be careful, as only the values in the where clause will be checked for SQL injections
+     * Method that queries the database for users, with a where clause. Only the known columns of the
+     * user table can be used as attributes, the values are checked for SQL injections.
      * @param MC the mapcatalog object for the connection
      * @param attributes The attributes in the where clause, you should NEVER let the user bias this parameter, always hard code it.
      * @param values The values of the attributes, this is totally SQL injection safe
      * @return A list of User containing the result of the query
      */
     public static List<User> page(MapCatalog MC, String[] attributes, String[] values) throws SQLException{
-        String query = "SELECT * FROM user WHERE ";
-        List<User> paged = new LinkedList<User>();
-        //case argument invalid
-        if(attributes == null || values == null){
-            throw new IllegalArgumentException("Arguments cannot be null");
-        }
-        if(attributes.length != values.length){
-            throw new IllegalArgumentException("String arrays have to be of the same length");
-        }
-        //preparation of the query
-        query+=attributes[0]+" = ?";
-        for(int i=1; i<attributes.length; i++){
-            if(values[i]==null){
-                query += "AND "+attributes[i]+" IS NULL";
-            }else{
-                query += " AND "+attributes[i]+" = ?";
-            }
-        }
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        int j=1;
-        for (String value : values) {
-            if (value != null) {
-                stmt.setString(j, value);
-                j++;
-            }
-        }
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_user = rs.getString("id_user");
-            String name = rs.getString("name");
-            String email = rs.getString("email");
-            String password = rs.getString("password");
-            String location = rs.getString("location");
-            String profession = rs.getString("profession");
-            String additional =rs.getString("additional");
-            String admin_wms = rs.getString("admin_wms");
-            String admin_mapcatalog = rs.getString("admin_mapcatalog");
-            String admin_wps = rs.getString("admin_wps");
-            String verification = rs.getString("verification");
-            User use = new User(id_user,name,email,password,location,profession,additional, admin_wms, admin_mapcatalog, admin_wps, verification);
-            paged.add(use);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        String query = SELECT + " WHERE " + Query.where(COLUMNS, attributes, values);
+        return Query.list(MC, query, MAPPER, Query.parameters(values));
     }
 
     /**
@@ -261,60 +227,28 @@ public class User {
      * @return A list of user containing the result of the query
      */
     public static List<User> page(MapCatalog MC) throws SQLException{
-        String query = "SELECT * FROM user";
-        List<User> paged = new LinkedList<User>();
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_user = rs.getString("id_user");
-            String name = rs.getString("name");
-            String email = rs.getString("email");
-            String password = rs.getString("password");
-            String location = rs.getString("location");
-            String profession = rs.getString("profession");
-            String additional =rs.getString("additional");
-            String admin_wms = rs.getString("admin_wms");
-            String admin_mapcatalog = rs.getString("admin_mapcatalog");
-            String admin_wps = rs.getString("admin_wps");
-            String verification = rs.getString("verification");
-            User use = new User(id_user,name,email,password,location,profession,additional, admin_wms, admin_mapcatalog, admin_wps, verification);
-            paged.add(use);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        return Query.list(MC, SELECT, MAPPER);
     }
 
     /**
-     * Method that sends a query to database SELECT * FROM USER with a limit of 10 result, and an offset of @offset
+     * Method that sends a query to database SELECT * FROM USER with a limit of a page of results (MapCatalog#getPageSize), and an offset of @offset
      * @param MC the mapcatalog object for the connection
      * @param offset The offset of the query
      * @return A list of user containing the result of the query
      */
     public static List<User> pageOffset(MapCatalog MC, int offset) throws SQLException{
-        String query = "SELECT * FROM user LIMIT '10' OFFSET ?";
-        List<User> paged = new LinkedList<User>();
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setInt(1, offset);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_user = rs.getString("id_user");
-            String name = rs.getString("name");
-            String email = rs.getString("email");
-            String password = rs.getString("password");
-            String location = rs.getString("location");
-            String profession = rs.getString("profession");
-            String additional =rs.getString("additional");
-            String admin_wms = rs.getString("admin_wms");
-            String admin_mapcatalog = rs.getString("admin_mapcatalog");
-            String admin_wps = rs.getString("admin_wps");
-            String verification = rs.getString("verification");
-            User use = new User(id_user,name,email,password,location,profession,additional, admin_wms, admin_mapcatalog, admin_wps, verification);
-            paged.add(use);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        return Query.list(MC, SELECT_OFFSET, MAPPER, MC.getPageSize(), offset);
+    }
+
+    /**
+     * Method that queries the database for a page of users beginning after the given user. The page is found with
+     * the primary key, whatever its number.
+     * @param MC the mapcatalog object for the connection
+     * @param after The id of the last user of the previous page, null for the first page
+     * @return A list of user containing the result of the query
+     */
+    public static List<User> pageAfter(MapCatalog MC, String after) throws SQLException{
+        return Query.list(MC, SELECT_AFTER, MAPPER, Query.after(after), MC.getPageSize());
     }
 
     /**
@@ -323,16 +257,7 @@ public class User {
      * @return A list of user containing the result of the query
      */
     public static int pageCount(MapCatalog MC) throws SQLException{
-        String query = "SELECT COUNT(*) FROM user";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        ResultSet rs = stmt.executeQuery();
-        int count=0;
-        if(rs.next()){
-            count = rs.getInt("count(*)");
-        }
-        rs.close();
-        stmt.close();
-        return count;
+        return Query.count(MC, COUNT);
     }
 
 
@@ -341,17 +266,7 @@ public class User {
      * @param MC the mapcatalog used for database connection
      */
     public void update(MapCatalog MC) throws SQLException{
-        String query = "UPDATE user SET name = ? , email = ? , location = ?, profession = ? , additional = ? WHERE id_user = ?;";
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, name);
-        stmt.setString(2, email);
-        stmt.setString(3, location);
-        stmt.setString(4, profession);
-        stmt.setString(5, additional);
-        stmt.setString(6, id_user);
-        stmt.executeUpdate();
-        stmt.close();
+        Query.update(MC, UPDATE, name, email, location, profession, additional, id_user);
     }
 
     /**
@@ -360,13 +275,7 @@ public class User {
      * @throws SQLException
      */
     public void updatePass(MapCatalog MC) throws SQLException{
-        String query = "UPDATE user SET password = ? WHERE id_user = ?;";
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, password);
-        stmt.setString(2, id_user);
-        stmt.executeUpdate();
-        stmt.close();
+        Query.update(MC, UPDATE_PASS, password, id_user);
     }
 
     /**
@@ -375,104 +284,52 @@ public class User {
      * @throws SQLException
      */
     public void updateAdminRights(MapCatalog MC) throws SQLException{
-        String query = "UPDATE user SET admin_wms = ?, admin_mapcatalog = ?, admin_wps = ? WHERE id_user = ?;";
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, admin_wms);
-        stmt.setString(2, admin_mapcatalog);
-        stmt.setString(3, admin_wps);
-        stmt.setString(4, id_user);
-        stmt.executeUpdate();
-        stmt.close();
+        Query.update(MC, UPDATE_ADMIN, admin_wms, admin_mapcatalog, admin_wps, id_user);
     }
 
     /**
-     *Queries database to search for a user containing a certain expression in his name
-     * @param expression the String to run the search on, case insensitive
+     *Queries database to search for a user containing a certain expression in his name or his email
+     * @param expression the words to look for, case and accent insensitive, the best matches come first
      * @return The list of workspaces corresponding to the search
      */
     public static List<User> search(MapCatalog MC, String expression, int offset) throws SQLException{
-        String query = "SELECT * FROM user WHERE ((LOWER(name) LIKE ?) OR (LOWER(email) LIKE ?)) LIMIT '10' OFFSET ?;";
-        List<User> searched = new LinkedList<User>();
-        expression = "%" + expression.toLowerCase() + "%";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, expression);
-        stmt.setString(2, expression);
-        stmt.setInt(3, offset);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_user = rs.getString("id_user");
-            String name = rs.getString("name");
-            String email = rs.getString("email");
-            String password = rs.getString("password");
-            String location = rs.getString("location");
-            String profession = rs.getString("profession");
-            String additional =rs.getString("additional");
-            String admin_wms = rs.getString("admin_wms");
-            String admin_mapcatalog = rs.getString("admin_mapcatalog");
-            String admin_wps = rs.getString("admin_wps");
-            String verification = rs.getString("verification");
-            User use = new User(id_user,name,email,password,location,profession,additional, admin_wms, admin_mapcatalog, admin_wps,verification);
-            searched.add(use);
-        }
-        rs.close();
-        stmt.close();
-        return searched;
+        List<String> terms = SearchIndex.terms(expression);
+        return Query.list(MC, SearchIndex.query(SEARCH, "USER", "id_user", terms), MAPPER,
+                SearchIndex.parameters(terms, MC.getPageSize(), offset));
     }
 
     /**
      *Queries database to search for a user containing a certain expression in his name
-     * @param expression the String to run the search on, case insensitive
+     * @param expression the words to look for, case and accent insensitive
      * @return The list of workspaces corresponding to the search
      */
     public static int searchCount(MapCatalog MC, String expression) throws SQLException{
-        String query = "SELECT COUNT(*) FROM user WHERE ((LOWER(name) LIKE ?) OR (LOWER(email) LIKE ?));";
-        expression = "%" + expression.toLowerCase() + "%";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, expression);
-        stmt.setString(2, expression);
-        ResultSet rs = stmt.executeQuery();
-        int count=0;
-        if(rs.next()){
-            count= rs.getInt("count(*)");
-        }
-        rs.close();
-        stmt.close();
-        return count;
+        List<String> terms = SearchIndex.terms(expression);
+        return Query.count(MC, SearchIndex.query(SEARCH_COUNT, "USER", "id_user", terms),
+                SearchIndex.parameters(terms));
     }
 
     /**
-     * Sets the verification attribute of a User as a unique string.
+     * Sets the verification attribute of a User as a unique string. The uniqueness is checked with the index on
+     * the verification column, instead of loading every user.
      * @param MC the database connection
      */
     public void setVerification(MapCatalog MC) throws SQLException, NoSuchAlgorithmException {
-        List<User> list = User.page(MC);
-        String verification = MapCatalog.hasher(Double.toString(Math.random()));
-        boolean test;
+        String[] attributes = {"verification"};
+        String verification;
         do{
-            test=false;
-            for(User user : list){
-                if(verification.equals(user.verification)){
-                    verification = MapCatalog.hasher(Double.toString(Math.random()));
-                    test=true;
-                    break;
-                }
-            }
-        }while (test);
+            verification = MapCatalog.hasher(Double.toString(Math.random()));
+        }while (!User.page(MC, attributes, new String[]{verification}).isEmpty());
         this.verification=verification;
     }
 
+
     /**
      * Sets the verification attribute of the user to NULL
      * @param MC database connection
      */
     public void resetVerification(MapCatalog MC) throws SQLException {
-        String query = "UPDATE user SET verification = NULL WHERE id_user = ?;";
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, id_user);
-        stmt.executeUpdate();
-        stmt.close();
+        Query.update(MC, RESET_VERIFICATION, id_user);
     }
 
     /**
@@ -480,12 +337,7 @@ public class User {
      */
     public void setReset_pass(MapCatalog MC) throws NoSuchAlgorithmException, SQLException {
         String pass = MapCatalog.hasher(Double.toString(Math.random()));
-        String query = "UPDATE user SET reset_pass = ? WHERE id_user = ?;";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, pass);
-        stmt.setString(2, id_user);
-        stmt.executeUpdate();
-        stmt.close();
+        Query.update(MC, SET_RESET_PASS, pass, id_user);
     }
 
     /**
@@ -494,17 +346,7 @@ public class User {
      * @return The reset_pass of the user
      */
     public String getReset_pass(MapCatalog MC) throws SQLException {
-        String query = "SELECT reset_pass FROM user WHERE id_user = ?;";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1,id_user);
-        ResultSet rs = stmt.executeQuery();
-        String pass=null;
-        if(rs.next()){
-            pass = rs.getString("reset_pass");
-        }
-        rs.close();
-        stmt.close();
-        return pass;
+        return Query.string(MC, GET_RESET_PASS, id_user);
     }
 
     /**
@@ -512,11 +354,33 @@ public class User {
      * @param MC database connection
      */
     public void resetReset_pass(MapCatalog MC) throws SQLException {
-        String query = "UPDATE user SET reset_pass = NULL WHERE id_user = ?;";
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, id_user);
-        stmt.executeUpdate();
-        stmt.close();
+        Query.update(MC, RESET_RESET_PASS, id_user);
+    }
+
+    /**
+     * Reads the columns of the user table, the password being left out of the users shown to other users
+     */
+    private static final class Mapper implements RowMapper<User> {
+        private final boolean withPassword;
+
+        private Mapper(boolean withPassword) {
+            this.withPassword = withPassword;
+        }
+
+        @Override
+        public User map(ResultSet rs) throws SQLException {
+            String id_user = rs.getString("id_user");
+            String name = rs.getString("name");
+            String email = rs.getString("email");
+            String password = withPassword ? rs.getString("password") : null;
+            String location = rs.getString("location");
+            String profession = rs.getString("profession");
+            String additional =rs.getString("additional");
+            String admin_wms = rs.getString("admin_wms");
+            String admin_mapcatalog = rs.getString("admin_mapcatalog");
+            String admin_wps = rs.getString("admin_wps");
+            String verification = rs.getString("verification");
+            return new User(id_user,name,email,password,location,profession,additional, admin_wms, admin_mapcatalog, admin_wps, verification);
+        }
     }
 }
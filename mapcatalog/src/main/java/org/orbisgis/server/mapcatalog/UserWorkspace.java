@@ -26,13 +26,13 @@ package org.orbisgis.server.mapcatalog; /**
  * directly: info_at_ orbisgis.org
  */
 
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Java model of the table UserWorkspace
@@ -80,28 +80,67 @@ public class UserWorkspace {
         return manageUser;
     }
 
+    /**
+     * Builds a relation from a row of the user_workspace table
+     */
+    static final RowMapper<UserWorkspace> MAPPER = new RowMapper<UserWorkspace>() {
+        @Override
+        public UserWorkspace map(ResultSet rs) throws SQLException {
+            String id_user = rs.getString("id_user");
+            String id_workspace = rs.getString("id_workspace");
+            String read = rs.getString("read");
+            String write = rs.getString("write");
+            String manageUser = rs.getString("manage_user");
+            return new UserWorkspace(id_user,id_workspace,read,write,manageUser);
+        }
+    };
+
+    /**
+     * Builds the workspace of a row of a join with the workspace table, the user of the relation being given as
+     * the creator of the workspace
+     */
+    private static final RowMapper<Workspace> MANAGED_WORKSPACE = new RowMapper<Workspace>() {
+        @Override
+        public Workspace map(ResultSet rs) throws SQLException {
+            String id_user = rs.getString("id_user");
+            String id_workspace = rs.getString("id_workspace");
+            String name = rs.getString("name");
+            String all_read = rs.getString("all_read");
+            String all_write = rs.getString("all_write");
+            String all_manage = rs.getString("all_manage");
+            String description = rs.getString("description");
+            return new Workspace(id_workspace,id_user, name, all_read, all_write, all_manage, description);
+        }
+    };
+
+    /**
+     * The columns that can be used in the where clause of {@link #page(MapCatalog, String[], String[])}
+     */
+    static final Set<String> COLUMNS = Query.columns("id_user", "id_workspace", "read", "write", "manage_user");
+
+    private static final String INSERT = "INSERT INTO user_workspace (id_user,id_workspace,read,write,manage_user) VALUES (? , ? , ? , ? , ?);";
+    private static final String DELETE = "DELETE FROM user_workspace WHERE id_user = ? AND id_workspace = ?;";
+    private static final String SELECT = "SELECT * FROM user_workspace";
+    private static final String WITH_USER = "SELECT * FROM USER_WORKSPACE JOIN USER ON USER.ID_USER=USER_WORKSPACE.ID_USER WHERE USER_WORKSPACE.ID_WORKSPACE = ?";
+    private static final String WITH_USER_OFFSET = WITH_USER + " ORDER BY USER_WORKSPACE.ID_USER LIMIT ? OFFSET ?";
+    private static final String WITH_WORKSPACE = "SELECT * FROM USER_WORKSPACE JOIN WORKSPACE ON WORKSPACE.ID_WORKSPACE=USER_WORKSPACE.ID_WORKSPACE WHERE USER_WORKSPACE.ID_USER = ?";
+    private static final String WITH_WORKSPACE_OFFSET = WITH_WORKSPACE + " ORDER BY USER_WORKSPACE.ID_WORKSPACE LIMIT ? OFFSET ?";
+    private static final String WITH_WORKSPACE_AFTER = WITH_WORKSPACE + " AND USER_WORKSPACE.ID_WORKSPACE > ? ORDER BY USER_WORKSPACE.ID_WORKSPACE LIMIT ?";
+    private static final String WITH_WORKSPACE_MANAGE = WITH_WORKSPACE + " AND( ALL_MANAGE = 1 OR MANAGE_USER = 1)";
+    private static final String WITH_WORKSPACE_MANAGE_OFFSET = WITH_WORKSPACE_MANAGE + " ORDER BY USER_WORKSPACE.ID_WORKSPACE LIMIT ? OFFSET ?";
+    private static final String WITH_WORKSPACE_COUNT = "SELECT COUNT(*) FROM USER_WORKSPACE JOIN WORKSPACE ON WORKSPACE.ID_WORKSPACE=USER_WORKSPACE.ID_WORKSPACE WHERE USER_WORKSPACE.ID_USER = ?";
+    private static final String UPDATE = "UPDATE user_workspace SET read = ? , write = ? , manage_user = ? WHERE id_user = ? AND id_workspace = ?;";
+    private static final String SEARCH_MONITORED = "SELECT USER_WORKSPACE.*, WORKSPACE.* FROM USER_WORKSPACE JOIN WORKSPACE ON WORKSPACE.ID_WORKSPACE=USER_WORKSPACE.ID_WORKSPACE JOIN %s m ON m.id = USER_WORKSPACE.ID_WORKSPACE WHERE USER_WORKSPACE.ID_USER = ? ORDER BY m.score DESC, USER_WORKSPACE.ID_WORKSPACE";
+    private static final String SEARCH_MONITORED_OFFSET = SEARCH_MONITORED + " LIMIT ? OFFSET ?";
+    private static final String SEARCH_MONITORED_COUNT = "SELECT COUNT(*) FROM USER_WORKSPACE JOIN WORKSPACE ON WORKSPACE.ID_WORKSPACE=USER_WORKSPACE.ID_WORKSPACE JOIN %s m ON m.id = USER_WORKSPACE.ID_WORKSPACE WHERE USER_WORKSPACE.ID_USER = ?";
+
     /**
      * Method that saves a instantiated User_Workspace relation into database. Handles SQL injections.
      * @param MC the mapcatalog object for the connection
      * @return The ID of the User just created (primary key)
      */
     public Long save(MapCatalog MC) throws SQLException{
-        Long last = null;
-        String query = "INSERT INTO user_workspace (id_user,id_workspace,read,write,manage_user) VALUES (? , ? , ? , ? , ?);";
-        PreparedStatement pstmt = MC.getConnection().prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
-        pstmt.setString(1, id_user);
-        pstmt.setString(2, id_workspace);
-        pstmt.setString(3, read);
-        pstmt.setString(4, write);
-        pstmt.setString(5, manageUser);
-        pstmt.executeUpdate();
-        ResultSet rs = pstmt.getGeneratedKeys();
-        if(rs.next()){
-            last = rs.getLong(1);
-        }
-        rs.close();
-        pstmt.close();
-        return last;
+        return Query.insert(MC, INSERT, id_user, id_workspace, read, write, manageUser);
     }
 
     /**
@@ -111,116 +150,33 @@ public class UserWorkspace {
      * @param id_workspace The primary key of the workspace
      */
     public static void delete(MapCatalog MC, Long id_user, Long id_workspace) throws SQLException{
-        String query = "DELETE FROM user_workspace WHERE id_user = ? AND id_workspace = ?;";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setLong(1, id_user);
-        stmt.setLong(2, id_workspace);
-        stmt.executeUpdate();
-        stmt.close();
+        Query.update(MC, DELETE, id_user, id_workspace);
     }
 
     /**
-     * Method that queries the database for UserWorkspace relations, with a where clause, be careful, as only the values in the where clause will be checked for SQL injections
+     * Method that queries the database for UserWorkspace relations, with a where clause. Only the known columns
+     * of the user_workspace table can be used as attributes, the values are checked for SQL injections.
      * @param MC the mapcatalog object for the connection
      * @param attributes The attributes in the where clause, you should NEVER let the user bias this parameter, always hard code it.
      * @param values The values of the attributes, this is totally SQL injection safe
      * @return A list of UserWorkspace containing the result of the query
      */
     public static List<UserWorkspace> page(MapCatalog MC, String[] attributes, String[] values) throws SQLException{
-        String query = "SELECT * FROM user_workspace WHERE ";
-        List<UserWorkspace> paged = new LinkedList<UserWorkspace>();
-        //case argument invalid
-        if(attributes == null || values == null){
-            throw new IllegalArgumentException("Arguments cannot be null");
-        }
-        if(attributes.length != values.length){
-            throw new IllegalArgumentException("String arrays have to be of the same length");
-        }
-        //preparation of the query
-        query+=attributes[0]+" = ?";
-        for(int i=1; i<attributes.length; i++){
-            if(values[i]==null){
-                query += "AND "+attributes[i]+" IS NULL";
-            }else{
-                query += " AND "+attributes[i]+" = ?";
-            }
-        }
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        int j=1;
-        for (String value : values) {
-            if (value != null) {
-                stmt.setString(j, value);
-                j++;
-            }
-        }
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_user = rs.getString("id_user");
-            String id_workspace = rs.getString("id_workspace");
-            String read = rs.getString("read");
-            String write = rs.getString("write");
-            String manageUser = rs.getString("manage_user");
-            UserWorkspace usewor = new UserWorkspace(id_user,id_workspace,read,write,manageUser);
-            paged.add(usewor);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        String query = SELECT + " WHERE " + Query.where(COLUMNS, attributes, values);
+        return Query.list(MC, query, MAPPER, Query.parameters(values));
     }
 
     /**
-     * Method that queries the database for UserWorkspace relations, with a where clause, be careful, as only the values in the where clause will be checked for SQL injections
+     * Method that queries the database for UserWorkspace relations, with a where clause. Only the known columns
+     * of the user_workspace table can be used as attributes, the values are checked for SQL injections.
      * @param MC the mapcatalog object for the connection
      * @param attributes The attributes in the where clause, you should NEVER let the user bias this parameter, always hard code it.
      * @param values The values of the attributes, this is totally SQL injection safe
      * @return A list of UserWorkspace containing the result of the query
      */
     public static List<UserWorkspace> page(MapCatalog MC, String[] attributes, String[] values, int offset) throws SQLException{
-        String query = "SELECT * FROM user_workspace WHERE ";
-        List<UserWorkspace> paged = new LinkedList<UserWorkspace>();
-        //case argument invalid
-        if(attributes == null || values == null){
-            throw new IllegalArgumentException("Arguments cannot be null");
-        }
-        if(attributes.length != values.length){
-            throw new IllegalArgumentException("String arrays have to be of the same length");
-        }
-        //preparation of the query
-        query+=attributes[0]+" = ?";
-        for(int i=1; i<attributes.length; i++){
-            if(values[i]==null){
-                query += "AND "+attributes[i]+" IS NULL";
-            }else{
-                query += " AND "+attributes[i]+" = ?";
-            }
-        }
-        query+=" LIMIT '10' OFFSET ?";
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        int j=1;
-        for (String value : values) {
-            if (value != null) {
-                stmt.setString(j, value);
-                j++;
-            }
-        }
-        stmt.setInt(j+1, offset);
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_user = rs.getString("id_user");
-            String id_workspace = rs.getString("id_workspace");
-            String read = rs.getString("read");
-            String write = rs.getString("write");
-            String manageUser = rs.getString("manage_user");
-            UserWorkspace usewor = new UserWorkspace(id_user,id_workspace,read,write,manageUser);
-            paged.add(usewor);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        String query = SELECT + " WHERE " + Query.where(COLUMNS, attributes, values) + " ORDER BY id_user, id_workspace LIMIT ? OFFSET ?";
+        return Query.list(MC, query, MAPPER, Query.parameters(values, MC.getPageSize(), offset));
     }
 
     /**
@@ -230,36 +186,7 @@ public class UserWorkspace {
      * @return A map containing, for each Workspace, the relation as key, and the workspace as value
      */
     public static Map<UserWorkspace, User> pageWithUser(MapCatalog MC, String id) throws SQLException{
-        String query = "SELECT * FROM USER_WORKSPACE JOIN USER ON USER.ID_USER=USER_WORKSPACE.ID_USER WHERE USER_WORKSPACE.ID_WORKSPACE = ?";
-        HashMap<UserWorkspace, User> paged = new HashMap<UserWorkspace, User>();
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, id);
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_user = rs.getString("id_user");
-            String id_workspace = rs.getString("id_workspace");
-            String read = rs.getString("read");
-            String write = rs.getString("write");
-            String manageUser = rs.getString("manage_user");
-            UserWorkspace usewor = new UserWorkspace(id_user,id_workspace,read,write,manageUser);
-            String name = rs.getString("name");
-            String email = rs.getString("email");
-            String password = rs.getString("password");
-            String location = rs.getString("location");
-            String profession = rs.getString("profession");
-            String additional = rs.getString("additional");
-            String admin_wms = rs.getString("admin_wms");
-            String admin_mapcatalog = rs.getString("admin_mapcatalog");
-            String admin_wps = rs.getString("admin_wps");
-            String verification = rs.getString(("verification"));
-            User use = new User(id_user, name, email, password, location,profession,additional, admin_wms, admin_mapcatalog, admin_wps, verification);
-            paged.put(usewor,use);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        return Query.map(MC, WITH_USER, MAPPER, User.MAPPER, new HashMap<UserWorkspace, User>(), id);
     }
 
     /**
@@ -270,37 +197,8 @@ public class UserWorkspace {
      * @return A hashmap containing, for each Workspace, the relation as key, and the workspace as value
      */
     public static Map<UserWorkspace, User> pageWithUser(MapCatalog MC, String id, int offset) throws SQLException{
-        String query = "SELECT * FROM USER_WORKSPACE JOIN USER ON USER.ID_USER=USER_WORKSPACE.ID_USER WHERE USER_WORKSPACE.ID_WORKSPACE = ? LIMIT '10' OFFSET ?";
-        HashMap<UserWorkspace, User> paged = new HashMap<UserWorkspace, User>();
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, id);
-        stmt.setInt(2, offset);
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_user = rs.getString("id_user");
-            String id_workspace = rs.getString("id_workspace");
-            String read = rs.getString("read");
-            String write = rs.getString("write");
-            String manageUser = rs.getString("manage_user");
-            UserWorkspace usewor = new UserWorkspace(id_user,id_workspace,read,write,manageUser);
-            String name = rs.getString("name");
-            String email = rs.getString("email");
-            String password = rs.getString("password");
-            String location = rs.getString("location");
-            String profession = rs.getString("profession");
-            String additional = rs.getString("additional");
-            String admin_wms = rs.getString("admin_wms");
-            String admin_mapcatalog = rs.getString("admin_mapcatalog");
-            String admin_wps = rs.getString("admin_wps");
-            String verification = rs.getString(("verification"));
-            User use = new User(id_user, name, email, password, location,profession,additional, admin_wms, admin_mapcatalog, admin_wps,verification);
-            paged.put(usewor,use);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        return Query.map(MC, WITH_USER_OFFSET, MAPPER, User.MAPPER, new LinkedHashMap<UserWorkspace, User>(), id,
+                MC.getPageSize(), offset);
     }
 
     /**
@@ -310,31 +208,8 @@ public class UserWorkspace {
      * @return A hashmap containing, for each Workspace, the relation as key, and the workspace as value were the user has management right
      */
     public static Map<UserWorkspace, Workspace> pageWithWorkspaceManage(MapCatalog MC, String id) throws SQLException{
-        String query = "SELECT * FROM USER_WORKSPACE JOIN WORKSPACE ON WORKSPACE.ID_WORKSPACE=USER_WORKSPACE.ID_WORKSPACE WHERE USER_WORKSPACE.ID_USER = ? AND( ALL_MANAGE = 1 OR MANAGE_USER = 1)";
-        HashMap<UserWorkspace, Workspace> paged = new HashMap<UserWorkspace, Workspace>();
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, id);
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_user = rs.getString("id_user");
-            String id_workspace = rs.getString("id_workspace");
-            String read = rs.getString("read");
-            String write = rs.getString("write");
-            String manageUser = rs.getString("manage_user");
-            UserWorkspace usewor = new UserWorkspace(id_user,id_workspace,read,write,manageUser);
-            String name = rs.getString("name");
-            String all_read = rs.getString("all_read");
-            String all_write = rs.getString("all_write");
-            String all_manage = rs.getString("all_manage");
-            String description = rs.getString("description");
-            Workspace wor = new Workspace(id_workspace,id_user, name, all_read, all_write, all_manage, description);
-            paged.put(usewor,wor);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        return Query.map(MC, WITH_WORKSPACE_MANAGE, MAPPER, MANAGED_WORKSPACE,
+                new HashMap<UserWorkspace, Workspace>(), id);
     }
 
     /**
@@ -344,32 +219,8 @@ public class UserWorkspace {
      * @return A hashmap containing, for each Workspace, the relation as key, and the workspace as value were the user has management right
      */
     public static Map<UserWorkspace, Workspace> pageWithWorkspaceManage(MapCatalog MC, String id, int offset) throws SQLException{
-        String query = "SELECT * FROM USER_WORKSPACE JOIN WORKSPACE ON WORKSPACE.ID_WORKSPACE=USER_WORKSPACE.ID_WORKSPACE WHERE USER_WORKSPACE.ID_USER = ? AND( ALL_MANAGE = 1 OR MANAGE_USER = 1) LIMIT '10' OFFSET ?";
-        HashMap<UserWorkspace, Workspace> paged = new HashMap<UserWorkspace, Workspace>();
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, id);
-        stmt.setInt(2, offset);
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_user = rs.getString("id_user");
-            String id_workspace = rs.getString("id_workspace");
-            String read = rs.getString("read");
-            String write = rs.getString("write");
-            String manageUser = rs.getString("manage_user");
-            UserWorkspace usewor = new UserWorkspace(id_user,id_workspace,read,write,manageUser);
-            String name = rs.getString("name");
-            String all_read = rs.getString("all_read");
-            String all_write = rs.getString("all_write");
-            String all_manage = rs.getString("all_manage");
-            String description = rs.getString("description");
-            Workspace wor = new Workspace(id_workspace,id_user, name, all_read, all_write, all_manage, description);
-            paged.put(usewor,wor);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        return Query.map(MC, WITH_WORKSPACE_MANAGE_OFFSET, MAPPER, MANAGED_WORKSPACE,
+                new LinkedHashMap<UserWorkspace, Workspace>(), id, MC.getPageSize(), offset);
     }
 
     /**
@@ -379,32 +230,7 @@ public class UserWorkspace {
      * @return A hashmap containing, for each Workspace, the relation as key, and the workspace as value
      */
     public static Map<UserWorkspace, Workspace> pageWithWorkspace(MapCatalog MC, String id) throws SQLException{
-        String query = "SELECT * FROM USER_WORKSPACE JOIN WORKSPACE ON WORKSPACE.ID_WORKSPACE=USER_WORKSPACE.ID_WORKSPACE WHERE USER_WORKSPACE.ID_USER = ?";
-        HashMap<UserWorkspace, Workspace> paged = new HashMap<UserWorkspace, Workspace>();
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, id);
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_user = rs.getString("id_user");
-            String id_workspace = rs.getString("id_workspace");
-            String read = rs.getString("read");
-            String write = rs.getString("write");
-            String manageUser = rs.getString("manage_user");
-            UserWorkspace usewor = new UserWorkspace(id_user,id_workspace,read,write,manageUser);
-            String id_creator = rs.getString("id_creator");
-            String name = rs.getString("name");
-            String all_read = rs.getString("all_read");
-            String all_write = rs.getString("all_write");
-            String all_manage = rs.getString("all_manage");
-            String description = rs.getString("description");
-            Workspace wor = new Workspace(id_workspace, id_creator, name, all_read, all_write, all_manage, description);
-            paged.put(usewor,wor);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        return Query.map(MC, WITH_WORKSPACE, MAPPER, Workspace.MAPPER, new HashMap<UserWorkspace, Workspace>(), id);
     }
 
     /**
@@ -414,33 +240,21 @@ public class UserWorkspace {
      * @return A hashmap containing, for each Workspace, the relation as key, and the workspace as value were the user has management right
      */
     public static Map<UserWorkspace, Workspace> pageWithWorkspace(MapCatalog MC, String id, int offset) throws SQLException{
-        String query = "SELECT * FROM USER_WORKSPACE JOIN WORKSPACE ON WORKSPACE.ID_WORKSPACE=USER_WORKSPACE.ID_WORKSPACE WHERE USER_WORKSPACE.ID_USER = ? LIMIT '10' OFFSET ?";
-        HashMap<UserWorkspace, Workspace> paged = new HashMap<UserWorkspace, Workspace>();
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, id);
-        stmt.setInt(2, offset);
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_user = rs.getString("id_user");
-            String id_workspace = rs.getString("id_workspace");
-            String read = rs.getString("read");
-            String write = rs.getString("write");
-            String manageUser = rs.getString("manage_user");
-            UserWorkspace usewor = new UserWorkspace(id_user,id_workspace,read,write,manageUser);
-            String id_creator = rs.getString("id_creator");
-            String name = rs.getString("name");
-            String all_read = rs.getString("all_read");
-            String all_write = rs.getString("all_write");
-            String all_manage = rs.getString("all_manage");
-            String description = rs.getString("description");
-            Workspace wor = new Workspace(id_workspace, id_creator, name, all_read, all_write, all_manage, description);
-            paged.put(usewor,wor);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        return Query.map(MC, WITH_WORKSPACE_OFFSET, MAPPER, Workspace.MAPPER,
+                new LinkedHashMap<UserWorkspace, Workspace>(), id, MC.getPageSize(), offset);
+    }
+
+    /**
+     * Queries for a page of the join from user_workspace and Workspace, beginning after the given workspace. The
+     * page is found with the primary key, whatever its number.
+     * @param MC the mapcatalog object for the connection
+     * @param id The id of the user
+     * @param after The id of the last workspace of the previous page, null for the first page
+     * @return A map containing, in the order of the workspaces, the relation as key, and the workspace as value
+     */
+    public static Map<UserWorkspace, Workspace> pageWithWorkspaceAfter(MapCatalog MC, String id, String after) throws SQLException{
+        return Query.map(MC, WITH_WORKSPACE_AFTER, MAPPER, Workspace.MAPPER,
+                new LinkedHashMap<UserWorkspace, Workspace>(), id, Query.after(after), MC.getPageSize());
     }
 
     /**
@@ -450,19 +264,7 @@ public class UserWorkspace {
      * @return the number of results corresponding to the query
      */
     public static int pageWithWorkspaceCount(MapCatalog MC, String id) throws SQLException{
-        String query = "SELECT COUNT(*) FROM USER_WORKSPACE JOIN WORKSPACE ON WORKSPACE.ID_WORKSPACE=USER_WORKSPACE.ID_WORKSPACE WHERE USER_WORKSPACE.ID_USER = ?";
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, id);
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        int count = 0;
-        if(rs.next()){
-            count = rs.getInt("COUNT(*)");
-        }
-        rs.close();
-        stmt.close();
-        return count;
+        return Query.count(MC, WITH_WORKSPACE_COUNT, id);
     }
 
     /**
@@ -470,16 +272,7 @@ public class UserWorkspace {
      * @param MC the mapcatalog used for database connection
      */
     public void update(MapCatalog MC) throws SQLException{
-        String query = "UPDATE user_workspace SET read = ? , write = ? , manage_user = ? WHERE id_user = ? AND id_workspace = ?;";
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, read);
-        stmt.setString(2, write);
-        stmt.setString(3, manageUser);
-        stmt.setString(4, id_user);
-        stmt.setString(5, id_workspace);
-        stmt.executeUpdate();
-        stmt.close();
+        Query.update(MC, UPDATE, read, write, manageUser, id_user, id_workspace);
     }
 
     /**
@@ -534,105 +327,41 @@ public class UserWorkspace {
     /**
      * Queries for a join from user_workspace and Workspace, to get the information about each workspaces linked to a user where the access to management is granted
      * @param MC the mapcatalog object for the connection
-     * @param expression the expression to look for in the name or description of the workspaces
+     * @param expression the words to look for in the name or description of the workspaces, case and accent insensitive
      * @param id the user's id
-     * @return A hasmap containing the key UserWorkspace linked to workspace monitored
+     * @return A hasmap containing the key UserWorkspace linked to workspace monitored, the best matches first
      */
     public static HashMap<UserWorkspace, Workspace> searchMyWorkspacesMonitored(MapCatalog MC, String expression, String id) throws SQLException{
-        String query = "SELECT * FROM USER_WORKSPACE JOIN WORKSPACE ON WORKSPACE.ID_WORKSPACE=USER_WORKSPACE.ID_WORKSPACE WHERE USER_WORKSPACE.ID_USER = ? AND ((LOWER(name) LIKE ?) OR (LOWER(description) LIKE ?))";
-        HashMap<UserWorkspace, Workspace> paged = new HashMap<UserWorkspace, Workspace>();
-        expression = "%" + expression.toLowerCase() + "%";
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, id);
-        stmt.setString(2, expression);
-        stmt.setString(3, expression);
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_user = rs.getString("id_user");
-            String id_workspace = rs.getString("id_workspace");
-            String read = rs.getString("read");
-            String write = rs.getString("write");
-            String manageUser = rs.getString("manage_user");
-            UserWorkspace usewor = new UserWorkspace(id_user,id_workspace,read,write,manageUser);
-            String id_creator = rs.getString("id_creator");
-            String name = rs.getString("name");
-            String all_read = rs.getString("all_read");
-            String all_write = rs.getString("all_write");
-            String all_manage = rs.getString("all_manage");
-            String description = rs.getString("description");
-            Workspace wor = new Workspace(id_workspace, id_creator, name, all_read, all_write, all_manage, description);
-            paged.put(usewor,wor);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        List<String> terms = SearchIndex.terms(expression);
+        String sql = SearchIndex.query(SEARCH_MONITORED, "WORKSPACE", "id_workspace", terms);
+        return Query.map(MC, sql, MAPPER, Workspace.MAPPER, new LinkedHashMap<UserWorkspace, Workspace>(),
+                SearchIndex.parameters(terms, id));
     }
 
     /**
      * Querys for a join from user_workspace and Workspace, to get the information about each workspaces linked to a user where the access to management is granted
      * @param MC the mapcatalog object for the connection
-     * @param expression the expression to look for in the name or description of the workspaces
+     * @param expression the words to look for in the name or description of the workspaces, case and accent insensitive
      * @param id The id of the user
-     * @return A hashmap containing the key UserWorkspace linked to workspace monitored
+     * @return A hashmap containing the key UserWorkspace linked to workspace monitored, the best matches first
      */
     public static HashMap<UserWorkspace, Workspace> searchMyWorkspacesMonitored(MapCatalog MC, String expression, String id, int offset) throws SQLException{
-        String query = "SELECT * FROM USER_WORKSPACE JOIN WORKSPACE ON WORKSPACE.ID_WORKSPACE=USER_WORKSPACE.ID_WORKSPACE WHERE USER_WORKSPACE.ID_USER = ? AND ((LOWER(name) LIKE ?) OR (LOWER(description) LIKE ?)) LIMIT '10' OFFSET ?";
-        HashMap<UserWorkspace, Workspace> paged = new HashMap<UserWorkspace, Workspace>();
-        expression = "%" + expression.toLowerCase() + "%";
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, id);
-        stmt.setString(2, expression);
-        stmt.setString(3, expression);
-        stmt.setInt(4, offset);
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_user = rs.getString("id_user");
-            String id_workspace = rs.getString("id_workspace");
-            String read = rs.getString("read");
-            String write = rs.getString("write");
-            String manageUser = rs.getString("manage_user");
-            UserWorkspace usewor = new UserWorkspace(id_user,id_workspace,read,write,manageUser);
-            String id_creator = rs.getString("id_creator");
-            String name = rs.getString("name");
-            String all_read = rs.getString("all_read");
-            String all_write = rs.getString("all_write");
-            String all_manage = rs.getString("all_manage");
-            String description = rs.getString("description");
-            Workspace wor = new Workspace(id_workspace, id_creator, name, all_read, all_write, all_manage, description);
-            paged.put(usewor,wor);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        List<String> terms = SearchIndex.terms(expression);
+        String sql = SearchIndex.query(SEARCH_MONITORED_OFFSET, "WORKSPACE", "id_workspace", terms);
+        return Query.map(MC, sql, MAPPER, Workspace.MAPPER, new LinkedHashMap<UserWorkspace, Workspace>(),
+                SearchIndex.parameters(terms, id, MC.getPageSize(), offset));
     }
 
     /**
      * Querys for a join from user_workspace and Workspace, to get the information about each workspaces linked to a user where the access to management is granted
      * @param MC the mapcatalog object for the connection
-     * @param expression the expression to look for in the name or description of the workspaces
+     * @param expression the words to look for in the name or description of the workspaces, case and accent insensitive
      * @param id the id of the user
      * @return the number of workspaces and UserWorkspaces corresponding to the search
      */
     public static int searchMyWorkspacesMonitoredCount(MapCatalog MC, String expression, String id) throws SQLException{
-        String query = "SELECT COUNT(*) FROM USER_WORKSPACE JOIN WORKSPACE ON WORKSPACE.ID_WORKSPACE=USER_WORKSPACE.ID_WORKSPACE WHERE USER_WORKSPACE.ID_USER = ? AND ((LOWER(name) LIKE ?) OR (LOWER(description) LIKE ?))";
-        expression = "%" + expression.toLowerCase() + "%";
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, id);
-        stmt.setString(2, expression);
-        stmt.setString(3, expression);
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        int count = 0;
-        if(rs.next()){
-            count = rs.getInt("COUNT(*)");
-        }
-        rs.close();
-        stmt.close();
-        return count;
+        List<String> terms = SearchIndex.terms(expression);
+        return Query.count(MC, SearchIndex.query(SEARCH_MONITORED_COUNT, "WORKSPACE", "id_workspace", terms),
+                SearchIndex.parameters(terms, id));
     }
 }
\ No newline at end of file
@@ -26,11 +26,10 @@ package org.orbisgis.server.mapcatalog; /**
  * directly: info_at_ orbisgis.org
  */
 
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * The class of the workspace model representation
@@ -111,29 +110,50 @@ public class Workspace {
         return description;
     }
 
+    /**
+     * Builds a workspace from a row of the workspace table
+     */
+    static final RowMapper<Workspace> MAPPER = new RowMapper<Workspace>() {
+        @Override
+        public Workspace map(ResultSet rs) throws SQLException {
+            String id_workspace = rs.getString("id_workspace");
+            String id_creator = rs.getString("id_creator");
+            String name = rs.getString("name");
+            String all_read = rs.getString("all_read");
+            String all_write = rs.getString("all_write");
+            String all_manage = rs.getString("all_manage");
+            String description = rs.getString("description");
+            return new Workspace(id_workspace,id_creator,name,all_read,all_write,all_manage,description);
+        }
+    };
+
+    /**
+     * The columns that can be used in the where clause of {@link #page(MapCatalog, String[], String[])}
+     */
+    static final Set<String> COLUMNS = Query.columns("id_workspace", "id_creator", "name", "all_read", "all_write",
+            "all_manage", "description");
+
+    private static final String INSERT = "INSERT INTO workspace (id_creator,name,all_read,all_write,all_manage,description) VALUES (?,?,?,?,?,?);";
+    private static final String DELETE = "DELETE FROM workspace WHERE id_workspace = ? ;";
+    private static final String SELECT = "SELECT * FROM workspace";
+    private static final String SELECT_OFFSET = "SELECT * FROM workspace ORDER BY id_workspace LIMIT ? OFFSET ?";
+    private static final String SELECT_AFTER = "SELECT * FROM workspace WHERE id_workspace > ? ORDER BY id_workspace LIMIT ?";
+    private static final String COUNT = "SELECT COUNT(*) FROM workspace";
+    private static final String UPDATE = "UPDATE workspace SET name = ? , all_read = ? , all_write = ? , all_manage = ? , description = ? , id_creator = ? WHERE id_workspace = ?;";
+    private static final String SEARCH = "SELECT w.* FROM workspace w JOIN %s m ON m.id = w.id_workspace ORDER BY m.score DESC, w.id_workspace";
+    private static final String SEARCH_OFFSET = SEARCH + " LIMIT ? OFFSET ?";
+    private static final String SEARCH_COUNT = "SELECT COUNT(*) FROM workspace w JOIN %s m ON m.id = w.id_workspace";
+    private static final String SEARCH_CREATED = "SELECT w.* FROM workspace w JOIN %s m ON m.id = w.id_workspace WHERE w.id_creator = ? ORDER BY m.score DESC, w.id_workspace";
+    private static final String SEARCH_CREATED_OFFSET = SEARCH_CREATED + " LIMIT ? OFFSET ?";
+    private static final String SEARCH_CREATED_COUNT = "SELECT COUNT(*) FROM workspace w JOIN %s m ON m.id = w.id_workspace WHERE w.id_creator = ?";
+
     /**
      * Method that saves a instantiated workspace into database. Handles SQL injections.
      * @param MC the mapcatalog object for the connection
      * @return The ID of the workspace just created (primary key)
      */
     public  Long save(MapCatalog MC) throws SQLException{
-        Long last = null;
-        String query = "INSERT INTO workspace (id_creator,name,all_read,all_write,all_manage,description) VALUES (?,?,?,?,?,?);";
-        PreparedStatement pstmt = MC.getConnection().prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
-        pstmt.setString(1, id_creator);
-        pstmt.setString(2, name);
-        pstmt.setString(3, all_read);
-        pstmt.setString(4, all_write);
-        pstmt.setString(5, all_manage);
-        pstmt.setString(6, description);
-        pstmt.executeUpdate();
-        ResultSet rs = pstmt.getGeneratedKeys();
-        if(rs.next()){
-            last = rs.getLong(1);
-        }
-        rs.close();
-        pstmt.close();
-        return last;
+        return Query.insert(MC, INSERT, id_creator, name, all_read, all_write, all_manage, description);
     }
 
     /**
@@ -142,120 +162,47 @@ public class Workspace {
      * @param id_workspace The primary key of the workspace
      */
     public static void delete(MapCatalog MC, Long id_workspace) throws SQLException{
-        String query = "DELETE FROM workspace WHERE id_workspace = ? ;";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setLong(1, id_workspace);
-        stmt.executeUpdate();
-        stmt.close();
+        Query.update(MC, DELETE, id_workspace);
     }
 
     /**
-     * Method that queries the database for workspaces, with a where clause, be careful, as only the values in the where clause will be checked for SQL injections
+     * Method that queries the database for workspaces, with a where clause. Only the known columns of the
+     * workspace table can be used as attributes, the values are checked for SQL injections.
      * @param MC the mapcatalog object for the connection
      * @param attributes The attributes in the where clause, you should NEVER let the user bias this parameter, always hard code it.
      * @param values The values of the attributes, this is totally SQL injection safe
      * @return A list of Workspace containing the result of the query
      */
     public static List<Workspace> page(MapCatalog MC, String[] attributes, String[] values) throws SQLException{
-        String query = "SELECT * FROM workspace WHERE ";
-        List<Workspace> paged = new LinkedList<Workspace>();
-        //case argument invalid
-        if(attributes == null || values == null){
-            throw new IllegalArgumentException("Arguments cannot be null");
-        }
-        if(attributes.length != values.length){
-            throw new IllegalArgumentException("String arrays have to be of the same length");
-        }
-        //preparation of the query
-        query+=attributes[0]+" = ?";
-        for(int i=1; i<attributes.length; i++){
-            if(values[i]==null){
-                query += "AND "+attributes[i]+" IS NULL";
-            }else{
-                query += " AND "+attributes[i]+" = ?";
-            }
-        }
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        int j=1;
-        for (String value : values) {
-            if (value != null) {
-                stmt.setString(j, value);
-                j++;
-            }
-        }
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_workspace = rs.getString("id_workspace");
-            String id_creator = rs.getString("id_creator");
-            String name = rs.getString("name");
-            String all_read = rs.getString("all_read");
-            String all_write = rs.getString("all_write");
-            String all_manage = rs.getString("all_manage");
-            String description = rs.getString("description");
-            Workspace wor = new Workspace(id_workspace,id_creator,name,all_read,all_write,all_manage,description);
-            paged.add(wor);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        String query = SELECT + " WHERE " + Query.where(COLUMNS, attributes, values);
+        return Query.list(MC, query, MAPPER, Query.parameters(values));
     }
 
     /**
-     * Method that queries the database for workspaces, with a where clause, be careful, as only the values in the where clause will be checked for SQL injections
+     * Method that queries the database for workspaces, with a where clause. Only the known columns of the
+     * workspace table can be used as attributes, the values are checked for SQL injections.
      * @param MC the mapcatalog object for the connection
      * @param attributes The attributes in the where clause, you should NEVER let the user bias this parameter, always hard code it.
      * @param values The values of the attributes, this is totally SQL injection safe
      * @return A list of Workspace containing the result of the query
      */
     public static List<Workspace> page(MapCatalog MC, String[] attributes, String[] values, int offset) throws SQLException{
-        String query = "SELECT * FROM workspace WHERE ";
-        List<Workspace> paged = new LinkedList<Workspace>();
-        //case argument invalid
-        if(attributes == null || values == null){
-            throw new IllegalArgumentException("Arguments cannot be null");
-        }
-        if(attributes.length != values.length){
-            throw new IllegalArgumentException("String arrays have to be of the same length");
-        }
-        //preparation of the query
-        query+=attributes[0]+" = ?";
-        for(int i=1; i<attributes.length; i++){
-            if(values[i]==null){
-                query += "AND "+attributes[i]+" IS NULL";
-            }else{
-                query += " AND "+attributes[i]+" = ?";
-            }
-        }
-        //Setting the offset and limit
-        query+=" LIMIT '10' OFFSET ?";
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        int j=1;
-        for (String value : values) {
-            if (value != null) {
-                stmt.setString(j, value);
-                j++;
-            }
-        }
-        stmt.setInt(j, offset);
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_workspace = rs.getString("id_workspace");
-            String id_creator = rs.getString("id_creator");
-            String name = rs.getString("name");
-            String all_read = rs.getString("all_read");
-            String all_write = rs.getString("all_write");
-            String all_manage = rs.getString("all_manage");
-            String description = rs.getString("description");
-            Workspace wor = new Workspace(id_workspace,id_creator,name,all_read,all_write,all_manage,description);
-            paged.add(wor);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        String query = SELECT + " WHERE " + Query.where(COLUMNS, attributes, values) + " ORDER BY id_workspace LIMIT ? OFFSET ?";
+        return Query.list(MC, query, MAPPER, Query.parameters(values, MC.getPageSize(), offset));
+    }
+
+    /**
+     * Method that queries the database for a page of workspaces, with a where clause, beginning after the
+     * given workspace. The page is found with the primary key, whatever its number.
+     * @param MC the mapcatalog object for the connection
+     * @param attributes The attributes in the where clause, you should NEVER let the user bias this parameter, always hard code it.
+     * @param values The values of the attributes, this is totally SQL injection safe
+     * @param after The id of the last workspace of the previous page, null for the first page
+     * @return A list of Workspace containing the result of the query
+     */
+    public static List<Workspace> pageAfter(MapCatalog MC, String[] attributes, String[] values, String after) throws SQLException{
+        String query = SELECT + " WHERE " + Query.where(COLUMNS, attributes, values) + " AND id_workspace > ? ORDER BY id_workspace LIMIT ?";
+        return Query.list(MC, query, MAPPER, Query.parameters(values, Query.after(after), MC.getPageSize()));
     }
 
     /**
@@ -266,41 +213,8 @@ public class Workspace {
      * @return the number of workspaces
      */
     public static int pageCount(MapCatalog MC, String[] attributes, String[] values) throws SQLException{
-        String query = "SELECT COUNT(*) FROM workspace WHERE ";
-        //case argument invalid
-        if(attributes == null || values == null){
-            throw new IllegalArgumentException("Arguments cannot be null");
-        }
-        if(attributes.length != values.length){
-            throw new IllegalArgumentException("String arrays have to be of the same length");
-        }
-        //preparation of the query
-        query+=attributes[0]+" = ?";
-        for(int i=1; i<attributes.length; i++){
-            if(values[i]==null){
-                query += "AND "+attributes[i]+" IS NULL";
-            }else{
-                query += " AND "+attributes[i]+" = ?";
-            }
-        }
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        int j=1;
-        for (String value : values) {
-            if (value != null) {
-                stmt.setString(j, value);
-                j++;
-            }
-        }
-        //Retrieving values
-        ResultSet rs = stmt.executeQuery();
-        int count=0;
-        if(rs.next()){
-            count = rs.getInt("count(*)");
-        }
-        rs.close();
-        stmt.close();
-        return count;
+        String query = COUNT + " WHERE " + Query.where(COLUMNS, attributes, values);
+        return Query.count(MC, query, Query.parameters(values));
     }
 
     /**
@@ -309,24 +223,7 @@ public class Workspace {
      * @return A list of Workspace containing the result of the query
      */
     public static List<Workspace> page(MapCatalog MC) throws SQLException{
-        String query = "SELECT * FROM workspace";
-        List<Workspace> paged = new LinkedList<Workspace>();
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_workspace = rs.getString("id_workspace");
-            String id_creator = rs.getString("id_creator");
-            String name = rs.getString("name");
-            String all_read = rs.getString("all_read");
-            String all_write = rs.getString("all_write");
-            String all_manage = rs.getString("all_manage");
-            String description = rs.getString("description");
-            Workspace wor = new Workspace(id_workspace,id_creator,name,all_read,all_write,all_manage,description);
-            paged.add(wor);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        return Query.list(MC, SELECT, MAPPER);
     }
 
     /**
@@ -335,25 +232,18 @@ public class Workspace {
      * @return A list of Workspace containing the result of the query
      */
     public static List<Workspace> page(MapCatalog MC, int offset) throws SQLException{
-        String query = "SELECT * FROM workspace LIMIT '10' OFFSET ?";
-        List<Workspace> paged = new LinkedList<Workspace>();
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setInt(1, offset);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_workspace = rs.getString("id_workspace");
-            String id_creator = rs.getString("id_creator");
-            String name = rs.getString("name");
-            String all_read = rs.getString("all_read");
-            String all_write = rs.getString("all_write");
-            String all_manage = rs.getString("all_manage");
-            String description = rs.getString("description");
-            Workspace wor = new Workspace(id_workspace,id_creator,name,all_read,all_write,all_manage,description);
-            paged.add(wor);
-        }
-        rs.close();
-        stmt.close();
-        return paged;
+        return Query.list(MC, SELECT_OFFSET, MAPPER, MC.getPageSize(), offset);
+    }
+
+    /**
+     * Method that queries the database for a page of workspaces beginning after the given workspace. The page is
+     * found with the primary key, whatever its number.
+     * @param MC the mapcatalog object for the connection
+     * @param after The id of the last workspace of the previous page, null for the first page
+     * @return A list of Workspace containing the result of the query
+     */
+    public static List<Workspace> pageAfter(MapCatalog MC, String after) throws SQLException{
+        return Query.list(MC, SELECT_AFTER, MAPPER, Query.after(after), MC.getPageSize());
     }
 
     /**
@@ -362,16 +252,7 @@ public class Workspace {
      * @return The number of workspaces in database
      */
     public static int pageCount(MapCatalog MC) throws SQLException{
-        String query = "SELECT COUNT(*) FROM workspace";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        ResultSet rs = stmt.executeQuery();
-        int count=0;
-        if(rs.next()){
-            count = rs.getInt("count(*)");
-        }
-        rs.close();
-        stmt.close();
-        return count;
+        return Query.count(MC, COUNT);
     }
 
     /**
@@ -379,18 +260,7 @@ public class Workspace {
      * @param MC the mapcatalog used for database connection
      */
     public void update(MapCatalog MC) throws SQLException{
-        String query = "UPDATE workspace SET name = ? , all_read = ? , all_write = ? , all_manage = ? , description = ? , id_creator = ? WHERE id_workspace = ?;";
-        //preparation of the statement
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, name);
-        stmt.setString(2, all_read);
-        stmt.setString(3, all_write);
-        stmt.setString(4, all_manage);
-        stmt.setString(5, description);
-        stmt.setString(6, id_creator);
-        stmt.setString(7, id_workspace);
-        stmt.executeUpdate();
-        stmt.close();
+        Query.update(MC, UPDATE, name, all_read, all_write, all_manage, description, id_creator, id_workspace);
     }
 
     /**
@@ -407,167 +277,70 @@ public class Workspace {
 
     /**
      *Queries database to search for a workspace containing a certain expression in his name, or his description
-     * @param expression the String to run the search on, case insensitive
+     * @param expression the words to look for, case and accent insensitive, the best matches come first
      * @return The list of workspaces corresponding to the search
      */
     public static List<Workspace> search(MapCatalog MC, String expression) throws SQLException{
-        String query = "SELECT * FROM WORKSPACE WHERE ((LOWER(name) LIKE ?) OR (LOWER(description)) LIKE ?)";
-        List<Workspace> searched = new LinkedList<Workspace>();
-        expression = "%" + expression.toLowerCase() + "%";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, expression);
-        stmt.setString(2, expression);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_workspace = rs.getString("id_workspace");
-            String id_creator = rs.getString("id_creator");
-            String name = rs.getString("name");
-            String all_read = rs.getString("all_read");
-            String all_write = rs.getString("all_write");
-            String all_manage = rs.getString("all_manage");
-            String description = rs.getString("description");
-            Workspace wor = new Workspace(id_workspace,id_creator,name,all_read,all_write,all_manage,description);
-            searched.add(wor);
-        }
-        rs.close();
-        stmt.close();
-        return searched;
+        List<String> terms = SearchIndex.terms(expression);
+        return Query.list(MC, SearchIndex.query(SEARCH, "WORKSPACE", "id_workspace", terms), MAPPER,
+                SearchIndex.parameters(terms));
     }
 
     /**
      *Queries database to search for a workspace containing a certain expression in his name, or his description
-     * @param expression the String to run the search on, case insensitive
+     * @param expression the words to look for, case and accent insensitive, the best matches come first
      * @return The list of workspaces corresponding to the search
      */
     public static List<Workspace> search(MapCatalog MC, String expression, int offset) throws SQLException{
-        String query = "SELECT * FROM WORKSPACE WHERE ((LOWER(name) LIKE ?) OR (LOWER(description) LIKE ?)) LIMIT '10' OFFSET ?";
-        List<Workspace> searched = new LinkedList<Workspace>();
-        expression = "%" + expression.toLowerCase() + "%";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, expression);
-        stmt.setString(2, expression);
-        stmt.setInt(3, offset);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_workspace = rs.getString("id_workspace");
-            String id_creator = rs.getString("id_creator");
-            String name = rs.getString("name");
-            String all_read = rs.getString("all_read");
-            String all_write = rs.getString("all_write");
-            String all_manage = rs.getString("all_manage");
-            String description = rs.getString("description");
-            Workspace wor = new Workspace(id_workspace,id_creator,name,all_read,all_write,all_manage,description);
-            searched.add(wor);
-        }
-        rs.close();
-        stmt.close();
-        return searched;
+        List<String> terms = SearchIndex.terms(expression);
+        return Query.list(MC, SearchIndex.query(SEARCH_OFFSET, "WORKSPACE", "id_workspace", terms), MAPPER,
+                SearchIndex.parameters(terms, MC.getPageSize(), offset));
     }
 
     /**
      * Counts the number of workspaces corresponding with the search
-     * @param expression the String to run the search on, case insensitive
+     * @param expression the words to look for, case and accent insensitive
      * @return The number of workspaces corresponding to the search
      */
     public static int searchCount(MapCatalog MC, String expression) throws SQLException{
-        String query = "SELECT COUNT(*) FROM WORKSPACE WHERE ((LOWER(name) LIKE ?) OR (LOWER(description)) LIKE ?)";
-        expression = "%" + expression.toLowerCase() + "%";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, expression);
-        stmt.setString(2, expression);
-        ResultSet rs = stmt.executeQuery();
-        int count=0;
-        if(rs.next()){
-            count = rs.getInt("COUNT(*)");
-        }
-        rs.close();
-        stmt.close();
-        return count;
+        List<String> terms = SearchIndex.terms(expression);
+        return Query.count(MC, SearchIndex.query(SEARCH_COUNT, "WORKSPACE", "id_workspace", terms),
+                SearchIndex.parameters(terms));
     }
 
     /**
      *Queries database to search for a workspace containing a certain expression in his name, or his description, with a specific creator
-     * @param expression the String to run the search on, case insensitive
+     * @param expression the words to look for, case and accent insensitive, the best matches come first
      * @param id_user The creator of the workspace
      * @return The list of workspaces corresponding to the search
      */
     public static List<Workspace> searchMyWorkspacesCreated(MapCatalog MC, String expression, String id_user) throws SQLException{
-        String query = "SELECT * FROM WORKSPACE WHERE ((LOWER(name) LIKE ?) OR (LOWER(description) LIKE ?)) AND id_creator= ?";
-        List<Workspace> searched = new LinkedList<Workspace>();
-        expression = "%" + expression.toLowerCase() + "%";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, expression);
-        stmt.setString(2, expression);
-        stmt.setString(3, id_user);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_workspace = rs.getString("id_workspace");
-            String id_creator = rs.getString("id_creator");
-            String name = rs.getString("name");
-            String all_read = rs.getString("all_read");
-            String all_write = rs.getString("all_write");
-            String all_manage = rs.getString("all_manage");
-            String description = rs.getString("description");
-            Workspace wor = new Workspace(id_workspace,id_creator,name,all_read,all_write,all_manage,description);
-            searched.add(wor);
-        }
-        rs.close();
-        stmt.close();
-        return searched;
+        List<String> terms = SearchIndex.terms(expression);
+        return Query.list(MC, SearchIndex.query(SEARCH_CREATED, "WORKSPACE", "id_workspace", terms), MAPPER,
+                SearchIndex.parameters(terms, id_user));
     }
 
     /**
      *Queries database to search for a workspace containing a certain expression in his name, or his description, with a specific creator
-     * @param expression the String to run the search on, case insensitive
+     * @param expression the words to look for, case and accent insensitive, the best matches come first
      * @param id_user The creator of the workspace
      * @return The list of workspaces corresponding to the search
      */
     public static List<Workspace> searchMyWorkspacesCreated(MapCatalog MC, String expression, String id_user, int offset) throws SQLException{
-        String query = "SELECT * FROM WORKSPACE WHERE ((LOWER(name) LIKE ?) OR (LOWER(description) LIKE ?)) AND id_creator= ? LIMIT '10' OFFSET ?";
-        List<Workspace> searched = new LinkedList<Workspace>();
-        expression = "%" + expression.toLowerCase() + "%";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, expression);
-        stmt.setString(2, expression);
-        stmt.setString(3, id_user);
-        stmt.setInt(4, offset);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()){
-            String id_workspace = rs.getString("id_workspace");
-            String id_creator = rs.getString("id_creator");
-            String name = rs.getString("name");
-            String all_read = rs.getString("all_read");
-            String all_write = rs.getString("all_write");
-            String all_manage = rs.getString("all_manage");
-            String description = rs.getString("description");
-            Workspace wor = new Workspace(id_workspace,id_creator,name,all_read,all_write,all_manage,description);
-            searched.add(wor);
-        }
-        rs.close();
-        stmt.close();
-        return searched;
+        List<String> terms = SearchIndex.terms(expression);
+        return Query.list(MC, SearchIndex.query(SEARCH_CREATED_OFFSET, "WORKSPACE", "id_workspace", terms), MAPPER,
+                SearchIndex.parameters(terms, id_user, MC.getPageSize(), offset));
     }
 
     /**
      * Counts the number of workspace created by a certain user
-     * @param expression the String to run the search on, case insensitive
+     * @param expression the words to look for, case and accent insensitive
      * @param id_user The creator of the workspace
      * @return The list of workspaces corresponding to the search
      */
     public static int searchMyWorkspacesCreatedCount(MapCatalog MC, String expression, String id_user) throws SQLException{
-        String query = "SELECT COUNT(*) FROM WORKSPACE WHERE ((LOWER(name) LIKE ?) OR (LOWER(description) LIKE ?)) AND id_creator= ?";
-        expression = "%" + expression.toLowerCase() + "%";
-        PreparedStatement stmt = MC.getConnection().prepareStatement(query);
-        stmt.setString(1, expression);
-        stmt.setString(2, expression);
-        stmt.setString(3, id_user);
-        ResultSet rs = stmt.executeQuery();
-        int count=0;
-        if(rs.next()){
-            count = rs.getInt("count(*)");
-        }
-        rs.close();
-        stmt.close();
-        return count;
+        List<String> terms = SearchIndex.terms(expression);
+        return Query.count(MC, SearchIndex.query(SEARCH_CREATED_COUNT, "WORKSPACE", "id_workspace", terms),
+                SearchIndex.parameters(terms, id_user));
     }
-}
\ No newline at end of file
+}
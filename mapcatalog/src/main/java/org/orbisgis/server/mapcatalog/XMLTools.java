@@ -29,6 +29,7 @@ package org.orbisgis.server.mapcatalog;
  */
 import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.NodeList;
 
 import java.util.HashMap;
 
@@ -58,4 +59,26 @@ public class XMLTools {
     public static String getTitleNameSpace(HashMap hm){
         return hm.get("http://www.opengis.net/ows/2.0").toString().trim().split(":")[1];
     }
+
+    /**
+     * This method returns the text of the abstracts of a OWScontext
+     * @param dom The XML document (ows context)
+     * @return The text of the Abstract elements, null if there is none
+     */
+    public static String getAbstract(Document dom){
+        String namespace = getNameSpacesMap(dom).get("http://www.opengis.net/ows/2.0");
+        if(namespace == null){
+            return null;
+        }
+        String[] split = namespace.trim().split(":");
+        NodeList nodes = dom.getElementsByTagName(split.length > 1 ? split[1] + ":Abstract" : "Abstract");
+        if(nodes.getLength() == 0){
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for(int i=0;i<nodes.getLength();i++){
+            sb.append(nodes.item(i).getTextContent()).append(' ');
+        }
+        return sb.toString();
+    }
 }
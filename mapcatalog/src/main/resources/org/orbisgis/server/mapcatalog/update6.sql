@@ -0,0 +1,12 @@
+DELETE FROM user_workspace WHERE id_user NOT IN (SELECT id_user FROM user) OR id_workspace NOT IN (SELECT id_workspace FROM workspace);
+DELETE FROM downloader_ows WHERE id_user NOT IN (SELECT id_user FROM user) OR id_owscontext NOT IN (SELECT id_owscontext FROM owscontext);
+alter table user_workspace add constraint IF NOT EXISTS fk_user_workspace_user_9 foreign key (id_user) references user (id_user) on delete cascade on update restrict;
+alter table user_workspace add constraint IF NOT EXISTS fk_user_workspace_workspace_10 foreign key (id_workspace) references workspace (id_workspace) on delete cascade on update restrict;
+create index IF NOT EXISTS ix_user_workspace_id_workspace_10 on user_workspace (id_workspace);
+alter table downloader_ows add constraint IF NOT EXISTS fk_downloader_ows_user_11 foreign key (id_user) references user (id_user) on delete cascade on update restrict;
+alter table downloader_ows add constraint IF NOT EXISTS fk_downloader_ows_owscontext_12 foreign key (id_owscontext) references owscontext (id_owscontext) on delete cascade on update restrict;
+create index IF NOT EXISTS ix_downloader_ows_id_owscontext_12 on downloader_ows (id_owscontext);
+create index IF NOT EXISTS ix_comment_id_map_id_comment_13 on comment (id_map, id_comment);
+create index IF NOT EXISTS ix_user_email_14 on user (email);
+create index IF NOT EXISTS ix_user_verification_15 on user (verification);
+UPDATE version SET version ='7';
\ No newline at end of file
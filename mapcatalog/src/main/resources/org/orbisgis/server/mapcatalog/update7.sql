@@ -0,0 +1,17 @@
+create table IF NOT EXISTS search_index (
+  type                  varchar(16) not null,
+  id                    bigint not null,
+  word                  varchar(64) not null,
+  weight                int not null,
+  constraint pk_search_index primary key (type, id, word)
+);
+create index IF NOT EXISTS ix_search_index_word_16 on search_index (type, word);
+create trigger IF NOT EXISTS tr_workspace_search AFTER INSERT, UPDATE, DELETE ON workspace FOR EACH ROW CALL "org.orbisgis.server.mapcatalog.SearchTrigger";
+create trigger IF NOT EXISTS tr_folder_search AFTER INSERT, UPDATE, DELETE ON folder FOR EACH ROW CALL "org.orbisgis.server.mapcatalog.SearchTrigger";
+create trigger IF NOT EXISTS tr_owscontext_search AFTER INSERT, UPDATE, DELETE ON owscontext FOR EACH ROW CALL "org.orbisgis.server.mapcatalog.SearchTrigger";
+create trigger IF NOT EXISTS tr_user_search AFTER INSERT, UPDATE, DELETE ON user FOR EACH ROW CALL "org.orbisgis.server.mapcatalog.SearchTrigger";
+UPDATE workspace SET name = name;
+UPDATE folder SET name = name;
+UPDATE owscontext SET title = title;
+UPDATE user SET name = name;
+UPDATE version SET version ='8';
\ No newline at end of file
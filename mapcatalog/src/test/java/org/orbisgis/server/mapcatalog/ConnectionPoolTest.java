@@ -0,0 +1,117 @@
+package org.orbisgis.server.mapcatalog;
+
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ * <p/>
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ * <p/>
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ * <p/>
+ * This file is part of OrbisGIS.
+ * <p/>
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ * <p/>
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class ConnectionPoolTest {
+    private static final String URL = "jdbc:h2:mem:pooltest";
+
+    @Test
+    public void reuse() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(URL, MapCatalog.USER_TEST, MapCatalog.PASSWORD_TEST, 2, 60, 1, 0);
+        Connection c1 = pool.getConnection();
+        PreparedStatement stmt = c1.prepareStatement("SELECT 1");
+        Assert.assertEquals(1, pool.getActiveCount());
+        c1.close();
+        Assert.assertTrue(c1.isClosed());
+        Assert.assertTrue(stmt.isClosed());
+        Assert.assertEquals(0, pool.getActiveCount());
+        Assert.assertEquals(1, pool.getIdleCount());
+        Connection c2 = pool.getConnection();
+        Assert.assertEquals(1, pool.getCreatedCount());
+        Assert.assertEquals(2, pool.getLeaseCount());
+        c2.close();
+        c2.close();
+        Assert.assertEquals(1, pool.getIdleCount());
+        pool.close();
+        Assert.assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void maxSize() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(URL, MapCatalog.USER_TEST, MapCatalog.PASSWORD_TEST, 1, 60, 0, 0);
+        Connection c1 = pool.getConnection();
+        try {
+            pool.getConnection();
+            Assert.fail();
+        } catch (SQLException e) {
+            Assert.assertEquals(1, pool.getTimeoutCount());
+        }
+        c1.close();
+        Connection c2 = pool.getConnection();
+        Assert.assertEquals(1, pool.getCreatedCount());
+        c2.close();
+        pool.close();
+    }
+
+    @Test
+    public void statementCache() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(URL, MapCatalog.USER_TEST, MapCatalog.PASSWORD_TEST, 1, 60, 1, 0);
+        pool.setStatementCacheSize(1);
+        Connection c1 = pool.getConnection();
+        PreparedStatement stmt = c1.prepareStatement("SELECT ?");
+        stmt.setInt(1, 1);
+        stmt.executeQuery().close();
+        stmt.close();
+        c1.close();
+        Connection c2 = pool.getConnection();
+        PreparedStatement again = c2.prepareStatement("SELECT ?");
+        Assert.assertEquals(1, pool.getStatementHitCount());
+        PreparedStatement other = c2.prepareStatement("SELECT 2");
+        Assert.assertEquals(2, pool.getStatementMissCount());
+        again.setInt(1, 2);
+        ResultSet rs = again.executeQuery();
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals(2, rs.getInt(1));
+        rs.close();
+        other.close();
+        again.close();
+        c2.close();
+        pool.close();
+    }
+
+    @Test
+    public void leakReportedWhenIdle() throws Exception {
+        ConnectionPool pool = new ConnectionPool(URL, MapCatalog.USER_TEST, MapCatalog.PASSWORD_TEST, 1, 60, 1, 1);
+        Connection c1 = pool.getConnection();
+        Assert.assertEquals(0, pool.getLeakCount());
+        // Nobody asks for a connection : the timer reports the leak.
+        Thread.sleep(2500);
+        Assert.assertEquals(1, pool.getLeakCount());
+        c1.close();
+        pool.close();
+    }
+}
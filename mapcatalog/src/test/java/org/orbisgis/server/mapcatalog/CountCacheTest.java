@@ -0,0 +1,69 @@
+package org.orbisgis.server.mapcatalog;
+
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ * <p/>
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ * <p/>
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ * <p/>
+ * This file is part of OrbisGIS.
+ * <p/>
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * <p/>
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ * <p/>
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+
+import org.junit.*;
+
+public class CountCacheTest {
+    @Test
+    public void sizeLimitTest() {
+        CountCache cache = new CountCache(60, 2);
+        cache.put("a", cache.getGeneration(), 1);
+        cache.put("b", cache.getGeneration(), 2);
+        // "a" becomes the most recently used one, "b" is forgotten first.
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+        cache.put("c", cache.getGeneration(), 3);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+        Assert.assertEquals(Integer.valueOf(3), cache.get("c"));
+    }
+
+    @Test
+    public void expiryTest() throws InterruptedException {
+        CountCache cache = new CountCache(1);
+        cache.put("a", cache.getGeneration(), 1);
+        Thread.sleep(1100);
+        cache.put("b", cache.getGeneration(), 2);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(Integer.valueOf(2), cache.get("b"));
+        Thread.sleep(1100);
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void staleCountTest() {
+        CountCache cache = new CountCache(60);
+        long generation = cache.getGeneration();
+        cache.clear();
+        cache.put("a", generation, 1);
+        Assert.assertNull(cache.get("a"));
+    }
+}
@@ -57,4 +57,72 @@ public class MapCatalogTest {
                         &&      title[1].equals("fr-FR")
         );
     }
+
+    /**
+     * Upgrades a version 6 database whose association tables reference removed rows
+     */
+    @Test
+    public void upgradeFromVersion6() throws SQLException {
+        String url = "jdbc:h2:./target/migrationdb";
+        MapCatalog previous = new MapCatalog(url, MapCatalog.USER_TEST, MapCatalog.PASSWORD_TEST);
+        previous.executeSQL("down.sql");
+        // The files are deleted once the last connection is closed
+        previous.close();
+        MapCatalog v6 = new MapCatalog(url, MapCatalog.USER_TEST, MapCatalog.PASSWORD_TEST);
+        v6.executeSQL("ups.sql");
+        Connection c = v6.getConnection();
+        try {
+            Statement st = c.createStatement();
+            st.execute("INSERT INTO version (version) VALUES ('6')");
+            st.execute("INSERT INTO user (id_user, name, email, password) VALUES (100, 'Jane', 'admin@admin.com', 'x')");
+            st.execute("INSERT INTO workspace (id_workspace, id_creator, name) VALUES (100, 100, 'Rivers')");
+            st.execute("INSERT INTO user_workspace (id_user, id_workspace) VALUES (100, 100)");
+            st.execute("INSERT INTO user_workspace (id_user, id_workspace) VALUES (101, 100)");
+            st.execute("INSERT INTO user_workspace (id_user, id_workspace) VALUES (100, 101)");
+            st.execute("INSERT INTO downloader_ows (id_user, id_owscontext) VALUES (101, 101)");
+            st.close();
+        } finally {
+            c.close();
+        }
+        v6.close();
+
+        MapCatalogProperties mcp = new MapCatalogProperties();
+        mcp.putProperty(MapCatalogProperties.DATABASE_URL, url);
+        mcp.putProperty(MapCatalogProperties.DATABASE_USER, MapCatalog.USER_TEST);
+        mcp.putProperty(MapCatalogProperties.DATABASE_PASSWORD, MapCatalog.PASSWORD_TEST);
+        MapCatalog mc = MapCatalog.init(mcp);
+        c = mc.getConnection();
+        try {
+            Statement st = c.createStatement();
+            Assert.assertEquals(8, count(st, "SELECT version FROM version"));
+            Assert.assertEquals(1, count(st, "SELECT COUNT(*) FROM user_workspace"));
+            Assert.assertEquals(0, count(st, "SELECT COUNT(*) FROM downloader_ows"));
+            Assert.assertEquals(1, count(st,
+                    "SELECT COUNT(*) FROM search_index WHERE type = 'WORKSPACE' AND id = 100 AND word = 'rivers'"));
+            Assert.assertEquals(1, count(st,
+                    "SELECT COUNT(*) FROM search_index WHERE type = 'USER' AND id = 100 AND word = 'jane'"));
+            // The foreign keys added by the upgrade reject the orphans from now on
+            try {
+                st.execute("INSERT INTO user_workspace (id_user, id_workspace) VALUES (101, 100)");
+                Assert.fail();
+            } catch (SQLException e) {
+                // expected
+            }
+            st.close();
+        } finally {
+            c.close();
+        }
+        mc.executeSQL("down.sql");
+        mc.close();
+    }
+
+    private static int count(Statement st, String query) throws SQLException {
+        ResultSet rs = st.executeQuery(query);
+        try {
+            Assert.assertTrue(rs.next());
+            return rs.getInt(1);
+        } finally {
+            rs.close();
+        }
+    }
 }
@@ -34,6 +34,9 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.InputStream;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -48,6 +51,7 @@ public class OWSContextTest {
         MC = new MapCatalog(MapCatalog.URL_TEST, MapCatalog.USER_TEST, MapCatalog.PASSWORD_TEST);
         MC.executeSQL("down.sql");
         MC.executeSQL("ups.sql");
+        MC.upgrade();
         MC.executeSQL("populate.sql");
     }
 
@@ -105,6 +109,40 @@ public class OWSContextTest {
         );
     }
 
+    @Test
+    public void abstractSearch() throws SQLException {
+        String xml = "<ns3:OWSContext xmlns:ns1=\"http://www.opengis.net/ows/2.0\" " +
+                "xmlns:ns3=\"http://www.opengis.net/ows-context\"><ns3:General>" +
+                "<ns1:Title xml:lang=\"fr-FR\">Carte</ns1:Title><ns1:Abstract>Occupation du sol</ns1:Abstract>" +
+                "</ns3:General><ns3:ResourceList/></ns3:OWSContext>";
+        Long id = new OWSContext("1",null,"1","Carte","").save(MC, new ByteArrayInputStream(xml.getBytes()));
+        List<OWSContext> list = OWSContext.search(MC, "1", "occupation sol");
+        Assert.assertEquals(1, list.size());
+        Assert.assertEquals(id.toString(), list.get(0).getId_owscontext());
+        OWSContext.delete(MC, id);
+        Assert.assertTrue(OWSContext.search(MC, "1", "occupation").isEmpty());
+    }
+
+    @Test
+    public void externalEntity() throws Exception {
+        File secret = File.createTempFile("secret", ".txt");
+        try {
+            FileWriter writer = new FileWriter(secret);
+            writer.write("confidential");
+            writer.close();
+            String xml = "<?xml version=\"1.0\"?><!DOCTYPE ctx [<!ENTITY leak SYSTEM \"" + secret.toURI() + "\">]>" +
+                    "<ns3:OWSContext xmlns:ns1=\"http://www.opengis.net/ows/2.0\" " +
+                    "xmlns:ns3=\"http://www.opengis.net/ows-context\"><ns3:General>" +
+                    "<ns1:Title>Carte</ns1:Title><ns1:Abstract>&leak;</ns1:Abstract>" +
+                    "</ns3:General><ns3:ResourceList/></ns3:OWSContext>";
+            Long id = new OWSContext("1",null,"1","Carte","").save(MC, new ByteArrayInputStream(xml.getBytes()));
+            Assert.assertTrue(OWSContext.search(MC, "1", "confidential").isEmpty());
+            OWSContext.delete(MC, id);
+        } finally {
+            secret.delete();
+        }
+    }
+
     @AfterClass
     public static void end() throws SQLException{
         MC.executeSQL("down.sql");
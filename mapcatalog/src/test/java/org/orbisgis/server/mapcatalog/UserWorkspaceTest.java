@@ -45,6 +45,7 @@ public class UserWorkspaceTest {
         MC = new MapCatalog(MapCatalog.URL_TEST, MapCatalog.USER_TEST, MapCatalog.PASSWORD_TEST);
         MC.executeSQL("down.sql");
         MC.executeSQL("ups.sql");
+        MC.upgrade();
         MC.executeSQL("populate.sql");
     }
 
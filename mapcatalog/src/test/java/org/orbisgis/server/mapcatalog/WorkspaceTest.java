@@ -43,6 +43,7 @@ public class WorkspaceTest {
         MC = new MapCatalog(MapCatalog.URL_TEST, MapCatalog.USER_TEST, MapCatalog.PASSWORD_TEST);
         MC.executeSQL("down.sql");
         MC.executeSQL("ups.sql");
+        MC.upgrade();
         MC.executeSQL("populate.sql");
     }
 
@@ -124,6 +125,52 @@ public class WorkspaceTest {
         );
     }
 
+    @Test
+    public void keysetPages() throws SQLException {
+        MC.setPageSize(2);
+        try {
+            List<Workspace> first = Workspace.pageAfter(MC, null);
+            Assert.assertEquals(2, first.size());
+            List<Workspace> second = Workspace.pageAfter(MC, first.get(1).getId_workspace());
+            List<Workspace> byOffset = Workspace.page(MC, 2);
+            Assert.assertEquals(byOffset.size(), second.size());
+            for (int i = 0; i < second.size(); i++) {
+                Assert.assertEquals(byOffset.get(i).getId_workspace(), second.get(i).getId_workspace());
+            }
+        } finally {
+            MC.setPageSize(MapCatalog.DEFAULT_PAGE_SIZE);
+        }
+    }
+
+    @Test
+    public void cachedCount() throws SQLException {
+        int count = Workspace.pageCount(MC);
+        long hits = MC.getCountHitCount();
+        Assert.assertEquals(count, Workspace.pageCount(MC));
+        Assert.assertEquals(hits + 1, MC.getCountHitCount());
+        Long id = new Workspace("1","counted","0","0","0","description").save(MC);
+        Assert.assertEquals(count + 1, Workspace.pageCount(MC));
+        Workspace.delete(MC, id);
+        Assert.assertEquals(count, Workspace.pageCount(MC));
+    }
+
+    @Test
+    public void rankedSearch() throws SQLException {
+        Long described = new Workspace("1","Réseau routier","0","0","0","Carte des lacs").save(MC);
+        Long named = new Workspace("1","Lacs de Nantes","0","0","0","description").save(MC);
+        List<Workspace> list = Workspace.search(MC, "LAC");
+        Assert.assertEquals(2, list.size());
+        Assert.assertEquals(named.toString(), list.get(0).getId_workspace());
+        Assert.assertEquals(described.toString(), list.get(1).getId_workspace());
+        list = Workspace.search(MC, "reseau rout");
+        Assert.assertEquals(1, list.size());
+        Assert.assertEquals(described.toString(), list.get(0).getId_workspace());
+        Assert.assertEquals(2, Workspace.searchCount(MC, "lac"));
+        Workspace.delete(MC, described);
+        Workspace.delete(MC, named);
+        Assert.assertEquals(0, Workspace.searchCount(MC, "lac"));
+    }
+
     @AfterClass
     public static void end() throws SQLException{
         MC.executeSQL("down.sql");
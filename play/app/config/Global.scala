@@ -64,6 +64,7 @@ object Global extends GlobalSettings {
   override def onStop(app: Application) {
     Logger.info("Application shutdown...")
     WMS.wmsCt.destroy()
+    mc.close()
     CatalogAPI.onStop()
     FU.cleanDirectory(WPS.wpsMain.scriptFolder)
   }
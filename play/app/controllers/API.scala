@@ -36,6 +36,8 @@ import java.net._
 import java.io.File
 import org.orbisgis.utils.FileUtils
 import org.gdms.source.Source
+import org.orbisgis.server.wms.WMSException
+import java.util.concurrent.RejectedExecutionException
 
 object API extends Controller {
 
@@ -81,4 +83,36 @@ object API extends Controller {
       BadRequest("There is no source with name " + name + ".")
     }
   }
+
+  /**
+  * Renders the tiles of a layer in the background, so that the matching WMTS GetTile requests are answered
+  * from the tile store. Expects {"layer", "tileMatrixSet", "minZoom", "maxZoom"} and optionally "style",
+  * "format" (image/png by default) and "bbox" ([minx, miny, maxx, maxy] in the CRS of the tile matrix set).
+  */
+  def seed = Action(parse.json) { request ⇒
+    val body = request.body
+    val params = for {
+      layer ← (body \ "layer").asOpt[String]
+      set ← (body \ "tileMatrixSet").asOpt[String]
+      minZoom ← (body \ "minZoom").asOpt[Int]
+      maxZoom ← (body \ "maxZoom").asOpt[Int]
+    } yield (layer, set, minZoom, maxZoom)
+
+    params.map {
+      case (layer, set, minZoom, maxZoom) ⇒
+        val style = (body \ "style").asOpt[String].getOrElse("")
+        val format = (body \ "format").asOpt[String].getOrElse("image/png")
+        val bbox = (body \ "bbox").asOpt[Seq[Double]].filter(_.length == 4).map(_.toArray).orNull
+        try {
+          // the tiles are drawn by the low priority seeding thread of the WMS, not by the threads of the requests
+          val count = WMS.wmsCt.seedInBackground(layer, style, set, format, minZoom, maxZoom, bbox)
+          Accepted(Json.toJson(Map("layer" -> Json.toJson(layer), "tiles" -> Json.toJson(count))))
+        } catch {
+          case e: WMSException ⇒ BadRequest(e.getMessage)
+          case e: RejectedExecutionException ⇒ ServiceUnavailable("Too many seeding requests are waiting.")
+        }
+    }.getOrElse {
+      BadRequest("Malformed input json.")
+    }
+  }
 }
@@ -81,8 +81,8 @@ public class Admin extends Controller{
             String[] values = {id_user};
             User user = User.page(MC, attributes, values).get(0);
             List<User> allUsers = User.pageOffset(MC, offset);
-            int pageNumber = (User.pageCount(MC)-1)/10+1;
-            int currentPage = (offset)/10+1;
+            int pageNumber = (User.pageCount(MC)-1)/MC.getPageSize()+1;
+            int currentPage = (offset)/MC.getPageSize()+1;
             if(Integer.valueOf(user.getAdmin_mapcatalog())<=10 || Integer.valueOf(user.getAdmin_wms())<=10 || Integer.valueOf(user.getAdmin_wps())<=10){
                 return ok(adminWMS.render(user,allUsers, currentPage, pageNumber));
             }else{
@@ -107,8 +107,8 @@ public class Admin extends Controller{
             String[] values = {id_user};
             User user = User.page(MC, attributes, values).get(0);
             List<User> allUsers = User.pageOffset(MC, offset);
-            int pageNumber = (User.pageCount(MC)-1)/10+1;
-            int currentPage = (offset)/10+1;
+            int pageNumber = (User.pageCount(MC)-1)/MC.getPageSize()+1;
+            int currentPage = (offset)/MC.getPageSize()+1;
             if(Integer.valueOf(user.getAdmin_mapcatalog())<=10 || Integer.valueOf(user.getAdmin_wms())<=10 || Integer.valueOf(user.getAdmin_wps())<=10){
                 return ok(adminMapCatalog.render(user, allUsers, currentPage, pageNumber));
             }else{
@@ -133,8 +133,8 @@ public class Admin extends Controller{
             String[] values = {id_user};
             User user = User.page(MC, attributes, values).get(0);
             List<User> allUsers = User.pageOffset(MC, offset);
-            int pageNumber = (User.pageCount(MC)-1)/10+1;
-            int currentPage = (offset)/10+1;
+            int pageNumber = (User.pageCount(MC)-1)/MC.getPageSize()+1;
+            int currentPage = (offset)/MC.getPageSize()+1;
             if(Integer.valueOf(user.getAdmin_mapcatalog())<=10 || Integer.valueOf(user.getAdmin_wms())<=10 || Integer.valueOf(user.getAdmin_wps())<=10){
                 return ok(adminWPS.render(user,allUsers, currentPage, pageNumber));
             }else{
@@ -306,8 +306,8 @@ public class Admin extends Controller{
                 DynamicForm form = Form.form().bindFromRequest();
                 String search = form.get("search");
                 List<User> allUsers = User.search(MC,search, offset);
-                int pageNumber = (User.searchCount(MC, search)-1)/10+1;
-                int currentPage = (offset)/10+1;
+                int pageNumber = (User.searchCount(MC, search)-1)/MC.getPageSize()+1;
+                int currentPage = (offset)/MC.getPageSize()+1;
                 return ok(adminWMS.render(user,allUsers, currentPage, pageNumber));
             }else{
                 flash("error",Message.ERROR_UNAUTHORIZED_USER);
@@ -334,8 +334,8 @@ public class Admin extends Controller{
                 DynamicForm form = Form.form().bindFromRequest();
                 String search = form.get("search");
                 List<User> allUsers = User.search(MC,search, offset);
-                int pageNumber = (User.searchCount(MC, search)-1)/10+1;
-                int currentPage = (offset)/10+1;
+                int pageNumber = (User.searchCount(MC, search)-1)/MC.getPageSize()+1;
+                int currentPage = (offset)/MC.getPageSize()+1;
                 return ok(adminWPS.render(user,allUsers, currentPage, pageNumber));
             }else{
                 flash("error",Message.ERROR_UNAUTHORIZED_USER);
@@ -362,8 +362,8 @@ public class Admin extends Controller{
                 DynamicForm form = Form.form().bindFromRequest();
                 String search = form.get("search");
                 List<User> allUsers = User.search(MC,search, offset);
-                int pageNumber = (User.searchCount(MC, search)-1)/10+1;
-                int currentPage = (offset)/10+1;
+                int pageNumber = (User.searchCount(MC, search)-1)/MC.getPageSize()+1;
+                int currentPage = (offset)/MC.getPageSize()+1;
                 return ok(adminMapCatalog.render(user,allUsers, currentPage, pageNumber));
             }else{
                 flash("error",Message.ERROR_UNAUTHORIZED_USER);
@@ -60,14 +60,32 @@ public class MapCatalogC extends Controller{
         return MC;
     }
 
+    /**
+     * Gets the number of pages needed to display the given number of rows
+     * @param count The number of rows
+     * @return The number of pages, at least 1
+     */
+    private static int pages(int count){
+        return (count-1)/MC.getPageSize()+1;
+    }
+
+    /**
+     * Gets the number of the page that begins at the given offset
+     * @param offset The number of rows before the page
+     * @return The number of the page, starting from 1
+     */
+    private static int page(int offset){
+        return offset/MC.getPageSize()+1;
+    }
+
     /**
      * Renders the MapCatalog Public page (the first ten of all workspaces)
      * @return The index page with the list of first 10 results of all workspaces
      */
     public static Result index() {
         try {
-            List<Workspace> list = Workspace.page(MC,0);
-            int pages = (Workspace.pageCount(MC)-1)/10+1;
+            List<Workspace> list = Workspace.pageAfter(MC, null);
+            int pages = pages(Workspace.pageCount(MC));
             return ok(mapCatalog.render(list,1,pages));
         } catch (SQLException e) {
             flash("error", Message.ERROR_GENERAL);
@@ -86,10 +104,10 @@ public class MapCatalogC extends Controller{
             String[] attributes = {"id_creator"};
             String id = session("id_user");
             String[] values = {id};
-            int pagesCreated = (Workspace.pageCount(MC,attributes,values)-1)/10+1;
-            int pagesMonitored = (UserWorkspace.pageWithWorkspaceCount(MC, id)-1)/10+1;
-            List<Workspace> list = Workspace.page(MC, attributes,values,0);
-            Map<UserWorkspace,Workspace> hm = UserWorkspace.pageWithWorkspace(MC,id,0);
+            int pagesCreated = pages(Workspace.pageCount(MC,attributes,values));
+            int pagesMonitored = pages(UserWorkspace.pageWithWorkspaceCount(MC, id));
+            List<Workspace> list = Workspace.pageAfter(MC, attributes, values, null);
+            Map<UserWorkspace,Workspace> hm = UserWorkspace.pageWithWorkspaceAfter(MC, id, null);
             return ok(myWorkspaces.render(list,hm,pagesCreated,pagesMonitored));
         } catch (SQLException e) {
             flash("error", Message.ERROR_GENERAL);
@@ -556,15 +574,15 @@ public class MapCatalogC extends Controller{
     /**
      * Search and return a specific list of workspaces from all workspaces
      * @param offset The pagination of the searched workspaces
-     * @return The mapCatalog index page with a list of workspaces between offset and offset+10, corresponding to the search query
+     * @return The mapCatalog index page with a page of workspaces beginning at offset, corresponding to the search query, the best matches first
      */
     public static Result searchPublicWorkspaces(int offset){
         try {
             DynamicForm form = Form.form().bindFromRequest();
             String search = form.get("search");
             List<Workspace> list = Workspace.search(MC,search, offset);
-            int pages = ((Workspace.searchCount(MC, search)-1)/10)+1;
-            int page = offset/10+1;
+            int pages = pages(Workspace.searchCount(MC, search));
+            int page = page(offset);
             flash("search",search);
             return ok(mapCatalog.render(list,page,pages));
         } catch (SQLException e) {
@@ -646,9 +664,9 @@ public class MapCatalogC extends Controller{
             DynamicForm form = Form.form().bindFromRequest();
             String search = form.get("search");
             String id_user = session("id_user");
-            int pagesCreated = (Workspace.searchMyWorkspacesCreatedCount(MC,search,id_user)-1)/10+1;
-            int pagesMonitored = (UserWorkspace.searchMyWorkspacesMonitoredCount(MC,search,id_user)-1)/10+1;
-            int currentpage = offset/10+1;
+            int pagesCreated = pages(Workspace.searchMyWorkspacesCreatedCount(MC,search,id_user));
+            int pagesMonitored = pages(UserWorkspace.searchMyWorkspacesMonitoredCount(MC,search,id_user));
+            int currentpage = page(offset);
             flash("search",search);
             if(choice.equals("created")){
                 List<Workspace> list = Workspace.searchMyWorkspacesCreated(MC,search,id_user,offset);
@@ -700,9 +718,9 @@ public class MapCatalogC extends Controller{
                     }
                 }
                 if(theContext!=null){
-                    SortedMap<Comment, User> hm = Comment.pageWithMap(MC, id_owscontext, 0);
+                    SortedMap<Comment, User> hm = Comment.pageWithMapBefore(MC, id_owscontext, null);
                     boolean hasDeleteRights = UserWorkspace.hasWriteRight(MC, id_workspace, id_user)||wor.getAll_write().equals("1")|| Workspace.isCreator(MC,id_workspace,id_user);
-                    int count = (Comment.pageWithMapCount(MC, id_owscontext)-1)/10+1;
+                    int count = pages(Comment.pageWithMapCount(MC, id_owscontext));
                     return ok(contextFolder.render(listF,listC,path,wor,theContext,hasDeleteRights,hm,MC,count));
                 }else{
                     flash("error",Message.ERROR_GENERAL);
@@ -745,9 +763,9 @@ public class MapCatalogC extends Controller{
                     }
                 }
                 if(theContext!=null){
-                    SortedMap<Comment, User> hm = Comment.pageWithMap(MC, id_owscontext, 0);
+                    SortedMap<Comment, User> hm = Comment.pageWithMapBefore(MC, id_owscontext, null);
                     boolean hasDeleteRights = UserWorkspace.hasWriteRight(MC, id_workspace, id_user)||wor.getAll_write().equals("1")|| Workspace.isCreator(MC,id_workspace,id_user)||Integer.valueOf(session().get("level").split("!")[2])<=10;
-                    int count = (Comment.pageWithMapCount(MC, id_owscontext)-1)/10+1;
+                    int count = pages(Comment.pageWithMapCount(MC, id_owscontext));
                     return ok(contextWorkspace.render(listF,listC,wor,theContext,hasDeleteRights,hm, MC, count));
                 }else{
                     flash("error",Message.ERROR_GENERAL);
@@ -836,16 +854,17 @@ public class MapCatalogC extends Controller{
     }
 
     /**
-     * Renders the MapCatalog Public page with result between offset and offset +10
+     * Renders the MapCatalog Public page with a page of results beginning at offset
      * @param offset The beginning of workspaces to display
+     * @param after The last workspace of the previous page, if it is known the page is found with it instead of the offset
      * @return The mapCatalog index page with workspaces beginning at an offset
      */
     @Security.Authenticated(Secured.class)
-    public static Result indexOffset(int offset) {
+    public static Result indexOffset(int offset, String after) {
         try {
-            List<Workspace> list = Workspace.page(MC, offset);
-            int pages = ((Workspace.pageCount(MC)-1)/10)+1;
-            int page = offset/10+1;
+            List<Workspace> list = after != null ? Workspace.pageAfter(MC, after) : Workspace.page(MC, offset);
+            int pages = pages(Workspace.pageCount(MC));
+            int page = page(offset);
             return ok(mapCatalog.render(list,page,pages));
         } catch (SQLException e) {
             flash("error", Message.ERROR_GENERAL);
@@ -855,21 +874,23 @@ public class MapCatalogC extends Controller{
     }
 
     /**
-     * Renders the MapCatalog Myworkspace page with result between offset and offset +10
+     * Renders the MapCatalog Myworkspace page with a page of results beginning at offset
      * @param offset The beginning of workspaces to display
+     * @param after The last workspace of the previous page, if it is known the page is found with it instead of the offset
      * @return The MyWorkspace page with Created workspaces beginning at an offset (pagination)
      */
     @Security.Authenticated(Secured.class)
-    public static Result myWorkspacesCreatedOffset(int offset) {
+    public static Result myWorkspacesCreatedOffset(int offset, String after) {
         try {
             String[] attributes = {"id_creator"};
             String id = session("id_user");
             String[] values = {id};
-            List<Workspace> list = Workspace.page(MC, attributes,values,offset);
-            Map<UserWorkspace,Workspace> hm = UserWorkspace.pageWithWorkspace(MC,id,0);
-            int pagesCreated = (Workspace.pageCount(MC,attributes,values)-1)/10+1;
-            int pagesMonitored = (UserWorkspace.pageWithWorkspaceCount(MC, id)-1)/10+1;
-            int currentpage = offset/10+1;
+            List<Workspace> list = after != null ? Workspace.pageAfter(MC, attributes, values, after)
+                    : Workspace.page(MC, attributes,values,offset);
+            Map<UserWorkspace,Workspace> hm = UserWorkspace.pageWithWorkspaceAfter(MC, id, null);
+            int pagesCreated = pages(Workspace.pageCount(MC,attributes,values));
+            int pagesMonitored = pages(UserWorkspace.pageWithWorkspaceCount(MC, id));
+            int currentpage = page(offset);
             flash("created",Integer.toString(currentpage));
             return ok(myWorkspaces.render(list,hm,pagesCreated,pagesMonitored));
         } catch (SQLException e) {
@@ -880,21 +901,23 @@ public class MapCatalogC extends Controller{
     }
 
     /**
-     * Renders the MapCatalog Myworkspace page with result between offset and offset +10
+     * Renders the MapCatalog Myworkspace page with a page of results beginning at offset
      * @param offset The beginning of workspaces to display
+     * @param after The last workspace of the previous page, if it is known the page is found with it instead of the offset
      * @return The MyWorkspace page with Monitored workspaces beginning at an offset (pagination)
      */
     @Security.Authenticated(Secured.class)
-    public static Result myWorkspacesMonitoredOffset(int offset) {
+    public static Result myWorkspacesMonitoredOffset(int offset, String after) {
         try {
             String[] attributes = {"id_creator"};
             String id = session("id_user");
             String[] values = {id};
-            List<Workspace> list = Workspace.page(MC, attributes,values,0);
-            Map<UserWorkspace,Workspace> hm = UserWorkspace.pageWithWorkspace(MC,id,offset);
-            int pagesCreated = (Workspace.pageCount(MC,attributes,values)-1)/10+1;
-            int pagesMonitored = (UserWorkspace.pageWithWorkspaceCount(MC, id)-1)/10+1;
-            int currentpage = offset/10+1;
+            List<Workspace> list = Workspace.pageAfter(MC, attributes, values, null);
+            Map<UserWorkspace,Workspace> hm = after != null ? UserWorkspace.pageWithWorkspaceAfter(MC, id, after)
+                    : UserWorkspace.pageWithWorkspace(MC,id,offset);
+            int pagesCreated = pages(Workspace.pageCount(MC,attributes,values));
+            int pagesMonitored = pages(UserWorkspace.pageWithWorkspaceCount(MC, id));
+            int currentpage = page(offset);
             flash("monitored",Integer.toString(currentpage));
             return ok(myWorkspaces.render(list,hm,pagesCreated,pagesMonitored));
         } catch (SQLException e) {
@@ -1002,10 +1025,11 @@ public class MapCatalogC extends Controller{
      * @param id_folder the parent of the context
      * @param id_owscontext the context
      * @param offset the number of comments to skip
+     * @param before The last comment of the previous page, if it is known the page is found with it instead of the offset
      * @return A page that displays the preview and comments about a context
      */
     @Security.Authenticated(Secured.class)
-    public static Result viewOWSFromParentOffset(String id_workspace, String id_folder, String id_owscontext, int offset){
+    public static Result viewOWSFromParentOffset(String id_workspace, String id_folder, String id_owscontext, int offset, String before){
         try {
             String[] attributes2 = {"id_workspace"};
             String[] values2 = {id_workspace};
@@ -1025,9 +1049,10 @@ public class MapCatalogC extends Controller{
                     }
                 }
                 if(theContext!=null){
-                    SortedMap<Comment, User> hm = Comment.pageWithMap(MC, id_owscontext, offset);
-                    flash("page", Integer.toString(offset / 10 + 1));
-                    int count = (Comment.pageWithMapCount(MC, id_owscontext)-1)/10+1;
+                    SortedMap<Comment, User> hm = before != null ? Comment.pageWithMapBefore(MC, id_owscontext, before)
+                            : Comment.pageWithMap(MC, id_owscontext, offset);
+                    flash("page", Integer.toString(page(offset)));
+                    int count = pages(Comment.pageWithMapCount(MC, id_owscontext));
                     boolean hasDeleteRights = UserWorkspace.hasWriteRight(MC, id_workspace, id_user)||wor.getAll_write().equals("1")|| Workspace.isCreator(MC,id_workspace,id_user)||Integer.valueOf(session().get("level").split("!")[2])<=10;
                     return ok(contextFolder.render(listF,listC,path,wor,theContext,hasDeleteRights,hm,MC,count));
                 }else{
@@ -1052,7 +1077,7 @@ public class MapCatalogC extends Controller{
      * @return The page where a preview and comments are displayed about the context
      */
     @Security.Authenticated(Secured.class)
-    public static Result viewOWSFromRootOffset(String id_workspace, String id_owscontext, int offset){
+    public static Result viewOWSFromRootOffset(String id_workspace, String id_owscontext, int offset, String before){
         try {
             String[] attributes2 = {"id_workspace"};
             String[] values2 = {id_workspace};
@@ -1071,9 +1096,10 @@ public class MapCatalogC extends Controller{
                     }
                 }
                 if(theContext!=null){
-                    SortedMap<Comment, User> hm = Comment.pageWithMap(MC, id_owscontext, offset);
-                    flash("page", Integer.toString(offset/10+1));
-                    int count = (Comment.pageWithMapCount(MC, id_owscontext)-1)/10+1;
+                    SortedMap<Comment, User> hm = before != null ? Comment.pageWithMapBefore(MC, id_owscontext, before)
+                            : Comment.pageWithMap(MC, id_owscontext, offset);
+                    flash("page", Integer.toString(page(offset)));
+                    int count = pages(Comment.pageWithMapCount(MC, id_owscontext));
                     boolean hasDeleteRights = UserWorkspace.hasWriteRight(MC, id_workspace, id_user)||wor.getAll_write().equals("1")|| Workspace.isCreator(MC,id_workspace,id_user)||Integer.valueOf(session().get("level").split("!")[2])<=10;
                     return ok(contextWorkspace.render(listF,listC,wor,theContext,hasDeleteRights,hm, MC, count));
                 }else{
@@ -31,19 +31,18 @@ package controllers
 import play.api._
 import play.api.mvc._
 import play.api.libs.iteratee.Enumerator
-import play.api.libs.concurrent.Akka
 import play.api.Play.current
 import play.api.data._
 import play.api.data.Forms._
-import org.orbisgis.server.wms.WMSResponse
+import org.orbisgis.server.wms.{ChunkedOutputStream, WMSResponse}
 import java.io.File
 import scala.collection.JavaConversions._
-import java.io.ByteArrayOutputStream
 import scala.collection.mutable.{Map => MutableMap}
+import scala.concurrent.{ExecutionContext, Future, Promise}
 import org.orbisgis.server.wms.{WMS => JavaWMS}
 import org.orbisgis.core.renderer.se.Style
 import org.apache.commons.io.{FileUtils => FU}
-//import needed for migration to play! 2.1.1
+//import needed for migration to play! 2.1.1, the callbacks run there must not block
 import play.api.libs.concurrent.Execution.Implicits._
 
 object WMS extends Controller {
@@ -87,8 +86,9 @@ object WMS extends Controller {
         if (source.exists() && source.getName.endsWith(".se")) {
           val target = new File(styleDir, source.getName())
           FU.copyFile(source, target)
-	  styles.put(target.getName.substring(0, target.getName.length - 3),
-            new Style(null, target.getAbsolutePath))
+	  val name = target.getName.substring(0, target.getName.length - 3)
+	  styles.put(name, new Style(null, target.getAbsolutePath))
+          wmsCt.styleChanged(name)
         }
         Redirect(routes.Application.index)
       })
@@ -102,6 +102,7 @@ object WMS extends Controller {
     if (source.exists()) {
       source.delete()
       styles.remove(name)
+      wmsCt.styleChanged(name)
     }
 
     Redirect(routes.Application.index)
@@ -117,6 +118,8 @@ object WMS extends Controller {
       val old = new File(styleDir, oldname)
       old.renameTo(new File(styleDir, name))
       styles.put(name, styles.remove(oldname).get)
+      wmsCt.styleChanged(oldname)
+      wmsCt.styleChanged(name)
       Redirect(routes.Application.index)
     })
   }
@@ -127,42 +130,69 @@ object WMS extends Controller {
   def clearStyles = Action {
     styleDir.listFiles() foreach (f ⇒ if (f.isFile()) f.delete())
     styles.clear
+    wmsCt.stylesCleared
     Redirect(routes.Application.index)
   }
   
+  // size of the chunks of a streamed answer, and number of chunks that can wait for the client
+  val chunkSize = 64 * 1024
+  val maxChunks = 16
+
   /**
-  * WMS entry point action.
+  * WMS entry point action. The answer is sent as it is written : small answers are sent at once with their
+  * length, larger ones use the chunked transfer encoding.
   */
   def wms = Action { request ⇒
-    var ct: String = "" // contentType
-    var code: Int = 200 // responseCode
+    @volatile var ct: String = "" // contentType
+    @volatile var code: Int = 200 // responseCode
+    @volatile var headers: Map[String, String] = Map() // extra response headers
 
     class res extends WMSResponse {
       def setContentType(t: String) = ct = t
       // maybe there is a cleaner way to get this URL
       def getRequestUrl = "http://" + request.host + controllers.routes.WMS.wms
       def setResponseCode(i: Int) = code = i
+      def setHeader(name: String, value: String) = headers += (name -> value)
+      def getRequestHeader(name: String) = request.headers.get(name).orNull
+      def getRemoteAddress = request.remoteAddress
     }
 
-    def getImage: Array[Byte] = {
-      // ByteArray for now.
-      val out = new ByteArrayOutputStream
-      wmsCt.processRequests(request.queryString.map(a => (a._1, a._2.toArray)), out, new res)
-      val b = out.toByteArray()
-      out.close()
-      b
-    }
+    val out = new ChunkedOutputStream(chunkSize, maxChunks)
+    val head = Promise[Boolean]()
+    out.onHead(new Runnable { def run() = head.success(out.awaitHead()) })
 
-    // get the image
-    // this should get refactored into a proper actor
-    val p = Akka.future { getImage }
+    // the request runs on the render or I/O pool of the WMS, not on the threads of the other controllers
+    wmsCt.processRequestsAsync(request.queryString.map(a => (a._1, a._2.toArray)), out, new res)
 
     Async {
-      p.map { o ⇒
-        SimpleResult(
-          header = ResponseHeader(code, Map(CONTENT_LENGTH -> o.length.toString(), CONTENT_TYPE -> ct)),
-          body = Enumerator(o))
+      head.future.map { complete ⇒
+        if (complete) {
+          Option(out.getFailure).foreach(e ⇒ throw e)
+          val o = out.toByteArray
+          SimpleResult(
+            header = ResponseHeader(code, headers ++ Map(CONTENT_LENGTH -> o.length.toString(), CONTENT_TYPE -> ct)),
+            body = Enumerator(o))
+        } else {
+          // waiting for the next chunk blocks, so it is done on the reader pool, never on the pools of the writers
+          val reader = ExecutionContext.fromExecutor(wmsCt.getExecutor.getReaderExecutor)
+          val body = Enumerator.generateM(Future {
+            Option(out.nextChunk()).orElse {
+              // a failure after the head has been sent fails the enumerator, so that the connection is aborted
+              // instead of ending a truncated answer as if it was complete
+              Option(out.getFailure).foreach(e ⇒ throw e)
+              None
+            }
+          }(reader))
+          Status(code).stream(body.onDoneEnumerating(out.cancel())).as(ct).withHeaders(headers.toSeq: _*)
+        }
       }
     }
   }
+
+  /**
+  * Metrics of the WMS requests, as a JSON document.
+  */
+  def metrics = Action {
+    Ok(wmsCt.getMetrics.toJSON).as("application/json")
+  }
 }
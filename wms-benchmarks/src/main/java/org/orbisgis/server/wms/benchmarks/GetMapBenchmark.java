@@ -0,0 +1,98 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full GetMap requests, from the parameters to the encoded image, at several sizes, formats and numbers of
+ * layers. The answers are not cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GetMapBenchmark {
+
+        @Param({"1000", "100000"})
+        public int features;
+
+        @Param({"1", "4"})
+        public int layers;
+
+        @Param({"256", "1024", "2048"})
+        public int size;
+
+        @Param({"image/png", "image/png; mode=8bit", "image/jpeg"})
+        public String format;
+
+        private WMSFixture fixture;
+        private Map<String, String[]> query;
+
+        @Setup
+        public void setUp() throws Exception {
+                fixture = new WMSFixture(WMSFixture.getDefaultProperties());
+                StringBuilder names = new StringBuilder();
+                for (int i = 0; i < layers; i++) {
+                        String name = "polygons" + i;
+                        fixture.addLayer(name, features);
+                        if (i > 0) {
+                                names.append(',');
+                        }
+                        names.append(name);
+                }
+                query = WMSFixture.getMapQuery(names.toString(), ShapefileFixtures.EXTENT, "EPSG:4326", size, size,
+                        format);
+        }
+
+        @TearDown
+        public void tearDown() {
+                fixture.close();
+        }
+
+        @Benchmark
+        public long getMap() throws Exception {
+                return fixture.request(query);
+        }
+}
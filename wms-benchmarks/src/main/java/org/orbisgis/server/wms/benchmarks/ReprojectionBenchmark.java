@@ -0,0 +1,135 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms.benchmarks;
+
+import net.opengis.wms.Layer;
+import org.gdms.data.DataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.orbisgis.server.wms.ReprojectionManager;
+import org.orbisgis.server.wms.SpatialIndexService;
+import org.orbisgis.server.wms.WMSException;
+import org.orbisgis.server.wms.WMSProperties;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reprojection of a layer from EPSG:4326 to EPSG:3857 : the whole layer, as done the first time a layer is
+ * requested in a CRS, and the features of a window of a sixteenth of the layer, as done for each request in the
+ * window mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReprojectionBenchmark {
+
+        private static final String LAYER = "polygons";
+        private static final String TARGET = "EPSG:3857";
+        private static final double EARTH_HALF_CIRCUMFERENCE = 20037508.342789244;
+
+        @Param({"1000", "100000"})
+        public int features;
+
+        private WMSFixture fixture;
+        private ReprojectionManager manager;
+        private SpatialIndexService indexes;
+        private double[] window;
+
+        @Setup
+        public void setUp() throws Exception {
+                WMSProperties props = WMSFixture.getDefaultProperties();
+                fixture = new WMSFixture(props);
+                fixture.addLayer(LAYER, features);
+                manager = new ReprojectionManager(props, new File(fixture.getFolder(), "bench-reprojected"),
+                        new HashMap<String, Layer>());
+                indexes = new SpatialIndexService(1, manager);
+                manager.setIndexes(indexes);
+                // The window mode scans the layer until its index has been built in the background.
+                indexes.build(LAYER).get();
+                double[] e = ShapefileFixtures.EXTENT;
+                double w = (e[2] - e[0]) / 4;
+                double h = (e[3] - e[1]) / 4;
+                double x = e[0] + 1.5 * w;
+                double y = e[1] + 1.5 * h;
+                window = new double[]{mercatorX(x), mercatorY(y), mercatorX(x + w), mercatorY(y + h)};
+        }
+
+        /**
+         * Drops the reprojected layer so that each invocation of {@link #wholeLayer()} builds it again.
+         */
+        @Setup(Level.Invocation)
+        public void dropReprojectedLayer() {
+                manager.layerRemoved(LAYER);
+        }
+
+        @TearDown
+        public void tearDown() {
+                manager.dispose();
+                indexes.dispose();
+                fixture.close();
+        }
+
+        @Benchmark
+        public String wholeLayer() throws WMSException {
+                String name = manager.getProjectedSource(LAYER, TARGET);
+                manager.releaseProjectedSource(name);
+                return name;
+        }
+
+        @Benchmark
+        public DataSource window() throws WMSException {
+                DataSource source = manager.getWindowSource(LAYER, "EPSG:4326", TARGET, window);
+                manager.releaseWindowSource(source.getName());
+                return source;
+        }
+
+        private static double mercatorX(double lon) {
+                return lon * EARTH_HALF_CIRCUMFERENCE / 180;
+        }
+
+        private static double mercatorY(double lat) {
+                double y = Math.log(Math.tan((90 + lat) * Math.PI / 360)) / (Math.PI / 180);
+                return y * EARTH_HALF_CIRCUMFERENCE / 180;
+        }
+}
@@ -0,0 +1,191 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Writes synthetic polygon shapefiles in WGS 84 : a grid of regular polygons, slightly moved at random with a
+ * fixed seed so that two fixtures of the same size are identical. Each feature has an integer id and a name.
+ */
+public final class ShapefileFixtures {
+
+        /**
+         * The extent of the fixtures, as {minx, miny, maxx, maxy}.
+         */
+        public static final double[] EXTENT = {-5, 41, 10, 51};
+        private static final int VERTICES = 12;
+        private static final int POLYGON = 5;
+        private static final int HEADER_SIZE = 100;
+        private static final int NAME_LENGTH = 24;
+        private static final int ID_LENGTH = 10;
+        private static final String PRJ = "GEOGCS[\"WGS 84\",DATUM[\"WGS_1984\",SPHEROID[\"WGS 84\",6378137,"
+                + "298.257223563,AUTHORITY[\"EPSG\",\"7030\"]],AUTHORITY[\"EPSG\",\"6326\"]],PRIMEM[\"Greenwich\",0,"
+                + "AUTHORITY[\"EPSG\",\"8901\"]],UNIT[\"degree\",0.01745329251994328,AUTHORITY[\"EPSG\",\"9122\"]],"
+                + "AUTHORITY[\"EPSG\",\"4326\"]]";
+
+        private ShapefileFixtures() {
+        }
+
+        /**
+         * Writes a shapefile with the given number of polygons, and its shx, dbf and prj files.
+         * @param shp The shp file to write. The other files are written next to it.
+         * @param features The number of polygons.
+         * @throws IOException If the files can't be written.
+         */
+        public static void write(File shp, int features) throws IOException {
+                String base = shp.getPath().substring(0, shp.getPath().length() - ".shp".length());
+                int side = (int) Math.ceil(Math.sqrt(features));
+                double cellWidth = (EXTENT[2] - EXTENT[0]) / side;
+                double cellHeight = (EXTENT[3] - EXTENT[1]) / side;
+                int contentLength = 4 + 32 + 4 + 4 + 4 + 16 * (VERTICES + 1);
+                int recordLength = 8 + contentLength;
+                Random random = new Random(features);
+                DataOutputStream shpOut = open(shp);
+                DataOutputStream shxOut = open(new File(base + ".shx"));
+                try {
+                        writeHeader(shpOut, HEADER_SIZE + features * recordLength);
+                        writeHeader(shxOut, HEADER_SIZE + features * 8);
+                        ByteBuffer record = ByteBuffer.allocate(contentLength).order(ByteOrder.LITTLE_ENDIAN);
+                        for (int i = 0; i < features; i++) {
+                                double cx = EXTENT[0] + (i % side + 0.5 + 0.2 * (random.nextDouble() - 0.5)) * cellWidth;
+                                double cy = EXTENT[1] + (i / side + 0.5 + 0.2 * (random.nextDouble() - 0.5)) * cellHeight;
+                                double rx = cellWidth * 0.4;
+                                double ry = cellHeight * 0.4;
+                                record.clear();
+                                record.putInt(POLYGON);
+                                record.putDouble(cx - rx).putDouble(cy - ry).putDouble(cx + rx).putDouble(cy + ry);
+                                record.putInt(1).putInt(VERTICES + 1).putInt(0);
+                                // Outer rings are clockwise in the shapefiles.
+                                for (int k = 0; k <= VERTICES; k++) {
+                                        double a = -2 * Math.PI * (k % VERTICES) / VERTICES;
+                                        record.putDouble(cx + rx * Math.cos(a)).putDouble(cy + ry * Math.sin(a));
+                                }
+                                shxOut.writeInt((HEADER_SIZE + i * recordLength) / 2);
+                                shxOut.writeInt(contentLength / 2);
+                                shpOut.writeInt(i + 1);
+                                shpOut.writeInt(contentLength / 2);
+                                shpOut.write(record.array());
+                        }
+                } finally {
+                        shpOut.close();
+                        shxOut.close();
+                }
+                writeDbf(new File(base + ".dbf"), features);
+                Writer prj = new FileWriter(base + ".prj");
+                try {
+                        prj.write(PRJ);
+                } finally {
+                        prj.close();
+                }
+        }
+
+        /**
+         * Gets the bounding box of the cell of the fixture grid that contains the given point, which is the
+         * extent of a map that shows about one feature.
+         * @param features The number of features of the fixture.
+         * @param x The longitude of the point.
+         * @param y The latitude of the point.
+         * @return The bounding box as {minx, miny, maxx, maxy}.
+         */
+        public static double[] getCell(int features, double x, double y) {
+                int side = (int) Math.ceil(Math.sqrt(features));
+                double cellWidth = (EXTENT[2] - EXTENT[0]) / side;
+                double cellHeight = (EXTENT[3] - EXTENT[1]) / side;
+                double minX = EXTENT[0] + Math.floor((x - EXTENT[0]) / cellWidth) * cellWidth;
+                double minY = EXTENT[1] + Math.floor((y - EXTENT[1]) / cellHeight) * cellHeight;
+                return new double[]{minX, minY, minX + cellWidth, minY + cellHeight};
+        }
+
+        private static DataOutputStream open(File f) throws IOException {
+                return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        }
+
+        private static void writeHeader(DataOutputStream out, int fileLength) throws IOException {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(9994);
+                header.position(24);
+                header.putInt(fileLength / 2);
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(1000).putInt(POLYGON);
+                header.putDouble(EXTENT[0]).putDouble(EXTENT[1]).putDouble(EXTENT[2]).putDouble(EXTENT[3]);
+                out.write(header.array());
+        }
+
+        private static void writeDbf(File dbf, int features) throws IOException {
+                DataOutputStream out = open(dbf);
+                try {
+                        ByteBuffer header = ByteBuffer.allocate(32 + 2 * 32 + 1).order(ByteOrder.LITTLE_ENDIAN);
+                        header.put((byte) 3).put((byte) 113).put((byte) 1).put((byte) 1);
+                        header.putInt(features);
+                        header.putShort((short) (32 + 2 * 32 + 1));
+                        header.putShort((short) (1 + ID_LENGTH + NAME_LENGTH));
+                        header.position(32);
+                        putField(header, "ID", 'N', ID_LENGTH);
+                        putField(header, "NAME", 'C', NAME_LENGTH);
+                        header.put((byte) 0x0D);
+                        out.write(header.array());
+                        for (int i = 0; i < features; i++) {
+                                out.write(' ');
+                                out.write(pad(Integer.toString(i), ID_LENGTH, true));
+                                out.write(pad("feature " + i, NAME_LENGTH, false));
+                        }
+                        out.write(0x1A);
+                } finally {
+                        out.close();
+                }
+        }
+
+        private static void putField(ByteBuffer header, String name, char type, int length) {
+                int start = header.position();
+                header.put(name.getBytes());
+                header.position(start + 11);
+                header.put((byte) type);
+                header.position(start + 16);
+                header.put((byte) length);
+                header.put((byte) 0);
+                header.position(start + 32);
+        }
+
+        private static byte[] pad(String value, int length, boolean right) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = value.length(); i < length; i++) {
+                        sb.append(' ');
+                }
+                return (right ? sb + value : value + sb).getBytes();
+        }
+}
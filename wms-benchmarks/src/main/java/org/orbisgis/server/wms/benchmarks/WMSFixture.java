@@ -0,0 +1,252 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms.benchmarks;
+
+import org.orbisgis.core.DataManager;
+import org.orbisgis.core.Services;
+import org.orbisgis.core.renderer.se.Style;
+import org.orbisgis.core.workspace.CoreWorkspace;
+import org.orbisgis.server.wms.WMS;
+import org.orbisgis.server.wms.WMSProperties;
+import org.orbisgis.server.wms.WMSResponse;
+import org.orbisgis.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A WMS server running in a temporary workspace, with synthetic layers, used by the benchmarks. The answers are
+ * counted and dropped.
+ */
+public final class WMSFixture {
+
+        private final File folder;
+        private final WMS wms = new WMS();
+
+        /**
+         * Starts a server in a new temporary folder.
+         * @param properties The configuration of the server.
+         * @throws IOException If the temporary folder can't be created.
+         */
+        public WMSFixture(WMSProperties properties) throws IOException {
+                folder = File.createTempFile("wms-bench", null);
+                if (!folder.delete() || !folder.mkdirs()) {
+                        throw new IOException("Can't create the folder " + folder);
+                }
+                CoreWorkspace workspace = new CoreWorkspace();
+                workspace.setWorkspaceFolder(new File(folder, "workspace").getAbsolutePath());
+                wms.init(workspace, Collections.<String, Style>emptyMap(), Collections.<String, String[]>emptyMap(),
+                        properties);
+        }
+
+        /**
+         * Gets the configuration used by the benchmarks : the answers are never cached, so that each request is
+         * actually processed.
+         * @return The configuration.
+         */
+        public static WMSProperties getDefaultProperties() {
+                WMSProperties props = new WMSProperties();
+                props.putProperty(WMSProperties.TITLE, "Benchmarks");
+                props.putProperty(WMSProperties.CACHE_MEMORY_SIZE, "0");
+                return props;
+        }
+
+        /**
+         * Writes a synthetic layer with the given number of polygons and registers it.
+         * @param name The name of the layer.
+         * @param features The number of polygons.
+         * @throws IOException If the shapefile can't be written.
+         */
+        public void addLayer(String name, int features) throws IOException {
+                File shp = new File(folder, name + ".shp");
+                ShapefileFixtures.write(shp, features);
+                Services.getService(DataManager.class).getSourceManager().register(name, shp);
+        }
+
+        /**
+         * Processes a request and checks it has been answered successfully.
+         * @param query The parameters of the request, with upper case names.
+         * @return The size of the answer.
+         * @throws Exception If the request fails or is answered with an error code.
+         */
+        public long request(Map<String, String[]> query) throws Exception {
+                CountingStream out = new CountingStream();
+                Response response = new Response();
+                wms.processRequests(query, out, response);
+                if (response.code != 200) {
+                        throw new IllegalStateException("The request was answered with the code " + response.code);
+                }
+                return out.count;
+        }
+
+        /**
+         * Gets the server.
+         * @return The server.
+         */
+        public WMS getWMS() {
+                return wms;
+        }
+
+        /**
+         * Gets the temporary folder of this fixture.
+         * @return The folder.
+         */
+        public File getFolder() {
+                return folder;
+        }
+
+        /**
+         * Stops the server and removes its folder.
+         */
+        public void close() {
+                try {
+                        wms.destroy();
+                } finally {
+                        FileUtils.deleteDir(folder);
+                }
+        }
+
+        /**
+         * Builds the parameters of a GetMap request.
+         * @param layers The names of the layers, separated by commas.
+         * @param bBox The extent as {minx, miny, maxx, maxy}.
+         * @param crs The CRS of the map.
+         * @param width The width of the map.
+         * @param height The height of the map.
+         * @param format The format of the image.
+         * @return The parameters.
+         */
+        public static Map<String, String[]> getMapQuery(String layers, double[] bBox, String crs, int width,
+                                                        int height, String format) {
+                Map<String, String[]> query = new HashMap<String, String[]>();
+                put(query, "SERVICE", "WMS");
+                put(query, "VERSION", "1.3.0");
+                put(query, "REQUEST", "GetMap");
+                put(query, "LAYERS", layers);
+                put(query, "STYLES", "");
+                put(query, "CRS", crs);
+                put(query, "BBOX", bBox[0] + "," + bBox[1] + "," + bBox[2] + "," + bBox[3]);
+                put(query, "WIDTH", Integer.toString(width));
+                put(query, "HEIGHT", Integer.toString(height));
+                put(query, "FORMAT", format);
+                put(query, "TRANSPARENT", "TRUE");
+                return query;
+        }
+
+        /**
+         * Builds the parameters of a GetFeatureInfo request on a map of the given layers.
+         * @param layers The names of the layers, separated by commas.
+         * @param bBox The extent of the map as {minx, miny, maxx, maxy}.
+         * @param size The width and height of the map.
+         * @param i The column of the queried pixel.
+         * @param j The row of the queried pixel.
+         * @return The parameters.
+         */
+        public static Map<String, String[]> getFeatureInfoQuery(String layers, double[] bBox, int size, int i,
+                                                                int j) {
+                Map<String, String[]> query = getMapQuery(layers, bBox, "EPSG:4326", size, size, "image/png");
+                put(query, "REQUEST", "GetFeatureInfo");
+                put(query, "QUERY_LAYERS", layers);
+                put(query, "INFO_FORMAT", "text/plain");
+                put(query, "I", Integer.toString(i));
+                put(query, "J", Integer.toString(j));
+                return query;
+        }
+
+        /**
+         * Builds the parameters of a GetCapabilities request.
+         * @return The parameters.
+         */
+        public static Map<String, String[]> getCapabilitiesQuery() {
+                Map<String, String[]> query = new HashMap<String, String[]>();
+                put(query, "SERVICE", "WMS");
+                put(query, "VERSION", "1.3.0");
+                put(query, "REQUEST", "GetCapabilities");
+                return query;
+        }
+
+        private static void put(Map<String, String[]> query, String name, String value) {
+                query.put(name, new String[]{value});
+        }
+
+        /**
+         * Counts the bytes of an answer and drops them.
+         */
+        private static final class CountingStream extends OutputStream {
+                private long count = 0;
+
+                @Override
+                public void write(int b) {
+                        count++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                        count += len;
+                }
+        }
+
+        /**
+         * Records the response code, 200 unless another one is set, as done by the Play application.
+         */
+        private static final class Response implements WMSResponse {
+                private int code = 200;
+
+                @Override
+                public void setContentType(String contentType) {
+                }
+
+                @Override
+                public String getRequestUrl() {
+                        return "http://localhost:9000/wms/wms";
+                }
+
+                @Override
+                public void setResponseCode(int code) {
+                        this.code = code;
+                }
+
+                @Override
+                public void setHeader(String name, String value) {
+                }
+
+                @Override
+                public String getRequestHeader(String name) {
+                        return null;
+                }
+
+                @Override
+                public String getRemoteAddress() {
+                        return null;
+                }
+        }
+}
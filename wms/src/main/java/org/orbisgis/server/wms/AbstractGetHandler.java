@@ -32,20 +32,6 @@ import com.vividsolutions.jts.geom.Envelope;
 import net.opengis.wms.Layer;
 import org.apache.log4j.Logger;
 import org.gdms.data.DataSource;
-import org.gdms.data.DataSourceFactory;
-import org.gdms.data.schema.DefaultMetadata;
-import org.gdms.data.schema.Metadata;
-import org.gdms.data.schema.MetadataUtilities;
-import org.gdms.data.types.CRSConstraint;
-import org.gdms.data.types.Constraint;
-import org.gdms.data.types.Type;
-import org.gdms.data.types.TypeFactory;
-import org.gdms.data.values.Value;
-import org.gdms.data.values.ValueFactory;
-import org.gdms.driver.DiskBufferDriver;
-import org.gdms.driver.DriverException;
-import org.gdms.source.SourceManager;
-import org.gdms.sql.function.spatial.geometry.crs.ST_Transform;
 import org.orbisgis.core.DataManager;
 import org.orbisgis.core.Services;
 import org.orbisgis.core.layerModel.ILayer;
@@ -56,10 +42,14 @@ import org.orbisgis.core.renderer.se.SeExceptions;
 import org.orbisgis.core.renderer.se.Style;
 
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.OutputStream;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import org.cts.crs.CRSException;
 
 /**
  * Abstract class used to store method shared between GetMapHandler and GetFeatureInfoHandler.
@@ -69,9 +59,37 @@ public abstract class AbstractGetHandler {
 
     private Map<String, Layer> layerMap;
     private static final Logger LOGGER = Logger.getLogger(AbstractGetHandler.class);
+    private final ReprojectionManager reprojection;
+    private volatile WMSMetrics metrics = new WMSMetrics();
+    private volatile LayerPool layerPool = new LayerPool(0, 0);
+    /**
+     * The temporary sources built for each LayerCollection in the window reprojection mode.
+     */
+    private final Map<LayerCollection, List<String>> windowSources =
+            Collections.synchronizedMap(new IdentityHashMap<LayerCollection, List<String>>());
+    /**
+     * The pooled layers leased for each LayerCollection.
+     */
+    private final Map<LayerCollection, List<LayerPool.Lease>> leases =
+            Collections.synchronizedMap(new IdentityHashMap<LayerCollection, List<LayerPool.Lease>>());
 
+    /**
+     * Builds a handler that keeps its reprojected sources in a folder of the temporary directory.
+     * @param input The map of registered layers
+     */
     public AbstractGetHandler(Map<String,Layer> input){
+        this(input, new ReprojectionManager(new WMSProperties(),
+                new File(System.getProperty("java.io.tmpdir"), "orbisgis-wms-reprojection"), input));
+    }
+
+    /**
+     * Builds a handler that gets its reprojected sources from the given manager.
+     * @param input The map of registered layers
+     * @param reprojection The manager of the reprojected sources
+     */
+    public AbstractGetHandler(Map<String,Layer> input, ReprojectionManager reprojection){
         layerMap = input;
+        this.reprojection = reprojection;
     }
 
     /**
@@ -82,6 +100,31 @@ public abstract class AbstractGetHandler {
         return layerMap;
     }
 
+    /**
+     * Sets the metrics the phases of the requests are recorded in.
+     * @param metrics The metrics of the server
+     */
+    public void setMetrics(WMSMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the pool the open and styled layers are leased from. The layers are opened for each request when it
+     * is not set.
+     * @param layerPool The pool of the server
+     */
+    public void setLayerPool(LayerPool layerPool) {
+        this.layerPool = layerPool;
+    }
+
+    /**
+     * Gets the metrics the phases of the requests are recorded in.
+     * @return The metrics of the server
+     */
+    protected WMSMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Prepare the layers that have been asked in the input WMS GetMap request.
      * @param layerList The list of layers. Takes precedence over stringSLD
@@ -98,12 +141,45 @@ public abstract class AbstractGetHandler {
     protected LayerCollection prepareLayers(String[] layerList, String[] styleList, String crs, String stringSLD,
                                             String exceptionsFormat, OutputStream output, WMSResponse wmsResponse,
                                             Map<String, Style> serverStyles)throws WMSException{
+        return prepareLayers(layerList, styleList, crs, null, stringSLD, exceptionsFormat, output, wmsResponse,
+                serverStyles);
+    }
 
+    /**
+     * Prepare the layers that have been asked in the input WMS GetMap request. The layers must be given back
+     * with {@link #closeLayers(LayerCollection)} once the request has been answered.
+     * @param layerList The list of layers. Takes precedence over stringSLD
+     * @param styleList The styles associated to the list
+     * @param crs The expected CRS
+     * @param bBox The requested extent, used to reproject only the needed features in the window mode. May be null.
+     * @param stringSLD A potential external SLD file.
+     * @param exceptionsFormat The expected format for exceptions
+     * @param output The output stream
+     * @param wmsResponse The wms response that will be used by Play in its HTTP trades
+     * @param serverStyles The map of known styles in the server
+     * @return A LayerCollection that gathers the layers asked in the request
+     * @throws WMSException If something wrong happen
+     */
+    protected LayerCollection prepareLayers(String[] layerList, String[] styleList, String crs, double[] bBox,
+                                            String stringSLD, String exceptionsFormat, OutputStream output,
+                                            WMSResponse wmsResponse, Map<String, Style> serverStyles)
+            throws WMSException{
+        long start = metrics.start();
+        try {
+            return buildLayers(layerList, styleList, crs, bBox, stringSLD, output, wmsResponse, serverStyles);
+        } finally {
+            metrics.record(WMSMetrics.Phase.PREPARE_LAYERS, start);
+        }
+    }
+
+    private LayerCollection buildLayers(String[] layerList, String[] styleList, String crs, double[] bBox,
+                                        String stringSLD, OutputStream output, WMSResponse wmsResponse,
+                                        Map<String, Style> serverStyles) throws WMSException {
         LayerCollection layers = new LayerCollection("Map");
         try {
             //First case : Layers and Styles are given with shp and se file names
             if (layerList != null && layerList.length > 0) {
-                layers = getLayerList(layerList, crs, styleList, serverStyles);
+                layers = getLayerList(layerList, crs, bBox, styleList, serverStyles);
 
             } else if (stringSLD != null) {
                 // Changing the sld String object to a Style type object
@@ -146,7 +222,7 @@ public abstract class AbstractGetHandler {
         for (int i = 0; i < sld.size(); i++) {
             layers.addLayer(sld.getLayer(i));
         }
-        layers.open();
+        open(layers);
         //In case of an external sld
         for (int i = 0; i < sld.size(); i++) {
             Style theStyle = sld.getLayer(i).getStyle(0);
@@ -167,56 +243,246 @@ public abstract class AbstractGetHandler {
      */
     protected LayerCollection getLayerList(String[] layerList, String crs, String[] styleList, Map<String, Style> serverStyles)
             throws LayerException, WMSException {
-        DataManager dataManager = Services.getService(DataManager.class);
+        return getLayerList(layerList, crs, null, styleList, serverStyles);
+    }
+
+    /**
+     * Builds the needed layers and put them in a common LayerCollection for later rendering. In the window
+     * reprojection mode, the layers that are not in the requested CRS only contain the features of bBox.
+     * @param layerList The names of the layers
+     * @param crs The requested CRS
+     * @param bBox The requested extent, or null to use whole layers.
+     * @param styleList The list of styles to apply
+     * @param serverStyles The mapping between styles and their names
+     * @return A LayerCollection gathering all the requested layers
+     * @throws org.orbisgis.core.layerModel.LayerException
+     * @throws WMSException
+     */
+    protected LayerCollection getLayerList(String[] layerList, String crs, double[] bBox, String[] styleList,
+                                           Map<String, Style> serverStyles) throws LayerException, WMSException {
         LayerCollection layers = new LayerCollection("Map");
+        List<String> temporary = new ArrayList<String>();
+        windowSources.put(layers, temporary);
+        List<LayerPool.Lease> leased = new ArrayList<LayerPool.Lease>();
+        leases.put(layers, leased);
+        boolean done = false;
+        try {
+            fillLayerList(layers, temporary, leased, layerList, crs, bBox, styleList, serverStyles);
+            done = true;
+        } finally {
+            if (!done) {
+                try {
+                    closeLayers(layers);
+                } catch (LayerException ex) {
+                    LOGGER.debug("An error occurred while closing resources", ex);
+                }
+            }
+        }
+        return layers;
+    }
+
+    private void fillLayerList(LayerCollection layers, List<String> temporary, List<LayerPool.Lease> leased,
+                               String[] layerList, String crs, double[] bBox, String[] styleList,
+                               Map<String, Style> serverStyles) throws LayerException, WMSException {
+        DataManager dataManager = Services.getService(DataManager.class);
+        LayerPool pool = layerPool;
         int i;
         // Reverse order make the first layer been rendered in the last
         for (i = 0; i < layerList.length; i++) {
             //Create the ILayer with given layer name
             String layer = layerList[i];
+            Style style = getStyle(layer, i, styleList, serverStyles);
+            String styleName = i < styleList.length ? styleList[i] : style == null ? "" : layer;
             ILayer iLayer;
 
             //Checking if the layer CRS matches the requested one
             Map<String, Layer> map = getLayerMap();
             if (map.containsKey(layer)) {
                 String layerCRS = map.get(layer).getCRS().get(0);
-                if (layerCRS.equals(crs)) {
-                    iLayer = dataManager.createLayer(layer);
+                if (bBox != null && reprojection.isWindowMode() && !layerCRS.equals(crs)) {
+                    // The window sources only hold the features of this request, they are not pooled.
+                    long start = metrics.start();
+                    DataSource window;
+                    try {
+                        window = reprojection.getWindowSource(layer, layerCRS, crs, bBox);
+                    } finally {
+                        metrics.record(WMSMetrics.Phase.REPROJECTION, start);
+                    }
+                    temporary.add(window.getName());
+                    iLayer = dataManager.createLayer(window);
+                    layers.addLayer(iLayer);
+                    open(iLayer);
+                    applyStyle(iLayer, style);
                 } else {
-                    String newLayer = project(layer, crs);
-                    iLayer = dataManager.createLayer(newLayer);
+                    LayerPool.Lease lease = pool.lease(layer, styleName, crs);
+                    leased.add(lease);
+                    iLayer = lease.getLayer();
+                    if (iLayer == null) {
+                        String newLayer = layer;
+                        Runnable release = null;
+                        if (!layerCRS.equals(crs)) {
+                            newLayer = project(layer, crs);
+                            release = new ProjectionRelease(newLayer);
+                        }
+                        boolean pooled = false;
+                        try {
+                            iLayer = dataManager.createLayer(newLayer);
+                            open(iLayer);
+                            try {
+                                applyStyle(iLayer, style);
+                            } catch (WMSException ex) {
+                                closeQuietly(iLayer);
+                                throw ex;
+                            }
+                            // Only pooled once it is open and styled. The reprojected source is kept until the
+                            // pool closes the layer.
+                            lease.setLayer(iLayer, release);
+                            pooled = true;
+                        } finally {
+                            if (!pooled && release != null) {
+                                release.run();
+                            }
+                        }
+                    }
+                    layers.addLayer(iLayer);
                 }
             } else {
                 throw new LayerException();
             }
+        }
+    }
 
-            //Then adding the ILayer to the layers to render list
-            layers.addLayer(iLayer);
+    /**
+     * Gets the server style of the i-th requested layer : the requested one, or the one named after the layer
+     * if there is one. The requested name is used as the drawn layer may be a reprojected copy.
+     * @return The style, or null if the layer keeps its own.
+     */
+    private Style getStyle(String layer, int i, String[] styleList, Map<String, Style> serverStyles)
+            throws WMSException {
+        if (i < styleList.length) {
+            Style style = serverStyles.get(styleList[i]);
+            if (style == null) {
+                throw new WMSException("One of the requested SE styles doesn't "
+                        + "exist on this server. Please look for an "
+                        + "existing style in the server extended capabilities.");
+            }
+            return style;
         }
-        layers.open();
-        //In case of using the server's styles
-        for (int j = 0; j < layerList.length; j++) {
-            if (j < styleList.length) {
-                String styleString = styleList[j];
-                if (serverStyles.containsKey(styleString)) {
-                    Style style = serverStyles.get(styleString);
-                    layers.getChildren()[j].setStyle(0, style);
-                } else {
-                    throw new WMSException("One of the requested SE styles doesn't "
-                            + "exist on this server. Please look for an "
-                            + "existing style in the server extended capabilities.");
-                }
+        return serverStyles.get(layer);
+    }
 
-            } else {
-                //we add a server default style associated with the layer
-                String styleString = layers.getLayer(j).getName();
-                if (serverStyles.containsKey(styleString)) {
-                    Style style = serverStyles.get(styleString);
-                    layers.getChildren()[j].setStyle(0, style);
+    private void applyStyle(ILayer layer, Style style) throws WMSException {
+        if (style != null) {
+            layer.setStyle(0, copyStyle(style, layer));
+        }
+    }
+
+    private static void closeQuietly(ILayer layer) {
+        try {
+            layer.close();
+        } catch (LayerException ex) {
+            LOGGER.debug("An error occurred while closing resources", ex);
+        }
+    }
+
+    private void open(ILayer layer) throws LayerException {
+        long start = metrics.start();
+        try {
+            layer.open();
+        } finally {
+            metrics.record(WMSMetrics.Phase.OPEN, start);
+        }
+    }
+
+    private void open(LayerCollection layers) throws LayerException {
+        long start = metrics.start();
+        try {
+            layers.open();
+        } finally {
+            metrics.record(WMSMetrics.Phase.OPEN, start);
+        }
+    }
+
+    /**
+     * Gives back the pooled layers of the given collection to the pool, closes the other ones and removes the
+     * temporary sources that may have been built for them.
+     * @param layers The layers built by {@link #prepareLayers}.
+     * @throws LayerException If a layer can't be closed. The other ones are closed anyway.
+     */
+    protected void closeLayers(LayerCollection layers) throws LayerException {
+        try {
+            List<LayerPool.Lease> leased = leases.remove(layers);
+            LayerException error = null;
+            for (ILayer child : layers.getChildren()) {
+                LayerPool.Lease lease = null;
+                if (leased != null) {
+                    for (LayerPool.Lease l : leased) {
+                        if (l.getLayer() == child) {
+                            lease = l;
+                        }
+                    }
+                }
+                if (lease == null) {
+                    try {
+                        child.close();
+                    } catch (LayerException ex) {
+                        error = ex;
+                    }
+                }
+            }
+            if (leased != null) {
+                // Also gives back the layers opened before a failure, that have not been added to the collection.
+                for (LayerPool.Lease l : leased) {
+                    layerPool.release(l);
                 }
             }
+            if (error != null) {
+                throw error;
+            }
+        } finally {
+            releaseLayers(layers);
+        }
+    }
+
+    /**
+     * Removes the temporary sources that may have been built for the given layers. The layers must have been
+     * closed before.
+     * @param layers The layers built by {@link #prepareLayers}.
+     */
+    private void releaseLayers(LayerCollection layers) {
+        List<String> temporary = windowSources.remove(layers);
+        if (temporary != null) {
+            for (String name : temporary) {
+                reprojection.releaseWindowSource(name);
+            }
         }
-        return layers;
+    }
+
+    /**
+     * The styles registered in the server are shared by all the requests. Each request works on its own copy,
+     * bound to its own layer, so that concurrent renderings never share a Style instance.
+     * @param style The registered style
+     * @param layer The layer the copy will be associated to
+     * @return A new Style instance equivalent to style.
+     * @throws WMSException If the style can't be copied
+     */
+    protected Style copyStyle(Style style, ILayer layer) throws WMSException {
+        try {
+            return new Style(style.getJAXBType(), layer);
+        } catch (SeExceptions.InvalidStyle ex) {
+            throw new WMSException("The style " + style.getName() + " can't be applied to the layer", ex);
+        }
+    }
+
+    /**
+     * Creates the image the map is drawn in.
+     * @param type The type of the image, as in {@link BufferedImage#getType()}.
+     * @param width The width of the image
+     * @param height The height of the image
+     * @return A new, empty image.
+     */
+    protected BufferedImage createImage(int type, int width, int height) {
+        return new BufferedImage(width, height, type);
     }
 
     /**
@@ -245,10 +511,10 @@ public abstract class AbstractGetHandler {
         mt.setAdjustExtent(false);
         int imgType = BufferedImage.TYPE_4BYTE_ABGR;
 
-        if (ImageFormats.JPEG.toString().equals(imageFormat)) {
+        if (ImageFormats.fromString(imageFormat) == ImageFormats.JPEG) {
             imgType = BufferedImage.TYPE_3BYTE_BGR;
         }
-        BufferedImage img = new BufferedImage(width, height, imgType);
+        BufferedImage img = createImage(imgType, width, height);
         mt.setDpi(dpi);
         LOGGER.debug("DPI set to: "+dpi);
         mt.setImage(img);
@@ -257,6 +523,22 @@ public abstract class AbstractGetHandler {
 
     }
 
+    /**
+     * Releases a reprojected source once the layer that reads it has been closed.
+     */
+    private final class ProjectionRelease implements Runnable {
+        private final String name;
+
+        private ProjectionRelease(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            reprojection.releaseProjectedSource(name);
+        }
+    }
+
     /**
      * When a source need to be reprojected a new source is created with a specific name, this function compute the name.
      * This function only concatenate strings, it does not manage projection.
@@ -275,76 +557,11 @@ public abstract class AbstractGetHandler {
      * @throws WMSException
      */
     private String project(String sourceName, String targetCrs) throws WMSException {
-        DataSourceFactory dsf = Services.getService(DataManager.class).getDataSourceFactory();
-
-        // maybe we already converted it and there is nothing to do
-        final String newName = getProjectionSourceName(sourceName,targetCrs);
-        if (!dsf.getSourceManager().exists(newName)) {
-            try {
-                DataSource sds = dsf.getDataSource(sourceName);
-                sds.open();
-                try {
-                    // create a new DataSource
-                    Value newCRS = ValueFactory.createValue(targetCrs);
-                    Metadata md = sds.getMetadata();
-                    int spatialFieldIndex = MetadataUtilities.getSpatialFieldIndex(md);
-                    DiskBufferDriver driver = new DiskBufferDriver(dsf, getProjectedMetadata(md, targetCrs));
-                    ST_Transform transformFunction = new ST_Transform();
-                    long rowCount = sds.getRowCount();
-                    for (long i = 0; i < rowCount; i++) {
-                        final Value[] newValues = sds.getRow(i).clone();
-                        // Use transform method and update geometry field, put it in the new file
-                        newValues[spatialFieldIndex] = transformFunction.evaluate(dsf,
-                                sds.getFieldValue(i, spatialFieldIndex), newCRS);
-                        driver.addValues(newValues);
-                    }
-                    driver.writingFinished();
-                    driver.close();
-                    SourceManager sm = dsf.getSourceManager();
-                    String randomName = sm.nameAndRegister(driver.getFile());
-                    sm.rename(randomName, newName);
-                } finally {
-                    sds.close();
-                }
-            } catch (Exception ex) {
-                throw new WMSException(ex);
-            }
-
-        }
-
-        return newName;
-    }
-
-    /**
-     * Change the CRS constraint associated to md so that it match the given CRS.
-     * @param md The original metadata
-     * @param targetCrs The string representation of the target crs
-     * @return The new Metadata
-     * @throws org.gdms.driver.DriverException If we encounter a problem while handling metadata
-     * @throws org.opengis.referencing.FactoryException If we failed at building the new CRS, if targetCrs is not a known EPSG code
-     */
-    private Metadata getProjectedMetadata(Metadata md, String targetCrs)
-            throws DriverException, CRSException {
-        int spatialFieldIndex = MetadataUtilities.getSpatialFieldIndex(md);
-        Type geomType = md.getFieldType(spatialFieldIndex);
-        Constraint[] constraints = geomType.getConstraints().clone();
-        for(int i=0; i<constraints.length; i++){
-            Constraint c = constraints[i];
-            if(c.getConstraintCode() == Constraint.CRS){
-                constraints[i] = new CRSConstraint(DataSourceFactory.getCRSFactory().getCRS(targetCrs));
-                break;
-            }
-        }
-        Type newType = TypeFactory.createType(geomType.getTypeCode(), constraints);
-        String[] names = md.getFieldNames();
-        Type[] types = new Type[names.length];
-        for(int i=0; i<types.length; i++){
-            if(i == spatialFieldIndex){
-                types[i] = newType;
-            } else {
-                types[i] = md.getFieldType(i);
-            }
+        long start = metrics.start();
+        try {
+            return reprojection.getProjectedSource(sourceName, targetCrs);
+        } finally {
+            metrics.record(WMSMetrics.Phase.REPROJECTION, start);
         }
-        return new DefaultMetadata(types, names);
     }
 }
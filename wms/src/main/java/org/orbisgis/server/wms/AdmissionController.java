@@ -0,0 +1,267 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a request is served or rejected at once, before it uses any memory or thread. A request is
+ * rejected when its image is larger than the pixel budget, when too many requests are already being served or
+ * waiting for a render slot, when its client already has too many requests in progress, or when one of its
+ * layers is already used by too many requests. A limit set to 0 is not checked.
+ */
+public final class AdmissionController {
+        /**
+         * The default maximum number of requests in progress, rendered or waiting.
+         */
+        public static final int DEFAULT_MAX_REQUESTS = 64;
+        /**
+         * The default maximum number of pixels of a requested image.
+         */
+        public static final int DEFAULT_MAX_PIXELS = 4096 * 4096;
+        /**
+         * The default maximum number of requests in progress for a client address.
+         */
+        public static final int DEFAULT_MAX_CLIENT_REQUESTS = 8;
+        /**
+         * The default maximum number of requests in progress on a layer.
+         */
+        public static final int DEFAULT_MAX_LAYER_REQUESTS = 32;
+        /**
+         * The code of the answers to the requests rejected because the server is busy.
+         */
+        public static final int SERVICE_UNAVAILABLE = 503;
+        /**
+         * The code of the answers to the requests rejected because their client sends too many of them.
+         */
+        public static final int TOO_MANY_REQUESTS = 429;
+        /**
+         * The code of the answers to the requests rejected because their image is too large.
+         */
+        public static final int BAD_REQUEST = 400;
+        private final int maxRequests;
+        private final long maxPixels;
+        private final int maxClientRequests;
+        private final int maxLayerRequests;
+        private int requests = 0;
+        private final Map<String, Integer> clients = new HashMap<String, Integer>();
+        private final Map<String, Integer> layers = new HashMap<String, Integer>();
+        private final AtomicLong admitted = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+
+        /**
+         * Builds a new controller.
+         * @param maxRequests The maximum number of requests in progress.
+         * @param maxPixels The maximum number of pixels of a requested image.
+         * @param maxClientRequests The maximum number of requests in progress for a client address.
+         * @param maxLayerRequests The maximum number of requests in progress on a layer.
+         */
+        public AdmissionController(int maxRequests, long maxPixels, int maxClientRequests, int maxLayerRequests) {
+                this.maxRequests = Math.max(0, maxRequests);
+                this.maxPixels = Math.max(0, maxPixels);
+                this.maxClientRequests = Math.max(0, maxClientRequests);
+                this.maxLayerRequests = Math.max(0, maxLayerRequests);
+        }
+
+        /**
+         * Builds a controller configured with {@link WMSProperties#ADMISSION_MAX_REQUESTS},
+         * {@link WMSProperties#ADMISSION_MAX_PIXELS}, {@link WMSProperties#ADMISSION_MAX_CLIENT_REQUESTS} and
+         * {@link WMSProperties#ADMISSION_MAX_LAYER_REQUESTS}.
+         * @param props The server properties.
+         * @return The controller.
+         */
+        public static AdmissionController create(WMSProperties props) {
+                return new AdmissionController(
+                        props.getIntProperty(WMSProperties.ADMISSION_MAX_REQUESTS, DEFAULT_MAX_REQUESTS),
+                        props.getIntProperty(WMSProperties.ADMISSION_MAX_PIXELS, DEFAULT_MAX_PIXELS),
+                        props.getIntProperty(WMSProperties.ADMISSION_MAX_CLIENT_REQUESTS, DEFAULT_MAX_CLIENT_REQUESTS),
+                        props.getIntProperty(WMSProperties.ADMISSION_MAX_LAYER_REQUESTS, DEFAULT_MAX_LAYER_REQUESTS));
+        }
+
+        /**
+         * Admits or rejects a request. An admitted request must give its ticket back with
+         * {@link Ticket#release()} once it has been answered.
+         * @param client The address of the client, may be null.
+         * @param layerNames The layers used by the request.
+         * @param width The width of the requested image, 0 if there is none.
+         * @param height The height of the requested image, 0 if there is none.
+         * @return The ticket, which tells whether the request has been admitted.
+         */
+        public Ticket admit(String client, Collection<String> layerNames, int width, int height) {
+                if (maxPixels > 0 && (long) width * (long) height > maxPixels) {
+                        return reject(BAD_REQUEST, "The requested image is too large : it can't have more than "
+                                + maxPixels + " pixels.");
+                }
+                List<String> names = new ArrayList<String>(layerNames);
+                synchronized (this) {
+                        if (maxRequests > 0 && requests >= maxRequests) {
+                                return reject(SERVICE_UNAVAILABLE,
+                                        "The server is too busy to answer this request. Please try again later.");
+                        }
+                        if (client != null && maxClientRequests > 0 && count(clients, client) >= maxClientRequests) {
+                                return reject(TOO_MANY_REQUESTS, "Too many requests are in progress for this client. "
+                                        + "Please wait for their answers before sending new ones.");
+                        }
+                        if (maxLayerRequests > 0) {
+                                for (String name : names) {
+                                        if (count(layers, name) >= maxLayerRequests) {
+                                                return reject(SERVICE_UNAVAILABLE, "The layer " + name
+                                                        + " is too busy to answer this request. Please try again later.");
+                                        }
+                                }
+                        }
+                        requests++;
+                        if (client != null) {
+                                add(clients, client, 1);
+                        }
+                        for (String name : names) {
+                                add(layers, name, 1);
+                        }
+                }
+                admitted.incrementAndGet();
+                return new Ticket(client, names);
+        }
+
+        /**
+         * @return The number of requests in progress.
+         */
+        public synchronized int getRequests() {
+                return requests;
+        }
+
+        /**
+         * @return The number of requests that have been admitted.
+         */
+        public long getAdmitted() {
+                return admitted.get();
+        }
+
+        /**
+         * @return The number of requests that have been rejected.
+         */
+        public long getRejected() {
+                return rejected.get();
+        }
+
+        private Ticket reject(int code, String reason) {
+                rejected.incrementAndGet();
+                return new Ticket(code, reason);
+        }
+
+        private synchronized void release(Ticket ticket) {
+                requests--;
+                if (ticket.client != null) {
+                        add(clients, ticket.client, -1);
+                }
+                for (String name : ticket.layers) {
+                        add(layers, name, -1);
+                }
+        }
+
+        private static int count(Map<String, Integer> counts, String key) {
+                Integer c = counts.get(key);
+                return c == null ? 0 : c;
+        }
+
+        private static void add(Map<String, Integer> counts, String key, int delta) {
+                int c = count(counts, key) + delta;
+                if (c <= 0) {
+                        counts.remove(key);
+                } else {
+                        counts.put(key, c);
+                }
+        }
+
+        /**
+         * The answer of the controller to a request.
+         */
+        public final class Ticket {
+                private final boolean admittedTicket;
+                private final int code;
+                private final String reason;
+                private final String client;
+                private final List<String> layers;
+                private boolean released = false;
+
+                private Ticket(String client, List<String> layers) {
+                        admittedTicket = true;
+                        code = 200;
+                        reason = null;
+                        this.client = client;
+                        this.layers = layers;
+                }
+
+                private Ticket(int code, String reason) {
+                        admittedTicket = false;
+                        this.code = code;
+                        this.reason = reason;
+                        client = null;
+                        layers = null;
+                }
+
+                /**
+                 * @return true if the request can be served.
+                 */
+                public boolean isAdmitted() {
+                        return admittedTicket;
+                }
+
+                /**
+                 * @return The HTTP code of the answer to a rejected request.
+                 */
+                public int getCode() {
+                        return code;
+                }
+
+                /**
+                 * @return The message sent to the client of a rejected request.
+                 */
+                public String getReason() {
+                        return reason;
+                }
+
+                /**
+                 * Tells the controller that the request has been answered. Does nothing for a rejected request or
+                 * if it has already been called.
+                 */
+                public void release() {
+                        synchronized (AdmissionController.this) {
+                                if (!admittedTicket || released) {
+                                        return;
+                                }
+                                released = true;
+                                AdmissionController.this.release(this);
+                        }
+                }
+        }
+}
@@ -0,0 +1,247 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * An OutputStream that cuts what is written in it into chunks, handed over to another thread through a bounded
+ * queue. It bridges the request processing, which writes the answer, with the HTTP layer, which sends the chunks
+ * as soon as they are ready. When the queue is full, the writer waits for the reader to take a chunk, so that no
+ * more than a few chunks of an answer are held in memory.
+ */
+public class ChunkedOutputStream extends OutputStream {
+
+        private static final byte[] END = new byte[0];
+        private final BlockingQueue<byte[]> chunks;
+        private final CountDownLatch head = new CountDownLatch(1);
+        private final byte[] buffer;
+        private int count = 0;
+        private volatile boolean closed = false;
+        private volatile boolean cancelled = false;
+        private volatile Throwable failure;
+        private Runnable headListener;
+        private boolean headReached = false;
+
+        /**
+         * Builds a new ChunkedOutputStream.
+         * @param chunkSize The size of the chunks, in bytes.
+         * @param maxChunks The number of chunks that can wait for the reader before the writer is blocked.
+         */
+        public ChunkedOutputStream(int chunkSize, int maxChunks) {
+                buffer = new byte[chunkSize];
+                chunks = new ArrayBlockingQueue<byte[]>(maxChunks + 1);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+                checkOpen();
+                buffer[count++] = (byte) b;
+                if (count == buffer.length) {
+                        push();
+                }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+                checkOpen();
+                while (len > 0) {
+                        int n = Math.min(len, buffer.length - count);
+                        System.arraycopy(b, off, buffer, count, n);
+                        count += n;
+                        off += n;
+                        len -= n;
+                        if (count == buffer.length) {
+                                push();
+                        }
+                }
+        }
+
+        /**
+         * Ends the stream : the pending bytes are sent as a last chunk.
+         * @throws IOException If the reader has cancelled the transfer.
+         */
+        @Override
+        public void close() throws IOException {
+                if (closed) {
+                        return;
+                }
+                try {
+                        if (count > 0) {
+                                push();
+                        }
+                } finally {
+                        closed = true;
+                        if (!chunks.offer(END) && !cancelled) {
+                                put(END);
+                        }
+                        reachHead();
+                }
+        }
+
+        /**
+         * Ends the stream because the answer can't be completed. The reader must check {@link #getFailure()} once
+         * it has reached the end, and abort the transfer rather than end it normally if the head has been sent.
+         * @param t The cause of the failure.
+         */
+        public void fail(Throwable t) {
+                failure = t;
+                try {
+                        close();
+                } catch (IOException ex) {
+                        // The reader is gone, there is no one to tell.
+                }
+        }
+
+        /**
+         * Waits until the first chunk is available or the stream has been closed.
+         * @return true if the stream has been closed, which means that the whole answer is available and can be
+         * read at once with {@link #toByteArray()}.
+         * @throws InterruptedException If the thread is interrupted while waiting.
+         */
+        public boolean awaitHead() throws InterruptedException {
+                head.await();
+                return closed;
+        }
+
+        /**
+         * Sets the listener told when the first chunk is available or the stream has been closed, so that the
+         * reader does not need a thread waiting in {@link #awaitHead()}. The listener runs in the writer thread,
+         * or at once if the head has already been reached, and can then call {@link #awaitHead()}, which returns
+         * without waiting.
+         * @param listener The listener.
+         */
+        public void onHead(Runnable listener) {
+                synchronized (this) {
+                        if (!headReached) {
+                                headListener = listener;
+                                return;
+                        }
+                }
+                listener.run();
+        }
+
+        /**
+         * Gets the next chunk, waiting for the writer if needed.
+         * @return The next chunk, or null at the end of the stream.
+         * @throws InterruptedException If the thread is interrupted while waiting.
+         */
+        public byte[] nextChunk() throws InterruptedException {
+                byte[] c = chunks.take();
+                if (c == END) {
+                        // Let the following calls see the end too.
+                        chunks.offer(END);
+                        return null;
+                }
+                return c;
+        }
+
+        /**
+         * Gets all the remaining chunks at once. Must only be called once the stream has been closed.
+         * @return The remaining bytes.
+         * @throws InterruptedException If the thread is interrupted while waiting.
+         */
+        public byte[] toByteArray() throws InterruptedException {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] c = nextChunk();
+                while (c != null) {
+                        out.write(c, 0, c.length);
+                        c = nextChunk();
+                }
+                return out.toByteArray();
+        }
+
+        /**
+         * Tells the writer that the chunks won't be read anymore, typically because the client has gone. The
+         * following writes fail.
+         */
+        public void cancel() {
+                cancelled = true;
+                chunks.clear();
+        }
+
+        /**
+         * Gets the error that prevented the answer from being completed, if any.
+         * @return The error given to {@link #fail(Throwable)}, or null.
+         */
+        public Throwable getFailure() {
+                return failure;
+        }
+
+        private void checkOpen() throws IOException {
+                if (closed) {
+                        throw new IOException("The stream is closed");
+                }
+                if (cancelled) {
+                        throw new IOException("The transfer has been cancelled");
+                }
+        }
+
+        private void push() throws IOException {
+                byte[] c = new byte[count];
+                System.arraycopy(buffer, 0, c, 0, count);
+                count = 0;
+                reachHead();
+                put(c);
+        }
+
+        private void reachHead() {
+                Runnable listener;
+                synchronized (this) {
+                        if (headReached) {
+                                return;
+                        }
+                        headReached = true;
+                        listener = headListener;
+                        headListener = null;
+                }
+                head.countDown();
+                if (listener != null) {
+                        listener.run();
+                }
+        }
+
+        private void put(byte[] c) throws IOException {
+                try {
+                        chunks.put(c);
+                } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the reader");
+                }
+                if (cancelled) {
+                        chunks.clear();
+                        throw new IOException("The transfer has been cancelled");
+                }
+        }
+}
@@ -0,0 +1,65 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Builds the daemon threads of the background tasks of the server, named after the task and numbered.
+ */
+final class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+        private final int priority;
+        private int count = 0;
+
+        /**
+         * Builds a new factory.
+         * @param name The prefix of the names of the threads.
+         */
+        DaemonThreadFactory(String name) {
+                this(name, Thread.NORM_PRIORITY);
+        }
+
+        /**
+         * Builds a new factory.
+         * @param name The prefix of the names of the threads.
+         * @param priority The priority of the threads.
+         */
+        DaemonThreadFactory(String name, int priority) {
+                this.name = name;
+                this.priority = priority;
+        }
+
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + "-" + (++count));
+                t.setDaemon(true);
+                t.setPriority(priority);
+                return t;
+        }
+}
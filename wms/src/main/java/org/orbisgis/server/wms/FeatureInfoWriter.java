@@ -0,0 +1,561 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.types.Type;
+import org.gdms.data.values.Value;
+import org.gdms.driver.DriverException;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes the features found by a GetFeatureInfo request, layer by layer, as they are read. The answer is
+ * encoded in UTF-8 as plain text, GeoJSON or GML 3.
+ */
+public abstract class FeatureInfoWriter {
+        public static final String TEXT = "text/plain";
+        public static final String JSON = "application/json";
+        public static final String GML = "text/xml";
+        /**
+         * The INFO_FORMAT values advertised in the capabilities.
+         */
+        public static final List<String> FORMATS = Collections.unmodifiableList(Arrays.asList(TEXT, JSON, GML));
+        private static final Charset UTF8 = Charset.forName("UTF-8");
+        protected final Writer out;
+        private Metadata metadata;
+        private int spatialField;
+
+        private FeatureInfoWriter(OutputStream output) {
+                out = new BufferedWriter(new OutputStreamWriter(output, UTF8));
+        }
+
+        /**
+         * Builds the writer for the given INFO_FORMAT.
+         * @param format The requested format.
+         * @param output The stream the answer is written in.
+         * @param crs The CRS of the geometries, as EPSG:code.
+         * @return The writer, or null if the format is not supported.
+         */
+        public static FeatureInfoWriter create(String format, OutputStream output, String crs) {
+                String f = format.trim().toLowerCase();
+                if (f.equals(TEXT)) {
+                        return new TextWriter(output);
+                } else if (f.equals(JSON) || f.equals("application/geojson") || f.equals("application/geo+json")) {
+                        return new GeoJSONWriter(output, crs);
+                } else if (f.equals(GML) || f.equals("application/vnd.ogc.gml") || f.equals("application/gml+xml")) {
+                        return new GMLWriter(output, crs);
+                }
+                return null;
+        }
+
+        /**
+         * Gets the content type of the answer.
+         * @return The MIME type and its charset.
+         */
+        public abstract String getContentType();
+
+        /**
+         * Writes the beginning of the answer.
+         * @throws IOException If the output can't be written.
+         */
+        public void start() throws IOException {
+        }
+
+        /**
+         * Starts the features of a layer.
+         * @param name The name of the layer.
+         * @param md The fields of its features.
+         * @param spatialFieldIndex The index of its geometry field.
+         * @throws IOException If the output can't be written.
+         * @throws DriverException If the fields can't be read.
+         */
+        public void startLayer(String name, Metadata md, int spatialFieldIndex) throws IOException, DriverException {
+                metadata = md;
+                spatialField = spatialFieldIndex;
+        }
+
+        /**
+         * Writes a feature of the current layer.
+         * @param row The index of its row.
+         * @param values The values of its fields.
+         * @throws IOException If the output can't be written.
+         * @throws DriverException If the fields can't be read.
+         */
+        public abstract void feature(long row, Value[] values) throws IOException, DriverException;
+
+        /**
+         * Ends the features of the current layer.
+         * @throws IOException If the output can't be written.
+         */
+        public void endLayer() throws IOException {
+        }
+
+        /**
+         * Sends what has been written so far to the client.
+         * @throws IOException If the output can't be written.
+         */
+        public void flush() throws IOException {
+                out.flush();
+        }
+
+        /**
+         * Writes the end of the answer and flushes it. The underlying stream is not closed.
+         * @throws IOException If the output can't be written.
+         */
+        public void end() throws IOException {
+                out.flush();
+        }
+
+        protected Metadata getMetadata() {
+                return metadata;
+        }
+
+        protected int getSpatialField() {
+                return spatialField;
+        }
+
+        protected static boolean isInteger(int typeCode) {
+                return typeCode == Type.BYTE || typeCode == Type.SHORT || typeCode == Type.INT
+                        || typeCode == Type.LONG;
+        }
+
+        protected static boolean isDecimal(int typeCode) {
+                return typeCode == Type.FLOAT || typeCode == Type.DOUBLE;
+        }
+
+        /**
+         * The former text/plain answer : the name of each layer, then one "field: value" line by field and a
+         * blank line after each feature.
+         */
+        private static final class TextWriter extends FeatureInfoWriter {
+
+                TextWriter(OutputStream output) {
+                        super(output);
+                }
+
+                @Override
+                public String getContentType() {
+                        return TEXT + ";charset=UTF-8";
+                }
+
+                @Override
+                public void startLayer(String name, Metadata md, int spatialFieldIndex)
+                        throws IOException, DriverException {
+                        super.startLayer(name, md, spatialFieldIndex);
+                        out.write(name);
+                        out.write('\n');
+                }
+
+                @Override
+                public void feature(long row, Value[] values) throws IOException, DriverException {
+                        Metadata md = getMetadata();
+                        for (int j = 0; j < values.length; j++) {
+                                out.write(md.getFieldName(j));
+                                out.write(": ");
+                                out.write(values[j].toString());
+                                out.write('\n');
+                        }
+                        out.write('\n');
+                }
+        }
+
+        /**
+         * A single GeoJSON FeatureCollection holding the features of all the layers. The name of the layer of
+         * each feature is given by its "layer" member.
+         */
+        private static final class GeoJSONWriter extends FeatureInfoWriter {
+                private final String crs;
+                private String layer;
+                private boolean first = true;
+
+                GeoJSONWriter(OutputStream output, String crs) {
+                        super(output);
+                        this.crs = crs;
+                }
+
+                @Override
+                public String getContentType() {
+                        return JSON + ";charset=UTF-8";
+                }
+
+                @Override
+                public void start() throws IOException {
+                        out.write("{\"type\":\"FeatureCollection\"");
+                        if (crs != null) {
+                                out.write(",\"crs\":{\"type\":\"name\",\"properties\":{\"name\":");
+                                string(crs);
+                                out.write("}}");
+                        }
+                        out.write(",\"features\":[");
+                }
+
+                @Override
+                public void startLayer(String name, Metadata md, int spatialFieldIndex)
+                        throws IOException, DriverException {
+                        super.startLayer(name, md, spatialFieldIndex);
+                        layer = name;
+                }
+
+                @Override
+                public void feature(long row, Value[] values) throws IOException, DriverException {
+                        Metadata md = getMetadata();
+                        if (!first) {
+                                out.write(',');
+                        }
+                        first = false;
+                        out.write("{\"type\":\"Feature\",\"id\":");
+                        string(layer + "." + row);
+                        out.write(",\"layer\":");
+                        string(layer);
+                        out.write(",\"geometry\":");
+                        int spatial = getSpatialField();
+                        if (spatial >= 0 && !values[spatial].isNull()) {
+                                geometry(values[spatial].getAsGeometry());
+                        } else {
+                                out.write("null");
+                        }
+                        out.write(",\"properties\":{");
+                        boolean firstField = true;
+                        for (int j = 0; j < values.length; j++) {
+                                if (j == spatial) {
+                                        continue;
+                                }
+                                if (!firstField) {
+                                        out.write(',');
+                                }
+                                firstField = false;
+                                string(md.getFieldName(j));
+                                out.write(':');
+                                Value v = values[j];
+                                int type = md.getFieldType(j).getTypeCode();
+                                if (v.isNull()) {
+                                        out.write("null");
+                                } else if (isInteger(type)) {
+                                        out.write(Long.toString(v.getAsLong()));
+                                } else if (isDecimal(type)) {
+                                        number(v.getAsDouble());
+                                } else if (type == Type.BOOLEAN) {
+                                        out.write(Boolean.toString(v.getAsBoolean()));
+                                } else {
+                                        string(v.toString());
+                                }
+                        }
+                        out.write("}}");
+                }
+
+                @Override
+                public void end() throws IOException {
+                        out.write("]}");
+                        super.end();
+                }
+
+                private void geometry(Geometry g) throws IOException {
+                        if (g instanceof Point) {
+                                out.write("{\"type\":\"Point\",\"coordinates\":");
+                                coordinates(g.getCoordinates(), false);
+                        } else if (g instanceof LineString) {
+                                out.write("{\"type\":\"LineString\",\"coordinates\":");
+                                coordinates(g.getCoordinates(), true);
+                        } else if (g instanceof Polygon) {
+                                out.write("{\"type\":\"Polygon\",\"coordinates\":");
+                                rings((Polygon) g);
+                        } else if (g instanceof MultiPoint || g instanceof MultiLineString
+                                || g instanceof MultiPolygon) {
+                                String type = g instanceof MultiPoint ? "MultiPoint"
+                                        : g instanceof MultiLineString ? "MultiLineString" : "MultiPolygon";
+                                out.write("{\"type\":\"" + type + "\",\"coordinates\":[");
+                                for (int i = 0; i < g.getNumGeometries(); i++) {
+                                        if (i > 0) {
+                                                out.write(',');
+                                        }
+                                        Geometry part = g.getGeometryN(i);
+                                        if (part instanceof Polygon) {
+                                                rings((Polygon) part);
+                                        } else {
+                                                coordinates(part.getCoordinates(), !(part instanceof Point));
+                                        }
+                                }
+                                out.write(']');
+                        } else {
+                                out.write("{\"type\":\"GeometryCollection\",\"geometries\":[");
+                                for (int i = 0; i < g.getNumGeometries(); i++) {
+                                        if (i > 0) {
+                                                out.write(',');
+                                        }
+                                        geometry(g.getGeometryN(i));
+                                }
+                                out.write(']');
+                        }
+                        out.write('}');
+                }
+
+                private void rings(Polygon p) throws IOException {
+                        out.write('[');
+                        coordinates(p.getExteriorRing().getCoordinates(), true);
+                        for (int i = 0; i < p.getNumInteriorRing(); i++) {
+                                out.write(',');
+                                coordinates(p.getInteriorRingN(i).getCoordinates(), true);
+                        }
+                        out.write(']');
+                }
+
+                private void coordinates(Coordinate[] coords, boolean array) throws IOException {
+                        if (array) {
+                                out.write('[');
+                        }
+                        for (int i = 0; i < coords.length; i++) {
+                                if (i > 0) {
+                                        out.write(',');
+                                }
+                                out.write('[');
+                                number(coords[i].x);
+                                out.write(',');
+                                number(coords[i].y);
+                                out.write(']');
+                        }
+                        if (array) {
+                                out.write(']');
+                        }
+                }
+
+                private void number(double d) throws IOException {
+                        if (Double.isNaN(d) || Double.isInfinite(d)) {
+                                out.write("null");
+                        } else if (d == Math.rint(d) && Math.abs(d) < 1e15) {
+                                out.write(Long.toString((long) d));
+                        } else {
+                                out.write(Double.toString(d));
+                        }
+                }
+
+                private void string(String s) throws IOException {
+                        out.write('"');
+                        for (int i = 0; i < s.length(); i++) {
+                                char c = s.charAt(i);
+                                switch (c) {
+                                        case '"':
+                                                out.write("\\\"");
+                                                break;
+                                        case '\\':
+                                                out.write("\\\\");
+                                                break;
+                                        case '\n':
+                                                out.write("\\n");
+                                                break;
+                                        case '\r':
+                                                out.write("\\r");
+                                                break;
+                                        case '\t':
+                                                out.write("\\t");
+                                                break;
+                                        default:
+                                                if (c < 0x20) {
+                                                        out.write(String.format("\\u%04x", (int) c));
+                                                } else {
+                                                        out.write(c);
+                                                }
+                                }
+                        }
+                        out.write('"');
+                }
+        }
+
+        /**
+         * A FeatureInfoResponse document with a Layer element by layer, a Feature element by feature, a Field
+         * element by field and the geometry in GML 3.
+         */
+        private static final class GMLWriter extends FeatureInfoWriter {
+                private static final String GML_NS = "http://www.opengis.net/gml";
+                private final String crs;
+                private String layer;
+
+                GMLWriter(OutputStream output, String crs) {
+                        super(output);
+                        this.crs = crs;
+                }
+
+                @Override
+                public String getContentType() {
+                        return GML + ";charset=UTF-8";
+                }
+
+                @Override
+                public void start() throws IOException {
+                        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+                        out.write("<FeatureInfoResponse xmlns:gml=\"" + GML_NS + "\">\n");
+                }
+
+                @Override
+                public void startLayer(String name, Metadata md, int spatialFieldIndex)
+                        throws IOException, DriverException {
+                        super.startLayer(name, md, spatialFieldIndex);
+                        layer = name;
+                        out.write("<Layer name=\"");
+                        text(name);
+                        out.write("\">\n");
+                }
+
+                @Override
+                public void feature(long row, Value[] values) throws IOException, DriverException {
+                        Metadata md = getMetadata();
+                        out.write("<Feature gml:id=\"");
+                        text(layer + "." + row);
+                        out.write("\">\n");
+                        int spatial = getSpatialField();
+                        for (int j = 0; j < values.length; j++) {
+                                if (j == spatial || values[j].isNull()) {
+                                        continue;
+                                }
+                                out.write("<Field name=\"");
+                                text(md.getFieldName(j));
+                                out.write("\">");
+                                text(values[j].toString());
+                                out.write("</Field>\n");
+                        }
+                        if (spatial >= 0 && !values[spatial].isNull()) {
+                                out.write("<Geometry>");
+                                geometry(values[spatial].getAsGeometry(), true);
+                                out.write("</Geometry>\n");
+                        }
+                        out.write("</Feature>\n");
+                }
+
+                @Override
+                public void endLayer() throws IOException {
+                        out.write("</Layer>\n");
+                }
+
+                @Override
+                public void end() throws IOException {
+                        out.write("</FeatureInfoResponse>\n");
+                        super.end();
+                }
+
+                private void geometry(Geometry g, boolean root) throws IOException {
+                        String srs = root && crs != null ? " srsName=\"" + crs + "\"" : "";
+                        if (g instanceof Point) {
+                                out.write("<gml:Point" + srs + "><gml:pos>");
+                                positions(g.getCoordinates());
+                                out.write("</gml:pos></gml:Point>");
+                        } else if (g instanceof LineString) {
+                                out.write("<gml:LineString" + srs + "><gml:posList>");
+                                positions(g.getCoordinates());
+                                out.write("</gml:posList></gml:LineString>");
+                        } else if (g instanceof Polygon) {
+                                Polygon p = (Polygon) g;
+                                out.write("<gml:Polygon" + srs + ">");
+                                ring("exterior", p.getExteriorRing());
+                                for (int i = 0; i < p.getNumInteriorRing(); i++) {
+                                        ring("interior", p.getInteriorRingN(i));
+                                }
+                                out.write("</gml:Polygon>");
+                        } else if (g instanceof GeometryCollection) {
+                                String type = g instanceof MultiPoint ? "MultiPoint"
+                                        : g instanceof MultiLineString ? "MultiCurve"
+                                        : g instanceof MultiPolygon ? "MultiSurface" : "MultiGeometry";
+                                String member = g instanceof MultiPoint ? "pointMember"
+                                        : g instanceof MultiLineString ? "curveMember"
+                                        : g instanceof MultiPolygon ? "surfaceMember" : "geometryMember";
+                                out.write("<gml:" + type + srs + ">");
+                                for (int i = 0; i < g.getNumGeometries(); i++) {
+                                        out.write("<gml:" + member + ">");
+                                        geometry(g.getGeometryN(i), false);
+                                        out.write("</gml:" + member + ">");
+                                }
+                                out.write("</gml:" + type + ">");
+                        }
+                }
+
+                private void ring(String name, LineString ring) throws IOException {
+                        out.write("<gml:" + name + "><gml:LinearRing><gml:posList>");
+                        positions(ring.getCoordinates());
+                        out.write("</gml:posList></gml:LinearRing></gml:" + name + ">");
+                }
+
+                private void positions(Coordinate[] coords) throws IOException {
+                        for (int i = 0; i < coords.length; i++) {
+                                if (i > 0) {
+                                        out.write(' ');
+                                }
+                                out.write(Double.toString(coords[i].x));
+                                out.write(' ');
+                                out.write(Double.toString(coords[i].y));
+                        }
+                }
+
+                /**
+                 * Writes s escaped for the content or the attributes of an element. The line breaks and tabs are
+                 * written as references so that they are kept in the attributes, and the other control characters,
+                 * which XML 1.0 does not allow, are replaced by U+FFFD.
+                 */
+                private void text(String s) throws IOException {
+                        for (int i = 0; i < s.length(); i++) {
+                                char c = s.charAt(i);
+                                switch (c) {
+                                        case '\t':
+                                        case '\n':
+                                        case '\r':
+                                                out.write("&#" + (int) c + ";");
+                                                break;
+                                        case '<':
+                                                out.write("&lt;");
+                                                break;
+                                        case '>':
+                                                out.write("&gt;");
+                                                break;
+                                        case '&':
+                                                out.write("&amp;");
+                                                break;
+                                        case '"':
+                                                out.write("&quot;");
+                                                break;
+                                        default:
+                                                out.write(c < 0x20 ? '\ufffd' : c);
+                                }
+                        }
+                }
+        }
+}
@@ -40,6 +40,7 @@ import org.gdms.data.NoSuchTableException;
 import org.gdms.data.values.Value;
 import org.gdms.data.values.ValueFactory;
 import org.gdms.driver.DriverException;
+import org.gdms.source.Source;
 import org.gdms.source.SourceEvent;
 import org.gdms.source.SourceListener;
 import org.gdms.source.SourceManager;
@@ -52,10 +53,25 @@ import org.orbisgis.core.Services;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.zip.GZIPOutputStream;
 import org.cts.crs.CRSException;
 import org.cts.crs.CoordinateReferenceSystem;
 import org.cts.registry.RegistryException;
@@ -76,14 +92,41 @@ public final class GetCapabilitiesHandler {
     private Map<String, String[]> layerStyles;
     private final JAXBContext jaxbContext;
     private List<String> authCRS;
+    private final List<LayerChangeListener> layerListeners = new CopyOnWriteArrayList<LayerChangeListener>();
     private static final int WEST = -180;
     private static final int EAST = 180;
     private static final int SOUTH = -90;
     private static final int NORTH = 90;
+    private static final String CONTENT_TYPE = "text/xml;charset=UTF-8";
+    /**
+     * The maximum number of request URLs the documents are cached for.
+     */
+    private static final int MAX_DOCUMENTS = 16;
+    /**
+     * The marshalled documents, by request URL.
+     */
+    private final ConcurrentMap<String, BuildTask> documents = new ConcurrentHashMap<String, BuildTask>();
+    private final ExecutorService rebuilder = Executors.newSingleThreadExecutor(
+            new DaemonThreadFactory("wms-capabilities"));
+    private final LayerExtentCache extentCache;
+    /**
+     * Knows the sources built by the server itself, which are not published. May be null.
+     */
+    private final ReprojectionManager reprojection;
+    /**
+     * Computes the extents of the sources registered at startup that are not in the extent cache.
+     */
+    private final ExecutorService extentExecutor;
+    /**
+     * The sources whose extent is being computed in the background.
+     */
+    private final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     /**
      * Handles the getCapabilities request and gives the XML formated server
-     * capabilities to the outputStream
+     * capabilities to the outputStream. The marshalled document is cached until the layers or the styles
+     * change. It is sent gzipped to the clients that accept it, and not sent at all, with a 304 code, to the
+     * clients whose If-None-Match header matches its ETag.
      *
      * @param output servlet outputStream
      * @param wmsResponse HttpServletResponse modified for WMS use
@@ -91,6 +134,153 @@ public final class GetCapabilitiesHandler {
      * @throws UnsupportedEncodingException
      */
     public void getCap(OutputStream output, WMSResponse wmsResponse) throws WMSException, UnsupportedEncodingException {
+        CachedCapabilities doc;
+        try {
+            doc = getDocument(wmsResponse.getRequestUrl());
+        } catch (JAXBException ex) {
+            PrintStream pr = new PrintStream(output, false, "UTF-8");
+            wmsResponse.setContentType(CONTENT_TYPE);
+            wmsResponse.setResponseCode(500);
+            pr.append("<?xml version='1.0' encoding=\"UTF-8\"?><ServiceExceptionReport xmlns=\"http://www.opengis.net/ogc\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" version=\"1.3.0\" xsi:schemaLocation=\"http://www.opengis.net/ogc http://schemas.opengis.net/wms/1.3.0/exceptions_1_3_0.xsd\"><ServiceException>Something went wrong</ServiceException></ServiceExceptionReport>");
+            pr.append(ex.toString());
+            ex.printStackTrace(pr);
+            pr.flush();
+            return;
+        }
+        boolean gzip = acceptsGzip(wmsResponse.getRequestHeader("Accept-Encoding"));
+        String etag = gzip ? doc.gzipETag : doc.etag;
+        wmsResponse.setContentType(CONTENT_TYPE);
+        wmsResponse.setHeader("ETag", etag);
+        wmsResponse.setHeader("Vary", "Accept-Encoding");
+        if (matches(wmsResponse.getRequestHeader("If-None-Match"), etag)) {
+            wmsResponse.setResponseCode(304);
+            return;
+        }
+        wmsResponse.setResponseCode(200);
+        try {
+            if (gzip) {
+                wmsResponse.setHeader("Content-Encoding", "gzip");
+                output.write(doc.gzipData);
+            } else {
+                output.write(doc.data);
+            }
+        } catch (IOException ex) {
+            throw new WMSException("Can't write the capabilities in the output stream", ex);
+        }
+    }
+
+    /**
+     * Drops the cached documents and builds them again in the background. This is called when the layers or
+     * the styles change. The requests received before the new documents are ready wait for them. A document
+     * whose rebuild is queued but not started yet is left as is : the rebuild will see the change, so that a
+     * burst of changes, such as the layers published at startup, costs a single rebuild.
+     */
+    public void invalidate() {
+        for (Map.Entry<String, BuildTask> e : documents.entrySet()) {
+            BuildTask current = e.getValue();
+            if (!current.started) {
+                continue;
+            }
+            BuildTask task = new BuildTask(e.getKey());
+            if (documents.replace(e.getKey(), current, task)) {
+                rebuilder.execute(task);
+            }
+        }
+    }
+
+    /**
+     * Stops the background threads that build the documents and compute the extents of the layers.
+     */
+    public void dispose() {
+        rebuilder.shutdownNow();
+        extentExecutor.shutdownNow();
+    }
+
+    /**
+     * Gets the number of sources whose extent is still being computed, and that are not published as layers yet.
+     * @return The number of pending sources.
+     */
+    public int getPendingLayerCount() {
+        return pending.size();
+    }
+
+    private CachedCapabilities getDocument(String requestUrl) throws JAXBException, WMSException {
+        BuildTask task = documents.get(requestUrl);
+        if (task == null) {
+            BuildTask created = new BuildTask(requestUrl);
+            if (documents.size() < MAX_DOCUMENTS) {
+                task = documents.putIfAbsent(requestUrl, created);
+            }
+            if (task == null) {
+                task = created;
+                created.run();
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new WMSException("Interrupted while building the capabilities", ex);
+        } catch (ExecutionException ex) {
+            documents.remove(requestUrl, task);
+            if (ex.getCause() instanceof JAXBException) {
+                throw (JAXBException) ex.getCause();
+            }
+            throw new WMSException(ex.getCause());
+        }
+    }
+
+    private CachedCapabilities build(String requestUrl) throws JAXBException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        marshal(requestUrl, out);
+        byte[] data = out.toByteArray();
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+        GZIPOutputStream gz = new GZIPOutputStream(zipped);
+        gz.write(data);
+        gz.close();
+        return new CachedCapabilities(data, zipped.toByteArray());
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            if ("gzip".equalsIgnoreCase(parts[0].trim())) {
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            return Double.parseDouble(param.substring(2)) > 0;
+                        } catch (NumberFormatException ex) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String t = tag.trim();
+            if (t.startsWith("W/")) {
+                t = t.substring(2);
+            }
+            if (t.equals(etag) || t.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void marshal(String requestUrl, OutputStream output) throws JAXBException, UnsupportedEncodingException {
         PrintStream pr = new PrintStream(output, false, "UTF-8");
         WMSCapabilities cap = new WMSCapabilities();
         //Setting service WMS metadata
@@ -121,32 +311,22 @@ public final class GetCapabilitiesHandler {
         //Setting the request capabilities
         //GetMap capabilities
         Request req = new Request();
-        req.setGetMap(getMapOperation(wmsResponse));
+        req.setGetMap(getMapOperation(requestUrl));
         //GetCap capabilities
-        req.setGetCapabilities(getCapOperation(wmsResponse));
+        req.setGetCapabilities(getCapOperation(requestUrl));
         //GetFeatureInfo capabilities
-        req.setGetFeatureInfo(getFeatureOperation(wmsResponse));
+        req.setGetFeatureInfo(getFeatureOperation(requestUrl));
         c.setRequest(req);
         cap.setCapability(c);
 
-        try {
-            //Marshalling the WMS Capabilities into an XML response
-            Marshaller marshaller = jaxbContext.createMarshaller();
-            NamespacePrefixMapper mapper = new NamespaceMapper();
-            marshaller.setProperty("com.sun.xml.bind.namespacePrefixMapper", mapper);
-
-            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+        //Marshalling the WMS Capabilities into an XML response
+        Marshaller marshaller = jaxbContext.createMarshaller();
+        NamespacePrefixMapper mapper = new NamespaceMapper();
+        marshaller.setProperty("com.sun.xml.bind.namespacePrefixMapper", mapper);
 
-            wmsResponse.setContentType("text/xml;charset=UTF-8");
-            marshaller.marshal(cap, pr);
-
-        } catch (JAXBException ex) {
-            wmsResponse.setContentType("text/xml;charset=UTF-8");
-            wmsResponse.setResponseCode(500);
-            pr.append("<?xml version='1.0' encoding=\"UTF-8\"?><ServiceExceptionReport xmlns=\"http://www.opengis.net/ogc\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" version=\"1.3.0\" xsi:schemaLocation=\"http://www.opengis.net/ogc http://schemas.opengis.net/wms/1.3.0/exceptions_1_3_0.xsd\"><ServiceException>Something went wrong</ServiceException></ServiceExceptionReport>");
-            pr.append(ex.toString());
-            ex.printStackTrace(pr);
-        }
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+        marshaller.marshal(cap, pr);
+        pr.flush();
     }
 
     /**
@@ -168,15 +348,15 @@ public final class GetCapabilitiesHandler {
         return s;
     }
 
-    private OperationType getFeatureOperation(WMSResponse wmsResponse) {
+    private OperationType getFeatureOperation(String requestUrl) {
         OperationType opFeature = new OperationType();
-        opFeature.getFormat().add("text/xml");
+        opFeature.getFormat().addAll(FeatureInfoWriter.FORMATS);
         //GET
         Get getFeature = new Get();
-        getFeature.setOnlineResource(buildOnlineResource(wmsResponse, WMSProperties.FEATURE_GET, "GetFeatureInfo"));
+        getFeature.setOnlineResource(buildOnlineResource(requestUrl, WMSProperties.FEATURE_GET, "GetFeatureInfo"));
         //POST
         Post postFeature = new Post();
-        postFeature.setOnlineResource(buildOnlineResource(wmsResponse, WMSProperties.FEATURE_POST, "GetFeatureInfo"));
+        postFeature.setOnlineResource(buildOnlineResource(requestUrl, WMSProperties.FEATURE_POST, "GetFeatureInfo"));
         //Both in HTTP
         HTTP httpFeature = new HTTP();
         httpFeature.setGet(getFeature);
@@ -192,13 +372,13 @@ public final class GetCapabilitiesHandler {
      *
      * @return The operation type representing the GetCapabilities operation.
      */
-    private OperationType getCapOperation(WMSResponse wmsResponse) {
+    private OperationType getCapOperation(String requestUrl) {
         OperationType opCap = new OperationType();
         opCap.getFormat().add("text/xml");
         Get getCap = new Get();
-        getCap.setOnlineResource(buildOnlineResource(wmsResponse, WMSProperties.CAP_GET, "GetCapabilities"));
+        getCap.setOnlineResource(buildOnlineResource(requestUrl, WMSProperties.CAP_GET, "GetCapabilities"));
         Post postCap = new Post();
-        postCap.setOnlineResource(buildOnlineResource(wmsResponse, WMSProperties.CAP_POST, "GetCapabilities"));
+        postCap.setOnlineResource(buildOnlineResource(requestUrl, WMSProperties.CAP_POST, "GetCapabilities"));
         HTTP httpCap = new HTTP();
         httpCap.setGet(getCap);
         httpCap.setPost(postCap);
@@ -213,15 +393,15 @@ public final class GetCapabilitiesHandler {
      *
      * @return The operation type representing the getMap operation.
      */
-    private OperationType getMapOperation(WMSResponse wmsResponse) {
+    private OperationType getMapOperation(String requestUrl) {
         OperationType opMap = new OperationType();
         for (ImageFormats im : ImageFormats.values()) {
             opMap.getFormat().add(im.toString());
         }
         Get get = new Get();
-        get.setOnlineResource(buildOnlineResource(wmsResponse, WMSProperties.MAP_GET, "GetMap"));
+        get.setOnlineResource(buildOnlineResource(requestUrl, WMSProperties.MAP_GET, "GetMap"));
         Post post = new Post();
-        post.setOnlineResource(buildOnlineResource(wmsResponse, WMSProperties.MAP_POST, "GetMap"));
+        post.setOnlineResource(buildOnlineResource(requestUrl, WMSProperties.MAP_POST, "GetMap"));
         //We feed the http object
         HTTP http = new HTTP();
         http.setGet(get);
@@ -232,11 +412,11 @@ public final class GetCapabilitiesHandler {
         return opMap;
     }
 
-    private OnlineResource buildOnlineResource(WMSResponse wmsResponse, String key, String title) {
+    private OnlineResource buildOnlineResource(String requestUrl, String key, String title) {
         OnlineResource oRGet = new OnlineResource();
         String map = (String) properties.getProperty(key);
         if (map == null) {
-            oRGet.setHref(wmsResponse.getRequestUrl());
+            oRGet.setHref(requestUrl);
         } else {
             oRGet.setHref(map);
         }
@@ -244,10 +424,28 @@ public final class GetCapabilitiesHandler {
         return oRGet;
     }
 
-    GetCapabilitiesHandler(Map<String, Layer> lMap, Map<String, String[]> lS, WMSProperties props) {
+    /**
+     * Builds the handler and the layers of all the registered sources. The layers whose extent is in the given
+     * cache are available at once, the other ones are published as soon as their extent has been computed by a
+     * pool of {@link WMSProperties#EXTENT_THREADS} threads. The sources registered later are handled in the
+     * thread that registers them.
+     * @param lMap The map of the layers, filled by the handler.
+     * @param lS The styles of the layers.
+     * @param props The server properties.
+     * @param extentCache The extents computed before.
+     * @param reprojection The manager of the reprojected sources, which are not published. May be null.
+     */
+    GetCapabilitiesHandler(Map<String, Layer> lMap, Map<String, String[]> lS, WMSProperties props,
+                           LayerExtentCache extentCache, ReprojectionManager reprojection) {
         this.properties = props;
+        this.reprojection = reprojection;
         layerMap = lMap;
         layerStyles = lS;
+        this.extentCache = extentCache;
+        extentExecutor = Executors.newFixedThreadPool(
+                Math.max(1, props.getIntProperty(WMSProperties.EXTENT_THREADS,
+                        Runtime.getRuntime().availableProcessors())),
+                new DaemonThreadFactory("wms-extents"));
         try {
             jaxbContext = JAXBContext.newInstance("net.opengis.wms:net.opengis.sld._1_2:net.opengis.se._2_0.core:oasis.names.tc.ciq.xsdschema.xal._2");
         } catch (JAXBException ex) {
@@ -267,15 +465,30 @@ public final class GetCapabilitiesHandler {
 
         final DataSourceFactory dsf = Services.getService(DataManager.class).getDataSourceFactory();
         final SourceManager sm = dsf.getSourceManager();
-        SourceListener sourceListener = new CapListener(dsf);
+        CapListener sourceListener = new CapListener(dsf);
         String[] layerNames = sm.getSourceNames();
         for (int i = 0; i < layerNames.length; i++) {
-            SourceEvent sEvent = new SourceEvent(layerNames[i], sm.getSource(layerNames[i]).isWellKnownName(), sm);
-            sourceListener.sourceAdded(sEvent);
+            sourceListener.addSource(layerNames[i], true);
         }
         sm.addSourceListener(sourceListener);
     }
 
+    /**
+     * Registers a listener that will be notified when a layer is added, removed or renamed.
+     * @param listener The listener
+     */
+    public void addLayerChangeListener(LayerChangeListener listener) {
+        layerListeners.add(listener);
+    }
+
+    /**
+     * Unregisters the given listener.
+     * @param listener The listener
+     */
+    public void removeLayerChangeListener(LayerChangeListener listener) {
+        layerListeners.remove(listener);
+    }
+
     private EXGeographicBoundingBox getDummyGeographic() {
         EXGeographicBoundingBox ret = new EXGeographicBoundingBox();
         ret.setEastBoundLongitude(EAST);
@@ -314,6 +527,51 @@ public final class GetCapabilitiesHandler {
         return ret;
     }
 
+    /**
+     * Builds the document of a request URL, and tells whether it has started reading the layers.
+     */
+    private final class BuildTask extends FutureTask<CachedCapabilities> {
+        private volatile boolean started = false;
+
+        BuildTask(final String requestUrl) {
+            super(new Callable<CachedCapabilities>() {
+                @Override
+                public CachedCapabilities call() throws Exception {
+                    return build(requestUrl);
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            started = true;
+            super.run();
+        }
+    }
+
+    /**
+     * A marshalled capabilities document, plain and gzipped, with the ETags of both variants.
+     */
+    private static final class CachedCapabilities {
+        private final byte[] data;
+        private final byte[] gzipData;
+        private final String etag;
+        private final String gzipETag;
+
+        CachedCapabilities(byte[] data, byte[] gzipData) {
+            this.data = data;
+            this.gzipData = gzipData;
+            String hash;
+            try {
+                hash = new BigInteger(1, MessageDigest.getInstance("MD5").digest(data)).toString(16);
+            } catch (NoSuchAlgorithmException ex) {
+                hash = Integer.toHexString(Arrays.hashCode(data)) + "-" + data.length;
+            }
+            etag = "\"" + hash + "\"";
+            gzipETag = "\"" + hash + "-gzip\"";
+        }
+    }
+
     /**
      * This listener is used to maintain a map of JAXB Layer instance up to
      * date, whatever the changes in the registered sources are. That means we
@@ -329,47 +587,128 @@ public final class GetCapabilitiesHandler {
 
         @Override
         public void sourceAdded(SourceEvent e) {
-            String name = e.getName();
-            SourceManager sm = dsf.getSourceManager();
-            if (e.isWellKnownName() && !sm.getSource(name).isSystemTableSource() && !layerMap.containsKey(name)) {
-                try {
-                    Layer layer = new Layer();
-                    layer.setName(name);
-                    layer.setTitle(name);
-
-                    //Setting the bounding box data
-                    DataSource ds = dsf.getDataSource(name);
-                    ds.open();
-                    Envelope env = ds.getFullExtent();
-                    CoordinateReferenceSystem crs = ds.getCRS();
-                    ds.close();
-                    BoundingBox bBox = getBoundingBox(env, crs);
-                    if (bBox == null) {
-                        return;
-                    }
-                    layer.getCRS().add(bBox.getCRS());
-                    layer.getBoundingBox().add(bBox);
-                    layer.setEXGeographicBoundingBox(getGeographicBoundingBox(env, bBox.getCRS()));
-                    layer.setQueryable(true);
-                    if (layerStyles.containsKey(name)) {
-                        String[] lStyles = layerStyles.get(name);
-                        for (int i = 0; i < lStyles.length; i++) {
-                            Style style = new Style();
-                            String styleName = lStyles[i];
-                            style.setName(styleName);
-                            style.setTitle(styleName);
-                            layer.getStyle().add(style);
+            if (e.isWellKnownName() && !isServerSource(e.getName())) {
+                addSource(e.getName(), false);
+            }
+        }
+
+        /**
+         * Publishes the layer of the given source. Its extent comes from the cache when its file has not
+         * changed. Otherwise it is computed, in the background if asked to.
+         */
+        void addSource(final String name, boolean background) {
+            Source source = dsf.getSourceManager().getSource(name);
+            if (source == null || !source.isWellKnownName() || source.isSystemTableSource()
+                    || layerMap.containsKey(name) || isServerSource(name)) {
+                return;
+            }
+            final File file = source.isFileSource() ? source.getFile() : null;
+            LayerExtentCache.Extent extent = file == null ? null : extentCache.get(file);
+            if (extent != null) {
+                publish(name, extent);
+            } else if (background) {
+                pending.add(name);
+                extentExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            computeAndPublish(name, file);
+                        } finally {
+                            pending.remove(name);
                         }
                     }
-                    layerMap.put(name, layer);
-                } catch (NoSuchTableException ex) {
-                    LOGGER.error("Cannot find the data "+ name, ex);
-                } catch (DataSourceCreationException ex) {
-                    LOGGER.error("Cannot find the data "+ name, ex);
-                } catch (DriverException ex) {
-                    LOGGER.error("Cannot acces to the data "+ name, ex);
+                });
+            } else {
+                computeAndPublish(name, file);
+            }
+        }
+
+        private void computeAndPublish(String name, File file) {
+            LayerExtentCache.Extent extent = computeExtent(name);
+            if (extent != null) {
+                if (file != null) {
+                    extentCache.put(file, extent);
+                }
+                publish(name, extent);
+            }
+        }
+
+        private LayerExtentCache.Extent computeExtent(String name) {
+            try {
+                DataSource ds = dsf.getDataSource(name);
+                ds.open();
+                Envelope env;
+                CoordinateReferenceSystem crs;
+                try {
+                    env = ds.getFullExtent();
+                    crs = ds.getCRS();
+                } finally {
+                    ds.close();
                 }
+                BoundingBox bBox = getBoundingBox(env, crs);
+                if (bBox == null) {
+                    return null;
+                }
+                EXGeographicBoundingBox geo = getGeographicBoundingBox(env, bBox.getCRS());
+                return new LayerExtentCache.Extent(bBox.getCRS(),
+                        new double[]{bBox.getMinx(), bBox.getMiny(), bBox.getMaxx(), bBox.getMaxy()},
+                        new double[]{geo.getWestBoundLongitude(), geo.getSouthBoundLatitude(),
+                                geo.getEastBoundLongitude(), geo.getNorthBoundLatitude()});
+            } catch (NoSuchTableException ex) {
+                LOGGER.error("Cannot find the data "+ name, ex);
+            } catch (DataSourceCreationException ex) {
+                LOGGER.error("Cannot find the data "+ name, ex);
+            } catch (DriverException ex) {
+                LOGGER.error("Cannot acces to the data "+ name, ex);
             }
+            return null;
+        }
+
+        /**
+         * Builds the JAXB layer of the given source and notifies the listeners. Synchronized so that the
+         * background threads and the source events don't publish the same source twice. Sources removed or
+         * renamed while their extent was computed are skipped.
+         */
+        private synchronized void publish(String name, LayerExtentCache.Extent extent) {
+            if (layerMap.containsKey(name) || dsf.getSourceManager().getSource(name) == null) {
+                return;
+            }
+            Layer layer = new Layer();
+            layer.setName(name);
+            layer.setTitle(name);
+            //Setting the bounding box data
+            double[] box = extent.getBox();
+            BoundingBox bBox = new BoundingBox();
+            bBox.setCRS(extent.getCRS());
+            bBox.setMinx(box[0]);
+            bBox.setMiny(box[1]);
+            bBox.setMaxx(box[2]);
+            bBox.setMaxy(box[3]);
+            layer.getCRS().add(bBox.getCRS());
+            layer.getBoundingBox().add(bBox);
+            double[] geographic = extent.getGeographic();
+            EXGeographicBoundingBox geo = new EXGeographicBoundingBox();
+            geo.setWestBoundLongitude(geographic[0]);
+            geo.setSouthBoundLatitude(geographic[1]);
+            geo.setEastBoundLongitude(geographic[2]);
+            geo.setNorthBoundLatitude(geographic[3]);
+            layer.setEXGeographicBoundingBox(geo);
+            layer.setQueryable(true);
+            if (layerStyles.containsKey(name)) {
+                String[] lStyles = layerStyles.get(name);
+                for (int i = 0; i < lStyles.length; i++) {
+                    Style style = new Style();
+                    String styleName = lStyles[i];
+                    style.setName(styleName);
+                    style.setTitle(styleName);
+                    layer.getStyle().add(style);
+                }
+            }
+            layerMap.put(name, layer);
+            for (LayerChangeListener l : layerListeners) {
+                l.layerAdded(name);
+            }
+            invalidate();
         }
 
         private BoundingBox getBoundingBox(Envelope env, CoordinateReferenceSystem crs) {
@@ -397,20 +736,67 @@ public final class GetCapabilitiesHandler {
         }
 
         @Override
-        public void sourceRemoved(SourceRemovalEvent e) {
+        public synchronized void sourceRemoved(SourceRemovalEvent e) {
             String name = e.getName();
-            layerMap.remove(name);
+            // Only the published layers are announced : the sources of the server, such as the reprojected
+            // ones, have never been added to the map.
+            if (layerMap.remove(name) == null) {
+                return;
+            }
+            for (LayerChangeListener l : layerListeners) {
+                l.layerRemoved(name);
+            }
+            invalidate();
+        }
+
+        /**
+         * Checks whether the given source has been built by the server, as a reprojection of a layer, in which
+         * case it is not a layer.
+         */
+        private boolean isServerSource(String name) {
+            return reprojection != null && (reprojection.isProjection(name) || reprojection.isWindowSource(name));
+        }
+
+        private synchronized boolean renamePublished(String name, String newName) {
+            if (!layerMap.containsKey(name) || dsf.getSourceManager().getSource(name) != null) {
+                return false;
+            }
+            layerMap.put(newName, layerMap.remove(name));
+            for (LayerChangeListener l : layerListeners) {
+                l.layerRenamed(name, newName);
+            }
+            invalidate();
+            return true;
         }
 
         @Override
-        public void sourceNameChanged(SourceEvent e) {
+        public synchronized void sourceNameChanged(SourceEvent e) {
             String name = e.getName();
             String newName = e.getNewName();
             SourceManager sm = dsf.getSourceManager();
+            if (pending.contains(name)) {
+                // Its extent is still being computed : the layer is published under the new name once the
+                // source has been renamed.
+                final String former = name;
+                final String current = newName;
+                extentExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!renamePublished(former, current)) {
+                            addSource(current, false);
+                        }
+                    }
+                });
+                return;
+            }
             if (sm.getSource(name) != null
                     && !sm.getSource(name).isSystemTableSource()
                     && layerMap.containsKey(name)) {
                 layerMap.put(newName, layerMap.remove(name));
+                for (LayerChangeListener l : layerListeners) {
+                    l.layerRenamed(name, newName);
+                }
+                invalidate();
             }
 
         }
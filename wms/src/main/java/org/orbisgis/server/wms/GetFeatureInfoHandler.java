@@ -29,26 +29,28 @@
 package org.orbisgis.server.wms;
 
 import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
 import net.opengis.wms.Layer;
+import org.apache.log4j.Logger;
 import org.gdms.data.DataSource;
-import org.gdms.data.DataSourceFactory;
 import org.gdms.data.NoSuchTableException;
-import org.gdms.data.indexes.DefaultSpatialIndexQuery;
 import org.gdms.data.indexes.IndexException;
-import org.gdms.data.indexes.IndexManager;
 import org.gdms.data.indexes.IndexQueryException;
 import org.gdms.data.schema.Metadata;
+import org.gdms.data.values.Value;
 import org.gdms.driver.DriverException;
-import org.orbisgis.core.DataManager;
-import org.orbisgis.core.Services;
 import org.orbisgis.core.layerModel.BeanLayer;
 import org.orbisgis.core.layerModel.ILayer;
 import org.orbisgis.core.layerModel.LayerCollection;
+import org.orbisgis.core.layerModel.LayerException;
 import org.orbisgis.core.renderer.se.Style;
-import org.orbisgis.progress.NullProgressMonitor;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Map;
 
 /**
@@ -57,7 +59,22 @@ import java.util.Map;
  */
 public class GetFeatureInfoHandler extends AbstractGetHandler {
 
-    public static final String PLAIN_TXT = "text/plain";
+    public static final String PLAIN_TXT = FeatureInfoWriter.TEXT;
+    /**
+     * The number of rows read before they are written.
+     */
+    private static final int BATCH_SIZE = 64;
+    /**
+     * The default number of pixels added around the symbols of the layers when they are queried.
+     */
+    public static final int DEFAULT_TOLERANCE = 2;
+    /**
+     * The largest distance, in pixels, at which a feature can be found.
+     */
+    public static final int MAX_TOLERANCE = 32;
+    private volatile int tolerance = DEFAULT_TOLERANCE;
+    private static final Logger LOGGER = Logger.getLogger(GetFeatureInfoHandler.class);
+    private final SpatialIndexService indexes;
 
     /**
      * Builds a new GetFeatureInfoHandler that knows the given layers.
@@ -65,10 +82,45 @@ public class GetFeatureInfoHandler extends AbstractGetHandler {
      */
     public GetFeatureInfoHandler(Map<String, Layer> input) {
         super(input);
+        indexes = new SpatialIndexService(SpatialIndexService.DEFAULT_THREADS);
+    }
+
+    /**
+     * Builds a new GetFeatureInfoHandler that knows the given layers.
+     * @param input The known layers that can be used as input.
+     * @param reprojection The manager of the reprojected sources.
+     */
+    public GetFeatureInfoHandler(Map<String, Layer> input, ReprojectionManager reprojection) {
+        this(input, reprojection, new SpatialIndexService(SpatialIndexService.DEFAULT_THREADS, reprojection));
+    }
+
+    /**
+     * Builds a new GetFeatureInfoHandler that knows the given layers.
+     * @param input The known layers that can be used as input.
+     * @param reprojection The manager of the reprojected sources.
+     * @param indexes The service that builds the spatial indexes of the layers.
+     */
+    public GetFeatureInfoHandler(Map<String, Layer> input, ReprojectionManager reprojection,
+                                 SpatialIndexService indexes) {
+        super(input, reprojection);
+        this.indexes = indexes;
+    }
+
+    /**
+     * Sets the number of pixels added around the symbols of the layers when they are queried.
+     * @param tolerance The tolerance in pixels.
+     */
+    public void setTolerance(int tolerance) {
+        this.tolerance = Math.max(0, Math.min(MAX_TOLERANCE, tolerance));
     }
 
     /**
      * Feeds the given output stream by retrieving the needed params in the provided GetFeatureInfoParams instance.
+     * The features are written as they are read, as text/plain, application/json (GeoJSON) or text/xml (GML).
+     * The features of a layer are the ones whose geometry is drawn under the queried pixel : they are searched
+     * within half the size of the symbols of its style, plus the configured tolerance, from the centre of the
+     * pixel. They are sorted from the nearest one, and at most FEATURE_COUNT of them are given when it is
+     * greater than 0.
      * @param params The parameters of the request set in a GetFeatureInfoParameters instance.
      * @param output The output stream we will write in
      * @param wmsResponse The WMSResponse we must fill
@@ -77,11 +129,10 @@ public class GetFeatureInfoHandler extends AbstractGetHandler {
      */
     public void getFeatureInfo(GetFeatureInfoParameters params, OutputStream output,
                                WMSResponse wmsResponse, Map<String, Style> serverStyles) throws WMSException {
-        if(!params.getInfoFormat().equalsIgnoreCase(PLAIN_TXT)){
+        FeatureInfoWriter writer = FeatureInfoWriter.create(params.getInfoFormat(), output, params.getCrs());
+        if(writer == null){
             throw new WMSException("The requested format is not supported: "+params.getInfoFormat());
         }
-        LayerCollection layers = prepareLayers(params.getQueryLayerList(), params.getStyleList(), params.getCrs(),
-                params.getSld(), params.getExceptionsFormat(), output, wmsResponse, serverStyles);
         int width = params.getWidth();
         int height = params.getHeight();
         int i = params.getI();
@@ -96,59 +147,126 @@ public class GetFeatureInfoHandler extends AbstractGetHandler {
         }
         
         double[] bBox = params.getbBox();
-        DataSourceFactory dsf = Services.getService(DataManager.class).getDataSourceFactory();
         Envelope env = getEnvelopeRequest(bBox,width, height, i, j);
+        double pixelSize = Math.max(env.getWidth(), env.getHeight());
+        Point click = new GeometryFactory().createPoint(env.centre());
+        // Only the neighbourhood of the queried pixel is needed when the layers are reprojected on the fly.
+        Envelope window = new Envelope(env);
+        window.expandBy(MAX_TOLERANCE * pixelSize);
+        LayerCollection layers = prepareLayers(params.getQueryLayerList(), params.getStyleList(), params.getCrs(),
+                new double[]{window.getMinX(), window.getMinY(), window.getMaxX(), window.getMaxY()},
+                params.getSld(), params.getExceptionsFormat(), output, wmsResponse, serverStyles);
         ILayer[] children = layers.getChildren();
-        IndexManager im = dsf.getIndexManager();
-        for(ILayer c : children){
+        wmsResponse.setContentType(writer.getContentType());
+        try {
             try {
-                feedOutput(im, env, c, output);
+                writer.start();
             } catch (IOException e) {
                 throw new WMSException("Problem while feeding the output stream", e);
-            } catch (DriverException e) {
-                throw new WMSException("Problem while reading the data", e);
-            } catch (IndexQueryException e) {
-                throw new WMSException("Problem while querying the index", e);
-            } catch (NoSuchTableException e) {
-                throw new WMSException("The requested table does not exist", e);
-            } catch (IndexException e) {
-                throw new WMSException("Problem while querying the index", e);
+            }
+            for(ILayer c : children){
+                try {
+                    double pixels = Math.min(MAX_TOLERANCE,
+                            SymbolTolerance.getPixels(c.getStyle(0), pixelSize) + tolerance);
+                    feedOutput(click, (pixels + 0.5) * pixelSize, c, writer, params.getFeatureCount());
+                } catch (IOException e) {
+                    throw new WMSException("Problem while feeding the output stream", e);
+                } catch (DriverException e) {
+                    throw new WMSException("Problem while reading the data", e);
+                } catch (IndexQueryException e) {
+                    throw new WMSException("Problem while querying the index", e);
+                } catch (NoSuchTableException e) {
+                    throw new WMSException("The requested table does not exist", e);
+                } catch (IndexException e) {
+                    throw new WMSException("Problem while querying the index", e);
+                }
+            }
+            try {
+                writer.end();
+            } catch (IOException e) {
+                throw new WMSException("Problem while feeding the output stream", e);
+            }
+        } finally {
+            try {
+                closeLayers(layers);
+            } catch (LayerException e) {
+                LOGGER.debug("An error occurred while closing resources", e);
             }
         }
-        wmsResponse.setContentType(PLAIN_TXT);
         wmsResponse.setResponseCode(200);
     }
 
-    private void feedOutput(IndexManager im, Envelope env, ILayer l, OutputStream output) throws IOException,
-            DriverException, IndexQueryException, NoSuchTableException, IndexException {
+    private void feedOutput(Point click, double distance, ILayer l, FeatureInfoWriter writer, int featureCount)
+            throws IOException, DriverException, IndexQueryException, NoSuchTableException, IndexException {
         if(l instanceof BeanLayer){
             BeanLayer bl = (BeanLayer) l;
             DataSource dataSource = bl.getDataSource();
-            StringBuilder sb = new StringBuilder();
-            sb.append(bl.getName());
-            sb.append("\n");
-            String geomField = dataSource.getFieldName(dataSource.getSpatialFieldIndex());
-            if(!im.isIndexed(dataSource,geomField)){
-                im.buildIndex(dataSource,geomField, new NullProgressMonitor());
-            }
-            int[] rows = im.queryIndex(dataSource, new DefaultSpatialIndexQuery(geomField, env));
             Metadata md = dataSource.getMetadata();
             dataSource.open();
-            for(int i : rows){
-                for(int j = 0; j<md.getFieldCount(); j++){
-                    sb.append(md.getFieldName(j));
-                    sb.append(": ");
-                    sb.append(dataSource.getFieldValue(i,j).toString());
-                    sb.append("\n");
+            try {
+                Envelope env = new Envelope(click.getCoordinate());
+                env.expandBy(distance);
+                // The index is built in the background : the source is scanned until it is ready.
+                int[] rows = nearest(dataSource, indexes.query(dataSource, env), click, distance, featureCount);
+                int count = rows.length;
+                writer.startLayer(bl.getName(), md, dataSource.getSpatialFieldIndex());
+                Value[][] batch = new Value[Math.min(BATCH_SIZE, count)][];
+                for(int start = 0; start < count; start += BATCH_SIZE){
+                    int n = Math.min(BATCH_SIZE, count - start);
+                    for(int k = 0; k < n; k++){
+                        batch[k] = dataSource.getRow(rows[start + k]);
+                    }
+                    for(int k = 0; k < n; k++){
+                        writer.feature(rows[start + k], batch[k]);
+                    }
+                    writer.flush();
                 }
-                sb.append("\n");
+                writer.endLayer();
+            } finally {
+                dataSource.close();
             }
-            dataSource.close();
-            output.write(sb.toString().getBytes());
         }
 
     }
 
+    /**
+     * Keeps the candidate rows whose geometry is within the given distance of the click, sorted from the
+     * nearest one, and at most featureCount of them when it is greater than 0.
+     */
+    static int[] nearest(DataSource dataSource, int[] candidates, Point click, double distance, int featureCount)
+            throws DriverException {
+        int spatialField = dataSource.getSpatialFieldIndex();
+        final int[] rows = new int[candidates.length];
+        final double[] distances = new double[candidates.length];
+        Integer[] order = new Integer[candidates.length];
+        int n = 0;
+        for(int row : candidates){
+            Geometry geom = dataSource.getFieldValue(row, spatialField).getAsGeometry();
+            if(geom == null){
+                continue;
+            }
+            double d = geom.distance(click);
+            if(d <= distance){
+                rows[n] = row;
+                distances[n] = d;
+                order[n] = n;
+                n++;
+            }
+        }
+        Arrays.sort(order, 0, n, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = Double.compare(distances[a], distances[b]);
+                return c != 0 ? c : rows[a] - rows[b];
+            }
+        });
+        int[] ret = new int[featureCount > 0 ? Math.min(featureCount, n) : n];
+        for(int k = 0; k < ret.length; k++){
+            ret[k] = rows[order[k]];
+        }
+        return ret;
+    }
+
     /**
      * Gets the approximate envelope of pixel (i,j) in an image of dimensions (width, height) where we draw the map
      * contained in the bounding box bBox.
@@ -75,7 +75,7 @@ public class GetFeatureInfoParameters extends GetMapParameters {
             throw new WMSException("INFO_FORMAT can't be empty.");
         }
         if (queryParameters.containsKey(FEATURE_COUNT)) {
-            featureCount = Integer.valueOf(queryParameters.get(FEATURE_COUNT)[0]);
+            featureCount = parseInteger(queryParameters.get(FEATURE_COUNT)[0]);
         }
         i = parseInteger(queryParameters.get(I)[0]);
         j = parseInteger(queryParameters.get(J)[0]);
@@ -115,7 +115,7 @@ public class GetFeatureInfoParameters extends GetMapParameters {
 
     /**
      * The max number of features to return for each queried layer.
-     * @return The max number of features to return for each queried layer.
+     * @return The max number of features to return for each queried layer, 0 or less for all of them.
      */
     public int getFeatureCount() {
         return featureCount;
@@ -0,0 +1,501 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the GetMap answers, keyed by {@link GetMapParameters#getCacheKey()}. The cache has a memory tier bounded
+ * by its size in bytes and, if a folder is configured, a disk tier where the least recently used maps go when
+ * they are evicted from memory. Entries remember the layers and the styles used to draw them so that they can be
+ * dropped when one of them changes. The maps drawn before such a change are not stored : the callers read the
+ * {@link #getGeneration() generation} of the cache before drawing and give it back to
+ * {@link #put(String, long, GetMapParameters, String, byte[])}. The files of the disk tier are read and written
+ * outside of the lock of the cache, each entry having a file of its own.
+ */
+public class GetMapCache implements LayerChangeListener {
+
+        private static final Logger LOGGER = Logger.getLogger(GetMapCache.class);
+        private static final long MB = 1024L * 1024L;
+        private static final String EXTENSION = ".map";
+        private static final int DEFAULT_MEMORY_SIZE = 64;
+        private static final int DEFAULT_DISK_SIZE = 512;
+
+        private final long memoryLimit;
+        private final long diskLimit;
+        private final File diskFolder;
+        // Both maps are access-ordered : the first entry is always the least recently used.
+        private final LinkedHashMap<String, CachedMap> memory = new LinkedHashMap<String, CachedMap>(64, 0.75f, true);
+        private final LinkedHashMap<String, CachedMap> disk = new LinkedHashMap<String, CachedMap>(64, 0.75f, true);
+        private long memorySize = 0;
+        private long diskSize = 0;
+        private long generation = 0;
+        private long files = 0;
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        /**
+         * Builds a cache configured with {@link WMSProperties#CACHE_MEMORY_SIZE},
+         * {@link WMSProperties#CACHE_DISK_FOLDER} and {@link WMSProperties#CACHE_DISK_SIZE}.
+         * @param props The server properties.
+         */
+        public GetMapCache(WMSProperties props) {
+                memoryLimit = Math.max(0, props.getIntProperty(WMSProperties.CACHE_MEMORY_SIZE, DEFAULT_MEMORY_SIZE)) * MB;
+                Object folder = props.getProperty(WMSProperties.CACHE_DISK_FOLDER);
+                if (folder instanceof String && !((String) folder).trim().isEmpty()) {
+                        diskFolder = new File(((String) folder).trim());
+                        diskLimit = Math.max(0, props.getIntProperty(WMSProperties.CACHE_DISK_SIZE, DEFAULT_DISK_SIZE)) * MB;
+                        initDiskFolder();
+                } else {
+                        diskFolder = null;
+                        diskLimit = 0;
+                }
+        }
+
+        /**
+         * Checks whether this cache can store anything.
+         * @return true if at least one of the tiers has a non-zero size.
+         */
+        public boolean isEnabled() {
+                return memoryLimit > 0 || diskLimit > 0;
+        }
+
+        /**
+         * Gets the size of the largest map this cache can store.
+         * @return The maximum size of an entry, in bytes.
+         */
+        long getMaxEntrySize() {
+                return Math.max(memoryLimit, diskLimit);
+        }
+
+        /**
+         * Gets the size of the largest map the memory tier can store.
+         * @return The maximum size of an entry of the memory tier, in bytes.
+         */
+        long getMaxMemoryEntrySize() {
+                return memoryLimit;
+        }
+
+        /**
+         * Gets the map associated to the given key, if any.
+         * @param key The key of the request, as given by {@link GetMapParameters#getCacheKey()}
+         * @return The cached map or null if there is none.
+         */
+        public CachedMap get(String key) {
+                CachedMap ret;
+                CachedMap onDisk = null;
+                synchronized (this) {
+                        ret = memory.get(key);
+                        if (ret == null) {
+                                onDisk = disk.get(key);
+                        }
+                }
+                if (onDisk != null) {
+                        ret = readFromDisk(key, onDisk);
+                }
+                if (ret == null) {
+                        misses.incrementAndGet();
+                } else {
+                        hits.incrementAndGet();
+                }
+                return ret;
+        }
+
+        /**
+         * Gets the generation of the cache, to read before drawing a map and to give with it to
+         * {@link #put(String, long, GetMapParameters, String, byte[])}. It changes each time maps are dropped.
+         * @return The current generation.
+         */
+        public synchronized long getGeneration() {
+                return generation;
+        }
+
+        /**
+         * Stores the rendered map for the given request, unless some maps have been dropped since it started being
+         * drawn : it may then use the former definition of a layer or a style.
+         * @param key The key of the request, as given by {@link GetMapParameters#getCacheKey()}
+         * @param generation The generation of the cache before the map was drawn.
+         * @param params The parameters used to draw the map.
+         * @param contentType The MIME type of the map.
+         * @param data The encoded map.
+         */
+        public void put(String key, long generation, GetMapParameters params, String contentType, byte[] data) {
+                if (key == null || !isEnabled()) {
+                        return;
+                }
+                CachedMap map = new CachedMap(contentType, data, params.getLayerList(), params.getRenderStyles());
+                Map<String, CachedMap> spilled = new LinkedHashMap<String, CachedMap>();
+                List<File> deleted = new ArrayList<File>();
+                synchronized (this) {
+                        if (generation != this.generation) {
+                                return;
+                        }
+                        removeEntry(key, deleted);
+                        if (map.getSize() > memoryLimit) {
+                                spilled.put(key, map);
+                        } else {
+                                memory.put(key, map);
+                                memorySize += map.getSize();
+                                evictMemory(spilled);
+                        }
+                }
+                deleteFiles(deleted);
+                for (Map.Entry<String, CachedMap> e : spilled.entrySet()) {
+                        writeToDisk(e.getKey(), e.getValue(), generation);
+                }
+        }
+
+        /**
+         * Drops all the maps that have been drawn using the given layer.
+         * @param layer The name of the layer.
+         */
+        public void invalidateLayer(String layer) {
+                invalidate(layer, true);
+        }
+
+        /**
+         * Drops all the maps that have been drawn using the given style.
+         * @param style The name of the style.
+         */
+        public void invalidateStyle(String style) {
+                invalidate(style, false);
+        }
+
+        /**
+         * Drops all the cached maps.
+         */
+        public void clear() {
+                List<File> deleted = new ArrayList<File>();
+                synchronized (this) {
+                        generation++;
+                        memory.clear();
+                        memorySize = 0;
+                        for (CachedMap map : disk.values()) {
+                                deleted.add(map.file);
+                        }
+                        disk.clear();
+                        diskSize = 0;
+                }
+                deleteFiles(deleted);
+        }
+
+        /**
+         * Gets the number of requests that have been answered by this cache.
+         * @return The number of hits.
+         */
+        public long getHits() {
+                return hits.get();
+        }
+
+        /**
+         * Gets the number of requests that were not found in this cache.
+         * @return The number of misses.
+         */
+        public long getMisses() {
+                return misses.get();
+        }
+
+        @Override
+        public void layerAdded(String name) {
+                // A source may have been registered again with different data under a previously known name.
+                invalidateLayer(name);
+        }
+
+        @Override
+        public void layerRemoved(String name) {
+                invalidateLayer(name);
+        }
+
+        @Override
+        public void layerRenamed(String oldName, String newName) {
+                invalidateLayer(oldName);
+                invalidateLayer(newName);
+        }
+
+        private void invalidate(String name, boolean layer) {
+                List<File> deleted = new ArrayList<File>();
+                synchronized (this) {
+                        generation++;
+                        Iterator<Map.Entry<String, CachedMap>> it = memory.entrySet().iterator();
+                        while (it.hasNext()) {
+                                CachedMap map = it.next().getValue();
+                                if (map.uses(name, layer)) {
+                                        memorySize -= map.getSize();
+                                        it.remove();
+                                }
+                        }
+                        it = disk.entrySet().iterator();
+                        while (it.hasNext()) {
+                                CachedMap map = it.next().getValue();
+                                if (map.uses(name, layer)) {
+                                        diskSize -= map.getSize();
+                                        deleted.add(map.file);
+                                        it.remove();
+                                }
+                        }
+                }
+                deleteFiles(deleted);
+        }
+
+        private void removeEntry(String key, List<File> deleted) {
+                CachedMap old = memory.remove(key);
+                if (old != null) {
+                        memorySize -= old.getSize();
+                }
+                old = disk.remove(key);
+                if (old != null) {
+                        diskSize -= old.getSize();
+                        deleted.add(old.file);
+                }
+        }
+
+        /**
+         * Removes the least recently used maps from memory until it fits in its limit. The removed maps are put in
+         * spilled, to be written on disk once the lock is released.
+         */
+        private void evictMemory(Map<String, CachedMap> spilled) {
+                Iterator<Map.Entry<String, CachedMap>> it = memory.entrySet().iterator();
+                while (memorySize > memoryLimit && it.hasNext()) {
+                        Map.Entry<String, CachedMap> e = it.next();
+                        it.remove();
+                        memorySize -= e.getValue().getSize();
+                        spilled.put(e.getKey(), e.getValue());
+                }
+        }
+
+        /**
+         * Writes the map in a new file and adds it to the disk tier, unless the cache has been invalidated or the
+         * key stored again in memory meanwhile. Must be called without holding the lock.
+         */
+        private void writeToDisk(String key, CachedMap map, long generation) {
+                if (diskFolder == null || map.getSize() > diskLimit) {
+                        return;
+                }
+                File file;
+                synchronized (this) {
+                        file = newFile(key);
+                }
+                OutputStream out = null;
+                boolean written = false;
+                try {
+                        out = new FileOutputStream(file);
+                        out.write(map.getData());
+                        written = true;
+                } catch (IOException ex) {
+                        LOGGER.warn("Can't write the map in the disk cache", ex);
+                } finally {
+                        closeQuietly(out);
+                }
+                if (!written) {
+                        deleteFile(file);
+                        return;
+                }
+                List<File> deleted = new ArrayList<File>();
+                synchronized (this) {
+                        if (generation != this.generation || memory.containsKey(key)) {
+                                deleted.add(file);
+                        } else {
+                                // Only the metadata stay in memory, the image is read back from the file.
+                                CachedMap old = disk.put(key, new CachedMap(map.getContentType(), null, map.layers,
+                                        map.styles, map.getSize(), file));
+                                if (old != null) {
+                                        diskSize -= old.getSize();
+                                        deleted.add(old.file);
+                                }
+                                diskSize += map.getSize();
+                                Iterator<Map.Entry<String, CachedMap>> it = disk.entrySet().iterator();
+                                while (diskSize > diskLimit && it.hasNext()) {
+                                        CachedMap evicted = it.next().getValue();
+                                        it.remove();
+                                        diskSize -= evicted.getSize();
+                                        deleted.add(evicted.file);
+                                }
+                        }
+                }
+                deleteFiles(deleted);
+        }
+
+        /**
+         * Reads the map of the given disk entry. Must be called without holding the lock : the entry may be
+         * dropped meanwhile, its file being deleted, in which case the map is not found.
+         */
+        private CachedMap readFromDisk(String key, CachedMap meta) {
+                File f = meta.file;
+                byte[] data = new byte[(int) meta.getSize()];
+                InputStream in = null;
+                try {
+                        in = new FileInputStream(f);
+                        int read = 0;
+                        while (read < data.length) {
+                                int r = in.read(data, read, data.length - read);
+                                if (r < 0) {
+                                        throw new IOException("Unexpected end of file " + f);
+                                }
+                                read += r;
+                        }
+                } catch (IOException ex) {
+                        LOGGER.debug("Can't read the map from the disk cache", ex);
+                        synchronized (this) {
+                                if (disk.get(key) == meta) {
+                                        disk.remove(key);
+                                        diskSize -= meta.getSize();
+                                }
+                        }
+                        deleteFile(f);
+                        return null;
+                } finally {
+                        closeQuietly(in);
+                }
+                return new CachedMap(meta.getContentType(), data, meta.layers, meta.styles);
+        }
+
+        private void initDiskFolder() {
+                if (!diskFolder.isDirectory() && !diskFolder.mkdirs()) {
+                        LOGGER.warn("Can't create the cache folder " + diskFolder + ", disk cache disabled.");
+                        return;
+                }
+                // The index of the disk tier only lives in memory : files left by a previous run are useless.
+                File[] files = diskFolder.listFiles();
+                if (files != null) {
+                        for (File f : files) {
+                                if (f.getName().endsWith(EXTENSION) && !f.delete()) {
+                                        LOGGER.debug("Can't delete the stale cache file " + f);
+                                }
+                        }
+                }
+        }
+
+        /**
+         * Gets a file that no other entry uses for the given key, so that an entry being read is never replaced.
+         */
+        private File newFile(String key) {
+                try {
+                        MessageDigest md = MessageDigest.getInstance("SHA-1");
+                        byte[] digest = md.digest(key.getBytes("UTF-8"));
+                        StringBuilder sb = new StringBuilder();
+                        for (byte b : digest) {
+                                sb.append(String.format("%02x", b & 0xff));
+                        }
+                        sb.append('-').append(++files);
+                        return new File(diskFolder, sb.append(EXTENSION).toString());
+                } catch (NoSuchAlgorithmException ex) {
+                        throw new RuntimeException(ex);
+                } catch (UnsupportedEncodingException ex) {
+                        throw new RuntimeException(ex);
+                }
+        }
+
+        private static void deleteFile(File f) {
+                if (f.exists() && !f.delete()) {
+                        LOGGER.debug("Can't delete the cache file " + f);
+                }
+        }
+
+        private static void deleteFiles(List<File> deleted) {
+                for (File f : deleted) {
+                        deleteFile(f);
+                }
+        }
+
+        private static void closeQuietly(java.io.Closeable c) {
+                if (c != null) {
+                        try {
+                                c.close();
+                        } catch (IOException ex) {
+                                LOGGER.debug("Can't close the cache stream", ex);
+                        }
+                }
+        }
+
+        /**
+         * A map stored in the cache, with the layers and styles that have been used to draw it.
+         */
+        public static final class CachedMap {
+                private final String contentType;
+                private final byte[] data;
+                private final String[] layers;
+                private final String[] styles;
+                private final long size;
+                private final File file;
+
+                CachedMap(String contentType, byte[] data, String[] layers, String[] styles) {
+                        this(contentType, data, layers, styles, data.length, null);
+                }
+
+                private CachedMap(String contentType, byte[] data, String[] layers, String[] styles, long size,
+                                  File file) {
+                        this.contentType = contentType;
+                        this.data = data;
+                        this.layers = layers;
+                        this.styles = styles;
+                        this.size = size;
+                        this.file = file;
+                }
+
+                /**
+                 * Gets the MIME type of the map.
+                 * @return The content type.
+                 */
+                public String getContentType() {
+                        return contentType;
+                }
+
+                /**
+                 * Gets the encoded map. The returned array must not be modified.
+                 * @return The bytes of the map.
+                 */
+                public byte[] getData() {
+                        return data;
+                }
+
+                long getSize() {
+                        return size;
+                }
+
+                boolean uses(String name, boolean layer) {
+                        return Arrays.asList(layer ? layers : styles).contains(name);
+                }
+        }
+}
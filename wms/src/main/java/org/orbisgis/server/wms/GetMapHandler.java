@@ -43,6 +43,7 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
 
 /**
  * This object contains all the methods that are used to handle the getMap
@@ -54,20 +55,57 @@ import java.util.Map;
  */
 public final class GetMapHandler extends AbstractGetHandler {
         private static final Logger LOGGER = Logger.getLogger(GetMapHandler.class);
+        private static final int DEFAULT_RASTER_POOL_SIZE = 64;
+        private final Semaphore renderSlots;
+        private final RasterPool rasterPool;
 
         /**
-         * Builds a new GetMapHandler with the given map of layers
+         * Builds a new GetMapHandler with the given map of layers. As many maps as there are available
+         * processors can be rendered at the same time.
          * @param inputMap
          */
         public GetMapHandler(Map<String, Layer> inputMap) {
+            this(inputMap, new WMSProperties());
+        }
+
+        /**
+         * Builds a new GetMapHandler with the given map of layers. The number of maps that can be rendered
+         * at the same time is read from {@link WMSProperties#RENDER_THREADS}.
+         * @param inputMap The map of registered layers
+         * @param properties The configuration of the server
+         */
+        public GetMapHandler(Map<String, Layer> inputMap, WMSProperties properties) {
             super(inputMap);
+            renderSlots = createRenderSlots(properties);
+            rasterPool = RasterPool.create(properties, DEFAULT_RASTER_POOL_SIZE);
+        }
+
+        /**
+         * Builds a new GetMapHandler with the given map of layers, that gets its reprojected sources from the
+         * given manager.
+         * @param inputMap The map of registered layers
+         * @param properties The configuration of the server
+         * @param reprojection The manager of the reprojected sources
+         */
+        public GetMapHandler(Map<String, Layer> inputMap, WMSProperties properties, ReprojectionManager reprojection) {
+            super(inputMap, reprojection);
+            renderSlots = createRenderSlots(properties);
+            rasterPool = RasterPool.create(properties, DEFAULT_RASTER_POOL_SIZE);
+        }
+
+        private static Semaphore createRenderSlots(WMSProperties properties) {
+            int threads = properties.getIntProperty(WMSProperties.RENDER_THREADS,
+                    Runtime.getRuntime().availableProcessors());
+            return new Semaphore(Math.max(1, threads), true);
         }
 
         /**
          * Receives all the getMap request parameters from getMapParameterParser
          * and turns them into acceptable objects for the renderer to process,
          * then writes the rendered image into the output stream via
-         * MapImageWriter
+         * MapImageWriter. This method is thread-safe : each call works on its
+         * own LayerCollection and MapTransform, and calls wait for a free
+         * render slot when too many maps are already being drawn.
          *
          * @param params The parameters of the request in a GetMapParameters instance.
          * @param output The stream where to write in
@@ -76,46 +114,142 @@ public final class GetMapHandler extends AbstractGetHandler {
          * @throws WMSException
          * @throws UnsupportedEncodingException  
          */
-        public synchronized void getMap(GetMapParameters params, OutputStream output,
+        public void getMap(GetMapParameters params, OutputStream output,
                 WMSResponse wmsResponse, Map<String, Style> serverStyles) throws WMSException, UnsupportedEncodingException {
+                try {
+                        renderSlots.acquire();
+                } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new WMSException("Interrupted while waiting for a free render slot", ex);
+                }
+                try {
+                        render(params, output, wmsResponse, serverStyles);
+                } finally {
+                        renderSlots.release();
+                }
+        }
+
+        /**
+         * Draws the map described by params without encoding it. This is used to draw a large image that is then
+         * cut into tiles. Like {@link #getMap(GetMapParameters, OutputStream, WMSResponse, Map)}, this method waits
+         * for a free render slot.
+         *
+         * @param params The parameters of the map to draw.
+         * @param output The stream where the errors about the requested layers are written.
+         * @param wmsResponse The HTTP response that will be given by the server
+         * @param serverStyles Styles registered in this server
+         * @return The drawn image, or null if the layers can't be prepared. In this case the error has already
+         * been written in output. The image should be given back with {@link #releaseImage(BufferedImage)}
+         * once it has been encoded.
+         * @throws WMSException If the map can't be drawn.
+         */
+        public BufferedImage getMapImage(GetMapParameters params, OutputStream output,
+                WMSResponse wmsResponse, Map<String, Style> serverStyles) throws WMSException {
+                try {
+                        renderSlots.acquire();
+                } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new WMSException("Interrupted while waiting for a free render slot", ex);
+                }
+                try {
+                        LayerCollection layers = prepareLayers(params.getLayerList(),params.getStyleList(),
+                                params.getCrs(), params.getbBox(), params.getSld(),params.getExceptionsFormat(),
+                                output,wmsResponse, serverStyles);
+                        if(layers.getChildren().length == 0){
+                            return null;
+                        }
+                        try {
+                                return draw(params, layers);
+                        } catch (Exception ex) {
+                                throw new WMSException(ex);
+                        } finally {
+                                close(layers);
+                        }
+                } finally {
+                        renderSlots.release();
+                }
+        }
+
+        /**
+         * Gives back an image returned by
+         * {@link #getMapImage(GetMapParameters, OutputStream, WMSResponse, Map)}, so that its raster can be
+         * reused by the next maps.
+         * @param img The image, that must not be used anymore.
+         */
+        public void releaseImage(BufferedImage img) {
+                rasterPool.release(img);
+        }
+
+        /**
+         * Gets the pool of the rasters the maps are drawn in.
+         * @return The raster pool.
+         */
+        public RasterPool getRasterPool() {
+                return rasterPool;
+        }
 
+        @Override
+        protected BufferedImage createImage(int type, int width, int height) {
+                return rasterPool.acquire(type, width, height);
+        }
+
+        private void render(GetMapParameters params, OutputStream output,
+                WMSResponse wmsResponse, Map<String, Style> serverStyles) throws WMSException, UnsupportedEncodingException {
                 LayerCollection layers = prepareLayers(params.getLayerList(),params.getStyleList(),params.getCrs(),
-                params.getSld(),params.getExceptionsFormat(),output,wmsResponse,serverStyles);
+                params.getbBox(), params.getSld(),params.getExceptionsFormat(),output,wmsResponse,serverStyles);
                 if(layers.getChildren().length == 0){
                     return;
                 }
+                BufferedImage img = null;
                 try {
-                    //Finally we can draw things...
-                        MapTransform mt = getMapTransform(params.getbBox(), layers, params.getImageFormat(), params.getWidth(),
-                                params.getHeight(), params.getPixelSize());
-                        BufferedImage img = mt.getImage();
-                        Graphics2D g2 = img.createGraphics();
-                        Color color;
-                        if (!params.isTransparent()) {
-                                color = Color.decode(params.getBgColor());
-                                g2.setBackground(color);
-                                g2.clearRect(0, 0, params.getWidth(), params.getHeight());
-                        }
-                        NullProgressMonitor pm = new NullProgressMonitor();
-                        LOGGER.debug("Starting to draw the image");
-                        Renderer renderer = new ImageRenderer();
-                        LOGGER.trace("Renderer ready");
-                        renderer.draw(mt, g2, params.getWidth(), params.getHeight(), layers, pm);
-                        LOGGER.trace("Disposing of the graphics.");
-                        g2.dispose();
-                        LOGGER.debug("Image ready to be sent to the client.");
+                        img = draw(params, layers);
+                        long start = getMetrics().start();
                         MapImageWriter.write(wmsResponse, output, params.getImageFormat(), img, params.getPixelSize());
+                        getMetrics().record(WMSMetrics.Phase.ENCODE, start);
                 } catch (Exception ex) {
                         LOGGER.debug("An error occurred while generating the image:\n",ex);
-                        ex.printStackTrace(new PrintStream(output, false, "UTF-8"));
                         wmsResponse.setContentType("text/plain");
+                        wmsResponse.setResponseCode(500);
+                        PrintStream pr = new PrintStream(output, false, "UTF-8");
+                        ex.printStackTrace(pr);
+                        pr.flush();
                 } finally {
-                        try {
-                                layers.close();
-                        } catch (LayerException ex1) {
-                                LOGGER.debug("An error occurred while closing resources:\n",ex1);
-                                throw new WMSException(ex1);
-                        }
+                        rasterPool.release(img);
+                        close(layers);
+                }
+        }
+
+        private BufferedImage draw(GetMapParameters params, LayerCollection layers) throws Exception {
+                //Finally we can draw things...
+                MapTransform mt = getMapTransform(params.getbBox(), layers, params.getImageFormat(), params.getWidth(),
+                        params.getHeight(), params.getPixelSize());
+                BufferedImage img = mt.getImage();
+                Graphics2D g2 = img.createGraphics();
+                Color color;
+                if (!params.isTransparent()) {
+                        color = Color.decode(params.getBgColor());
+                        g2.setBackground(color);
+                        g2.clearRect(0, 0, params.getWidth(), params.getHeight());
+                }
+                NullProgressMonitor pm = new NullProgressMonitor();
+                LOGGER.debug("Starting to draw the image");
+                Renderer renderer = new ImageRenderer();
+                LOGGER.trace("Renderer ready");
+                long start = getMetrics().start();
+                renderer.draw(mt, g2, params.getWidth(), params.getHeight(), layers, pm);
+                getMetrics().record(WMSMetrics.Phase.DRAW, start);
+                LOGGER.trace("Disposing of the graphics.");
+                g2.dispose();
+                LOGGER.debug("Image ready to be sent to the client.");
+                return img;
+        }
+
+        private void close(LayerCollection layers) throws WMSException {
+                try {
+                        closeLayers(layers);
+                } catch (LayerException ex1) {
+                        LOGGER.debug("An error occurred while closing resources:\n",ex1);
+                        throw new WMSException(ex1);
                 }
         }
 
@@ -28,6 +28,8 @@
  */
 package org.orbisgis.server.wms;
 
+import java.math.BigDecimal;
+import java.math.MathContext;
 import java.util.*;
 
 /**
@@ -91,8 +93,17 @@ public class GetMapParameters {
      * Optional
      */
     public static final String TIME = "TIME";
+    /**
+     * Optional, WMS-C extension : the client asks for tiles of a regular grid.
+     */
+    public static final String TILED = "TILED";
     public static final String ELEVATION = "ELEVATION";
     public static final Set<String> MANDATORY_PARAMETERS;
+    /**
+     * The number of significant digits kept for the BBOX ordinates in the cache key. Clients that compute their
+     * bounding boxes in floating point don't always send exactly the same digits for the same map.
+     */
+    private static final MathContext KEY_PRECISION = new MathContext(10);
 
     static {
         Set<String> temp = new HashSet<String>();
@@ -121,6 +132,7 @@ public class GetMapParameters {
     private String sld;
     private String bgColor = "#FFFFFF";
     private boolean transparent;
+    private boolean tiled;
 
     /**
      * Parses all the key-value pairs given in argument to decide how to draw the requested map.
@@ -189,6 +201,10 @@ public class GetMapParameters {
             }
         }
 
+        if (qp.containsKey(TILED)) {
+            tiled = Boolean.valueOf(qp.get(TILED)[0]);
+        }
+
         if (qp.containsKey(BGCOLOR)) {
             bgColor = qp.get(BGCOLOR)[0];
         }
@@ -202,6 +218,36 @@ public class GetMapParameters {
         }
     }
 
+    /**
+     * Copies other, replacing the extent and the size of the map.
+     */
+    private GetMapParameters(GetMapParameters other, double[] bBox, int width, int height) {
+        layerList = other.layerList;
+        styleList = other.styleList;
+        this.bBox = bBox.clone();
+        crs = other.crs;
+        this.width = width;
+        this.height = height;
+        imageFormat = other.imageFormat;
+        pixelSize = other.pixelSize;
+        exceptionsFormat = other.exceptionsFormat;
+        sld = other.sld;
+        bgColor = other.bgColor;
+        transparent = other.transparent;
+        tiled = other.tiled;
+    }
+
+    /**
+     * Gets the same request on another extent, as needed to draw the neighbouring tiles of a map.
+     * @param newBBox The new extent as {minx, miny, maxx, maxy}
+     * @param newWidth The new width of the map
+     * @param newHeight The new height of the map
+     * @return A copy of these parameters with the given extent and size.
+     */
+    GetMapParameters withBBox(double[] newBBox, int newWidth, int newHeight) {
+        return new GetMapParameters(this, newBBox, newWidth, newHeight);
+    }
+
     /**
      * Parses the layers contained in s as a comma separated list of values
      * @param s The input string
@@ -349,6 +395,72 @@ public class GetMapParameters {
         return bgColor;
     }
 
+    /**
+     * Gets a canonical representation of these parameters, suitable to identify the rendered map. Two requests
+     * with the same key produce the same image. Requests that use an external SLD have no key, as the remote
+     * document can change at any time.
+     * @return The canonical key, or null if the rendered map can't be identified by the parameters only.
+     */
+    public String getCacheKey() {
+        if (sld != null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("LAYERS=");
+        appendList(sb, getLayerList());
+        sb.append("&STYLES=");
+        appendList(sb, getRenderStyles());
+        sb.append("&CRS=").append(crs.toUpperCase(Locale.ENGLISH));
+        sb.append("&BBOX=");
+        for (int i = 0; i < bBox.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(new BigDecimal(bBox[i]).round(KEY_PRECISION).stripTrailingZeros().toPlainString());
+        }
+        sb.append("&WIDTH=").append(width);
+        sb.append("&HEIGHT=").append(height);
+        sb.append("&FORMAT=").append(imageFormat.replace(" ", "").toLowerCase(Locale.ENGLISH));
+        sb.append("&TRANSPARENT=").append(transparent);
+        if (!transparent) {
+            sb.append("&BGCOLOR=").append(bgColor.toUpperCase(Locale.ENGLISH));
+        }
+        sb.append("&PIXELSIZE=").append(pixelSize);
+        return sb.toString();
+    }
+
+    /**
+     * Gets the names of the server styles used to draw each layer : the requested style if any, the style named
+     * after the layer otherwise.
+     * @return The styles used to render the layers, in the same order as {@link #getLayerList()}.
+     */
+    public String[] getRenderStyles() {
+        String[] layers = getLayerList();
+        String[] styles = getStyleList();
+        String[] ret = new String[layers.length];
+        for (int i = 0; i < layers.length; i++) {
+            ret[i] = i < styles.length ? styles[i] : layers[i];
+        }
+        return ret;
+    }
+
+    private void appendList(StringBuilder sb, String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(values[i]);
+        }
+    }
+
+    /**
+     * Gets whether the client asked for a tile of a regular grid (TILED=TRUE).
+     * @return true if the map is a tile.
+     */
+    public boolean isTiled() {
+        return tiled;
+    }
+
     /**
      * Gets whether the map must be transparent or not
      * @return True if the map must be transparent.
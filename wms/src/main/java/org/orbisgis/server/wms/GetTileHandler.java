@@ -0,0 +1,256 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.apache.log4j.Logger;
+import org.orbisgis.core.renderer.se.Style;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Handles the WMTS GetTile requests. Tiles are drawn by the {@link GetMapHandler} and kept in a {@link TileStore}
+ * from which they are sent directly afterwards. Tiles can also be rendered in advance with
+ * {@link #seed(String, String, String, String, int, int, double[], Map)}. When metatiling is enabled, the
+ * tiles are drawn by blocks and all the tiles of the block are stored at once.
+ */
+public final class GetTileHandler {
+
+        private static final Logger LOGGER = Logger.getLogger(GetTileHandler.class);
+        private final GetMapHandler getMap;
+        private final TileStore store;
+        private final MetaTileRenderer metaTiles;
+        private final ConcurrentMap<String, Object> metaTileLocks = new ConcurrentHashMap<String, Object>();
+
+        /**
+         * Builds a new GetTileHandler.
+         * @param getMap The handler used to draw the tiles.
+         * @param store The store where the tiles are kept.
+         * @param metaTileSize The number of tiles on each side of the drawn blocks, 1 to draw the tiles one by one.
+         */
+        public GetTileHandler(GetMapHandler getMap, TileStore store, int metaTileSize) {
+                this.getMap = getMap;
+                this.store = store;
+                this.metaTiles = new MetaTileRenderer(getMap, metaTileSize);
+        }
+
+        /**
+         * Writes the requested tile in the output stream, drawing it if it has not been stored yet.
+         * @param params The parameters of the request.
+         * @param output The stream where to write in
+         * @param wmsResponse The HTTP response that will be given by the server
+         * @param serverStyles Styles registered in this server
+         * @throws WMSException If the tile can't be drawn or written.
+         * @throws UnsupportedEncodingException
+         */
+        public void getTile(GetTileParameters params, OutputStream output, WMSResponse wmsResponse,
+                            Map<String, Style> serverStyles) throws WMSException, UnsupportedEncodingException {
+                try {
+                        byte[] tile = store.get(params.getLayer(), params.getRenderStyle(), params.getTileMatrixSet(),
+                                params.getFormat(), params.getZoom(), params.getCol(), params.getRow());
+                        if (tile != null) {
+                                wmsResponse.setContentType(getContentType(params));
+                                wmsResponse.setResponseCode(200);
+                                output.write(tile);
+                                return;
+                        }
+                        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                        ResponseRecorder recorder = new ResponseRecorder(wmsResponse);
+                        render(params, buffer, recorder, serverStyles);
+                        buffer.writeTo(output);
+                } catch (IOException ex) {
+                        throw new WMSException("Can't write the tile in the output stream", ex);
+                }
+        }
+
+        /**
+         * Renders and stores all the tiles of the given layer between the given zoom levels. Tiles that are already
+         * in the store are skipped.
+         * @param layer The name of the layer.
+         * @param style The name of the style, empty for the default one.
+         * @param tileMatrixSet The name of the tile matrix set.
+         * @param format The MIME type of the tiles.
+         * @param minZoom The first zoom level to render.
+         * @param maxZoom The last zoom level to render, included.
+         * @param bBox The area to render as {minx, miny, maxx, maxy} in the CRS of the set, or null for the whole set.
+         * @param serverStyles Styles registered in this server
+         * @return The number of images that have been drawn, tiles or metatiles.
+         * @throws WMSException If the parameters are invalid or a tile can't be drawn.
+         */
+        public long seed(String layer, String style, String tileMatrixSet, String format, int minZoom, int maxZoom,
+                         double[] bBox, Map<String, Style> serverStyles) throws WMSException {
+                TileMatrixSet set = checkSeed(tileMatrixSet, minZoom, maxZoom);
+                long rendered = 0;
+                for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+                        long[] range = set.getTileRange(zoom, bBox);
+                        for (long col = range[0]; col <= range[2]; col++) {
+                                for (long row = range[1]; row <= range[3]; row++) {
+                                        GetTileParameters params = new GetTileParameters(layer, style, format, set,
+                                                zoom, col, row);
+                                        if (store.get(layer, params.getRenderStyle(), set, format, zoom, col, row)
+                                                == null) {
+                                                seedTile(params, serverStyles);
+                                                rendered++;
+                                        }
+                                }
+                        }
+                        LOGGER.info("Seeded level " + zoom + " of " + layer + " in " + set);
+                }
+                return rendered;
+        }
+
+        /**
+         * Counts the tiles covered by a seeding request.
+         * @param tileMatrixSet The name of the tile matrix set.
+         * @param minZoom The first zoom level.
+         * @param maxZoom The last zoom level, included.
+         * @param bBox The area as {minx, miny, maxx, maxy} in the CRS of the set, or null for the whole set.
+         * @return The number of tiles.
+         * @throws WMSException If the parameters are invalid.
+         */
+        public long countTiles(String tileMatrixSet, int minZoom, int maxZoom, double[] bBox) throws WMSException {
+                TileMatrixSet set = checkSeed(tileMatrixSet, minZoom, maxZoom);
+                long count = 0;
+                for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+                        long[] range = set.getTileRange(zoom, bBox);
+                        count += (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+                }
+                return count;
+        }
+
+        /**
+         * Gets the MIME type of the stored tiles of the request : the requested format may be an alias, such as
+         * image/png8.
+         */
+        private static String getContentType(GetTileParameters params) {
+                ImageFormats format = ImageFormats.fromString(params.getFormat());
+                return format == null ? params.getFormat() : format.getContentType();
+        }
+
+        /**
+         * Gets the store where the tiles are kept.
+         * @return The tile store.
+         */
+        public TileStore getStore() {
+                return store;
+        }
+
+        private TileMatrixSet checkSeed(String tileMatrixSet, int minZoom, int maxZoom) throws WMSException {
+                TileMatrixSet set = TileMatrixSet.get(tileMatrixSet);
+                if (minZoom < 0 || maxZoom > set.getMaxZoom() || minZoom > maxZoom) {
+                        throw new WMSException("The zoom levels must be between 0 and " + set.getMaxZoom()
+                                + " in " + set.getName());
+                }
+                return set;
+        }
+
+        private void seedTile(GetTileParameters params, Map<String, Style> serverStyles)
+                throws WMSException {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                ResponseRecorder recorder = new ResponseRecorder();
+                try {
+                        render(params, buffer, recorder, serverStyles);
+                } catch (UnsupportedEncodingException ex) {
+                        throw new WMSException(ex);
+                }
+                if (!recorder.isImage()) {
+                        throw new WMSException("Can't render the tile " + params.getCol() + "," + params.getRow()
+                                + " of level " + params.getZoom() + ": " + buffer.toString());
+                }
+        }
+
+        private void render(GetTileParameters params, ByteArrayOutputStream buffer, ResponseRecorder recorder,
+                            Map<String, Style> serverStyles) throws WMSException, UnsupportedEncodingException {
+                if (metaTiles.supports(params.getFormat())) {
+                        renderMetaTile(params, buffer, recorder, serverStyles);
+                        return;
+                }
+                long generation = store.getGeneration();
+                getMap.getMap(params.toMapParameters(), buffer, recorder, serverStyles);
+                if (recorder.isImage()) {
+                        store.put(params.getLayer(), params.getRenderStyle(), params.getTileMatrixSet(),
+                                params.getFormat(), params.getZoom(), params.getCol(), params.getRow(), generation,
+                                buffer.toByteArray());
+                }
+        }
+
+        private void renderMetaTile(GetTileParameters params, ByteArrayOutputStream buffer, ResponseRecorder recorder,
+                                    Map<String, Style> serverStyles) throws WMSException {
+                TileMatrixSet set = params.getTileMatrixSet();
+                int zoom = params.getZoom();
+                long[] block = MetaTileRenderer.getMetaTile(set, zoom, params.getCol(), params.getRow(),
+                        metaTiles.getSize());
+                long col0 = block[0];
+                long row0 = block[1];
+                int cols = (int) block[2];
+                int rows = (int) block[3];
+                String lockKey = params.getLayer() + "/" + params.getRenderStyle() + "/" + set + "/"
+                        + params.getFormat() + "/" + zoom + "/" + col0 + "/" + row0;
+                Object lock = new Object();
+                Object existing = metaTileLocks.putIfAbsent(lockKey, lock);
+                try {
+                        synchronized (existing == null ? lock : existing) {
+                                // The metatile may have been drawn by another request while we were waiting.
+                                byte[] tile = store.get(params.getLayer(), params.getRenderStyle(), set,
+                                        params.getFormat(), zoom, params.getCol(), params.getRow());
+                                if (tile == null) {
+                                        long generation = store.getGeneration();
+                                        GetMapParameters meta = params.toMapParameters().withBBox(
+                                                MetaTileRenderer.getBBox(set, zoom, block),
+                                                cols * TileMatrixSet.TILE_SIZE, rows * TileMatrixSet.TILE_SIZE);
+                                        byte[][][] tiles = metaTiles.render(meta, cols, rows, buffer, recorder,
+                                                serverStyles);
+                                        if (tiles == null) {
+                                                return;
+                                        }
+                                        for (int i = 0; i < cols; i++) {
+                                                for (int j = 0; j < rows; j++) {
+                                                        store.put(params.getLayer(), params.getRenderStyle(), set,
+                                                                params.getFormat(), zoom, col0 + i, row0 + j,
+                                                                generation, tiles[i][j]);
+                                                }
+                                        }
+                                        tile = tiles[(int) (params.getCol() - col0)][(int) (params.getRow() - row0)];
+                                } else {
+                                        recorder.setContentType(getContentType(params));
+                                        recorder.setResponseCode(200);
+                                }
+                                buffer.write(tile, 0, tile.length);
+                        }
+                } finally {
+                        if (existing == null) {
+                                metaTileLocks.remove(lockKey, lock);
+                        }
+                }
+        }
+}
@@ -0,0 +1,186 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gathers the parameters of a WMTS GetTile request, given as key-value pairs.
+ */
+public class GetTileParameters {
+    public static final String LAYER = "LAYER";
+    public static final String STYLE = "STYLE";
+    public static final String FORMAT = "FORMAT";
+    public static final String TILEMATRIXSET = "TILEMATRIXSET";
+    public static final String TILEMATRIX = "TILEMATRIX";
+    public static final String TILEROW = "TILEROW";
+    public static final String TILECOL = "TILECOL";
+    private static final String[] MANDATORY_PARAMETERS = {LAYER, FORMAT, TILEMATRIXSET, TILEMATRIX, TILEROW, TILECOL};
+
+    private final String layer;
+    private final String style;
+    private final String format;
+    private final TileMatrixSet tileMatrixSet;
+    private final int zoom;
+    private final long col;
+    private final long row;
+
+    /**
+     * Parses the given map of HTTP parameters to build this set of GetTile parameters.
+     * @param queryParameters The map of HTTP parameters, with upper case keys.
+     * @throws WMSException If a parameter is missing or invalid.
+     */
+    public GetTileParameters(Map<String, String[]> queryParameters) throws WMSException {
+        for (String s : MANDATORY_PARAMETERS) {
+            if (!queryParameters.containsKey(s) || queryParameters.get(s).length == 0
+                    || queryParameters.get(s)[0].isEmpty()) {
+                throw new WMSException("The following parameter is mandatory: " + s);
+            }
+        }
+        layer = queryParameters.get(LAYER)[0];
+        String s = queryParameters.containsKey(STYLE) ? queryParameters.get(STYLE)[0] : "";
+        style = "default".equalsIgnoreCase(s) ? "" : s;
+        format = queryParameters.get(FORMAT)[0];
+        tileMatrixSet = TileMatrixSet.get(queryParameters.get(TILEMATRIXSET)[0]);
+        // Some clients prefix the level with the name of the set, as in EPSG:3857:12
+        String matrix = queryParameters.get(TILEMATRIX)[0];
+        zoom = (int) parseLong(matrix.substring(matrix.lastIndexOf(':') + 1), TILEMATRIX);
+        col = parseLong(queryParameters.get(TILECOL)[0], TILECOL);
+        row = parseLong(queryParameters.get(TILEROW)[0], TILEROW);
+        tileMatrixSet.checkTile(zoom, col, row);
+    }
+
+    /**
+     * Builds the parameters of a tile directly, as done when seeding.
+     */
+    GetTileParameters(String layer, String style, String format, TileMatrixSet set, int zoom, long col, long row) {
+        this.layer = layer;
+        this.style = style == null ? "" : style;
+        this.format = format;
+        this.tileMatrixSet = set;
+        this.zoom = zoom;
+        this.col = col;
+        this.row = row;
+    }
+
+    private static long parseLong(String s, String name) throws WMSException {
+        try {
+            return Long.valueOf(s);
+        } catch (NumberFormatException nfe) {
+            throw new WMSException("The value of " + name + " is not a valid integer: " + s, nfe);
+        }
+    }
+
+    /**
+     * Builds the GetMap request that draws this tile.
+     * @return The GetMap parameters.
+     * @throws WMSException If the parameters can't be built.
+     */
+    public GetMapParameters toMapParameters() throws WMSException {
+        double[] bBox = tileMatrixSet.getTileBBox(zoom, col, row);
+        Map<String, String[]> qp = new HashMap<String, String[]>();
+        qp.put(GetMapParameters.VERSION, new String[]{"1.3.0"});
+        qp.put(GetMapParameters.REQUEST, new String[]{"GetMap"});
+        qp.put(GetMapParameters.LAYERS, new String[]{layer});
+        qp.put(GetMapParameters.STYLES, new String[]{style});
+        qp.put(GetMapParameters.CRS, new String[]{tileMatrixSet.getCrs()});
+        qp.put(GetMapParameters.BBOX, new String[]{bBox[0] + "," + bBox[1] + "," + bBox[2] + "," + bBox[3]});
+        qp.put(GetMapParameters.WIDTH, new String[]{Integer.toString(TileMatrixSet.TILE_SIZE)});
+        qp.put(GetMapParameters.HEIGHT, new String[]{Integer.toString(TileMatrixSet.TILE_SIZE)});
+        qp.put(GetMapParameters.FORMAT, new String[]{format});
+        qp.put(GetMapParameters.TRANSPARENT,
+                new String[]{Boolean.toString(!ImageFormats.JPEG.toString().equalsIgnoreCase(format))});
+        return new GetMapParameters(qp);
+    }
+
+    /**
+     * Gets the name of the requested layer.
+     * @return The layer name.
+     */
+    public String getLayer() {
+        return layer;
+    }
+
+    /**
+     * Gets the name of the requested style, empty for the default one.
+     * @return The style name.
+     */
+    public String getStyle() {
+        return style;
+    }
+
+    /**
+     * Gets the name of the server style used to draw the tile : the requested one, or the one named after the
+     * layer by default.
+     * @return The style used to render the tile.
+     */
+    public String getRenderStyle() {
+        return style.isEmpty() ? layer : style;
+    }
+
+    /**
+     * Gets the requested MIME type.
+     * @return The format of the tile.
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * Gets the tile matrix set of the tile.
+     * @return The tile matrix set.
+     */
+    public TileMatrixSet getTileMatrixSet() {
+        return tileMatrixSet;
+    }
+
+    /**
+     * Gets the zoom level of the tile.
+     * @return The index of the tile matrix in the set.
+     */
+    public int getZoom() {
+        return zoom;
+    }
+
+    /**
+     * Gets the column of the tile.
+     * @return The column.
+     */
+    public long getCol() {
+        return col;
+    }
+
+    /**
+     * Gets the row of the tile.
+     * @return The row.
+     */
+    public long getRow() {
+        return row;
+    }
+}
@@ -45,10 +45,50 @@ public enum ImageFormats {
                         return "image/png";
                 }
         },
+        PNG8 {
+                @Override
+                public String toString() {
+                        return "image/png; mode=8bit";
+                }
+        },
         TIFF {
                 @Override
                 public String toString() {
                         return "image/tiff";
                 }
+        };
+
+        /**
+         * Gets the MIME type sent with the images of this format. The 8 bits PNG images are plain PNG files.
+         * @return The value of the Content-Type header.
+         */
+        public String getContentType() {
+                return this == PNG8 ? PNG.toString() : toString();
+        }
+
+        /**
+         * Gets the format matching the given MIME type. The comparison ignores the case and the white spaces, and
+         * image/png8 is read as the 8 bits PNG format.
+         * @param format The MIME type.
+         * @return The matching format, or null if the MIME type is not supported.
+         */
+        public static ImageFormats fromString(String format) {
+                if (format == null) {
+                        return null;
+                }
+                String norm = normalize(format);
+                if ("image/png8".equals(norm)) {
+                        return PNG8;
+                }
+                for (ImageFormats f : values()) {
+                        if (normalize(f.toString()).equals(norm)) {
+                                return f;
+                        }
+                }
+                return null;
+        }
+
+        private static String normalize(String format) {
+                return format.replaceAll("\\s", "").toLowerCase();
         }
 }
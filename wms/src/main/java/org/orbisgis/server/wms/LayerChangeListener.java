@@ -0,0 +1,58 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+/**
+ * Receives the changes of the layers published by the server, as seen by the
+ * listener of {@link GetCapabilitiesHandler}. It is used by the components that
+ * keep data built from a layer and must drop it when the layer goes away.
+ */
+public interface LayerChangeListener {
+
+        /**
+         * A new layer is available.
+         *
+         * @param name The name of the layer
+         */
+        void layerAdded(String name);
+
+        /**
+         * The layer is not available anymore.
+         *
+         * @param name The name of the layer
+         */
+        void layerRemoved(String name);
+
+        /**
+         * The layer has been renamed.
+         *
+         * @param oldName The former name of the layer
+         * @param newName The new name of the layer
+         */
+        void layerRenamed(String oldName, String newName);
+}
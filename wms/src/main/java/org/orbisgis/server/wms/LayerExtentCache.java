@@ -0,0 +1,227 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Keeps the extents of the file sources, in their own CRS and in EPSG:4326, so that the capabilities can be
+ * built at startup without opening the sources. The entries are keyed by the path of the file and are only
+ * valid while its modification date and its length are the ones they have been computed with. They are saved
+ * in a properties file after each change.
+ */
+public final class LayerExtentCache {
+        private static final org.apache.log4j.Logger LOGGER = org.apache.log4j.Logger.getLogger(LayerExtentCache.class);
+        private final File file;
+        private final Map<String, String> entries = new HashMap<String, String>();
+
+        /**
+         * Builds a cache saved in the given file, and loads the entries it already contains.
+         * @param file The properties file, null to keep the extents in memory only.
+         */
+        public LayerExtentCache(File file) {
+                this.file = file;
+                load();
+        }
+
+        /**
+         * Builds a cache saved in the file given by {@link WMSProperties#EXTENT_CACHE_FILE}.
+         * @param props The server properties.
+         * @param defaultFile The file used when none is configured.
+         * @return The cache.
+         */
+        public static LayerExtentCache create(WMSProperties props, File defaultFile) {
+                Object f = props.getProperty(WMSProperties.EXTENT_CACHE_FILE);
+                return new LayerExtentCache(f instanceof String && !((String) f).trim().isEmpty()
+                        ? new File(((String) f).trim()) : defaultFile);
+        }
+
+        /**
+         * Gets the extent computed for the given source file, if it has not been modified since.
+         * @param source The file of the source.
+         * @return The extent or null if it is unknown or stale.
+         */
+        public synchronized Extent get(File source) {
+                String value = entries.get(source.getAbsolutePath());
+                if (value == null) {
+                        return null;
+                }
+                String[] parts = value.split(";");
+                if (parts.length != 5 || !parts[0].equals(Long.toString(source.lastModified()))
+                        || !parts[1].equals(Long.toString(source.length()))) {
+                        return null;
+                }
+                try {
+                        return new Extent(parts[2], parseBox(parts[3]), parseBox(parts[4]));
+                } catch (NumberFormatException ex) {
+                        return null;
+                }
+        }
+
+        /**
+         * Stores the extent computed for the given source file, with its current modification date and length.
+         * @param source The file of the source.
+         * @param extent Its extent.
+         */
+        public void put(File source, Extent extent) {
+                String value = source.lastModified() + ";" + source.length() + ";" + extent.crs + ";"
+                        + formatBox(extent.box) + ";" + formatBox(extent.geographic);
+                synchronized (this) {
+                        entries.put(source.getAbsolutePath(), value);
+                        save();
+                }
+        }
+
+        /**
+         * Forgets the extent of the given source file.
+         * @param source The file of the source.
+         */
+        public synchronized void remove(File source) {
+                if (entries.remove(source.getAbsolutePath()) != null) {
+                        save();
+                }
+        }
+
+        private static String formatBox(double[] box) {
+                return box[0] + "," + box[1] + "," + box[2] + "," + box[3];
+        }
+
+        private static double[] parseBox(String s) {
+                String[] parts = s.split(",");
+                if (parts.length != 4) {
+                        throw new NumberFormatException("Expected four numbers in " + s);
+                }
+                double[] ret = new double[4];
+                for (int i = 0; i < 4; i++) {
+                        ret[i] = Double.parseDouble(parts[i]);
+                }
+                return ret;
+        }
+
+        private void load() {
+                if (file == null || !file.isFile()) {
+                        return;
+                }
+                Properties p = new Properties();
+                InputStream in = null;
+                try {
+                        in = new FileInputStream(file);
+                        p.load(in);
+                } catch (IOException ex) {
+                        LOGGER.warn("Can't read the layer extents, they will be computed again.", ex);
+                        return;
+                } finally {
+                        closeQuietly(in);
+                }
+                for (String key : p.stringPropertyNames()) {
+                        entries.put(key, p.getProperty(key));
+                }
+        }
+
+        private void save() {
+                if (file == null) {
+                        return;
+                }
+                Properties p = new Properties();
+                p.putAll(entries);
+                File parent = file.getAbsoluteFile().getParentFile();
+                if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                        LOGGER.warn("Can't create the folder of the layer extents " + parent);
+                        return;
+                }
+                OutputStream out = null;
+                try {
+                        out = new FileOutputStream(file);
+                        p.store(out, "Layer extents");
+                } catch (IOException ex) {
+                        LOGGER.warn("Can't write the layer extents", ex);
+                } finally {
+                        closeQuietly(out);
+                }
+        }
+
+        private static void closeQuietly(java.io.Closeable c) {
+                if (c != null) {
+                        try {
+                                c.close();
+                        } catch (IOException ex) {
+                                LOGGER.debug("Can't close the layer extents stream", ex);
+                        }
+                }
+        }
+
+        /**
+         * The extent of a source : its bounding box in its own CRS and its geographic bounding box.
+         */
+        public static final class Extent {
+                private final String crs;
+                private final double[] box;
+                private final double[] geographic;
+
+                /**
+                 * Builds a new extent.
+                 * @param crs The CRS of the source, as EPSG:code.
+                 * @param box The bounding box in this CRS, as {minx, miny, maxx, maxy}.
+                 * @param geographic The bounding box in EPSG:4326, as {west, south, east, north}.
+                 */
+                public Extent(String crs, double[] box, double[] geographic) {
+                        this.crs = crs;
+                        this.box = box.clone();
+                        this.geographic = geographic.clone();
+                }
+
+                /**
+                 * @return The CRS of the source, as EPSG:code.
+                 */
+                public String getCRS() {
+                        return crs;
+                }
+
+                /**
+                 * @return The bounding box in the CRS of the source, as {minx, miny, maxx, maxy}.
+                 */
+                public double[] getBox() {
+                        return box.clone();
+                }
+
+                /**
+                 * @return The bounding box in EPSG:4326, as {west, south, east, north}.
+                 */
+                public double[] getGeographic() {
+                        return geographic.clone();
+                }
+        }
+}
@@ -0,0 +1,341 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.orbisgis.core.layerModel.ILayer;
+import org.orbisgis.core.layerModel.LayerException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the layers drawn or queried by the requests open and styled, so that the next requests on the same
+ * layer, with the same style and in the same CRS, don't open their source and build their style again. A layer
+ * is leased by one request at a time and given back once it has been answered. The idle layers are closed
+ * when they have not been used for a while, when there are too many of them, and when their layer or their
+ * style changes.
+ */
+public final class LayerPool implements LayerChangeListener {
+        private static final org.apache.log4j.Logger LOGGER = org.apache.log4j.Logger.getLogger(LayerPool.class);
+        /**
+         * The default number of idle layers kept open.
+         */
+        public static final int DEFAULT_SIZE = 32;
+        /**
+         * The default time, in seconds, after which an idle layer is closed.
+         */
+        public static final int DEFAULT_IDLE_TIMEOUT = 60;
+        private final int maxIdle;
+        private final long idleTimeout;
+        // In release order : the first entry is the least recently released layer.
+        private final LinkedHashSet<Idle> idle = new LinkedHashSet<Idle>();
+        /**
+         * Incremented by each invalidation, so that the layers leased before are closed when they are given back.
+         */
+        private long generation = 0;
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        /**
+         * Builds a new pool.
+         * @param maxIdle The maximum number of idle layers kept open, 0 to disable the pool.
+         * @param idleTimeout The time, in milliseconds, after which an idle layer is closed.
+         */
+        public LayerPool(int maxIdle, long idleTimeout) {
+                this.maxIdle = Math.max(0, maxIdle);
+                this.idleTimeout = idleTimeout;
+        }
+
+        /**
+         * Builds a pool configured with {@link WMSProperties#LAYER_POOL_SIZE} and
+         * {@link WMSProperties#LAYER_POOL_IDLE_TIMEOUT}.
+         * @param props The server properties.
+         * @return The pool.
+         */
+        public static LayerPool create(WMSProperties props) {
+                return new LayerPool(props.getIntProperty(WMSProperties.LAYER_POOL_SIZE, DEFAULT_SIZE),
+                        Math.max(0, props.getIntProperty(WMSProperties.LAYER_POOL_IDLE_TIMEOUT,
+                                DEFAULT_IDLE_TIMEOUT)) * 1000L);
+        }
+
+        /**
+         * Leases a layer. If an idle one is available for the given layer, style and CRS it is returned open and
+         * styled in the lease. Otherwise the lease is empty and the caller must set the layer it builds, so that
+         * it is kept once given back.
+         * @param layer The name of the requested layer.
+         * @param style The name of the style applied to the layer, empty if it has none.
+         * @param crs The CRS it is drawn in.
+         * @return The lease, to give back with {@link #release(Lease)}.
+         */
+        public Lease lease(String layer, String style, String crs) {
+                List<Idle> expired = new ArrayList<Idle>();
+                Lease ret;
+                synchronized (this) {
+                        evictExpired(expired);
+                        ret = new Lease(layer, style, crs, generation);
+                        Idle found = null;
+                        // The most recently released one is the last match.
+                        for (Idle e : idle) {
+                                if (e.matches(ret)) {
+                                        found = e;
+                                }
+                        }
+                        if (found != null) {
+                                idle.remove(found);
+                                ret.layer = found.layer;
+                                ret.onClose = found.onClose;
+                        }
+                }
+                close(expired);
+                if (ret.layer != null) {
+                        hits.incrementAndGet();
+                } else {
+                        misses.incrementAndGet();
+                }
+                return ret;
+        }
+
+        /**
+         * Gives back a leased layer, which is kept open unless the pool is full or the layer has been invalidated
+         * in the meantime.
+         * @param lease The lease.
+         */
+        public void release(Lease lease) {
+                if (lease.layer == null) {
+                        return;
+                }
+                List<Idle> closed = new ArrayList<Idle>();
+                synchronized (this) {
+                        Idle released = new Idle(lease, System.currentTimeMillis());
+                        if (maxIdle == 0 || lease.generation != generation) {
+                                closed.add(released);
+                        } else {
+                                idle.add(released);
+                                Iterator<Idle> it = idle.iterator();
+                                while (idle.size() > maxIdle && it.hasNext()) {
+                                        closed.add(it.next());
+                                        it.remove();
+                                }
+                        }
+                        evictExpired(closed);
+                }
+                lease.layer = null;
+                lease.onClose = null;
+                close(closed);
+        }
+
+        /**
+         * Closes the idle layers of the given layer, and the ones leased now once they are given back.
+         * @param name The name of the layer.
+         */
+        public void invalidateLayer(String name) {
+                List<Idle> closed = new ArrayList<Idle>();
+                synchronized (this) {
+                        generation++;
+                        Iterator<Idle> it = idle.iterator();
+                        while (it.hasNext()) {
+                                Idle e = it.next();
+                                if (e.layerName.equals(name)) {
+                                        closed.add(e);
+                                        it.remove();
+                                }
+                        }
+                }
+                close(closed);
+        }
+
+        /**
+         * Closes the idle layers drawn with the given style, or with no style when it has the name of their
+         * layer as it then becomes its default style, and the ones leased now once they are given back.
+         * @param name The name of the style.
+         */
+        public void invalidateStyle(String name) {
+                List<Idle> closed = new ArrayList<Idle>();
+                synchronized (this) {
+                        generation++;
+                        Iterator<Idle> it = idle.iterator();
+                        while (it.hasNext()) {
+                                Idle e = it.next();
+                                if (e.style.equals(name) || (e.style.isEmpty() && e.layerName.equals(name))) {
+                                        closed.add(e);
+                                        it.remove();
+                                }
+                        }
+                }
+                close(closed);
+        }
+
+        /**
+         * Closes all the idle layers, and the ones leased now once they are given back.
+         */
+        public void clear() {
+                List<Idle> closed = new ArrayList<Idle>();
+                synchronized (this) {
+                        generation++;
+                        closed.addAll(idle);
+                        idle.clear();
+                }
+                close(closed);
+        }
+
+        /**
+         * @return The number of leases that got an open layer.
+         */
+        public long getHits() {
+                return hits.get();
+        }
+
+        /**
+         * @return The number of leases that got no layer.
+         */
+        public long getMisses() {
+                return misses.get();
+        }
+
+        /**
+         * @return The number of idle layers.
+         */
+        public synchronized int getIdleCount() {
+                return idle.size();
+        }
+
+        @Override
+        public void layerAdded(String name) {
+                invalidateLayer(name);
+        }
+
+        @Override
+        public void layerRemoved(String name) {
+                invalidateLayer(name);
+        }
+
+        @Override
+        public void layerRenamed(String oldName, String newName) {
+                invalidateLayer(oldName);
+        }
+
+        private void evictExpired(List<Idle> closed) {
+                long limit = System.currentTimeMillis() - idleTimeout;
+                Iterator<Idle> it = idle.iterator();
+                while (it.hasNext()) {
+                        Idle e = it.next();
+                        if (e.released > limit) {
+                                break;
+                        }
+                        closed.add(e);
+                        it.remove();
+                }
+        }
+
+        private static void close(List<Idle> layers) {
+                for (Idle e : layers) {
+                        try {
+                                e.layer.close();
+                        } catch (LayerException ex) {
+                                LOGGER.debug("Can't close the pooled layer " + e.layer.getName(), ex);
+                        } finally {
+                                if (e.onClose != null) {
+                                        e.onClose.run();
+                                }
+                        }
+                }
+        }
+
+        /**
+         * A leased layer, with the layer, style and CRS it has been requested with.
+         */
+        public static final class Lease {
+                private final String layerName;
+                private final String style;
+                private final String crs;
+                private final long generation;
+                private ILayer layer;
+                private Runnable onClose;
+
+                private Lease(String layerName, String style, String crs, long generation) {
+                        this.layerName = layerName;
+                        this.style = style;
+                        this.crs = crs;
+                        this.generation = generation;
+                }
+
+                /**
+                 * @return The open and styled layer, or null if the pool had none.
+                 */
+                public ILayer getLayer() {
+                        return layer;
+                }
+
+                /**
+                 * Sets the layer built because the pool had none, so that it is kept once given back.
+                 * @param layer The open and styled layer.
+                 */
+                public void setLayer(ILayer layer) {
+                        setLayer(layer, null);
+                }
+
+                /**
+                 * Sets the layer built because the pool had none, so that it is kept once given back.
+                 * @param layer The open and styled layer.
+                 * @param onClose Run once the layer has been closed by the pool, typically to release the source
+                 * it reads. May be null.
+                 */
+                public void setLayer(ILayer layer, Runnable onClose) {
+                        this.layer = layer;
+                        this.onClose = onClose;
+                }
+        }
+
+        /**
+         * An idle layer. The pool may hold several layers for the same layer, style and CRS.
+         */
+        private static final class Idle {
+                private final String layerName;
+                private final String style;
+                private final String crs;
+                private final ILayer layer;
+                private final Runnable onClose;
+                private final long released;
+
+                Idle(Lease lease, long released) {
+                        layerName = lease.layerName;
+                        style = lease.style;
+                        crs = lease.crs;
+                        layer = lease.layer;
+                        onClose = lease.onClose;
+                        this.released = released;
+                }
+
+                boolean matches(Lease lease) {
+                        return layerName.equals(lease.layerName) && style.equals(lease.style) && crs.equals(lease.crs);
+                }
+        }
+}
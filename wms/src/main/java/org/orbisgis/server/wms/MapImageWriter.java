@@ -28,7 +28,6 @@
 package org.orbisgis.server.wms;
 
 import com.sun.media.jai.codec.JPEGEncodeParam;
-import com.sun.media.jai.codec.PNGEncodeParam;
 import com.sun.media.jai.codec.TIFFEncodeParam;
 import com.sun.media.jai.codec.TIFFField;
 import org.apache.log4j.Logger;
@@ -51,14 +50,30 @@ public final class MapImageWriter {
         private static final Logger LOGGER = Logger.getLogger(MapImageWriter.class);
         private static final int X_RES_TAG = 282;
         private static final int Y_RES_TAG = 283;
+        /**
+         * The default deflate level of the PNG images. It trades a little size for a much faster encoding.
+         */
+        public static final int DEFAULT_PNG_COMPRESSION = 4;
+        private static volatile PNGEncoder pngEncoder =
+                new PNGEncoder(DEFAULT_PNG_COMPRESSION, PNGEncoder.Filter.ADAPTIVE);
 
         private MapImageWriter() {
         }
 
+        /**
+         * Sets the encoder used to write the PNG images.
+         * @param encoder The PNG encoder.
+         */
+        public static void setPNGEncoder(PNGEncoder encoder) {
+                pngEncoder = encoder;
+        }
+
         /**
          * The write class selects the encoding parameter considering the image
          * format requested. Then, the correct writer will encode the img given
-         * by the render into the servlet output stream
+         * by the render into the servlet output stream. The response code and
+         * the content type are set before the first byte is written, and the
+         * stream is left open : it may be sent to the client while it is written.
          *
          * @param wmsResponse The object used later to build the HTTP response.
          * @param output The output stream
@@ -71,18 +86,19 @@ public final class MapImageWriter {
         public static void write(WMSResponse wmsResponse, OutputStream output,
                 String format, BufferedImage img, double pixelSize) throws IOException {
 
-                if (format.equalsIgnoreCase(ImageFormats.JPEG.toString())) {
-                        writeJPEG(wmsResponse, output, img);
+                ImageFormats imageFormat = ImageFormats.fromString(format);
+                if (imageFormat == ImageFormats.JPEG) {
                         wmsResponse.setResponseCode(200);
+                        writeJPEG(wmsResponse, output, img);
                         LOGGER.debug("JPEG written to the output stream.");
-                } else if (format.equalsIgnoreCase(ImageFormats.PNG.toString())) {
-                        writePNG(wmsResponse, output, img, pixelSize);
+                } else if (imageFormat == ImageFormats.PNG || imageFormat == ImageFormats.PNG8) {
                         wmsResponse.setResponseCode(200);
+                        writePNG(wmsResponse, output, img, pixelSize, imageFormat == ImageFormats.PNG8);
                         LOGGER.debug("PNG written to the output stream.");
-                } else if (format.equalsIgnoreCase(ImageFormats.TIFF.toString())) {
+                } else if (imageFormat == ImageFormats.TIFF) {
+                        wmsResponse.setResponseCode(200);
                         writeTIFF(wmsResponse, output, img, pixelSize);
                         LOGGER.debug("TIFF written to the output stream.");
-                        wmsResponse.setResponseCode(200);
                 }
                 else {
                         WMS.exceptionDescription(wmsResponse, output, "The format requested is invalid. " +
@@ -101,8 +117,7 @@ public final class MapImageWriter {
                 BufferedImage img) throws IOException {
                 wmsResponse.setContentType(ImageFormats.JPEG.toString());
                 ImageIO.write(img, "jpeg",output);
-
-                output.close();
+                output.flush();
         }
 
         /**
@@ -111,18 +126,15 @@ public final class MapImageWriter {
          * @param output The output stream
          * @param img The output image
          * @param pixelSize The size of the pixels.
+         * @param palette true to write an 8 bits indexed image.
          * @throws IOException
          */
         private static void writePNG(WMSResponse wmsResponse, OutputStream output,
-                BufferedImage img, double pixelSize) throws IOException {
+                BufferedImage img, double pixelSize, boolean palette) throws IOException {
                 wmsResponse.setContentType(ImageFormats.PNG.toString());
 
                 int dpm = (int) (1000 / pixelSize + 1);
-                PNGEncodeParam pEnc = PNGEncodeParam.getDefaultEncodeParam(img);
-                pEnc.setPhysicalDimension(dpm, dpm, 1);
-                JAI.create("Encode", img, output, "PNG", pEnc);
-
-                output.close();
+                pngEncoder.write(img, output, palette, dpm);
         }
         
         /**
@@ -145,6 +157,6 @@ public final class MapImageWriter {
                 TIFFEncodeParam tep = new TIFFEncodeParam();
                 tep.setExtraFields(new TIFFField[] { xRes, yRes });                 
                 JAI.create("Encode", img, output, "TIFF", tep);
-                output.close();
+                output.flush();
         }
 }
\ No newline at end of file
@@ -0,0 +1,164 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.orbisgis.core.renderer.se.Style;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Draws several neighbouring tiles at once : the whole block, the metatile, is rendered in one image that is then
+ * cut into tiles. The layers are prepared and queried once for all the tiles, and the labels are placed without
+ * being cut at the edges of the tiles.
+ */
+final class MetaTileRenderer {
+
+        private final GetMapHandler getMap;
+        private final int size;
+
+        /**
+         * Builds a renderer for metatiles of size x size tiles.
+         * @param getMap The handler used to draw the metatiles.
+         * @param size The number of tiles on each side of a metatile. 1 disables the metatiling.
+         */
+        MetaTileRenderer(GetMapHandler getMap, int size) {
+                this.getMap = getMap;
+                this.size = Math.max(1, size);
+        }
+
+        /**
+         * Gets the number of tiles on each side of a metatile.
+         * @return The metatile size.
+         */
+        int getSize() {
+                return size;
+        }
+
+        /**
+         * Checks whether the tiles of the given format can be produced by this renderer.
+         * @param format The requested MIME type.
+         * @return true if metatiles are enabled and the format is known.
+         */
+        boolean supports(String format) {
+                return size >= 2 && ImageFormats.fromString(format) != null;
+        }
+
+        /**
+         * Draws the metatile described by meta and cuts it into cols x rows tiles of the same size.
+         * @param meta The parameters of the whole metatile.
+         * @param cols The number of tile columns in the metatile.
+         * @param rows The number of tile rows in the metatile.
+         * @param output The stream where the errors about the requested layers are written.
+         * @param recorder The response of the request, that records the content type of the tiles.
+         * @param serverStyles Styles registered in this server
+         * @return The encoded tiles indexed by [column][row], row 0 being the top of the metatile, or null if the
+         * map can't be drawn and an error has been written in output.
+         * @throws WMSException If the map can't be drawn or encoded.
+         */
+        byte[][][] render(GetMapParameters meta, int cols, int rows, OutputStream output, ResponseRecorder recorder,
+                          Map<String, Style> serverStyles) throws WMSException {
+                BufferedImage img = getMap.getMapImage(meta, output, recorder, serverStyles);
+                if (img == null) {
+                        return null;
+                }
+                byte[][][] tiles = new byte[cols][rows][];
+                try {
+                        BufferedImage[][] images = slice(img, cols, rows);
+                        for (int i = 0; i < cols; i++) {
+                                for (int j = 0; j < rows; j++) {
+                                        BufferedImage tile = images[i][j];
+                                        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                                        long start = getMap.getMetrics().start();
+                                        MapImageWriter.write(recorder, buffer, meta.getImageFormat(), tile,
+                                                meta.getPixelSize());
+                                        getMap.getMetrics().record(WMSMetrics.Phase.ENCODE, start);
+                                        tiles[i][j] = buffer.toByteArray();
+                                }
+                        }
+                } catch (IOException ex) {
+                        throw new WMSException("Can't encode the tiles of the metatile", ex);
+                } finally {
+                        getMap.releaseImage(img);
+                }
+                return tiles;
+        }
+
+        /**
+         * Gets the metatile that contains the given tile. The metatiles are aligned on multiples of their size, and
+         * the ones at the right and bottom edges of the matrix are cut to the tiles that exist.
+         * @param set The tile matrix set.
+         * @param zoom The zoom level.
+         * @param col The column of the requested tile.
+         * @param row The row of the requested tile.
+         * @param size The number of tiles on each side of a metatile.
+         * @return The metatile as {first column, first row, number of columns, number of rows}.
+         */
+        static long[] getMetaTile(TileMatrixSet set, int zoom, long col, long row, int size) {
+                long col0 = col - col % size;
+                long row0 = row - row % size;
+                return new long[]{col0, row0, Math.min(size, set.getMatrixWidth(zoom) - col0),
+                        Math.min(size, set.getMatrixHeight(zoom) - row0)};
+        }
+
+        /**
+         * Gets the bounding box of a metatile.
+         * @param set The tile matrix set.
+         * @param zoom The zoom level.
+         * @param metaTile The metatile given by {@link #getMetaTile(TileMatrixSet, int, long, long, int)}.
+         * @return The bounding box as {minx, miny, maxx, maxy}.
+         */
+        static double[] getBBox(TileMatrixSet set, int zoom, long[] metaTile) {
+                double[] first = set.getTileBBox(zoom, metaTile[0], metaTile[1]);
+                double[] last = set.getTileBBox(zoom, metaTile[0] + metaTile[2] - 1, metaTile[1] + metaTile[3] - 1);
+                return new double[]{first[0], last[1], last[2], first[3]};
+        }
+
+        /**
+         * Cuts the image of a metatile into cols x rows tiles of the same size. The tiles share the pixels of the
+         * image.
+         * @param img The image of the metatile.
+         * @param cols The number of tile columns.
+         * @param rows The number of tile rows.
+         * @return The tiles indexed by [column][row], row 0 being the top of the image.
+         */
+        static BufferedImage[][] slice(BufferedImage img, int cols, int rows) {
+                int tileWidth = img.getWidth() / cols;
+                int tileHeight = img.getHeight() / rows;
+                BufferedImage[][] tiles = new BufferedImage[cols][rows];
+                for (int i = 0; i < cols; i++) {
+                        for (int j = 0; j < rows; j++) {
+                                tiles[i][j] = img.getSubimage(i * tileWidth, j * tileHeight, tileWidth, tileHeight);
+                        }
+                }
+                return tiles;
+        }
+}
@@ -0,0 +1,579 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A PNG encoder whose deflate level and row filtering can be chosen. It writes 8 bits RGB or RGBA images or, in
+ * the palette mode, 8 bits indexed images : the palette holds the exact colors of the image when there are no
+ * more than 256 of them, and a median cut approximation of them otherwise.
+ */
+public final class PNGEncoder {
+
+        /**
+         * The filters applied to the rows before they are compressed.
+         */
+        public enum Filter {
+                NONE, SUB, UP, AVERAGE, PAETH,
+                /**
+                 * For each row, the filter that gives the lowest sum of absolute differences.
+                 */
+                ADAPTIVE
+        }
+
+        private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+        private static final int MAX_PALETTE = 256;
+        private static final int IDAT_SIZE = 32 * 1024;
+        private static final int RGB = 2;
+        private static final int INDEXED = 3;
+        private static final int RGBA = 6;
+        private final int compressionLevel;
+        private final Filter filter;
+
+        /**
+         * Builds a new encoder.
+         * @param compressionLevel The deflate level, from 0 (no compression) to 9 (best compression).
+         * @param filter The filter applied to the rows of the true color images.
+         */
+        public PNGEncoder(int compressionLevel, Filter filter) {
+                this.compressionLevel = Math.max(Deflater.NO_COMPRESSION,
+                        Math.min(Deflater.BEST_COMPRESSION, compressionLevel));
+                this.filter = filter;
+        }
+
+        /**
+         * Gets the filter matching the given name, case insensitive.
+         * @param name The name of the filter.
+         * @param defaultFilter The filter returned when name is null or unknown.
+         * @return The filter.
+         */
+        public static Filter getFilter(String name, Filter defaultFilter) {
+                if (name != null) {
+                        for (Filter f : Filter.values()) {
+                                if (f.name().equalsIgnoreCase(name.trim())) {
+                                        return f;
+                                }
+                        }
+                }
+                return defaultFilter;
+        }
+
+        /**
+         * Encodes the given image in the output stream. The stream is not closed.
+         * @param img The image to encode.
+         * @param output The output stream.
+         * @param palette true to write an 8 bits indexed image.
+         * @param pixelsPerMeter The resolution written in the pHYs chunk, or 0 to omit it.
+         * @throws IOException If the stream can't be written.
+         */
+        public void write(BufferedImage img, OutputStream output, boolean palette, int pixelsPerMeter)
+                throws IOException {
+                int width = img.getWidth();
+                int height = img.getHeight();
+                boolean alpha = img.getColorModel().hasAlpha();
+                output.write(SIGNATURE);
+                int[] pixels = null;
+                Palette pal = null;
+                if (palette) {
+                        pixels = img.getRGB(0, 0, width, height, null, 0, width);
+                        pal = new Palette(pixels, alpha);
+                }
+                byte[] header = new byte[13];
+                putInt(header, 0, width);
+                putInt(header, 4, height);
+                header[8] = 8;
+                header[9] = (byte) (palette ? INDEXED : (alpha ? RGBA : RGB));
+                writeChunk(output, "IHDR", header, header.length);
+                if (pixelsPerMeter > 0) {
+                        byte[] phys = new byte[9];
+                        putInt(phys, 0, pixelsPerMeter);
+                        putInt(phys, 4, pixelsPerMeter);
+                        phys[8] = 1;
+                        writeChunk(output, "pHYs", phys, phys.length);
+                }
+                if (pal != null) {
+                        pal.write(output);
+                }
+                IdatOutputStream idat = new IdatOutputStream(output);
+                Deflater deflater = new Deflater(compressionLevel);
+                try {
+                        DeflaterOutputStream zip = new DeflaterOutputStream(idat, deflater, IDAT_SIZE);
+                        if (pal != null) {
+                                writeIndexedRows(zip, pixels, width, height, pal);
+                        } else {
+                                writeRows(zip, img, width, height, alpha);
+                        }
+                        zip.finish();
+                        idat.flush();
+                } finally {
+                        deflater.end();
+                }
+                writeChunk(output, "IEND", new byte[0], 0);
+                output.flush();
+        }
+
+        private void writeRows(OutputStream zip, BufferedImage img, int width, int height, boolean alpha)
+                throws IOException {
+                int bpp = alpha ? 4 : 3;
+                byte[] cur = new byte[width * bpp];
+                byte[] prev = new byte[width * bpp];
+                byte[] out = new byte[width * bpp];
+                byte[] best = new byte[width * bpp];
+                int[] row = new int[width];
+                for (int y = 0; y < height; y++) {
+                        img.getRGB(0, y, width, 1, row, 0, width);
+                        int k = 0;
+                        for (int x = 0; x < width; x++) {
+                                int p = row[x];
+                                cur[k++] = (byte) (p >> 16);
+                                cur[k++] = (byte) (p >> 8);
+                                cur[k++] = (byte) p;
+                                if (alpha) {
+                                        cur[k++] = (byte) (p >>> 24);
+                                }
+                        }
+                        int type = filter == Filter.ADAPTIVE ? bestFilter(cur, prev, bpp, out, best)
+                                : filter.ordinal();
+                        if (filter != Filter.ADAPTIVE) {
+                                filterRow(type, cur, prev, bpp, best);
+                        }
+                        zip.write(type);
+                        zip.write(best, 0, best.length);
+                        byte[] tmp = prev;
+                        prev = cur;
+                        cur = tmp;
+                }
+        }
+
+        private void writeIndexedRows(OutputStream zip, int[] pixels, int width, int height, Palette pal)
+                throws IOException {
+                // Filters seldom help indexed images, as close indices are not close colors.
+                byte[] row = new byte[width];
+                for (int y = 0; y < height; y++) {
+                        int offset = y * width;
+                        for (int x = 0; x < width; x++) {
+                                row[x] = (byte) pal.indexOf(pixels[offset + x]);
+                        }
+                        zip.write(Filter.NONE.ordinal());
+                        zip.write(row, 0, width);
+                }
+        }
+
+        private static int bestFilter(byte[] cur, byte[] prev, int bpp, byte[] out, byte[] best) {
+                int bestType = 0;
+                long bestSum = Long.MAX_VALUE;
+                for (int type = 0; type <= Filter.PAETH.ordinal(); type++) {
+                        filterRow(type, cur, prev, bpp, out);
+                        long sum = 0;
+                        for (byte b : out) {
+                                sum += Math.abs(b);
+                        }
+                        if (sum < bestSum) {
+                                bestSum = sum;
+                                bestType = type;
+                                System.arraycopy(out, 0, best, 0, out.length);
+                        }
+                }
+                return bestType;
+        }
+
+        private static void filterRow(int type, byte[] cur, byte[] prev, int bpp, byte[] out) {
+                for (int i = 0; i < cur.length; i++) {
+                        int x = cur[i] & 0xff;
+                        int a = i >= bpp ? cur[i - bpp] & 0xff : 0;
+                        int b = prev[i] & 0xff;
+                        int c = i >= bpp ? prev[i - bpp] & 0xff : 0;
+                        int v;
+                        switch (type) {
+                                case 1:
+                                        v = x - a;
+                                        break;
+                                case 2:
+                                        v = x - b;
+                                        break;
+                                case 3:
+                                        v = x - ((a + b) >> 1);
+                                        break;
+                                case 4:
+                                        v = x - paeth(a, b, c);
+                                        break;
+                                default:
+                                        v = x;
+                        }
+                        out[i] = (byte) v;
+                }
+        }
+
+        private static int paeth(int a, int b, int c) {
+                int p = a + b - c;
+                int pa = Math.abs(p - a);
+                int pb = Math.abs(p - b);
+                int pc = Math.abs(p - c);
+                if (pa <= pb && pa <= pc) {
+                        return a;
+                } else if (pb <= pc) {
+                        return b;
+                }
+                return c;
+        }
+
+        private static void putInt(byte[] b, int off, int v) {
+                b[off] = (byte) (v >>> 24);
+                b[off + 1] = (byte) (v >>> 16);
+                b[off + 2] = (byte) (v >>> 8);
+                b[off + 3] = (byte) v;
+        }
+
+        private static void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+                byte[] len = new byte[4];
+                putInt(len, 0, length);
+                out.write(len);
+                byte[] t = type.getBytes("US-ASCII");
+                out.write(t);
+                out.write(data, 0, length);
+                CRC32 crc = new CRC32();
+                crc.update(t);
+                crc.update(data, 0, length);
+                byte[] c = new byte[4];
+                putInt(c, 0, (int) crc.getValue());
+                out.write(c);
+        }
+
+        /**
+         * Cuts the compressed stream into IDAT chunks.
+         */
+        private static final class IdatOutputStream extends OutputStream {
+                private final OutputStream out;
+                private final byte[] buffer = new byte[IDAT_SIZE];
+                private int count = 0;
+
+                IdatOutputStream(OutputStream out) {
+                        this.out = out;
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                        buffer[count++] = (byte) b;
+                        if (count == buffer.length) {
+                                flush();
+                        }
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                        while (len > 0) {
+                                int n = Math.min(len, buffer.length - count);
+                                System.arraycopy(b, off, buffer, count, n);
+                                count += n;
+                                off += n;
+                                len -= n;
+                                if (count == buffer.length) {
+                                        flush();
+                                }
+                        }
+                }
+
+                @Override
+                public void flush() throws IOException {
+                        if (count > 0) {
+                                writeChunk(out, "IDAT", buffer, count);
+                                count = 0;
+                        }
+                }
+        }
+
+        /**
+         * The palette of an indexed image : the exact colors if there are few of them, a median cut otherwise.
+         */
+        private static final class Palette {
+                private final ColorCount colors = new ColorCount();
+                private int[] entries;
+
+                Palette(int[] pixels, boolean alpha) {
+                        for (int p : pixels) {
+                                colors.add(alpha ? p : p | 0xff000000);
+                        }
+                        int[] distinct = colors.keys();
+                        if (distinct.length <= MAX_PALETTE) {
+                                entries = distinct;
+                                for (int i = 0; i < distinct.length; i++) {
+                                        colors.setIndex(distinct[i], i);
+                                }
+                        } else {
+                                medianCut(distinct);
+                        }
+                }
+
+                int indexOf(int argb) {
+                        int i = colors.getIndex(argb);
+                        return i >= 0 ? i : colors.getIndex(argb | 0xff000000);
+                }
+
+                void write(OutputStream out) throws IOException {
+                        byte[] plte = new byte[entries.length * 3];
+                        byte[] trns = new byte[entries.length];
+                        int lastTransparent = -1;
+                        for (int i = 0; i < entries.length; i++) {
+                                int c = entries[i];
+                                plte[3 * i] = (byte) (c >> 16);
+                                plte[3 * i + 1] = (byte) (c >> 8);
+                                plte[3 * i + 2] = (byte) c;
+                                trns[i] = (byte) (c >>> 24);
+                                if ((c >>> 24) != 0xff) {
+                                        lastTransparent = i;
+                                }
+                        }
+                        writeChunk(out, "PLTE", plte, plte.length);
+                        if (lastTransparent >= 0) {
+                                writeChunk(out, "tRNS", trns, lastTransparent + 1);
+                        }
+                }
+
+                private void medianCut(int[] distinct) {
+                        List<Box> boxes = new ArrayList<Box>();
+                        boxes.add(new Box(distinct, 0, distinct.length, colors));
+                        while (boxes.size() < MAX_PALETTE) {
+                                Box widest = null;
+                                for (Box b : boxes) {
+                                        if (b.size() > 1 && (widest == null || b.score() > widest.score())) {
+                                                widest = b;
+                                        }
+                                }
+                                if (widest == null) {
+                                        break;
+                                }
+                                boxes.remove(widest);
+                                Collections.addAll(boxes, widest.split(distinct, colors));
+                        }
+                        entries = new int[boxes.size()];
+                        for (int i = 0; i < entries.length; i++) {
+                                Box b = boxes.get(i);
+                                entries[i] = b.average(distinct, colors);
+                                for (int k = b.from; k < b.to; k++) {
+                                        colors.setIndex(distinct[k], i);
+                                }
+                        }
+                }
+        }
+
+        /**
+         * A set of colors, stored in distinct[from, to), with the range of each channel.
+         */
+        private static final class Box {
+                private static final int[] SHIFTS = {24, 16, 8, 0};
+                private final int from;
+                private final int to;
+                private final long population;
+                private final int[] min = new int[4];
+                private final int[] max = new int[4];
+
+                Box(int[] distinct, int from, int to, ColorCount colors) {
+                        this.from = from;
+                        this.to = to;
+                        Arrays.fill(min, 255);
+                        long pop = 0;
+                        for (int k = from; k < to; k++) {
+                                int c = distinct[k];
+                                pop += colors.getCount(c);
+                                for (int ch = 0; ch < 4; ch++) {
+                                        int v = (c >>> SHIFTS[ch]) & 0xff;
+                                        min[ch] = Math.min(min[ch], v);
+                                        max[ch] = Math.max(max[ch], v);
+                                }
+                        }
+                        population = pop;
+                }
+
+                int size() {
+                        return to - from;
+                }
+
+                double score() {
+                        return (double) widestRange() * Math.sqrt(population);
+                }
+
+                private int widestRange() {
+                        int r = 0;
+                        for (int ch = 0; ch < 4; ch++) {
+                                r = Math.max(r, max[ch] - min[ch]);
+                        }
+                        return r;
+                }
+
+                Box[] split(int[] distinct, final ColorCount colors) {
+                        int channel = 0;
+                        for (int ch = 1; ch < 4; ch++) {
+                                if (max[ch] - min[ch] > max[channel] - min[channel]) {
+                                        channel = ch;
+                                }
+                        }
+                        final int shift = SHIFTS[channel];
+                        Integer[] sorted = new Integer[size()];
+                        for (int k = 0; k < sorted.length; k++) {
+                                sorted[k] = distinct[from + k];
+                        }
+                        Arrays.sort(sorted, new Comparator<Integer>() {
+                                @Override
+                                public int compare(Integer a, Integer b) {
+                                        return ((a >>> shift) & 0xff) - ((b >>> shift) & 0xff);
+                                }
+                        });
+                        for (int k = 0; k < sorted.length; k++) {
+                                distinct[from + k] = sorted[k];
+                        }
+                        // Split at the weighted median, keeping at least one color on each side.
+                        long half = population / 2;
+                        long acc = 0;
+                        int cut = from + 1;
+                        for (int k = from; k < to - 1; k++) {
+                                acc += colors.getCount(distinct[k]);
+                                cut = k + 1;
+                                if (acc >= half) {
+                                        break;
+                                }
+                        }
+                        return new Box[]{new Box(distinct, from, cut, colors), new Box(distinct, cut, to, colors)};
+                }
+
+                int average(int[] distinct, ColorCount colors) {
+                        long[] sum = new long[4];
+                        long total = 0;
+                        for (int k = from; k < to; k++) {
+                                int c = distinct[k];
+                                long n = colors.getCount(c);
+                                total += n;
+                                for (int ch = 0; ch < 4; ch++) {
+                                        sum[ch] += n * ((c >>> SHIFTS[ch]) & 0xff);
+                                }
+                        }
+                        int ret = 0;
+                        for (int ch = 0; ch < 4; ch++) {
+                                ret |= (int) ((sum[ch] + total / 2) / total) << SHIFTS[ch];
+                        }
+                        return ret;
+                }
+        }
+
+        /**
+         * An open addressing hash map from colors to their number of occurrences and their palette index.
+         */
+        private static final class ColorCount {
+                private int[] keys = new int[1024];
+                private int[] counts = new int[1024];
+                private int[] indices = new int[1024];
+                private boolean[] used = new boolean[1024];
+                // 32 - log2(capacity) : the slot is taken from the high bits of the whole product.
+                private int shift = 22;
+                private int size = 0;
+
+                void add(int key) {
+                        int slot = find(key);
+                        if (!used[slot]) {
+                                used[slot] = true;
+                                keys[slot] = key;
+                                indices[slot] = -1;
+                                size++;
+                                if (size * 2 > keys.length) {
+                                        grow();
+                                        slot = find(key);
+                                }
+                        }
+                        counts[slot]++;
+                }
+
+                int getCount(int key) {
+                        int slot = find(key);
+                        return used[slot] ? counts[slot] : 0;
+                }
+
+                int getIndex(int key) {
+                        int slot = find(key);
+                        return used[slot] ? indices[slot] : -1;
+                }
+
+                void setIndex(int key, int index) {
+                        int slot = find(key);
+                        if (used[slot]) {
+                                indices[slot] = index;
+                        }
+                }
+
+                int[] keys() {
+                        int[] ret = new int[size];
+                        int k = 0;
+                        for (int i = 0; i < keys.length; i++) {
+                                if (used[i]) {
+                                        ret[k++] = keys[i];
+                                }
+                        }
+                        return ret;
+                }
+
+                private int find(int key) {
+                        int mask = keys.length - 1;
+                        int slot = (key * 0x9E3779B9) >>> shift;
+                        while (used[slot] && keys[slot] != key) {
+                                slot = (slot + 1) & mask;
+                        }
+                        return slot;
+                }
+
+                private void grow() {
+                        int[] oldKeys = keys;
+                        int[] oldCounts = counts;
+                        int[] oldIndices = indices;
+                        boolean[] oldUsed = used;
+                        int capacity = oldKeys.length * 2;
+                        keys = new int[capacity];
+                        counts = new int[capacity];
+                        indices = new int[capacity];
+                        used = new boolean[capacity];
+                        shift--;
+                        for (int i = 0; i < oldKeys.length; i++) {
+                                if (oldUsed[i]) {
+                                        int slot = find(oldKeys[i]);
+                                        used[slot] = true;
+                                        keys[slot] = oldKeys[i];
+                                        counts[slot] = oldCounts[i];
+                                        indices[slot] = oldIndices[i];
+                                }
+                        }
+                }
+        }
+}
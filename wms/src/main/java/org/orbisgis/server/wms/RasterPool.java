@@ -0,0 +1,236 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of the rasters the maps are drawn in. Rasters are kept by image type, with dimensions rounded up to a
+ * multiple of {@link #BUCKET}, so that maps of close sizes share them : an image is a view of the top left
+ * corner of a pooled raster. The rasters are cleared before being lent again, and the pool keeps at most
+ * a given number of bytes of idle rasters.
+ */
+public final class RasterPool {
+
+        /**
+         * The dimensions of the pooled rasters are multiples of this value.
+         */
+        public static final int BUCKET = 64;
+        private final long maxBytes;
+        private final ConcurrentMap<String, Queue<WritableRaster>> idle =
+                new ConcurrentHashMap<String, Queue<WritableRaster>>();
+        private final ConcurrentMap<Integer, ColorModel> colorModels = new ConcurrentHashMap<Integer, ColorModel>();
+        private final AtomicLong pooledBytes = new AtomicLong();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        /**
+         * Builds a new pool.
+         * @param maxBytes The maximum size of the idle rasters, in bytes. 0 disables the pool.
+         */
+        public RasterPool(long maxBytes) {
+                this.maxBytes = Math.max(0, maxBytes);
+        }
+
+        /**
+         * Builds the pool configured by {@link WMSProperties#RASTER_POOL_SIZE}, in MB.
+         * @param properties The configuration of the server.
+         * @param defaultSize The size of the pool, in MB, if it is not configured.
+         * @return The new pool.
+         */
+        public static RasterPool create(WMSProperties properties, int defaultSize) {
+                return new RasterPool(properties.getIntProperty(WMSProperties.RASTER_POOL_SIZE, defaultSize)
+                        * 1024L * 1024L);
+        }
+
+        /**
+         * Gets a transparent (or black, for the opaque types) image of the given size.
+         * @param type The type of the image, as in {@link BufferedImage#getType()}.
+         * @param width The width of the image.
+         * @param height The height of the image.
+         * @return The image, that should be given back with {@link #release(BufferedImage)} once written.
+         */
+        public BufferedImage acquire(int type, int width, int height) {
+                if (maxBytes == 0) {
+                        misses.incrementAndGet();
+                        return new BufferedImage(width, height, type);
+                }
+                int bucketWidth = roundUp(width);
+                int bucketHeight = roundUp(height);
+                Queue<WritableRaster> queue = idle.get(key(type, bucketWidth, bucketHeight));
+                WritableRaster raster = queue == null ? null : queue.poll();
+                ColorModel cm = getColorModel(type);
+                if (raster == null) {
+                        misses.incrementAndGet();
+                        raster = new BufferedImage(bucketWidth, bucketHeight, type).getRaster();
+                } else {
+                        hits.incrementAndGet();
+                        pooledBytes.addAndGet(-sizeOf(raster));
+                        clear(raster);
+                }
+                WritableRaster view = raster.createWritableChild(0, 0, width, height, 0, 0, null);
+                return new BufferedImage(cm, view, cm.isAlphaPremultiplied(), null);
+        }
+
+        /**
+         * Gives back an image got from {@link #acquire(int, int, int)}. It must not be used anymore by the caller.
+         * Images that don't come from this pool are ignored.
+         * @param img The image.
+         */
+        public void release(BufferedImage img) {
+                if (img == null || maxBytes == 0) {
+                        return;
+                }
+                Raster parent = img.getRaster().getParent();
+                if (!(parent instanceof WritableRaster) || parent.getParent() != null
+                        || parent.getWidth() % BUCKET != 0 || parent.getHeight() % BUCKET != 0) {
+                        return;
+                }
+                WritableRaster raster = (WritableRaster) parent;
+                long size = sizeOf(raster);
+                if (pooledBytes.addAndGet(size) > maxBytes) {
+                        pooledBytes.addAndGet(-size);
+                        return;
+                }
+                String key = key(img.getType(), raster.getWidth(), raster.getHeight());
+                Queue<WritableRaster> queue = idle.get(key);
+                if (queue == null) {
+                        Queue<WritableRaster> created = new ConcurrentLinkedQueue<WritableRaster>();
+                        queue = idle.putIfAbsent(key, created);
+                        if (queue == null) {
+                                queue = created;
+                        }
+                }
+                queue.offer(raster);
+        }
+
+        /**
+         * Drops all the idle rasters.
+         */
+        public void clear() {
+                for (Queue<WritableRaster> queue : idle.values()) {
+                        WritableRaster raster;
+                        while ((raster = queue.poll()) != null) {
+                                pooledBytes.addAndGet(-sizeOf(raster));
+                        }
+                }
+        }
+
+        /**
+         * Gets the number of images served from an idle raster.
+         * @return The number of hits.
+         */
+        public long getHits() {
+                return hits.get();
+        }
+
+        /**
+         * Gets the number of images for which a new raster had to be allocated.
+         * @return The number of misses.
+         */
+        public long getMisses() {
+                return misses.get();
+        }
+
+        /**
+         * Gets the ratio of the hits to all the acquired images.
+         * @return The hit rate, between 0 and 1.
+         */
+        public double getHitRate() {
+                long h = hits.get();
+                long total = h + misses.get();
+                return total == 0 ? 0 : (double) h / total;
+        }
+
+        /**
+         * Gets the size of the idle rasters.
+         * @return The size in bytes.
+         */
+        public long getPooledBytes() {
+                return pooledBytes.get();
+        }
+
+        /**
+         * Gets the maximum size of the idle rasters.
+         * @return The size in bytes.
+         */
+        public long getMaxBytes() {
+                return maxBytes;
+        }
+
+        private ColorModel getColorModel(int type) {
+                ColorModel cm = colorModels.get(type);
+                if (cm == null) {
+                        cm = new BufferedImage(1, 1, type).getColorModel();
+                        colorModels.putIfAbsent(type, cm);
+                }
+                return cm;
+        }
+
+        private static void clear(WritableRaster raster) {
+                DataBuffer db = raster.getDataBuffer();
+                if (db instanceof DataBufferByte) {
+                        for (int i = 0; i < db.getNumBanks(); i++) {
+                                Arrays.fill(((DataBufferByte) db).getData(i), (byte) 0);
+                        }
+                } else if (db instanceof DataBufferInt) {
+                        for (int i = 0; i < db.getNumBanks(); i++) {
+                                Arrays.fill(((DataBufferInt) db).getData(i), 0);
+                        }
+                } else {
+                        int bands = raster.getNumBands();
+                        raster.setPixels(0, 0, raster.getWidth(), raster.getHeight(),
+                                new int[raster.getWidth() * raster.getHeight() * bands]);
+                }
+        }
+
+        private static long sizeOf(Raster raster) {
+                DataBuffer db = raster.getDataBuffer();
+                return (long) db.getSize() * db.getNumBanks() * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+        }
+
+        private static int roundUp(int v) {
+                return Math.max(1, (v + BUCKET - 1) / BUCKET) * BUCKET;
+        }
+
+        private static String key(int type, int width, int height) {
+                return type + ":" + width + "x" + height;
+        }
+}
@@ -0,0 +1,811 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import com.vividsolutions.jts.densify.Densifier;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import net.opengis.wms.Layer;
+import org.apache.log4j.Logger;
+import org.gdms.data.DataSource;
+import org.gdms.data.DataSourceFactory;
+import org.gdms.data.schema.DefaultMetadata;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.schema.MetadataUtilities;
+import org.gdms.data.types.CRSConstraint;
+import org.gdms.data.types.Constraint;
+import org.gdms.data.types.Type;
+import org.gdms.data.types.TypeFactory;
+import org.gdms.data.values.Value;
+import org.gdms.data.values.ValueFactory;
+import org.gdms.driver.DiskBufferDriver;
+import org.gdms.driver.DriverException;
+import org.gdms.driver.memory.MemoryDataSetDriver;
+import org.gdms.source.Source;
+import org.gdms.source.SourceManager;
+import org.gdms.sql.function.spatial.geometry.crs.ST_Transform;
+import org.orbisgis.core.DataManager;
+import org.orbisgis.core.Services;
+import org.orbisgis.utils.FileUtils;
+import org.cts.crs.CRSException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds and keeps the reprojected versions of the layers. A reprojected source is computed once for each
+ * (source, CRS) pair : the rows are read in batches, transformed in parallel by a pool of workers that each reuse
+ * their own transform function, and appended in order to a disk buffer. The resulting files are kept in a cache
+ * folder whose total size is bounded, the least recently used ones being removed first. An entry is rebuilt
+ * when the file of its source has changed since it has been computed. The requests and the pooled layers hold a
+ * reference on the sources they use : a source that is evicted or rebuilt while it is still used is only removed
+ * once its last user has released it.
+ * <p>
+ * In the window mode ({@link WMSProperties#REPROJECTION_MODE} set to {@link #WINDOW_MODE}), the requests don't use
+ * this cache : only the features that intersect the requested extent are reprojected, in a temporary source kept
+ * in memory until the request has been answered.
+ * </p>
+ */
+public class ReprojectionManager implements LayerChangeListener {
+
+        private static final Logger LOGGER = Logger.getLogger(ReprojectionManager.class);
+        private static final long MB = 1024L * 1024L;
+        private static final int DEFAULT_CACHE_SIZE = 2048;
+        private static final int BATCH_SIZE = 1024;
+        private static final String INDEX = "index.properties";
+        private static final String EXTENSION = ".gdms";
+        /**
+         * The value of {@link WMSProperties#REPROJECTION_MODE} that enables the reprojection of the requested
+         * extent only.
+         */
+        public static final String WINDOW_MODE = "window";
+        // The number of segments each side of the requested envelope is cut into before being transformed.
+        private static final int ENVELOPE_SEGMENTS = 16;
+
+        private final File folder;
+        private long sizeLimit;
+        private final int threads;
+        private final boolean windowMode;
+        private final Set<String> windowSources = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final List<String> warmUpCrs = new ArrayList<String>();
+        private final Map<String, Layer> layerMap;
+        // Access-ordered : the first entry is the least recently used one.
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+        // The number of users of each reprojected source.
+        private final Map<String, Integer> users = new HashMap<String, Integer>();
+        // The files of the sources dropped while they were used, removed once their last user has released them.
+        private final Map<String, List<File>> dropped = new HashMap<String, List<File>>();
+        private final ThreadLocal<ST_Transform> transforms = new ThreadLocal<ST_Transform>() {
+                @Override
+                protected ST_Transform initialValue() {
+                        return new ST_Transform();
+                }
+        };
+        private long size = 0;
+        private ExecutorService workers;
+        private ExecutorService warmUp;
+        private volatile SpatialIndexService indexes;
+
+        /**
+         * Builds a manager configured with {@link WMSProperties#REPROJECTION_FOLDER},
+         * {@link WMSProperties#REPROJECTION_CACHE_SIZE}, {@link WMSProperties#REPROJECTION_THREADS} and
+         * {@link WMSProperties#REPROJECTION_WARMUP}.
+         * @param props The server properties.
+         * @param defaultFolder The cache folder used when none is configured.
+         * @param layerMap The registered layers, used for the warm-up.
+         */
+        public ReprojectionManager(WMSProperties props, File defaultFolder, Map<String, Layer> layerMap) {
+                Object f = props.getProperty(WMSProperties.REPROJECTION_FOLDER);
+                folder = f instanceof String && !((String) f).trim().isEmpty() ? new File(((String) f).trim())
+                        : defaultFolder;
+                sizeLimit = Math.max(0, props.getIntProperty(WMSProperties.REPROJECTION_CACHE_SIZE,
+                        DEFAULT_CACHE_SIZE)) * MB;
+                threads = Math.max(1, props.getIntProperty(WMSProperties.REPROJECTION_THREADS,
+                        Runtime.getRuntime().availableProcessors()));
+                Object w = props.getProperty(WMSProperties.REPROJECTION_WARMUP);
+                if (w instanceof String) {
+                        for (String crs : ((String) w).split(",")) {
+                                if (!crs.trim().isEmpty()) {
+                                        warmUpCrs.add(crs.trim().toUpperCase());
+                                }
+                        }
+                }
+                windowMode = WINDOW_MODE.equalsIgnoreCase(String.valueOf(props.getProperty(WMSProperties.REPROJECTION_MODE)));
+                this.layerMap = layerMap;
+                if (!folder.isDirectory() && !folder.mkdirs()) {
+                        LOGGER.warn("Can't create the reprojection cache folder " + folder);
+                }
+                loadIndex();
+                removeOrphans();
+        }
+
+        /**
+         * Gets the name of the source that contains sourceName reprojected in targetCrs, building it if needed.
+         * The source is kept until it is released with {@link #releaseProjectedSource(String)}, even if it is
+         * evicted in the meantime.
+         * @param sourceName The name of the source.
+         * @param targetCrs The requested CRS.
+         * @return The name of the reprojected source.
+         * @throws WMSException If the source can't be reprojected.
+         */
+        public String getProjectedSource(String sourceName, String targetCrs) throws WMSException {
+                final String newName = AbstractGetHandler.getProjectionSourceName(sourceName, targetCrs);
+                SourceManager sm = getDataSourceFactory().getSourceManager();
+                if (acquire(newName, sourceName, sm)) {
+                        return newName;
+                }
+                synchronized (getLock(newName)) {
+                        // Another request may have built it while we were waiting for the lock.
+                        if (!acquire(newName, sourceName, sm)) {
+                                drop(newName, sm);
+                                build(sourceName, targetCrs, newName);
+                                if (!acquire(newName, sourceName, sm)) {
+                                        throw new WMSException("The reprojection of " + sourceName
+                                                + " has been removed while being built");
+                                }
+                        }
+                }
+                return newName;
+        }
+
+        /**
+         * Tells that a source given by {@link #getProjectedSource(String, String)} is not used anymore. If it has
+         * been evicted or rebuilt while it was used, its file is removed with its last user.
+         * @param name The name of the reprojected source.
+         */
+        public void releaseProjectedSource(String name) {
+                SourceManager sm = getDataSourceFactory().getSourceManager();
+                synchronized (getLock(name)) {
+                        List<File> files;
+                        boolean unregister;
+                        synchronized (this) {
+                                Integer count = users.get(name);
+                                if (count == null) {
+                                        return;
+                                } else if (count > 1) {
+                                        users.put(name, count - 1);
+                                        return;
+                                }
+                                users.remove(name);
+                                files = dropped.remove(name);
+                                unregister = !entries.containsKey(name);
+                        }
+                        if (files == null) {
+                                return;
+                        }
+                        if (unregister && sm.exists(name)) {
+                                sm.remove(name);
+                        }
+                        for (File file : files) {
+                                if (file.exists() && !file.delete()) {
+                                        LOGGER.debug("Can't delete the reprojected file " + file);
+                                }
+                        }
+                }
+        }
+
+        /**
+         * Sets the service that builds the spatial indexes queried by
+         * {@link #getWindowSource(String, String, String, double[])}. Without it, the sources are scanned.
+         * @param indexes The spatial index service.
+         */
+        public void setIndexes(SpatialIndexService indexes) {
+                this.indexes = indexes;
+        }
+
+        /**
+         * Checks whether the requests must reproject only the features of the requested extent.
+         * @return true if {@link #getWindowSource(String, String, String, double[])} must be used.
+         */
+        public boolean isWindowMode() {
+                return windowMode;
+        }
+
+        /**
+         * Builds a temporary source that contains the features of sourceName that intersect the given extent,
+         * reprojected in targetCrs. The extent is transformed in the CRS of the source, where the spatial index
+         * is queried, so that only the matching features are transformed. The index is built in the background by
+         * the {@link #setIndexes(SpatialIndexService) index service} : the source is scanned until it is ready,
+         * so that no request waits for it. The features are kept in memory : nothing is written on disk, and the
+         * source is not registered under a name of its own. The returned source must be released
+         * with {@link #releaseWindowSource(String)} once the request has been answered.
+         * @param sourceName The name of the source.
+         * @param sourceCrs The CRS of the source.
+         * @param targetCrs The requested CRS.
+         * @param bBox The requested extent in targetCrs, as {minx, miny, maxx, maxy}.
+         * @return The temporary source, not open yet.
+         * @throws WMSException If the source can't be reprojected.
+         */
+        public DataSource getWindowSource(String sourceName, String sourceCrs, String targetCrs, double[] bBox)
+                throws WMSException {
+                DataSourceFactory dsf = getDataSourceFactory();
+                try {
+                        Envelope nativeEnv = transform(dsf, new Envelope(bBox[0], bBox[2], bBox[1], bBox[3]),
+                                targetCrs, sourceCrs);
+                        DataSource sds = dsf.getDataSource(sourceName);
+                        MemoryDataSetDriver driver;
+                        sds.open();
+                        try {
+                                Metadata md = sds.getMetadata();
+                                int spatialFieldIndex = MetadataUtilities.getSpatialFieldIndex(md);
+                                SpatialIndexService is = indexes;
+                                int[] rows = is != null ? is.query(sds, nativeEnv)
+                                        : SpatialIndexService.scan(sds, spatialFieldIndex, nativeEnv);
+                                driver = new MemoryDataSetDriver(getProjectedMetadata(md, targetCrs));
+                                ST_Transform transformFunction = transforms.get();
+                                Value newCRS = ValueFactory.createValue(targetCrs);
+                                for (int row : rows) {
+                                        Value[] values = sds.getRow(row).clone();
+                                        values[spatialFieldIndex] = transformFunction.evaluate(dsf,
+                                                values[spatialFieldIndex], newCRS);
+                                        driver.addValues(values);
+                                }
+                        } finally {
+                                sds.close();
+                        }
+                        DataSource window = dsf.getDataSource(driver, sourceName);
+                        windowSources.add(window.getName());
+                        return window;
+                } catch (Exception ex) {
+                        throw new WMSException(ex);
+                }
+        }
+
+        /**
+         * Forgets a source built by {@link #getWindowSource(String, String, String, double[])}, so that its
+         * features can be collected.
+         * @param name The name of the temporary source.
+         */
+        public void releaseWindowSource(String name) {
+                if (!windowSources.remove(name)) {
+                        return;
+                }
+                // The factory may have given the memory source an anonymous name, which is never published.
+                SourceManager sm = getDataSourceFactory().getSourceManager();
+                if (sm.exists(name)) {
+                        sm.remove(name);
+                }
+        }
+
+        /**
+         * Checks whether the given source has been built by
+         * {@link #getWindowSource(String, String, String, double[])} and not released yet.
+         * @param name The name of a source.
+         * @return true if the source is temporary.
+         */
+        public boolean isWindowSource(String name) {
+                return windowSources.contains(name);
+        }
+
+        /**
+         * Gets the envelope, in the target CRS, of the given envelope. Its sides are densified first as straight
+         * lines in the source CRS are usually curves in the target one.
+         */
+        private Envelope transform(DataSourceFactory dsf, Envelope env, String fromCrs, String toCrs)
+                throws Exception {
+                Geometry poly = new GeometryFactory().toGeometry(env);
+                double step = Math.max(env.getWidth(), env.getHeight()) / ENVELOPE_SEGMENTS;
+                if (step > 0) {
+                        poly = Densifier.densify(poly, step);
+                }
+                Value val = transforms.get().evaluate(dsf,
+                        ValueFactory.createValue(poly, DataSourceFactory.getCRSFactory().getCRS(fromCrs)),
+                        ValueFactory.createValue(toCrs));
+                return val.getAsGeometry().getEnvelopeInternal();
+        }
+
+        /**
+         * Checks whether the given source is a reprojection managed by this object.
+         * @param name The name of a source.
+         * @return true if the source is a cached reprojection.
+         */
+        public synchronized boolean isProjection(String name) {
+                return entries.containsKey(name);
+        }
+
+        /**
+         * Starts computing, in the background, the reprojection of all the known layers in the CRS listed in
+         * {@link WMSProperties#REPROJECTION_WARMUP}.
+         */
+        public void warmUp() {
+                for (String name : layerMap.keySet()) {
+                        warmUp(name);
+                }
+        }
+
+        /**
+         * Stops the worker threads.
+         */
+        public synchronized void dispose() {
+                if (workers != null) {
+                        workers.shutdownNow();
+                        workers = null;
+                }
+                if (warmUp != null) {
+                        warmUp.shutdownNow();
+                        warmUp = null;
+                }
+        }
+
+        /**
+         * Changes the bound of the cache folder, evicting the least recently used sources above it.
+         * @param bytes The maximum size of the cached files, in bytes.
+         */
+        void setSizeLimit(long bytes) {
+                synchronized (this) {
+                        sizeLimit = bytes;
+                }
+                evict(null, getDataSourceFactory().getSourceManager());
+        }
+
+        /**
+         * Gets the size of the cached files.
+         * @return The size in bytes.
+         */
+        synchronized long getSize() {
+                return size;
+        }
+
+        @Override
+        public void layerAdded(String name) {
+                warmUp(name);
+        }
+
+        @Override
+        public void layerRemoved(String name) {
+                dropSource(name);
+        }
+
+        @Override
+        public void layerRenamed(String oldName, String newName) {
+                dropSource(oldName);
+        }
+
+        private void warmUp(final String name) {
+                if (warmUpCrs.isEmpty() || isProjection(name) || !layerMap.containsKey(name)) {
+                        return;
+                }
+                String layerCrs = layerMap.get(name).getCRS().get(0);
+                for (final String crs : warmUpCrs) {
+                        if (!crs.equalsIgnoreCase(layerCrs)) {
+                                getWarmUpExecutor().submit(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                                try {
+                                                        releaseProjectedSource(getProjectedSource(name, crs));
+                                                        LOGGER.info("Reprojected " + name + " in " + crs);
+                                                } catch (WMSException ex) {
+                                                        LOGGER.warn("Can't reproject " + name + " in " + crs, ex);
+                                                }
+                                        }
+                                });
+                        }
+                }
+        }
+
+        /**
+         * Takes a reference on the given reprojected source if it is up to date.
+         * @return false if it must be built.
+         */
+        private synchronized boolean acquire(String newName, String sourceName, SourceManager sm) {
+                Entry e = entries.get(newName);
+                if (e == null || !e.file.isFile() || !sm.exists(newName) || !e.matches(getSourceFile(sourceName, sm))) {
+                        return false;
+                }
+                Integer count = users.get(newName);
+                users.put(newName, count == null ? 1 : count + 1);
+                return true;
+        }
+
+        private Object getLock(String name) {
+                Object lock = new Object();
+                Object existing = locks.putIfAbsent(name, lock);
+                return existing == null ? lock : existing;
+        }
+
+        private void dropSource(String sourceName) {
+                SourceManager sm = getDataSourceFactory().getSourceManager();
+                List<String> names = new ArrayList<String>();
+                synchronized (this) {
+                        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                                if (e.getValue().sourceName.equals(sourceName)) {
+                                        names.add(e.getKey());
+                                }
+                        }
+                }
+                for (String name : names) {
+                        drop(name, sm);
+                }
+        }
+
+        private void drop(String name, SourceManager sm) {
+                Entry e;
+                synchronized (this) {
+                        e = entries.remove(name);
+                        if (e != null) {
+                                size -= e.size;
+                                saveIndex();
+                        }
+                        if (users.containsKey(name)) {
+                                // Still read : removed by releaseProjectedSource.
+                                if (e != null) {
+                                        List<File> files = dropped.get(name);
+                                        if (files == null) {
+                                                files = new ArrayList<File>();
+                                                dropped.put(name, files);
+                                        }
+                                        files.add(e.file);
+                                }
+                                return;
+                        }
+                }
+                // The source manager fires events : it must not be called while holding the lock on the index.
+                if (sm.exists(name)) {
+                        sm.remove(name);
+                }
+                if (e != null && e.file.exists() && !e.file.delete()) {
+                        LOGGER.debug("Can't delete the reprojected file " + e.file);
+                }
+        }
+
+        private void build(String sourceName, String targetCrs, String newName) throws WMSException {
+                DataSourceFactory dsf = getDataSourceFactory();
+                SourceManager sm = dsf.getSourceManager();
+                File target = null;
+                // Read before the rows : a change made during the build must make the entry stale.
+                File sourceFile = getSourceFile(sourceName, sm);
+                long sourceModified = sourceFile == null ? 0 : sourceFile.lastModified();
+                try {
+                        // The file of the former version may still be read : each build gets its own file.
+                        target = File.createTempFile(newName + "-", EXTENSION, folder);
+                        long start = System.currentTimeMillis();
+                        DataSource sds = dsf.getDataSource(sourceName);
+                        sds.open();
+                        try {
+                                Metadata md = sds.getMetadata();
+                                int spatialFieldIndex = MetadataUtilities.getSpatialFieldIndex(md);
+                                DiskBufferDriver driver = new DiskBufferDriver(dsf, getProjectedMetadata(md, targetCrs));
+                                transform(dsf, sds, spatialFieldIndex, ValueFactory.createValue(targetCrs), driver);
+                                driver.writingFinished();
+                                driver.close();
+                                move(driver.getFile(), target);
+                        } finally {
+                                sds.close();
+                        }
+                        Entry e = new Entry(sourceName, sourceFile, sourceModified, target);
+                        synchronized (this) {
+                                entries.put(newName, e);
+                                size += e.size;
+                                saveIndex();
+                        }
+                        if (sm.exists(newName)) {
+                                // The former version, still used, is read through its open data sources.
+                                sm.remove(newName);
+                        }
+                        sm.register(newName, target);
+                        LOGGER.debug("Reprojected " + sourceName + " in " + targetCrs + " in "
+                                + (System.currentTimeMillis() - start) + " ms");
+                        evict(newName, sm);
+                } catch (WMSException ex) {
+                        throw ex;
+                } catch (Exception ex) {
+                        if (target != null && target.exists() && !target.delete()) {
+                                LOGGER.debug("Can't delete the reprojected file " + target);
+                        }
+                        throw new WMSException(ex);
+                }
+        }
+
+        /**
+         * Reads the rows by batches, transforms the batches in parallel and writes them in order.
+         */
+        private void transform(final DataSourceFactory dsf, DataSource sds, final int spatialFieldIndex,
+                               final Value newCRS, DiskBufferDriver driver)
+                throws DriverException, InterruptedException, WMSException {
+                ExecutorService executor = getWorkers();
+                long rowCount = sds.getRowCount();
+                long row = 0;
+                while (row < rowCount) {
+                        List<Future<Value[][]>> batches = new ArrayList<Future<Value[][]>>(threads);
+                        for (int t = 0; t < threads && row < rowCount; t++) {
+                                int length = (int) Math.min(BATCH_SIZE, rowCount - row);
+                                final Value[][] rows = new Value[length][];
+                                for (int i = 0; i < length; i++) {
+                                        rows[i] = sds.getRow(row + i).clone();
+                                }
+                                row += length;
+                                batches.add(executor.submit(new Callable<Value[][]>() {
+                                        @Override
+                                        public Value[][] call() throws Exception {
+                                                ST_Transform transformFunction = transforms.get();
+                                                for (Value[] r : rows) {
+                                                        r[spatialFieldIndex] = transformFunction.evaluate(dsf,
+                                                                r[spatialFieldIndex], newCRS);
+                                                }
+                                                return rows;
+                                        }
+                                }));
+                        }
+                        for (Future<Value[][]> batch : batches) {
+                                try {
+                                        for (Value[] r : batch.get()) {
+                                                driver.addValues(r);
+                                        }
+                                } catch (ExecutionException ex) {
+                                        for (Future<Value[][]> b : batches) {
+                                                b.cancel(true);
+                                        }
+                                        throw new WMSException("Can't transform the geometries", ex.getCause());
+                                }
+                        }
+                }
+        }
+
+        private void evict(String keep, SourceManager sm) {
+                List<String> toDrop = new ArrayList<String>();
+                synchronized (this) {
+                        long remaining = size;
+                        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+                        while (remaining > sizeLimit && it.hasNext()) {
+                                Map.Entry<String, Entry> e = it.next();
+                                if (!e.getKey().equals(keep)) {
+                                        toDrop.add(e.getKey());
+                                        remaining -= e.getValue().size;
+                                }
+                        }
+                }
+                for (String name : toDrop) {
+                        LOGGER.debug("Evicting the reprojected source " + name);
+                        drop(name, sm);
+                }
+        }
+
+        /**
+         * Change the CRS constraint associated to md so that it match the given CRS.
+         * @param md The original metadata
+         * @param targetCrs The string representation of the target crs
+         * @return The new Metadata
+         * @throws org.gdms.driver.DriverException If we encounter a problem while handling metadata
+         * @throws CRSException If we failed at building the new CRS, if targetCrs is not a known EPSG code
+         */
+        private Metadata getProjectedMetadata(Metadata md, String targetCrs)
+                throws DriverException, CRSException {
+                int spatialFieldIndex = MetadataUtilities.getSpatialFieldIndex(md);
+                Type geomType = md.getFieldType(spatialFieldIndex);
+                Constraint[] constraints = geomType.getConstraints().clone();
+                for(int i=0; i<constraints.length; i++){
+                        Constraint c = constraints[i];
+                        if(c.getConstraintCode() == Constraint.CRS){
+                                constraints[i] = new CRSConstraint(DataSourceFactory.getCRSFactory().getCRS(targetCrs));
+                                break;
+                        }
+                }
+                Type newType = TypeFactory.createType(geomType.getTypeCode(), constraints);
+                String[] names = md.getFieldNames();
+                Type[] types = new Type[names.length];
+                for(int i=0; i<types.length; i++){
+                        if(i == spatialFieldIndex){
+                                types[i] = newType;
+                        } else {
+                                types[i] = md.getFieldType(i);
+                        }
+                }
+                return new DefaultMetadata(types, names);
+        }
+
+        private static File getSourceFile(String sourceName, SourceManager sm) {
+                Source s = sm.getSource(sourceName);
+                return s != null && s.isFileSource() ? s.getFile() : null;
+        }
+
+        private static void move(File from, File to) throws IOException {
+                if (to.exists() && !to.delete()) {
+                        throw new IOException("Can't replace " + to);
+                }
+                if (from.renameTo(to)) {
+                        return;
+                }
+                // The temporary folder may not be on the same file system.
+                InputStream in = new FileInputStream(from);
+                try {
+                        FileUtils.copy(in, to);
+                } finally {
+                        in.close();
+                }
+                if (!from.delete()) {
+                        LOGGER.debug("Can't delete the temporary file " + from);
+                }
+        }
+
+        private synchronized ExecutorService getWorkers() {
+                if (workers == null) {
+                        workers = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("wms-reprojection"));
+                }
+                return workers;
+        }
+
+        private synchronized ExecutorService getWarmUpExecutor() {
+                if (warmUp == null) {
+                        warmUp = Executors.newSingleThreadExecutor(new DaemonThreadFactory("wms-reprojection-warmup"));
+                }
+                return warmUp;
+        }
+
+        private static DataSourceFactory getDataSourceFactory() {
+                return Services.getService(DataManager.class).getDataSourceFactory();
+        }
+
+        private void loadIndex() {
+                File index = new File(folder, INDEX);
+                if (!index.isFile()) {
+                        return;
+                }
+                Properties p = new Properties();
+                InputStream in = null;
+                try {
+                        in = new FileInputStream(index);
+                        p.load(in);
+                } catch (IOException ex) {
+                        LOGGER.warn("Can't read the reprojection cache index, the cache is emptied.", ex);
+                        return;
+                } finally {
+                        closeQuietly(in);
+                }
+                List<String> names = new ArrayList<String>();
+                for (String key : p.stringPropertyNames()) {
+                        if (key.endsWith(".file")) {
+                                names.add(key.substring(0, key.length() - ".file".length()));
+                        }
+                }
+                // Restore the access order saved with the entries.
+                final Map<String, Long> access = new HashMap<String, Long>();
+                for (String name : names) {
+                        access.put(name, Long.valueOf(p.getProperty(name + ".access", "0")));
+                }
+                Collections.sort(names, new Comparator<String>() {
+                        @Override
+                        public int compare(String a, String b) {
+                                return access.get(a).compareTo(access.get(b));
+                        }
+                });
+                for (String name : names) {
+                        String source = p.getProperty(name + ".source");
+                        String sourceFile = p.getProperty(name + ".sourceFile", "");
+                        Entry e = new Entry(source, sourceFile.isEmpty() ? null : new File(sourceFile),
+                                Long.valueOf(p.getProperty(name + ".sourceModified", "0")),
+                                new File(p.getProperty(name + ".file")));
+                        if (source != null && e.file.isFile()) {
+                                entries.put(name, e);
+                                size += e.size;
+                        }
+                }
+        }
+
+        /**
+         * Removes the files left by the builds that have not been recorded in the index.
+         */
+        private void removeOrphans() {
+                Set<File> known = new HashSet<File>();
+                for (Entry e : entries.values()) {
+                        known.add(e.file.getAbsoluteFile());
+                }
+                File[] files = folder.listFiles();
+                if (files != null) {
+                        for (File f : files) {
+                                if (f.getName().endsWith(EXTENSION) && !known.contains(f.getAbsoluteFile())
+                                        && !f.delete()) {
+                                        LOGGER.debug("Can't delete the reprojected file " + f);
+                                }
+                        }
+                }
+        }
+
+        private synchronized void saveIndex() {
+                Properties p = new Properties();
+                long order = 0;
+                for (Map.Entry<String, Entry> me : entries.entrySet()) {
+                        String name = me.getKey();
+                        Entry e = me.getValue();
+                        p.setProperty(name + ".source", e.sourceName);
+                        p.setProperty(name + ".sourceFile", e.sourceFile == null ? "" : e.sourceFile.getAbsolutePath());
+                        p.setProperty(name + ".sourceModified", Long.toString(e.sourceModified));
+                        p.setProperty(name + ".file", e.file.getAbsolutePath());
+                        p.setProperty(name + ".access", Long.toString(order++));
+                }
+                OutputStream out = null;
+                try {
+                        out = new FileOutputStream(new File(folder, INDEX));
+                        p.store(out, "Reprojected sources");
+                } catch (IOException ex) {
+                        LOGGER.warn("Can't write the reprojection cache index", ex);
+                } finally {
+                        closeQuietly(out);
+                }
+        }
+
+        private static void closeQuietly(java.io.Closeable c) {
+                if (c != null) {
+                        try {
+                                c.close();
+                        } catch (IOException ex) {
+                                LOGGER.debug("Can't close the index stream", ex);
+                        }
+                }
+        }
+
+        /**
+         * A reprojected source, with the state of the original file when it has been built.
+         */
+        private static final class Entry {
+                private final String sourceName;
+                private final File sourceFile;
+                private final long sourceModified;
+                private final File file;
+                private final long size;
+
+                Entry(String sourceName, File sourceFile, long sourceModified, File file) {
+                        this.sourceName = sourceName;
+                        this.sourceFile = sourceFile;
+                        this.sourceModified = sourceModified;
+                        this.file = file;
+                        this.size = file.length();
+                }
+
+                boolean matches(File current) {
+                        if (current == null || sourceFile == null) {
+                                return current == sourceFile;
+                        }
+                        return current.getAbsoluteFile().equals(sourceFile.getAbsoluteFile())
+                                && current.lastModified() == sourceModified;
+                }
+        }
+}
@@ -0,0 +1,118 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a task once for all the concurrent callers that give the same key. The first caller runs it in its own
+ * thread, the others wait for its result. The key is forgotten as soon as the task is over, so that later
+ * callers run it again.
+ * @param <V> The type of the results.
+ */
+public final class RequestCoalescer<V> {
+        private final ConcurrentMap<String, FutureTask<V>> flights = new ConcurrentHashMap<String, FutureTask<V>>();
+        private final AtomicLong leaders = new AtomicLong();
+        private final AtomicLong followers = new AtomicLong();
+
+        /**
+         * Runs the given task, or waits for the one running with the same key.
+         * @param key The key of the task.
+         * @param task The task, only run if there is no running task with the same key.
+         * @return The result, and whether it has been computed by this caller.
+         * @throws ExecutionException If the task run by this caller has failed. The failures of the tasks of the
+         * other callers are not thrown : the result is then null.
+         * @throws InterruptedException If the thread is interrupted while waiting for another caller.
+         */
+        public Shared<V> execute(String key, Callable<V> task) throws ExecutionException, InterruptedException {
+                FutureTask<V> created = new FutureTask<V>(task);
+                FutureTask<V> running = flights.putIfAbsent(key, created);
+                if (running == null) {
+                        leaders.incrementAndGet();
+                        try {
+                                created.run();
+                        } finally {
+                                flights.remove(key, created);
+                        }
+                        return new Shared<V>(created.get(), true);
+                }
+                followers.incrementAndGet();
+                try {
+                        return new Shared<V>(running.get(), false);
+                } catch (ExecutionException ex) {
+                        return new Shared<V>(null, false);
+                }
+        }
+
+        /**
+         * @return The number of tasks that have been run.
+         */
+        public long getLeaders() {
+                return leaders.get();
+        }
+
+        /**
+         * @return The number of callers that have waited for the task of another one.
+         */
+        public long getFollowers() {
+                return followers.get();
+        }
+
+        /**
+         * The result of a task, shared by the callers with the same key.
+         * @param <V> The type of the result.
+         */
+        public static final class Shared<V> {
+                private final V value;
+                private final boolean leader;
+
+                private Shared(V value, boolean leader) {
+                        this.value = value;
+                        this.leader = leader;
+                }
+
+                /**
+                 * @return The result of the task, or null if it has failed in another caller.
+                 */
+                public V getValue() {
+                        return value;
+                }
+
+                /**
+                 * @return true if the task has been run by this caller.
+                 */
+                public boolean isLeader() {
+                        return leader;
+                }
+        }
+}
@@ -0,0 +1,211 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The threads that answer the requests, apart from the ones of the HTTP server. The requests that draw maps run
+ * on a render pool sized for the processors, the other ones, which read data, run on a larger I/O pool, so that
+ * slow maps can't hold up the capabilities or the feature information. Each pool has a bounded queue : a task
+ * submitted to a full pool is rejected. The queue depth and the time spent waiting and running are collected for
+ * the metrics. The readers of streamed answers, which wait for the chunks written by the tasks of these pools,
+ * have threads of their own : sharing a bounded pool with the writers they wait for could leave no thread to
+ * drain the answers.
+ */
+public final class RequestExecutor {
+        /**
+         * The default number of threads of the I/O pool.
+         */
+        public static final int DEFAULT_IO_THREADS = 16;
+        /**
+         * The default number of tasks that can wait for a thread in each pool.
+         */
+        public static final int DEFAULT_QUEUE_SIZE = 256;
+        private final Pool render;
+        private final Pool io;
+        private final ExecutorService reader = Executors.newCachedThreadPool(new DaemonThreadFactory("wms-reader"));
+
+        /**
+         * Builds a new executor.
+         * @param renderThreads The number of threads of the render pool.
+         * @param ioThreads The number of threads of the I/O pool.
+         * @param queueSize The number of tasks that can wait for a thread in each pool.
+         */
+        public RequestExecutor(int renderThreads, int ioThreads, int queueSize) {
+                render = new Pool("wms-render", renderThreads, queueSize);
+                io = new Pool("wms-io", ioThreads, queueSize);
+        }
+
+        /**
+         * Builds an executor configured with {@link WMSProperties#EXECUTOR_RENDER_THREADS},
+         * {@link WMSProperties#EXECUTOR_IO_THREADS} and {@link WMSProperties#EXECUTOR_QUEUE_SIZE}. The render pool
+         * has twice as many threads as there are processors by default, so that the encoding and the writing of
+         * some maps overlap the drawing of others, whose number is still bounded by
+         * {@link WMSProperties#RENDER_THREADS}.
+         * @param props The server properties.
+         * @return The executor.
+         */
+        public static RequestExecutor create(WMSProperties props) {
+                return new RequestExecutor(
+                        props.getIntProperty(WMSProperties.EXECUTOR_RENDER_THREADS,
+                                2 * Runtime.getRuntime().availableProcessors()),
+                        props.getIntProperty(WMSProperties.EXECUTOR_IO_THREADS, DEFAULT_IO_THREADS),
+                        props.getIntProperty(WMSProperties.EXECUTOR_QUEUE_SIZE, DEFAULT_QUEUE_SIZE));
+        }
+
+        /**
+         * @return The pool of the requests that draw maps.
+         */
+        public Executor getRenderExecutor() {
+                return render;
+        }
+
+        /**
+         * @return The pool of the requests that read data.
+         */
+        public Executor getIoExecutor() {
+                return io;
+        }
+
+        /**
+         * Gets the pool that waits for the chunks of the streamed answers. It never rejects a task : there is at
+         * most one waiting reader per answer being streamed, and their number is bounded by the admission of the
+         * requests.
+         * @return The pool of the readers of the streamed answers.
+         */
+        public Executor getReaderExecutor() {
+                return reader;
+        }
+
+        /**
+         * Stops the threads once the tasks already submitted have been run.
+         */
+        public void shutdown() {
+                render.executor.shutdown();
+                io.executor.shutdown();
+                reader.shutdown();
+        }
+
+        /**
+         * Writes the metrics of the pools in a JSON object.
+         * @param sb The builder to write in.
+         */
+        void appendJSON(StringBuilder sb) {
+                sb.append("{\"render\":");
+                render.appendJSON(sb);
+                sb.append(",\"io\":");
+                io.appendJSON(sb);
+                sb.append('}');
+        }
+
+        /**
+         * @return The number of requests waiting for a thread of the render pool.
+         */
+        public int getRenderQueueDepth() {
+                return render.executor.getQueue().size();
+        }
+
+        /**
+         * @return The number of requests waiting for a thread of the I/O pool.
+         */
+        public int getIoQueueDepth() {
+                return io.executor.getQueue().size();
+        }
+
+        /**
+         * A pool of threads and the times of its tasks, in nanoseconds.
+         */
+        private static final class Pool implements Executor {
+                private static final double NANOS_PER_MILLI = 1e6;
+                private final ThreadPoolExecutor executor;
+                private final AtomicLong completed = new AtomicLong();
+                private final AtomicLong rejected = new AtomicLong();
+                private final AtomicLong waitTotal = new AtomicLong();
+                private final AtomicLong waitMax = new AtomicLong();
+                private final AtomicLong runTotal = new AtomicLong();
+                private final AtomicLong runMax = new AtomicLong();
+
+                Pool(String name, int threads, int queueSize) {
+                        int n = Math.max(1, threads);
+                        executor = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS,
+                                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new DaemonThreadFactory(name));
+                }
+
+                @Override
+                public void execute(final Runnable command) {
+                        final long submitted = System.nanoTime();
+                        try {
+                                executor.execute(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                                long start = System.nanoTime();
+                                                add(waitTotal, waitMax, start - submitted);
+                                                try {
+                                                        command.run();
+                                                } finally {
+                                                        add(runTotal, runMax, System.nanoTime() - start);
+                                                        completed.incrementAndGet();
+                                                }
+                                        }
+                                });
+                        } catch (RejectedExecutionException e) {
+                                rejected.incrementAndGet();
+                                throw e;
+                        }
+                }
+
+                private static void add(AtomicLong total, AtomicLong max, long nanos) {
+                        total.addAndGet(nanos);
+                        long m = max.get();
+                        while (nanos > m && !max.compareAndSet(m, nanos)) {
+                                m = max.get();
+                        }
+                }
+
+                void appendJSON(StringBuilder sb) {
+                        long c = completed.get();
+                        sb.append("{\"threads\":").append(executor.getMaximumPoolSize())
+                                .append(",\"active\":").append(executor.getActiveCount())
+                                .append(",\"queued\":").append(executor.getQueue().size())
+                                .append(",\"completed\":").append(c)
+                                .append(",\"rejected\":").append(rejected.get())
+                                .append(",\"waitMeanMillis\":").append(c == 0 ? 0 : waitTotal.get() / NANOS_PER_MILLI / c)
+                                .append(",\"waitMaxMillis\":").append(waitMax.get() / NANOS_PER_MILLI)
+                                .append(",\"runMeanMillis\":").append(c == 0 ? 0 : runTotal.get() / NANOS_PER_MILLI / c)
+                                .append(",\"runMaxMillis\":").append(runMax.get() / NANOS_PER_MILLI).append('}');
+                }
+        }
+}
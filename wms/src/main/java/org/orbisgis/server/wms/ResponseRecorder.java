@@ -0,0 +1,117 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+/**
+ * A WMSResponse that forwards everything to another response and remembers the content type and the response code
+ * that have been set, so that the answer can be stored once it has been written.
+ */
+class ResponseRecorder implements WMSResponse {
+
+        private final WMSResponse response;
+        private String contentType;
+        private int code = -1;
+
+        /**
+         * Builds a recorder that forwards to the given response.
+         * @param response The actual response.
+         */
+        ResponseRecorder(WMSResponse response) {
+                this.response = response;
+        }
+
+        /**
+         * Builds a recorder that is not bound to any HTTP response, used when maps are drawn for the server
+         * itself.
+         */
+        ResponseRecorder() {
+                this(null);
+        }
+
+        @Override
+        public void setContentType(String contentType) {
+                this.contentType = contentType;
+                if (response != null) {
+                        response.setContentType(contentType);
+                }
+        }
+
+        @Override
+        public String getRequestUrl() {
+                return response != null ? response.getRequestUrl() : "";
+        }
+
+        @Override
+        public void setResponseCode(int code) {
+                this.code = code;
+                if (response != null) {
+                        response.setResponseCode(code);
+                }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+                if (response != null) {
+                        response.setHeader(name, value);
+                }
+        }
+
+        @Override
+        public String getRequestHeader(String name) {
+                return response != null ? response.getRequestHeader(name) : null;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+                return response != null ? response.getRemoteAddress() : null;
+        }
+
+        /**
+         * Gets the last content type that has been set.
+         * @return The content type or null.
+         */
+        String getContentType() {
+                return contentType;
+        }
+
+        /**
+         * Gets the last response code that has been set.
+         * @return The response code, or -1 if none has been set.
+         */
+        int getResponseCode() {
+                return code;
+        }
+
+        /**
+         * Checks whether an image has been successfully written in this response.
+         * @return true if the code is 200 and the content type an image one.
+         */
+        boolean isImage() {
+                return code == 200 && contentType != null && contentType.startsWith("image/");
+        }
+}
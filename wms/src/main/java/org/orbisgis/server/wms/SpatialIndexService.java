@@ -0,0 +1,291 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import org.gdms.data.DataSource;
+import org.gdms.data.DataSourceFactory;
+import org.gdms.data.NoSuchTableException;
+import org.gdms.data.indexes.DefaultSpatialIndexQuery;
+import org.gdms.data.indexes.IndexException;
+import org.gdms.data.indexes.IndexManager;
+import org.gdms.data.indexes.IndexQueryException;
+import org.gdms.data.values.Value;
+import org.gdms.driver.DriverException;
+import org.orbisgis.core.DataManager;
+import org.orbisgis.core.Services;
+import org.orbisgis.progress.NullProgressMonitor;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Builds the spatial indexes of the published layers in the background, as soon as they are added, instead of
+ * building them when a client first queries them. The indexes are built and stored by the {@link IndexManager}
+ * of the workspace. Concurrent requests for the same source share a single build,
+ * and the queries received before it is over scan the source.
+ */
+public class SpatialIndexService implements LayerChangeListener {
+        private static final org.apache.log4j.Logger LOGGER = org.apache.log4j.Logger.getLogger(SpatialIndexService.class);
+        /**
+         * The default number of threads that build the indexes.
+         */
+        public static final int DEFAULT_THREADS = 1;
+        private final int threads;
+        private final ReprojectionManager reprojection;
+        private ExecutorService builders;
+        /**
+         * The builds, running or over, by source name.
+         */
+        private final ConcurrentMap<String, Future<?>> builds = new ConcurrentHashMap<String, Future<?>>();
+
+        /**
+         * Builds a new service.
+         * @param threads The number of threads that build the indexes.
+         */
+        public SpatialIndexService(int threads) {
+                this(threads, null);
+        }
+
+        /**
+         * Builds a new service that does not index the temporary sources of the given manager.
+         * @param threads The number of threads that build the indexes.
+         * @param reprojection The manager of the reprojected sources, may be null.
+         */
+        public SpatialIndexService(int threads, ReprojectionManager reprojection) {
+                this.threads = Math.max(1, threads);
+                this.reprojection = reprojection;
+        }
+
+        /**
+         * Builds a service configured with {@link WMSProperties#INDEX_THREADS}.
+         * @param props The server properties.
+         * @param reprojection The manager of the reprojected sources, may be null.
+         * @return The service.
+         */
+        public static SpatialIndexService create(WMSProperties props, ReprojectionManager reprojection) {
+                return new SpatialIndexService(props.getIntProperty(WMSProperties.INDEX_THREADS, DEFAULT_THREADS),
+                        reprojection);
+        }
+
+        /**
+         * Builds the index of the given source in the background, unless it is already built or being built. A
+         * build that fails is forgotten, so that the next query of the source starts a new one.
+         * @param sourceName The name of the source.
+         * @return The build, which is shared by all the callers.
+         */
+        public Future<?> build(final String sourceName) {
+                Future<?> running = builds.get(sourceName);
+                if (running != null) {
+                        return running;
+                }
+                FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                                buildIndex(sourceName);
+                                return null;
+                        }
+                }) {
+                        @Override
+                        protected void done() {
+                                try {
+                                        get();
+                                } catch (InterruptedException ex) {
+                                        Thread.currentThread().interrupt();
+                                } catch (ExecutionException ex) {
+                                        LOGGER.warn("Can't build the spatial index of " + sourceName
+                                                + ", it will be scanned when queried.", ex.getCause());
+                                        builds.remove(sourceName, this);
+                                } catch (CancellationException ex) {
+                                        builds.remove(sourceName, this);
+                                }
+                        }
+                };
+                running = builds.putIfAbsent(sourceName, task);
+                if (running != null) {
+                        return running;
+                }
+                getBuilders().execute(task);
+                return task;
+        }
+
+        /**
+         * Builds the indexes of all the given sources in the background.
+         * @param sourceNames The names of the sources.
+         */
+        public void buildAll(Iterable<String> sourceNames) {
+                for (String name : sourceNames) {
+                        build(name);
+                }
+        }
+
+        /**
+         * Gets the rows of the given open source whose geometry intersects the given envelope. The index is used
+         * when it is ready. Otherwise its build is started and the source is scanned. The temporary sources of
+         * the window reprojection mode are only scanned : they are removed once the request has been answered.
+         * @param ds The open source.
+         * @param env The envelope, in the CRS of the source.
+         * @return The indexes of the matching rows.
+         * @throws DriverException If the source can't be read.
+         * @throws NoSuchTableException If the source is not registered anymore.
+         * @throws IndexQueryException If the index can't be queried.
+         * @throws IndexException If the index can't be read.
+         */
+        public int[] query(DataSource ds, Envelope env) throws DriverException, NoSuchTableException,
+                IndexQueryException, IndexException {
+                int spatialField = ds.getSpatialFieldIndex();
+                if (reprojection != null && reprojection.isWindowSource(ds.getName())) {
+                        return scan(ds, spatialField, env);
+                }
+                Future<?> running = builds.get(ds.getName());
+                if (running != null && !running.isDone()) {
+                        return scan(ds, spatialField, env);
+                }
+                String geomField = ds.getFieldName(spatialField);
+                IndexManager im = getDataSourceFactory().getIndexManager();
+                if (im.isIndexed(ds, geomField)) {
+                        return im.queryIndex(ds, new DefaultSpatialIndexQuery(geomField, env));
+                }
+                if (running == null) {
+                        build(ds.getName());
+                }
+                return scan(ds, spatialField, env);
+        }
+
+        /**
+         * Tells if the index of the given source has been built by this service.
+         * @param sourceName The name of the source.
+         * @return true if its build is over.
+         */
+        public boolean isBuilt(String sourceName) {
+                Future<?> running = builds.get(sourceName);
+                return running != null && running.isDone();
+        }
+
+        /**
+         * Stops the threads that build the indexes.
+         */
+        public synchronized void dispose() {
+                if (builders != null) {
+                        builders.shutdownNow();
+                        builders = null;
+                }
+                builds.clear();
+        }
+
+        @Override
+        public void layerAdded(String name) {
+                build(name);
+        }
+
+        @Override
+        public void layerRemoved(String name) {
+                builds.remove(name);
+        }
+
+        @Override
+        public void layerRenamed(String oldName, String newName) {
+                builds.remove(oldName);
+                build(newName);
+        }
+
+        /**
+         * Gets the rows of the given open source whose geometry intersects the given envelope, without index.
+         * @param ds The open source.
+         * @param spatialField The index of the geometry field.
+         * @param env The envelope, in the CRS of the source.
+         * @return The indexes of the matching rows.
+         * @throws DriverException If the source can't be read.
+         */
+        static int[] scan(DataSource ds, int spatialField, Envelope env) throws DriverException {
+                long count = ds.getRowCount();
+                int[] rows = new int[16];
+                int n = 0;
+                for (long i = 0; i < count; i++) {
+                        Value v = ds.getFieldValue(i, spatialField);
+                        if (v.isNull()) {
+                                continue;
+                        }
+                        Geometry geom = v.getAsGeometry();
+                        if (geom != null && env.intersects(geom.getEnvelopeInternal())) {
+                                if (n == rows.length) {
+                                        rows = Arrays.copyOf(rows, n * 2);
+                                }
+                                rows[n++] = (int) i;
+                        }
+                }
+                return Arrays.copyOf(rows, n);
+        }
+
+        /**
+         * Builds the index of the given source in the calling thread, if it has not been built yet.
+         * @param sourceName The name of the source.
+         * @throws Exception If the source can't be read or indexed.
+         */
+        void buildIndex(String sourceName) throws Exception {
+                DataSourceFactory dsf = getDataSourceFactory();
+                DataSource ds = dsf.getDataSource(sourceName);
+                ds.open();
+                try {
+                        int spatialField = ds.getSpatialFieldIndex();
+                        if (spatialField == -1) {
+                                return;
+                        }
+                        String geomField = ds.getFieldName(spatialField);
+                        IndexManager im = dsf.getIndexManager();
+                        if (!im.isIndexed(ds, geomField)) {
+                                long start = System.currentTimeMillis();
+                                im.buildIndex(ds, geomField, new NullProgressMonitor());
+                                LOGGER.debug("Built the spatial index of " + sourceName + " in "
+                                        + (System.currentTimeMillis() - start) + " ms");
+                        }
+                } finally {
+                        ds.close();
+                }
+        }
+
+        private synchronized ExecutorService getBuilders() {
+                if (builders == null) {
+                        builders = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("wms-index"));
+                }
+                return builders;
+        }
+
+        private static DataSourceFactory getDataSourceFactory() {
+                return Services.getService(DataManager.class).getDataSourceFactory();
+        }
+}
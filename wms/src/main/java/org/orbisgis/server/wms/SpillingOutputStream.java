@@ -0,0 +1,98 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Keeps what is written in memory as long as it does not exceed a given size, and writes it through to another
+ * stream beyond. This lets an answer be shared and stored in a cache before it is sent, without holding the
+ * large ones on the heap : the caller sends the kept bytes itself once it is done.
+ */
+class SpillingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private final long limit;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        /**
+         * Builds a new SpillingOutputStream.
+         * @param out The stream written to beyond the limit.
+         * @param limit The maximum number of bytes kept in memory.
+         */
+        SpillingOutputStream(OutputStream out, long limit) {
+                this.out = out;
+                this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+                if (fits(1)) {
+                        buffer.write(b);
+                } else {
+                        out.write(b);
+                }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+                if (fits(len)) {
+                        buffer.write(b, off, len);
+                } else {
+                        out.write(b, off, len);
+                }
+        }
+
+        @Override
+        public void flush() throws IOException {
+                if (buffer == null) {
+                        out.flush();
+                }
+        }
+
+        /**
+         * Gets the bytes kept in memory, which have not been written to the other stream.
+         * @return The bytes, or null if more than the limit has been written and everything has gone through.
+         */
+        byte[] getBuffer() {
+                return buffer == null ? null : buffer.toByteArray();
+        }
+
+        /**
+         * Checks whether the given number of bytes can still be kept, and writes the kept ones through otherwise.
+         */
+        private boolean fits(int len) throws IOException {
+                if (buffer != null && buffer.size() + (long) len > limit) {
+                        buffer.writeTo(out);
+                        buffer = null;
+                }
+                return buffer != null;
+        }
+}
@@ -0,0 +1,141 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.orbisgis.core.renderer.se.AreaSymbolizer;
+import org.orbisgis.core.renderer.se.LineSymbolizer;
+import org.orbisgis.core.renderer.se.PointSymbolizer;
+import org.orbisgis.core.renderer.se.Rule;
+import org.orbisgis.core.renderer.se.Style;
+import org.orbisgis.core.renderer.se.Symbolizer;
+import org.orbisgis.core.renderer.se.common.Uom;
+import org.orbisgis.core.renderer.se.graphic.Graphic;
+import org.orbisgis.core.renderer.se.graphic.GraphicCollection;
+import org.orbisgis.core.renderer.se.graphic.MarkGraphic;
+import org.orbisgis.core.renderer.se.graphic.ViewBox;
+import org.orbisgis.core.renderer.se.parameter.real.RealLiteral;
+import org.orbisgis.core.renderer.se.parameter.real.RealParameter;
+import org.orbisgis.core.renderer.se.stroke.PenStroke;
+import org.orbisgis.core.renderer.se.stroke.Stroke;
+
+/**
+ * Computes how far, in pixels, the symbols of a style are drawn around the geometries : half the width of the
+ * pen strokes and half the size of the marks. Only the sizes given as literals are taken into account, the
+ * ones computed from the features are ignored.
+ */
+final class SymbolTolerance {
+        private static final org.apache.log4j.Logger LOGGER = org.apache.log4j.Logger.getLogger(SymbolTolerance.class);
+        /**
+         * The size of a pixel in mm, as defined by the OGC.
+         */
+        private static final double PIXEL_MM = 0.28;
+
+        private SymbolTolerance() {
+        }
+
+        /**
+         * Gets the half size of the largest symbol of the given style.
+         * @param style The style, may be null.
+         * @param pixelSize The size of a pixel in map units, used for the sizes given in ground units.
+         * @return The half size in pixels, 0 if it is unknown.
+         */
+        static double getPixels(Style style, double pixelSize) {
+                double ret = 0;
+                if (style == null) {
+                        return ret;
+                }
+                for (Rule rule : style.getRules()) {
+                        for (Symbolizer s : rule.getCompositeSymbolizer().getSymbolizerList()) {
+                                Uom uom = s.getUom();
+                                if (s instanceof LineSymbolizer) {
+                                        ret = Math.max(ret, getPixels(((LineSymbolizer) s).getStroke(), uom, pixelSize));
+                                } else if (s instanceof AreaSymbolizer) {
+                                        ret = Math.max(ret, getPixels(((AreaSymbolizer) s).getStroke(), uom, pixelSize));
+                                } else if (s instanceof PointSymbolizer) {
+                                        GraphicCollection gc = ((PointSymbolizer) s).getGraphicCollection();
+                                        for (int i = 0; gc != null && i < gc.getNumGraphics(); i++) {
+                                                ret = Math.max(ret, getPixels(gc.getGraphic(i), uom, pixelSize));
+                                        }
+                                }
+                        }
+                }
+                return ret;
+        }
+
+        private static double getPixels(Stroke stroke, Uom uom, double pixelSize) {
+                if (stroke instanceof PenStroke) {
+                        return toPixels(((PenStroke) stroke).getWidth(), uom, pixelSize) / 2;
+                }
+                return 0;
+        }
+
+        private static double getPixels(Graphic graphic, Uom uom, double pixelSize) {
+                double ret = 0;
+                if (graphic instanceof MarkGraphic) {
+                        MarkGraphic mark = (MarkGraphic) graphic;
+                        ViewBox box = mark.getViewBox();
+                        if (box != null) {
+                                ret = Math.max(toPixels(box.getWidth(), uom, pixelSize),
+                                        toPixels(box.getHeight(), uom, pixelSize)) / 2;
+                        }
+                        ret += getPixels(mark.getStroke(), uom, pixelSize);
+                }
+                return ret;
+        }
+
+        private static double toPixels(RealParameter p, Uom uom, double pixelSize) {
+                if (!(p instanceof RealLiteral)) {
+                        return 0;
+                }
+                double value;
+                try {
+                        Double d = ((RealLiteral) p).getValue(null, -1);
+                        if (d == null) {
+                                return 0;
+                        }
+                        value = d;
+                } catch (Exception ex) {
+                        LOGGER.debug("Can't read the size of a symbol", ex);
+                        return 0;
+                }
+                if (uom == null || uom == Uom.PX) {
+                        return value;
+                } else if (uom == Uom.MM) {
+                        return value / PIXEL_MM;
+                } else if (uom == Uom.IN) {
+                        return value * 25.4 / PIXEL_MM;
+                } else if (uom == Uom.PT) {
+                        return value * 25.4 / 72 / PIXEL_MM;
+                } else if (uom == Uom.GM) {
+                        return value / pixelSize;
+                } else if (uom == Uom.GFT) {
+                        return value * 0.3048 / pixelSize;
+                }
+                return 0;
+        }
+}
@@ -0,0 +1,214 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A fixed grid of tiles : the CRS, the top left corner of the grid and the resolution of each zoom level. The
+ * resolution is halved at each level, and the tiles are numbered from the top left corner, columns going east and
+ * rows going south, as in WMTS.
+ */
+public final class TileMatrixSet {
+
+        /**
+         * The size of the tiles, in pixels.
+         */
+        public static final int TILE_SIZE = 256;
+        /**
+         * The spherical mercator grid used by most of the web mapping clients : one tile at level 0.
+         */
+        public static final TileMatrixSet EPSG_3857;
+        /**
+         * The geographic grid : two tiles at level 0, covering the world in longitude and latitude.
+         */
+        public static final TileMatrixSet EPSG_4326;
+        private static final Map<String, TileMatrixSet> SETS;
+        private static final double MERCATOR_BOUND = 20037508.342789244;
+
+        static {
+                EPSG_3857 = new TileMatrixSet("EPSG:3857", "EPSG:3857",
+                        -MERCATOR_BOUND, -MERCATOR_BOUND, MERCATOR_BOUND, MERCATOR_BOUND,
+                        2 * MERCATOR_BOUND / TILE_SIZE, 20);
+                EPSG_4326 = new TileMatrixSet("EPSG:4326", "EPSG:4326", -180, -90, 180, 90, 180d / TILE_SIZE, 18);
+                Map<String, TileMatrixSet> tmp = new LinkedHashMap<String, TileMatrixSet>();
+                tmp.put(EPSG_3857.getName(), EPSG_3857);
+                tmp.put(EPSG_4326.getName(), EPSG_4326);
+                SETS = Collections.unmodifiableMap(tmp);
+        }
+
+        private final String name;
+        private final String crs;
+        private final double minX;
+        private final double minY;
+        private final double maxX;
+        private final double maxY;
+        private final double resolution;
+        private final int maxZoom;
+
+        private TileMatrixSet(String name, String crs, double minX, double minY, double maxX, double maxY,
+                              double resolution, int maxZoom) {
+                this.name = name;
+                this.crs = crs;
+                this.minX = minX;
+                this.minY = minY;
+                this.maxX = maxX;
+                this.maxY = maxY;
+                this.resolution = resolution;
+                this.maxZoom = maxZoom;
+        }
+
+        /**
+         * Gets the tile matrix set with the given name.
+         * @param name The name of the set, case insensitive.
+         * @return The tile matrix set.
+         * @throws WMSException If there is no set with this name.
+         */
+        public static TileMatrixSet get(String name) throws WMSException {
+                for (TileMatrixSet set : SETS.values()) {
+                        if (set.getName().equalsIgnoreCase(name)) {
+                                return set;
+                        }
+                }
+                throw new WMSException("Unknown tile matrix set: " + name + ". The supported ones are "
+                        + SETS.keySet());
+        }
+
+        /**
+         * Gets the name of this set.
+         * @return The name of the set.
+         */
+        public String getName() {
+                return name;
+        }
+
+        /**
+         * Gets the CRS of the tiles.
+         * @return The CRS code.
+         */
+        public String getCrs() {
+                return crs;
+        }
+
+        /**
+         * Gets the deepest zoom level of this set.
+         * @return The maximum zoom level.
+         */
+        public int getMaxZoom() {
+                return maxZoom;
+        }
+
+        /**
+         * Gets the size of a pixel at the given zoom level, in CRS units.
+         * @param zoom The zoom level.
+         * @return The resolution.
+         */
+        public double getResolution(int zoom) {
+                return resolution / (1L << zoom);
+        }
+
+        /**
+         * Gets the number of tile columns at the given zoom level.
+         * @param zoom The zoom level.
+         * @return The number of columns.
+         */
+        public long getMatrixWidth(int zoom) {
+                return Math.round((maxX - minX) / (getResolution(zoom) * TILE_SIZE));
+        }
+
+        /**
+         * Gets the number of tile rows at the given zoom level.
+         * @param zoom The zoom level.
+         * @return The number of rows.
+         */
+        public long getMatrixHeight(int zoom) {
+                return Math.round((maxY - minY) / (getResolution(zoom) * TILE_SIZE));
+        }
+
+        /**
+         * Checks that the given tile exists in this set.
+         * @param zoom The zoom level.
+         * @param col The column of the tile.
+         * @param row The row of the tile.
+         * @throws WMSException If the tile is out of the grid.
+         */
+        public void checkTile(int zoom, long col, long row) throws WMSException {
+                if (zoom < 0 || zoom > maxZoom) {
+                        throw new WMSException("The zoom level must be between 0 and " + maxZoom + " in " + name);
+                }
+                if (col < 0 || col >= getMatrixWidth(zoom) || row < 0 || row >= getMatrixHeight(zoom)) {
+                        throw new WMSException("The tile " + col + "," + row + " is out of the tile matrix "
+                                + zoom + " of " + name);
+                }
+        }
+
+        /**
+         * Gets the bounding box of the given tile.
+         * @param zoom The zoom level.
+         * @param col The column of the tile.
+         * @param row The row of the tile.
+         * @return The bounding box as {minx, miny, maxx, maxy}.
+         */
+        public double[] getTileBBox(int zoom, long col, long row) {
+                double span = getResolution(zoom) * TILE_SIZE;
+                double x = minX + col * span;
+                double y = maxY - row * span;
+                return new double[]{x, y - span, x + span, y};
+        }
+
+        /**
+         * Gets the range of the tiles of the given zoom level that intersect the given bounding box.
+         * @param zoom The zoom level.
+         * @param bBox The bounding box as {minx, miny, maxx, maxy}, or null for the whole set.
+         * @return The range as {minCol, minRow, maxCol, maxRow}, bounds included.
+         */
+        public long[] getTileRange(int zoom, double[] bBox) {
+                long width = getMatrixWidth(zoom);
+                long height = getMatrixHeight(zoom);
+                if (bBox == null) {
+                        return new long[]{0, 0, width - 1, height - 1};
+                }
+                double span = getResolution(zoom) * TILE_SIZE;
+                long minCol = clamp((long) Math.floor((bBox[0] - minX) / span), width);
+                long maxCol = clamp((long) Math.ceil((bBox[2] - minX) / span) - 1, width);
+                long minRow = clamp((long) Math.floor((maxY - bBox[3]) / span), height);
+                long maxRow = clamp((long) Math.ceil((maxY - bBox[1]) / span) - 1, height);
+                return new long[]{minCol, minRow, maxCol, maxRow};
+        }
+
+        private static long clamp(long value, long size) {
+                return Math.max(0, Math.min(size - 1, value));
+        }
+
+        @Override
+        public String toString() {
+                return name;
+        }
+}
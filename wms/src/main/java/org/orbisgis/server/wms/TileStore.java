@@ -0,0 +1,286 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Stores the rendered tiles on disk, in a layer/style/tile matrix set/zoom/column/row hierarchy, so that
+ * they can be sent again without drawing anything. Tiles are removed when the layer or the style that have been
+ * used to draw them change. The tiles drawn before such a change are not stored : the callers read the
+ * {@link #getGeneration() generation} of the store before drawing and give it back to
+ * {@link #put(String, String, TileMatrixSet, String, int, long, long, long, byte[])}.
+ */
+public class TileStore implements LayerChangeListener {
+
+        private static final Logger LOGGER = Logger.getLogger(TileStore.class);
+        private final File root;
+        // Held for reading while a tile is moved in place, for writing while tiles are removed.
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private volatile long generation = 0;
+
+        /**
+         * Builds a store that writes its tiles in the given folder.
+         * @param root The root folder of the store.
+         */
+        public TileStore(File root) {
+                this.root = root;
+        }
+
+        /**
+         * Gets the root folder of this store.
+         * @return The root folder.
+         */
+        public File getRoot() {
+                return root;
+        }
+
+        /**
+         * Gets the tile with the given coordinates.
+         * @param layer The name of the layer.
+         * @param style The name of the style used to draw the layer.
+         * @param set The tile matrix set.
+         * @param format The MIME type of the tile.
+         * @param zoom The zoom level.
+         * @param col The column of the tile.
+         * @param row The row of the tile.
+         * @return The encoded tile, or null if it has not been stored.
+         */
+        public byte[] get(String layer, String style, TileMatrixSet set, String format, int zoom, long col, long row) {
+                File f = getFile(layer, style, set, format, zoom, col, row);
+                if (!f.isFile()) {
+                        return null;
+                }
+                InputStream in = null;
+                try {
+                        in = new FileInputStream(f);
+                        byte[] data = new byte[(int) f.length()];
+                        int read = 0;
+                        while (read < data.length) {
+                                int r = in.read(data, read, data.length - read);
+                                if (r < 0) {
+                                        return null;
+                                }
+                                read += r;
+                        }
+                        return data;
+                } catch (IOException ex) {
+                        LOGGER.debug("Can't read the tile " + f, ex);
+                        return null;
+                } finally {
+                        closeQuietly(in);
+                }
+        }
+
+        /**
+         * Gets the generation of the store, to read before drawing a tile and to give with it to
+         * {@link #put(String, String, TileMatrixSet, String, int, long, long, long, byte[])}. It changes each time
+         * tiles are removed.
+         * @return The current generation.
+         */
+        public long getGeneration() {
+                return generation;
+        }
+
+        /**
+         * Stores the given tile, unless some tiles have been removed since it started being drawn : it may then
+         * use the former definition of a layer or a style.
+         * @param layer The name of the layer.
+         * @param style The name of the style used to draw the layer.
+         * @param set The tile matrix set.
+         * @param format The MIME type of the tile.
+         * @param zoom The zoom level.
+         * @param col The column of the tile.
+         * @param row The row of the tile.
+         * @param generation The generation of the store before the tile was drawn.
+         * @param data The encoded tile.
+         */
+        public void put(String layer, String style, TileMatrixSet set, String format, int zoom, long col, long row,
+                        long generation, byte[] data) {
+                File f = getFile(layer, style, set, format, zoom, col, row);
+                File folder = f.getParentFile();
+                if (!folder.isDirectory() && !folder.mkdirs()) {
+                        LOGGER.warn("Can't create the tile folder " + folder);
+                        return;
+                }
+                // Tiles are written aside and then renamed, so that a concurrent reader never gets half a tile.
+                File tmp = new File(folder, f.getName() + "." + Thread.currentThread().getId() + ".tmp");
+                OutputStream out = null;
+                try {
+                        out = new FileOutputStream(tmp);
+                        out.write(data);
+                } catch (IOException ex) {
+                        LOGGER.warn("Can't write the tile " + f, ex);
+                        return;
+                } finally {
+                        closeQuietly(out);
+                }
+                lock.readLock().lock();
+                try {
+                        if (generation != this.generation) {
+                                delete(tmp);
+                        } else if (!tmp.renameTo(f)) {
+                                if (!f.delete() || !tmp.renameTo(f)) {
+                                        LOGGER.debug("Can't move the tile " + tmp + " to " + f);
+                                        delete(tmp);
+                                }
+                        }
+                } finally {
+                        lock.readLock().unlock();
+                }
+        }
+
+        /**
+         * Removes all the tiles of the given layer.
+         * @param layer The name of the layer.
+         */
+        public void invalidateLayer(String layer) {
+                lock.writeLock().lock();
+                try {
+                        generation++;
+                        delete(new File(root, encode(layer)));
+                } finally {
+                        lock.writeLock().unlock();
+                }
+        }
+
+        /**
+         * Removes all the tiles drawn with the given style.
+         * @param style The name of the style.
+         */
+        public void invalidateStyle(String style) {
+                lock.writeLock().lock();
+                try {
+                        generation++;
+                        File[] layers = root.listFiles();
+                        if (layers != null) {
+                                for (File layer : layers) {
+                                        delete(new File(layer, encode(style)));
+                                }
+                        }
+                } finally {
+                        lock.writeLock().unlock();
+                }
+        }
+
+        /**
+         * Removes all the tiles.
+         */
+        public void clear() {
+                lock.writeLock().lock();
+                try {
+                        generation++;
+                        File[] layers = root.listFiles();
+                        if (layers != null) {
+                                for (File layer : layers) {
+                                        delete(layer);
+                                }
+                        }
+                } finally {
+                        lock.writeLock().unlock();
+                }
+        }
+
+        @Override
+        public void layerAdded(String name) {
+                invalidateLayer(name);
+        }
+
+        @Override
+        public void layerRemoved(String name) {
+                invalidateLayer(name);
+        }
+
+        @Override
+        public void layerRenamed(String oldName, String newName) {
+                invalidateLayer(oldName);
+                invalidateLayer(newName);
+        }
+
+        private File getFile(String layer, String style, TileMatrixSet set, String format, int zoom, long col,
+                             long row) {
+                File folder = new File(new File(new File(root, encode(layer)), encode(style)), encode(set.getName()));
+                folder = new File(new File(folder, Integer.toString(zoom)), Long.toString(col));
+                return new File(folder, row + "." + getExtension(format));
+        }
+
+        private static String getExtension(String format) {
+                ImageFormats f = ImageFormats.fromString(format);
+                if (f == ImageFormats.PNG) {
+                        return "png";
+                } else if (f == ImageFormats.PNG8) {
+                        return "8bit.png";
+                } else if (f == ImageFormats.JPEG) {
+                        return "jpg";
+                } else if (f == ImageFormats.TIFF) {
+                        return "tif";
+                }
+                return encode(format);
+        }
+
+        private static String encode(String name) {
+                try {
+                        return URLEncoder.encode(name, "UTF-8");
+                } catch (UnsupportedEncodingException ex) {
+                        throw new RuntimeException(ex);
+                }
+        }
+
+        private static void delete(File f) {
+                File[] children = f.listFiles();
+                if (children != null) {
+                        for (File c : children) {
+                                delete(c);
+                        }
+                }
+                if (f.exists() && !f.delete()) {
+                        LOGGER.debug("Can't delete " + f);
+                }
+        }
+
+        private static void closeQuietly(java.io.Closeable c) {
+                if (c != null) {
+                        try {
+                                c.close();
+                        } catch (IOException ex) {
+                                LOGGER.debug("Can't close the tile stream", ex);
+                        }
+                }
+        }
+}
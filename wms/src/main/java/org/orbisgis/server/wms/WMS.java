@@ -33,13 +33,31 @@ import org.orbisgis.core.context.main.MainContext;
 import org.orbisgis.core.renderer.se.Style;
 import org.orbisgis.core.workspace.CoreWorkspace;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * Entry point for the WMS Service : we get requests here, we decide which handler we'll use to process them.
@@ -53,7 +71,36 @@ public final class WMS {
         private GetCapabilitiesHandler getCapHandler;
         private GetMapHandler getMap;
         private GetFeatureInfoHandler getfeatureInfo;
+        private GetMapCache mapCache;
+        private GetTileHandler getTile;
+        private MetaTileRenderer metaTiles;
+        private ReprojectionManager reprojection;
+        private SpatialIndexService indexes;
+        private LayerPool layerPool;
+        private volatile AdmissionController admission;
+        private volatile RequestExecutor executor;
+        private ExecutorService seeder;
+        private long seedMaxTiles = DEFAULT_SEED_MAX_TILES;
+        private Map<String, Layer> layers = Collections.emptyMap();
+        private WMSMetrics metrics = new WMSMetrics();
         private static final Logger LOGGER = Logger.getLogger(WMS.class);
+        private static final int DEFAULT_METATILE_SIZE = 4;
+        /**
+         * The default number of tiles a seeding request can cover.
+         */
+        public static final int DEFAULT_SEED_MAX_TILES = 100000;
+        /**
+         * The number of seeding requests that can wait for the seeding thread.
+         */
+        private static final int SEED_QUEUE_SIZE = 16;
+        /**
+         * The size, in bytes, up to which a map is shared by the identical requests received while it is drawn. The
+         * maps are kept on the heap until they are over, up to this size or to the size of the memory tier of the
+         * cache if it is smaller, and streamed to the client beyond.
+         */
+        private static final long MAX_SHARED_MAP_SIZE = 16L * 1024L * 1024L;
+        private final RequestCoalescer<SharedMap> coalescer = new RequestCoalescer<SharedMap>();
+        private final ConcurrentMap<String, Object> metaTileLocks = new ConcurrentHashMap<String, Object>();
 
         static {
                 initLogger(Level.INFO.toString());
@@ -104,18 +151,251 @@ public final class WMS {
                     val = "";
                 }
                 initLogger(val);
+                Object filter = props.getProperty(WMSProperties.PNG_FILTER);
+                MapImageWriter.setPNGEncoder(new PNGEncoder(
+                        props.getIntProperty(WMSProperties.PNG_COMPRESSION, MapImageWriter.DEFAULT_PNG_COMPRESSION),
+                        PNGEncoder.getFilter(filter instanceof String ? (String) filter : null,
+                                PNGEncoder.Filter.ADAPTIVE)));
 
-                Map<String, Layer> layerMap = new HashMap<String, Layer>();
-                getMap = new GetMapHandler(layerMap);
-                getfeatureInfo = new GetFeatureInfoHandler(layerMap);
+                // Read by the request threads while the source listener updates it.
+                Map<String, Layer> layerMap = new ConcurrentHashMap<String, Layer>();
+                reprojection = new ReprojectionManager(props,
+                        new File(coreWorkspace.getWorkspaceFolder(), "reprojected"), layerMap);
+                getMap = new GetMapHandler(layerMap, props, reprojection);
+                indexes = SpatialIndexService.create(props, reprojection);
+                reprojection.setIndexes(indexes);
+                getfeatureInfo = new GetFeatureInfoHandler(layerMap, reprojection, indexes);
+                getfeatureInfo.setTolerance(props.getIntProperty(WMSProperties.FEATURE_INFO_TOLERANCE,
+                        GetFeatureInfoHandler.DEFAULT_TOLERANCE));
+                layers = layerMap;
+                getMap.setMetrics(metrics);
+                getfeatureInfo.setMetrics(metrics);
+                layerPool = LayerPool.create(props);
+                admission = AdmissionController.create(props);
+                executor = RequestExecutor.create(props);
+                metrics.setExecutor(executor);
+                getMap.setLayerPool(layerPool);
+                getfeatureInfo.setLayerPool(layerPool);
+                registerMetrics();
                 this.serverStyles = sStyles;
-                getCapHandler = new GetCapabilitiesHandler(layerMap, layerStyles, props);
+                getCapHandler = new GetCapabilitiesHandler(layerMap, layerStyles, props, LayerExtentCache.create(props,
+                        new File(coreWorkspace.getWorkspaceFolder(), "layer-extents.properties")), reprojection);
+                mapCache = new GetMapCache(props);
+                getCapHandler.addLayerChangeListener(mapCache);
+                getCapHandler.addLayerChangeListener(reprojection);
+                reprojection.warmUp();
+                getCapHandler.addLayerChangeListener(indexes);
+                getCapHandler.addLayerChangeListener(layerPool);
+                indexes.buildAll(new ArrayList<String>(layerMap.keySet()));
+                Object tiles = props.getProperty(WMSProperties.TILE_FOLDER);
+                TileStore tileStore = new TileStore(new File(tiles instanceof String ? (String) tiles : "tiles"));
+                getCapHandler.addLayerChangeListener(tileStore);
+                int metaTileSize = props.getIntProperty(WMSProperties.METATILE_SIZE, DEFAULT_METATILE_SIZE);
+                getTile = new GetTileHandler(getMap, tileStore, metaTileSize);
+                metaTiles = new MetaTileRenderer(getMap, metaTileSize);
+                seedMaxTiles = props.getIntProperty(WMSProperties.SEED_MAX_TILES, DEFAULT_SEED_MAX_TILES);
+                // A single thread of low priority, so that seeding never competes with the requests for long.
+                seeder = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<Runnable>(SEED_QUEUE_SIZE),
+                        new DaemonThreadFactory("wms-seed", Thread.MIN_PRIORITY));
+        }
+
+        /**
+         * Must be called when the style with the given name has been added, replaced or removed in the server
+         * styles, so that the maps drawn with its former definition are not served anymore and the capabilities
+         * are built again.
+         * @param name The name of the style.
+         */
+        public void styleChanged(String name) {
+                if (getCapHandler != null) {
+                        getCapHandler.invalidate();
+                }
+                if (layerPool != null) {
+                        layerPool.invalidateStyle(name);
+                }
+                if (mapCache != null) {
+                        mapCache.invalidateStyle(name);
+                        getTile.getStore().invalidateStyle(name);
+                }
+        }
+
+        /**
+         * Must be called when all the server styles have been removed.
+         */
+        public void stylesCleared() {
+                if (getCapHandler != null) {
+                        getCapHandler.invalidate();
+                }
+                if (layerPool != null) {
+                        layerPool.clear();
+                }
+                if (mapCache != null) {
+                        mapCache.clear();
+                        getTile.getStore().clear();
+                }
+        }
+
+        /**
+         * Renders and stores the tiles of the given layer between the given zoom levels, so that the
+         * matching GetTile requests are answered without drawing anything.
+         * @param layer The name of the layer.
+         * @param style The name of the style, empty for the default one.
+         * @param tileMatrixSet The name of the tile matrix set.
+         * @param format The MIME type of the tiles.
+         * @param minZoom The first zoom level to render.
+         * @param maxZoom The last zoom level to render, included.
+         * @param bBox The area to render as {minx, miny, maxx, maxy} in the CRS of the set, or null for the whole set.
+         * @return The number of tiles that have been rendered.
+         * @throws WMSException If the parameters are invalid, if they cover more than
+         * {@link WMSProperties#SEED_MAX_TILES} tiles or if a tile can't be drawn.
+         */
+        public long seed(String layer, String style, String tileMatrixSet, String format, int minZoom, int maxZoom,
+                         double[] bBox) throws WMSException {
+                checkSeedSize(tileMatrixSet, minZoom, maxZoom, bBox);
+                return getTile.seed(layer, style, tileMatrixSet, format, minZoom, maxZoom, bBox, serverStyles);
+        }
+
+        /**
+         * Renders and stores the tiles of the given layer between the given zoom levels in the seeding thread of
+         * the server, which has a low priority and does not use the threads of the requests.
+         * @param layer The name of the layer.
+         * @param style The name of the style, empty for the default one.
+         * @param tileMatrixSet The name of the tile matrix set.
+         * @param format The MIME type of the tiles.
+         * @param minZoom The first zoom level to render.
+         * @param maxZoom The last zoom level to render, included.
+         * @param bBox The area to render as {minx, miny, maxx, maxy} in the CRS of the set, or null for the whole set.
+         * @return The number of tiles covered by the request.
+         * @throws WMSException If the parameters are invalid or if they cover more than
+         * {@link WMSProperties#SEED_MAX_TILES} tiles.
+         * @throws RejectedExecutionException If too many seeding requests are already waiting.
+         */
+        public long seedInBackground(final String layer, final String style, final String tileMatrixSet,
+                                     final String format, final int minZoom, final int maxZoom, final double[] bBox)
+                throws WMSException {
+                long count = checkSeedSize(tileMatrixSet, minZoom, maxZoom, bBox);
+                seeder.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                                try {
+                                        getTile.seed(layer, style, tileMatrixSet, format, minZoom, maxZoom, bBox,
+                                                serverStyles);
+                                } catch (WMSException ex) {
+                                        LOGGER.error("Seeding of " + layer + " failed.", ex);
+                                } catch (RuntimeException ex) {
+                                        LOGGER.error("Seeding of " + layer + " failed.", ex);
+                                }
+                        }
+                });
+                return count;
+        }
+
+        private long checkSeedSize(String tileMatrixSet, int minZoom, int maxZoom, double[] bBox)
+                throws WMSException {
+                long count = getTile.countTiles(tileMatrixSet, minZoom, maxZoom, bBox);
+                if (seedMaxTiles > 0 && count > seedMaxTiles) {
+                        throw new WMSException("The request covers " + count + " tiles, no more than " + seedMaxTiles
+                                + " can be seeded at once");
+                }
+                return count;
+        }
+
+        /**
+         * Gets the GetTile handler, that draws the WMTS tiles.
+         * @return The GetTile handler.
+         */
+        public GetTileHandler getTileHandler() {
+                return getTile;
+        }
+
+        /**
+         * Gets the pool of the rasters the maps are drawn in, that counts its hits and misses.
+         * @return The raster pool of the GetMap handler.
+         */
+        public RasterPool getRasterPool() {
+                return getMap.getRasterPool();
+        }
+
+        /**
+         * Gets the cache of the GetMap answers.
+         * @return The cache used by this server.
+         */
+        public GetMapCache getMapCache() {
+                return mapCache;
+        }
+
+        /**
+         * Gets the metrics of this server, that are also registered in the platform MBean server as
+         * {@link WMSMetrics#OBJECT_NAME}.
+         * @return The metrics of the requests.
+         */
+        public WMSMetrics getMetrics() {
+                return metrics;
+        }
+
+        /**
+         * @return The pools that run the requests given to {@link #processRequestsAsync}, null before
+         * {@link #init}.
+         */
+        public RequestExecutor getExecutor() {
+                return executor;
+        }
+
+        /**
+         * @return The controller that admits or rejects the requests, null before {@link #init}.
+         */
+        public AdmissionController getAdmissionController() {
+                return admission;
+        }
+
+        private void registerMetrics() {
+                try {
+                        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                        ObjectName name = new ObjectName(WMSMetrics.OBJECT_NAME);
+                        if (server.isRegistered(name)) {
+                                server.unregisterMBean(name);
+                        }
+                        server.registerMBean(metrics, name);
+                } catch (JMException ex) {
+                        LOGGER.warn("The WMS metrics can't be registered in the MBean server.", ex);
+                }
+        }
+
+        private void unregisterMetrics() {
+                try {
+                        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                        ObjectName name = new ObjectName(WMSMetrics.OBJECT_NAME);
+                        if (server.isRegistered(name)) {
+                                server.unregisterMBean(name);
+                        }
+                } catch (JMException ex) {
+                        LOGGER.warn("The WMS metrics can't be unregistered from the MBean server.", ex);
+                }
         }
 
         /**
          * Free resources
          */
         public void destroy() {
+                unregisterMetrics();
+                if (executor != null) {
+                        executor.shutdown();
+                }
+                if (seeder != null) {
+                        seeder.shutdownNow();
+                }
+                if (getCapHandler != null) {
+                        getCapHandler.dispose();
+                }
+                if (reprojection != null) {
+                        reprojection.dispose();
+                }
+                if (indexes != null) {
+                        indexes.dispose();
+                }
+                if (layerPool != null) {
+                        layerPool.clear();
+                }
                 getContext().dispose();
         }
 
@@ -147,17 +427,188 @@ public final class WMS {
          * @throws UnsupportedEncodingException
          */ public void processRequests(Map<String, String[]> qp,
                                         OutputStream output, WMSResponse wmsResponse) throws WMSException, UnsupportedEncodingException {
-                Set<Map.Entry<String, String[]>> entries = qp.entrySet();
+                Map<String, String[]> queryParameters = normalize(qp);
+                List<String> requested = getRequestedLayers(queryParameters);
+                serve(queryParameters, requested, admit(queryParameters, requested, wmsResponse), output, wmsResponse);
+        }
+
+        /**
+         * Processes the request in a thread of the render pool if it draws a map, in a thread of the I/O pool
+         * otherwise, and closes the output once the answer has been written. The output is failed with the error
+         * that prevented the answer from being completed, if any. The admission control runs before the request
+         * is queued, so that a request over the limits, or one that finds the pool full, is answered at once with
+         * an error.
+         *
+         * @param qp The parameters that have been put in the GET query.
+         * @param output The stream the answer is written in.
+         * @param wmsResponse The object used by play in HTTP when our processing is finished.
+         */
+        public void processRequestsAsync(Map<String, String[]> qp, final ChunkedOutputStream output,
+                                         final WMSResponse wmsResponse) {
+                final Map<String, String[]> queryParameters = normalize(qp);
+                final List<String> requested = getRequestedLayers(queryParameters);
+                final AdmissionController.Ticket ticket = admit(queryParameters, requested, wmsResponse);
+                Runnable task = new Runnable() {
+                        @Override
+                        public void run() {
+                                try {
+                                        serve(queryParameters, requested, ticket, output, wmsResponse);
+                                        output.close();
+                                } catch (Throwable t) {
+                                        LOGGER.error("The WMS request failed.", t);
+                                        output.fail(t);
+                                }
+                        }
+                };
+                if (ticket != null && !ticket.isAdmitted()) {
+                        // The rejection is cheap : it does not wait behind the queued requests.
+                        task.run();
+                        return;
+                }
+                Executor pool = isRenderRequest(queryParameters) ? executor.getRenderExecutor()
+                        : executor.getIoExecutor();
+                try {
+                        pool.execute(task);
+                } catch (RejectedExecutionException e) {
+                        if (ticket != null) {
+                                ticket.release();
+                        }
+                        wmsResponse.setHeader("Retry-After", "1");
+                        exceptionDescription(wmsResponse, output, "The server is too busy to answer this request. "
+                                + "Please try again later.", AdmissionController.SERVICE_UNAVAILABLE);
+                        metrics.recordRequest(Collections.<String>emptyList(), "text/xml;charset=UTF-8", true, 0);
+                        try {
+                                output.close();
+                        } catch (IOException ex) {
+                                output.fail(ex);
+                        }
+                }
+        }
+
+        /**
+         * Upper-cases the names of the parameters.
+         */
+        private Map<String, String[]> normalize(Map<String, String[]> qp) {
                 Map<String, String[]> queryParameters = new HashMap<String,String[]>();
-                for(Map.Entry<String, String[]> e : entries){
+                for(Map.Entry<String, String[]> e : qp.entrySet()){
                     queryParameters.put(e.getKey().toUpperCase(), e.getValue());
                 }
-                LOGGER.info("Received request with following parameters: "+parametersForLogging(queryParameters));
+                if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Received request with following parameters: "
+                                + parametersForLogging(queryParameters));
+                }
+                return queryParameters;
+        }
+
+        /**
+         * Answers a request that has been through the admission control, and releases its ticket.
+         *
+         * @param ticket The ticket given by the admission control, or null if the request does not need one.
+         */
+        private void serve(Map<String, String[]> queryParameters, List<String> requested,
+                           AdmissionController.Ticket ticket, OutputStream output, WMSResponse wmsResponse)
+                throws WMSException, UnsupportedEncodingException {
+                CountingOutputStream counter = new CountingOutputStream(output);
+                ResponseRecorder recorder = new ResponseRecorder(wmsResponse);
+                boolean failed = true;
+                try {
+                        if (ticket == null || ticket.isAdmitted()) {
+                                dispatch(queryParameters, counter, recorder);
+                        } else {
+                                if (ticket.getCode() != AdmissionController.BAD_REQUEST) {
+                                        recorder.setHeader("Retry-After", "1");
+                                }
+                                exceptionDescription(recorder, counter, ticket.getReason(), ticket.getCode());
+                        }
+                        failed = false;
+                } finally {
+                        if (ticket != null) {
+                                ticket.release();
+                        }
+                        metrics.recordRequest(requested, recorder.getContentType(),
+                                failed || recorder.getResponseCode() >= 400, counter.getCount());
+                }
+        }
+
+        private static boolean isRenderRequest(Map<String, String[]> qp) {
+                for (Map.Entry<String, String[]> e : qp.entrySet()) {
+                        if (e.getKey().equalsIgnoreCase("REQUEST") && e.getValue().length > 0) {
+                                String type = e.getValue()[0];
+                                return type.equalsIgnoreCase("getmap") || type.equalsIgnoreCase("gettile");
+                        }
+                }
+                return false;
+        }
+
+        /**
+         * Asks the admission controller whether a GetMap, GetFeatureInfo or GetTile request can be served. The
+         * other requests are cheap and are always served.
+         * @return The ticket of the request, or null if it does not need one.
+         */
+        private AdmissionController.Ticket admit(Map<String, String[]> queryParameters, List<String> requested,
+                                                 WMSResponse wmsResponse) {
+                AdmissionController ac = admission;
+                String[] type = queryParameters.get("REQUEST");
+                if (ac == null || type == null || type.length == 0) {
+                        return null;
+                }
+                String requestType = type[0];
+                if (!requestType.equalsIgnoreCase("getmap") && !requestType.equalsIgnoreCase("getfeatureinfo")
+                        && !requestType.equalsIgnoreCase("gettile")) {
+                        return null;
+                }
+                return ac.admit(wmsResponse.getRemoteAddress(), requested,
+                        parseSize(queryParameters.get(GetMapParameters.WIDTH)),
+                        parseSize(queryParameters.get(GetMapParameters.HEIGHT)));
+        }
+
+        /**
+         * Reads a WIDTH or HEIGHT parameter for the admission control. Invalid values are read as 0 and are
+         * reported by the parsing of the request.
+         */
+        private static int parseSize(String[] value) {
+                if (value == null || value.length == 0) {
+                        return 0;
+                }
+                try {
+                        return Math.max(0, Integer.parseInt(value[0].trim()));
+                } catch (NumberFormatException e) {
+                        return 0;
+                }
+        }
+
+        /**
+         * Gets the registered layers named in the LAYERS or LAYER parameter. Unknown names are ignored so that the
+         * metrics stay bounded.
+         */
+        private List<String> getRequestedLayers(Map<String, String[]> queryParameters) {
+                String[] names = queryParameters.get(GetMapParameters.LAYERS);
+                if (names == null) {
+                        names = queryParameters.get(GetTileParameters.LAYER);
+                }
+                List<String> ret = new ArrayList<String>();
+                if (names != null && names.length > 0) {
+                        for (String name : names[0].split(",")) {
+                                if (layers.containsKey(name)) {
+                                        ret.add(name);
+                                }
+                        }
+                }
+                return ret;
+        }
+
+        private void dispatch(Map<String, String[]> queryParameters, CountingOutputStream output,
+                              WMSResponse wmsResponse)
+                throws WMSException, UnsupportedEncodingException {
                 //Splitting request parameters to determine the requestType to execute
                 String service = "undefined";
                 if (queryParameters.containsKey("SERVICE")) {
                         service = queryParameters.get("SERVICE")[0];
                 }
+                if (service.equalsIgnoreCase("wmts")) {
+                        processTileRequest(queryParameters, output, wmsResponse);
+                        return;
+                }
                 if (!service.equalsIgnoreCase("wms")) {
                         exceptionDescription(wmsResponse, output, "The service specified is either unsupported or " +
                                 "wrongly requested. Please specify WMS service as it is the only one supported by this server");
@@ -181,16 +632,24 @@ public final class WMS {
                                 return;
                         }
                         try{
+                            long start = metrics.start();
                             GetMapParameters mapParams = new GetMapParameters(queryParameters);
-                            getMap.getMap(mapParams, output, wmsResponse, serverStyles);
+                            metrics.record(WMSMetrics.Phase.PARSE, start);
+                            getCachedMap(mapParams, output, wmsResponse);
                         } catch(WMSException e){
+                            if (output.getCount() > 0) {
+                                // Part of the map has been sent : the answer can only be aborted.
+                                throw e;
+                            }
                             exceptionDescription(wmsResponse, output, e.getMessage());
                             return;
                         }
                 } else if (requestType.equalsIgnoreCase("getcapabilities")) {
                         getCapHandler.getCap(output, wmsResponse);
                 }else if (requestType.equalsIgnoreCase("getfeatureinfo")){
+                    long start = metrics.start();
                     GetFeatureInfoParameters params = new GetFeatureInfoParameters(queryParameters);
+                    metrics.record(WMSMetrics.Phase.PARSE, start);
                     getfeatureInfo.getFeatureInfo(params, output, wmsResponse, serverStyles);
                 } else {
                         exceptionDescription(wmsResponse, output, "The requested request type is not supported or wrongly "
@@ -199,6 +658,217 @@ public final class WMS {
                 }
         }
 
+        private void processTileRequest(Map<String, String[]> queryParameters, OutputStream output,
+                                        WMSResponse wmsResponse) throws WMSException, UnsupportedEncodingException {
+                String requestType = "undefined";
+                if (queryParameters.containsKey("REQUEST")) {
+                        requestType = queryParameters.get("REQUEST")[0];
+                }
+                if (!requestType.equalsIgnoreCase("gettile")) {
+                        exceptionDescription(wmsResponse, output, "The requested request type is not supported. "
+                                + "GetTile is the only WMTS request supported by this server.");
+                        return;
+                }
+                try {
+                        long start = metrics.start();
+                        GetTileParameters tileParams = new GetTileParameters(queryParameters);
+                        metrics.record(WMSMetrics.Phase.PARSE, start);
+                        getTile.getTile(tileParams, output, wmsResponse, serverStyles);
+                } catch (WMSException e) {
+                        exceptionDescription(wmsResponse, output, e.getMessage());
+                }
+        }
+
+        private void getCachedMap(GetMapParameters mapParams, OutputStream output, WMSResponse wmsResponse)
+                throws WMSException, UnsupportedEncodingException {
+                String key = mapParams.getCacheKey();
+                if (key == null) {
+                        getMap.getMap(mapParams, output, wmsResponse, serverStyles);
+                        return;
+                }
+                try {
+                        if (mapCache.isEnabled()) {
+                                GetMapCache.CachedMap cached = mapCache.get(key);
+                                if (cached != null) {
+                                        wmsResponse.setContentType(cached.getContentType());
+                                        wmsResponse.setResponseCode(200);
+                                        output.write(cached.getData());
+                                        return;
+                                }
+                                if (mapParams.isTiled() && metaTiles.supports(mapParams.getImageFormat())
+                                        && getTiledMap(mapParams, key, output, wmsResponse)) {
+                                        return;
+                                }
+                        }
+                        getSharedMap(mapParams, key, output, wmsResponse);
+                } catch (IOException ex) {
+                        throw new WMSException("Can't write the map in the output stream", ex);
+                }
+        }
+
+        /**
+         * Draws the requested map once for all the identical requests received while it is drawn. The map is encoded
+         * in memory and handed to all of them once it is over, before any of them sends it, so that a slow client
+         * does not hold the others back. The other ones draw it themselves if it has failed or if it is larger than
+         * {@link #MAX_SHARED_MAP_SIZE}, in which case the first one streams it while it is encoded.
+         */
+        private void getSharedMap(final GetMapParameters mapParams, final String key, final OutputStream output,
+                                  final WMSResponse wmsResponse) throws WMSException, IOException {
+                RequestCoalescer.Shared<SharedMap> shared;
+                try {
+                        shared = coalescer.execute(key, new Callable<SharedMap>() {
+                                @Override
+                                public SharedMap call() throws Exception {
+                                        // The map is kept to be shared and stored if it is not too large, and
+                                        // streamed otherwise.
+                                        long generation = mapCache.getGeneration();
+                                        long memory = mapCache.getMaxMemoryEntrySize();
+                                        SpillingOutputStream buffer = new SpillingOutputStream(output,
+                                                memory > 0 ? Math.min(MAX_SHARED_MAP_SIZE, memory) : MAX_SHARED_MAP_SIZE);
+                                        ResponseRecorder recorder = new ResponseRecorder(wmsResponse);
+                                        getMap.getMap(mapParams, buffer, recorder, serverStyles);
+                                        byte[] data = buffer.getBuffer();
+                                        if (data == null) {
+                                                return null;
+                                        }
+                                        if (recorder.isImage() && data.length <= mapCache.getMaxEntrySize()) {
+                                                mapCache.put(key, generation, mapParams, recorder.getContentType(),
+                                                        data);
+                                        }
+                                        return new SharedMap(recorder.getContentType(), recorder.getResponseCode(),
+                                                data);
+                                }
+                        });
+                } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new WMSException("Interrupted while waiting for an identical map", ex);
+                } catch (ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        if (cause instanceof WMSException) {
+                                throw (WMSException) cause;
+                        } else if (cause instanceof IOException) {
+                                throw (IOException) cause;
+                        } else if (cause instanceof RuntimeException) {
+                                throw (RuntimeException) cause;
+                        }
+                        throw new WMSException(cause);
+                }
+                SharedMap map = shared.getValue();
+                if (shared.isLeader()) {
+                        // Sent once the followers have been released.
+                        if (map != null) {
+                                output.write(map.data);
+                        }
+                        return;
+                }
+                if (map == null) {
+                        getMap.getMap(mapParams, output, wmsResponse, serverStyles);
+                        return;
+                }
+                if (map.contentType != null) {
+                        wmsResponse.setContentType(map.contentType);
+                }
+                wmsResponse.setResponseCode(map.responseCode < 0 ? 200 : map.responseCode);
+                output.write(map.data);
+        }
+
+        /**
+         * Draws the metatile that contains the requested WMS-C tile and puts all its tiles in the cache. The tiles
+         * are expected to be aligned on a grid whose cells have the size of the requested bounding box, as done by
+         * the tiled clients for the usual tile matrix sets.
+         * @return false if the requested map is not aligned on such a grid, in which case nothing has been written.
+         */
+        private boolean getTiledMap(GetMapParameters mapParams, String key, OutputStream output,
+                                    WMSResponse wmsResponse) throws WMSException, IOException {
+                double[] bBox = mapParams.getbBox();
+                double spanX = bBox[2] - bBox[0];
+                double spanY = bBox[3] - bBox[1];
+                long col = Math.round(bBox[0] / spanX);
+                long row = Math.round(bBox[1] / spanY);
+                if (Math.abs(col * spanX - bBox[0]) > spanX * 1e-6 || Math.abs(row * spanY - bBox[1]) > spanY * 1e-6) {
+                        return false;
+                }
+                int n = metaTiles.getSize();
+                long col0 = floor(col, n);
+                long row0 = floor(row, n);
+                int width = mapParams.getWidth();
+                int height = mapParams.getHeight();
+                GetMapParameters meta = mapParams.withBBox(
+                        new double[]{col0 * spanX, row0 * spanY, (col0 + n) * spanX, (row0 + n) * spanY},
+                        n * width, n * height);
+                byte[] tile;
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                // The sibling tiles requested meanwhile wait for the metatile drawn by the first one.
+                String lockKey = meta.getCacheKey();
+                Object lock = new Object();
+                Object existing = metaTileLocks.putIfAbsent(lockKey, lock);
+                try {
+                        synchronized (existing == null ? lock : existing) {
+                                GetMapCache.CachedMap cached = mapCache.get(key);
+                                if (cached != null) {
+                                        wmsResponse.setContentType(cached.getContentType());
+                                        wmsResponse.setResponseCode(200);
+                                        tile = cached.getData();
+                                } else {
+                                        tile = renderMetaTile(mapParams, meta, key, col0, row0, col - col0,
+                                                row0 + n - 1 - row, buffer, wmsResponse);
+                                }
+                        }
+                } finally {
+                        if (existing == null) {
+                                metaTileLocks.remove(lockKey, lock);
+                        }
+                }
+                if (tile == null) {
+                        buffer.writeTo(output);
+                } else {
+                        output.write(tile);
+                }
+                return true;
+        }
+
+        /**
+         * Draws the metatile whose lower left tile is at (col0, row0) in the grid, puts all its tiles in the cache
+         * and returns the tile (i, j) of the block, counted from its upper left corner.
+         * @return The tile, or null if the metatile can't be drawn, the error being written in the buffer.
+         */
+        private byte[] renderMetaTile(GetMapParameters mapParams, GetMapParameters meta, String key, long col0,
+                                      long row0, long i, long j, ByteArrayOutputStream buffer,
+                                      WMSResponse wmsResponse) throws WMSException {
+                double[] bBox = mapParams.getbBox();
+                double spanX = bBox[2] - bBox[0];
+                double spanY = bBox[3] - bBox[1];
+                int n = metaTiles.getSize();
+                long generation = mapCache.getGeneration();
+                ResponseRecorder recorder = new ResponseRecorder(wmsResponse);
+                byte[][][] tiles = metaTiles.render(meta, n, n, buffer, recorder, serverStyles);
+                if (tiles == null) {
+                        return null;
+                }
+                for (int c = 0; c < n; c++) {
+                        for (int r = 0; r < n; r++) {
+                                // The rows of the image go down while the rows of the grid go up.
+                                long tileRow = row0 + n - 1 - r;
+                                String tileKey = mapParams.withBBox(new double[]{(col0 + c) * spanX, tileRow * spanY,
+                                        (col0 + c + 1) * spanX, (tileRow + 1) * spanY}, mapParams.getWidth(),
+                                        mapParams.getHeight()).getCacheKey();
+                                mapCache.put(tileKey, generation, mapParams, recorder.getContentType(),
+                                        tiles[c][r]);
+                        }
+                }
+                byte[] tile = tiles[(int) i][(int) j];
+                mapCache.put(key, generation, mapParams, recorder.getContentType(), tile);
+                return tile;
+        }
+
+        private static long floor(long value, int n) {
+                long q = value / n;
+                if (value % n != 0 && value < 0) {
+                        q--;
+                }
+                return q * n;
+        }
+
         /**
          * Class constructor
          *
@@ -251,4 +921,19 @@ public final class WMS {
                 pr.append(errorMessage).append("</ServiceException></ServiceExceptionReport>");
                 pr.flush();
         }
+
+        /**
+         * A map drawn for a request and shared with the identical requests received meanwhile.
+         */
+        private static final class SharedMap {
+                private final String contentType;
+                private final int responseCode;
+                private final byte[] data;
+
+                SharedMap(String contentType, int responseCode, byte[] data) {
+                        this.contentType = contentType;
+                        this.responseCode = responseCode;
+                        this.data = data;
+                }
+        }
 }
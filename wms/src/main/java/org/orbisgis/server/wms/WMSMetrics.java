@@ -0,0 +1,351 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the metrics of a server : the time spent in each phase of the requests, and the number of requests,
+ * errors and written bytes, in total, by layer and by answer format. All the methods are thread-safe.
+ * <p>
+ * Phases are timed by the handlers with
+ * <pre>
+ * long start = metrics.start();
+ * ...
+ * metrics.record(WMSMetrics.Phase.DRAW, start);
+ * </pre>
+ */
+public final class WMSMetrics implements WMSMetricsMBean {
+
+        /**
+         * The name this object is registered with in the platform MBean server.
+         */
+        public static final String OBJECT_NAME = "org.orbisgis.server.wms:type=WMSMetrics";
+
+        /**
+         * The timed phases of a request.
+         */
+        public enum Phase {
+                /**
+                 * Reading the request parameters.
+                 */
+                PARSE,
+                /**
+                 * Building the layers and their styles, including the reprojection and opening phases.
+                 */
+                PREPARE_LAYERS,
+                /**
+                 * Getting the reprojected version of a layer.
+                 */
+                REPROJECTION,
+                /**
+                 * Opening the data sources of the layers.
+                 */
+                OPEN,
+                /**
+                 * Drawing the map.
+                 */
+                DRAW,
+                /**
+                 * Encoding the image.
+                 */
+                ENCODE
+        }
+
+        private static final double NANOS_PER_MILLI = 1e6;
+        private final Map<Phase, Timer> timers = new EnumMap<Phase, Timer>(Phase.class);
+        private final Counter total = new Counter();
+        private final ConcurrentMap<String, Counter> byLayer = new ConcurrentHashMap<String, Counter>();
+        private final ConcurrentMap<String, Counter> byFormat = new ConcurrentHashMap<String, Counter>();
+        private volatile RequestExecutor executor;
+
+        /**
+         * Builds a new set of metrics, all set to 0.
+         */
+        public WMSMetrics() {
+                for (Phase p : Phase.values()) {
+                        timers.put(p, new Timer());
+                }
+        }
+
+        /**
+         * Gets the start time of a phase.
+         * @return The current time in nanoseconds.
+         */
+        public long start() {
+                return System.nanoTime();
+        }
+
+        /**
+         * Records the duration of a phase that started at the given time.
+         * @param phase The phase.
+         * @param start The value returned by {@link #start()} when the phase began.
+         */
+        public void record(Phase phase, long start) {
+                timers.get(phase).add(System.nanoTime() - start);
+        }
+
+        /**
+         * Records an answered request.
+         * @param layers The requested layers, may be empty.
+         * @param format The content type of the answer, may be null.
+         * @param error true if the request failed or was answered with an error.
+         * @param bytes The number of bytes written in the answer.
+         */
+        public void recordRequest(Iterable<String> layers, String format, boolean error, long bytes) {
+                total.add(error, bytes);
+                for (String layer : layers) {
+                        getCounter(byLayer, layer).add(error, bytes);
+                }
+                getCounter(byFormat, format == null ? "none" : format).add(error, bytes);
+        }
+
+        /**
+         * Sets the executor whose pools are reported with the other metrics.
+         * @param executor The executor of the requests, may be null.
+         */
+        public void setExecutor(RequestExecutor executor) {
+                this.executor = executor;
+        }
+
+        @Override
+        public long getRequestCount() {
+                return total.requests.get();
+        }
+
+        @Override
+        public long getErrorCount() {
+                return total.errors.get();
+        }
+
+        @Override
+        public long getBytesWritten() {
+                return total.bytes.get();
+        }
+
+        @Override
+        public String[] getPhases() {
+                Phase[] phases = Phase.values();
+                String[] ret = new String[phases.length];
+                for (int i = 0; i < phases.length; i++) {
+                        ret[i] = phases[i].name();
+                }
+                return ret;
+        }
+
+        @Override
+        public long getPhaseCount(String phase) {
+                Timer t = getTimer(phase);
+                return t == null ? 0 : t.count.get();
+        }
+
+        @Override
+        public double getPhaseMeanMillis(String phase) {
+                Timer t = getTimer(phase);
+                return t == null ? 0 : t.mean() / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public double getPhaseMaxMillis(String phase) {
+                Timer t = getTimer(phase);
+                return t == null ? 0 : t.max.get() / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public int getRenderQueueDepth() {
+                RequestExecutor ex = executor;
+                return ex == null ? 0 : ex.getRenderQueueDepth();
+        }
+
+        @Override
+        public int getIoQueueDepth() {
+                RequestExecutor ex = executor;
+                return ex == null ? 0 : ex.getIoQueueDepth();
+        }
+
+        @Override
+        public String getReport() {
+                return toJSON();
+        }
+
+        @Override
+        public void reset() {
+                for (Timer t : timers.values()) {
+                        t.reset();
+                }
+                total.reset();
+                byLayer.clear();
+                byFormat.clear();
+        }
+
+        /**
+         * Writes all the metrics in a JSON document.
+         * @return The JSON document.
+         */
+        public String toJSON() {
+                StringBuilder sb = new StringBuilder("{");
+                total.append(sb);
+                sb.append(",\"phases\":{");
+                boolean first = true;
+                for (Map.Entry<Phase, Timer> e : timers.entrySet()) {
+                        if (!first) {
+                                sb.append(',');
+                        }
+                        first = false;
+                        Timer t = e.getValue();
+                        sb.append('"').append(e.getKey().name()).append("\":{\"count\":").append(t.count.get())
+                                .append(",\"totalMillis\":").append(t.total.get() / NANOS_PER_MILLI)
+                                .append(",\"meanMillis\":").append(t.mean() / NANOS_PER_MILLI)
+                                .append(",\"maxMillis\":").append(t.max.get() / NANOS_PER_MILLI).append('}');
+                }
+                sb.append("},\"layers\":");
+                appendCounters(sb, byLayer);
+                sb.append(",\"formats\":");
+                appendCounters(sb, byFormat);
+                RequestExecutor ex = executor;
+                if (ex != null) {
+                        sb.append(",\"pools\":");
+                        ex.appendJSON(sb);
+                }
+                return sb.append('}').toString();
+        }
+
+        private Timer getTimer(String phase) {
+                for (Phase p : Phase.values()) {
+                        if (p.name().equalsIgnoreCase(phase)) {
+                                return timers.get(p);
+                        }
+                }
+                return null;
+        }
+
+        private static Counter getCounter(ConcurrentMap<String, Counter> map, String key) {
+                Counter c = map.get(key);
+                if (c == null) {
+                        Counter created = new Counter();
+                        c = map.putIfAbsent(key, created);
+                        if (c == null) {
+                                c = created;
+                        }
+                }
+                return c;
+        }
+
+        private static void appendCounters(StringBuilder sb, Map<String, Counter> counters) {
+                sb.append('{');
+                boolean first = true;
+                for (Map.Entry<String, Counter> e : new TreeMap<String, Counter>(counters).entrySet()) {
+                        if (!first) {
+                                sb.append(',');
+                        }
+                        first = false;
+                        appendString(sb, e.getKey());
+                        sb.append(":{");
+                        e.getValue().append(sb);
+                        sb.append('}');
+                }
+                sb.append('}');
+        }
+
+        private static void appendString(StringBuilder sb, String s) {
+                sb.append('"');
+                for (int i = 0; i < s.length(); i++) {
+                        char c = s.charAt(i);
+                        if (c == '"' || c == '\\') {
+                                sb.append('\\').append(c);
+                        } else if (c < 0x20) {
+                                sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                                sb.append(c);
+                        }
+                }
+                sb.append('"');
+        }
+
+        /**
+         * The durations of a phase, in nanoseconds.
+         */
+        private static final class Timer {
+                private final AtomicLong count = new AtomicLong();
+                private final AtomicLong total = new AtomicLong();
+                private final AtomicLong max = new AtomicLong();
+
+                void add(long nanos) {
+                        count.incrementAndGet();
+                        total.addAndGet(nanos);
+                        long m = max.get();
+                        while (nanos > m && !max.compareAndSet(m, nanos)) {
+                                m = max.get();
+                        }
+                }
+
+                double mean() {
+                        long c = count.get();
+                        return c == 0 ? 0 : (double) total.get() / c;
+                }
+
+                void reset() {
+                        count.set(0);
+                        total.set(0);
+                        max.set(0);
+                }
+        }
+
+        /**
+         * The number of requests, errors and bytes of a set of requests.
+         */
+        private static final class Counter {
+                private final AtomicLong requests = new AtomicLong();
+                private final AtomicLong errors = new AtomicLong();
+                private final AtomicLong bytes = new AtomicLong();
+
+                void add(boolean error, long written) {
+                        requests.incrementAndGet();
+                        if (error) {
+                                errors.incrementAndGet();
+                        }
+                        bytes.addAndGet(written);
+                }
+
+                void append(StringBuilder sb) {
+                        sb.append("\"requests\":").append(requests.get()).append(",\"errors\":").append(errors.get())
+                                .append(",\"bytes\":").append(bytes.get());
+                }
+
+                void reset() {
+                        requests.set(0);
+                        errors.set(0);
+                        bytes.set(0);
+                }
+        }
+}
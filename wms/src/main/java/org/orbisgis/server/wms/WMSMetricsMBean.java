@@ -0,0 +1,102 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+/**
+ * The JMX view of the {@link WMSMetrics} of a server. Times are given in milliseconds.
+ */
+public interface WMSMetricsMBean {
+
+        /**
+         * Gets the number of answered requests.
+         * @return The number of requests.
+         */
+        long getRequestCount();
+
+        /**
+         * Gets the number of requests that failed or were answered with an error code.
+         * @return The number of errors.
+         */
+        long getErrorCount();
+
+        /**
+         * Gets the number of bytes written in the answers.
+         * @return The number of bytes.
+         */
+        long getBytesWritten();
+
+        /**
+         * Gets the names of the timed phases.
+         * @return The phase names.
+         */
+        String[] getPhases();
+
+        /**
+         * Gets the number of times the given phase has been executed.
+         * @param phase The name of the phase.
+         * @return The count, or 0 if the phase is unknown.
+         */
+        long getPhaseCount(String phase);
+
+        /**
+         * Gets the mean duration of the given phase.
+         * @param phase The name of the phase.
+         * @return The mean duration, or 0 if the phase is unknown.
+         */
+        double getPhaseMeanMillis(String phase);
+
+        /**
+         * Gets the longest duration of the given phase.
+         * @param phase The name of the phase.
+         * @return The longest duration, or 0 if the phase is unknown.
+         */
+        double getPhaseMaxMillis(String phase);
+
+        /**
+         * Gets the number of requests waiting for a thread of the render pool.
+         * @return The queue depth, or 0 if the requests are not run by a {@link RequestExecutor}.
+         */
+        int getRenderQueueDepth();
+
+        /**
+         * Gets the number of requests waiting for a thread of the I/O pool.
+         * @return The queue depth, or 0 if the requests are not run by a {@link RequestExecutor}.
+         */
+        int getIoQueueDepth();
+
+        /**
+         * Gets all the metrics, including the ones by layer and by format, as a JSON document.
+         * @return The JSON document.
+         */
+        String getReport();
+
+        /**
+         * Sets all the metrics back to 0.
+         */
+        void reset();
+}
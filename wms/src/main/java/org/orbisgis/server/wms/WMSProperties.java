@@ -49,6 +49,34 @@ public class WMSProperties {
     public static final String FEATURE_GET = "wms.capabilities.featureInfo.get";
     public static final String FEATURE_POST = "wms.capabilities.featureInfo.post";
     public static final String DEBUG_LEVEL = "wms.debug";
+    public static final String RENDER_THREADS = "wms.render.threads";
+    public static final String CACHE_MEMORY_SIZE = "wms.cache.memory.size";
+    public static final String CACHE_DISK_FOLDER = "wms.cache.disk.folder";
+    public static final String CACHE_DISK_SIZE = "wms.cache.disk.size";
+    public static final String TILE_FOLDER = "wms.tiles.folder";
+    public static final String METATILE_SIZE = "wms.metatile.size";
+    public static final String REPROJECTION_FOLDER = "wms.reprojection.folder";
+    public static final String REPROJECTION_CACHE_SIZE = "wms.reprojection.cache.size";
+    public static final String REPROJECTION_THREADS = "wms.reprojection.threads";
+    public static final String REPROJECTION_WARMUP = "wms.reprojection.warmup";
+    public static final String REPROJECTION_MODE = "wms.reprojection.mode";
+    public static final String PNG_COMPRESSION = "wms.png.compression";
+    public static final String PNG_FILTER = "wms.png.filter";
+    public static final String RASTER_POOL_SIZE = "wms.raster.pool.size";
+    public static final String EXTENT_CACHE_FILE = "wms.extents.file";
+    public static final String EXTENT_THREADS = "wms.extents.threads";
+    public static final String INDEX_THREADS = "wms.index.threads";
+    public static final String FEATURE_INFO_TOLERANCE = "wms.featureinfo.tolerance";
+    public static final String LAYER_POOL_SIZE = "wms.layers.pool.size";
+    public static final String LAYER_POOL_IDLE_TIMEOUT = "wms.layers.pool.idle";
+    public static final String ADMISSION_MAX_REQUESTS = "wms.admission.requests";
+    public static final String ADMISSION_MAX_PIXELS = "wms.admission.pixels";
+    public static final String ADMISSION_MAX_CLIENT_REQUESTS = "wms.admission.client";
+    public static final String ADMISSION_MAX_LAYER_REQUESTS = "wms.admission.layer";
+    public static final String EXECUTOR_RENDER_THREADS = "wms.executor.render.threads";
+    public static final String EXECUTOR_IO_THREADS = "wms.executor.io.threads";
+    public static final String EXECUTOR_QUEUE_SIZE = "wms.executor.queue";
+    public static final String SEED_MAX_TILES = "wms.seed.max.tiles";
 
     private HashMap<String,Object> values = new HashMap<String, Object>();
 
@@ -70,6 +98,34 @@ public class WMSProperties {
         ret.add(FEATURE_POST);
         ret.add(FEATURE_GET);
         ret.add(DEBUG_LEVEL);
+        ret.add(RENDER_THREADS);
+        ret.add(CACHE_MEMORY_SIZE);
+        ret.add(CACHE_DISK_FOLDER);
+        ret.add(CACHE_DISK_SIZE);
+        ret.add(TILE_FOLDER);
+        ret.add(METATILE_SIZE);
+        ret.add(REPROJECTION_FOLDER);
+        ret.add(REPROJECTION_CACHE_SIZE);
+        ret.add(REPROJECTION_THREADS);
+        ret.add(REPROJECTION_WARMUP);
+        ret.add(REPROJECTION_MODE);
+        ret.add(PNG_COMPRESSION);
+        ret.add(PNG_FILTER);
+        ret.add(RASTER_POOL_SIZE);
+        ret.add(EXTENT_CACHE_FILE);
+        ret.add(EXTENT_THREADS);
+        ret.add(INDEX_THREADS);
+        ret.add(FEATURE_INFO_TOLERANCE);
+        ret.add(LAYER_POOL_SIZE);
+        ret.add(LAYER_POOL_IDLE_TIMEOUT);
+        ret.add(ADMISSION_MAX_REQUESTS);
+        ret.add(ADMISSION_MAX_PIXELS);
+        ret.add(ADMISSION_MAX_CLIENT_REQUESTS);
+        ret.add(ADMISSION_MAX_LAYER_REQUESTS);
+        ret.add(EXECUTOR_RENDER_THREADS);
+        ret.add(EXECUTOR_IO_THREADS);
+        ret.add(EXECUTOR_QUEUE_SIZE);
+        ret.add(SEED_MAX_TILES);
         return ret;
     }
 
@@ -100,5 +156,26 @@ public class WMSProperties {
         return values.get(name);
     }
 
+    /**
+     * Gets the property with the given name as an int. Values may have been stored as numbers or, when they
+     * come from the Play configuration, as Strings.
+     * @param name The name of the property.
+     * @param defaultValue The value returned if the property is missing or can't be read as an int.
+     * @return The int value of the property.
+     */
+    public int getIntProperty(String name, int defaultValue){
+        Object val = values.get(name);
+        if(val instanceof Number){
+            return ((Number) val).intValue();
+        } else if(val instanceof String){
+            try{
+                return Integer.valueOf(((String) val).trim());
+            } catch(NumberFormatException nfe){
+                return defaultValue;
+            }
+        }
+        return defaultValue;
+    }
+
 
 }
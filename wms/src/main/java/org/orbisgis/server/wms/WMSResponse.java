@@ -56,4 +56,28 @@ public interface WMSResponse {
          * @param code
          */
         void setResponseCode(int code);
+
+        /**
+         * Sets a header of the HTTP response, like ETag or Content-Encoding.
+         *
+         * @param name The name of the header
+         * @param value Its value
+         */
+        void setHeader(String name, String value);
+
+        /**
+         * Gets a header of the HTTP request, like If-None-Match or Accept-Encoding.
+         *
+         * @param name The name of the header
+         * @return Its value, or null if the request does not have it
+         */
+        String getRequestHeader(String name);
+
+        /**
+         * Gets the address of the client that sent the request. Used to limit the number of requests a client can
+         * have in progress.
+         *
+         * @return The address of the client, or null if it is unknown
+         */
+        String getRemoteAddress();
 }
@@ -0,0 +1,82 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the AdmissionController class.
+ */
+public class AdmissionControllerTest {
+
+    @Test
+    public void testLimits() {
+        AdmissionController ac = new AdmissionController(3, 100, 2, 2);
+        AdmissionController.Ticket large = ac.admit("a", Collections.<String>emptyList(), 20, 10);
+        assertFalse(large.isAdmitted());
+        assertEquals(AdmissionController.BAD_REQUEST, large.getCode());
+        AdmissionController.Ticket t1 = ac.admit("a", Arrays.asList("l1"), 10, 10);
+        AdmissionController.Ticket t2 = ac.admit("a", Arrays.asList("l1"), 10, 10);
+        assertTrue(t1.isAdmitted());
+        assertTrue(t2.isAdmitted());
+        AdmissionController.Ticket client = ac.admit("a", Arrays.asList("l2"), 10, 10);
+        assertFalse(client.isAdmitted());
+        assertEquals(AdmissionController.TOO_MANY_REQUESTS, client.getCode());
+        AdmissionController.Ticket layer = ac.admit("b", Arrays.asList("l2", "l1"), 10, 10);
+        assertFalse(layer.isAdmitted());
+        assertEquals(AdmissionController.SERVICE_UNAVAILABLE, layer.getCode());
+        AdmissionController.Ticket t3 = ac.admit("b", Arrays.asList("l2"), 10, 10);
+        assertTrue(t3.isAdmitted());
+        AdmissionController.Ticket busy = ac.admit("c", Collections.<String>emptyList(), 0, 0);
+        assertFalse(busy.isAdmitted());
+        assertEquals(AdmissionController.SERVICE_UNAVAILABLE, busy.getCode());
+        assertEquals(3, ac.getRequests());
+        assertEquals(3, ac.getAdmitted());
+        assertEquals(4, ac.getRejected());
+    }
+
+    @Test
+    public void testRelease() {
+        AdmissionController ac = new AdmissionController(1, 0, 1, 1);
+        AdmissionController.Ticket t1 = ac.admit("a", Arrays.asList("l1"), 10000, 10000);
+        assertTrue(t1.isAdmitted());
+        assertFalse(ac.admit("b", Arrays.asList("l2"), 1, 1).isAdmitted());
+        t1.release();
+        t1.release();
+        assertEquals(0, ac.getRequests());
+        AdmissionController.Ticket t2 = ac.admit("a", Arrays.asList("l1"), 1, 1);
+        assertTrue(t2.isAdmitted());
+        t2.release();
+        assertEquals(0, ac.getRequests());
+    }
+}
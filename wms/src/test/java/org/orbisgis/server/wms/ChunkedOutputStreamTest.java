@@ -0,0 +1,125 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the ChunkedOutputStream class.
+ */
+public class ChunkedOutputStreamTest {
+
+    @Test
+    public void testSmallAnswer() throws Exception {
+        ChunkedOutputStream out = new ChunkedOutputStream(8, 2);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+        assertTrue(out.awaitHead());
+        assertArrayEquals(new byte[]{1, 2, 3}, out.toByteArray());
+    }
+
+    @Test
+    public void testStreamedAnswer() throws Exception {
+        final ChunkedOutputStream out = new ChunkedOutputStream(4, 1);
+        final byte[] data = new byte[37];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    out.write(data);
+                    out.close();
+                } catch (IOException e) {
+                    out.fail(e);
+                }
+            }
+        };
+        writer.start();
+        assertFalse(out.awaitHead());
+        byte[] read = new byte[0];
+        byte[] chunk = out.nextChunk();
+        while (chunk != null) {
+            assertTrue(chunk.length <= 4);
+            byte[] tmp = Arrays.copyOf(read, read.length + chunk.length);
+            System.arraycopy(chunk, 0, tmp, read.length, chunk.length);
+            read = tmp;
+            chunk = out.nextChunk();
+        }
+        writer.join();
+        assertArrayEquals(data, read);
+        assertNull(out.getFailure());
+        assertNull(out.nextChunk());
+    }
+
+    @Test
+    public void testHeadListener() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                calls.incrementAndGet();
+            }
+        };
+        ChunkedOutputStream out = new ChunkedOutputStream(4, 4);
+        out.onHead(listener);
+        out.write(new byte[]{1, 2});
+        assertEquals(0, calls.get());
+        out.write(new byte[]{3, 4, 5});
+        assertEquals(1, calls.get());
+        out.close();
+        assertEquals(1, calls.get());
+        out.onHead(listener);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        ChunkedOutputStream out = new ChunkedOutputStream(4, 4);
+        out.write(new byte[]{1, 2, 3, 4, 5});
+        out.cancel();
+        try {
+            out.write(new byte[8]);
+            fail();
+        } catch (IOException e) {
+            assertTrue(true);
+        }
+    }
+}
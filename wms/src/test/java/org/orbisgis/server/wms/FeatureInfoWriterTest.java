@@ -0,0 +1,170 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+import org.gdms.data.schema.Metadata;
+import org.gdms.data.types.Type;
+import org.gdms.data.values.Value;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+import static org.orbisgis.server.wms.Stubs.value;
+
+/**
+ * Tests for the FeatureInfoWriter class.
+ */
+public class FeatureInfoWriterTest {
+
+    private static final String NAME = "say \"hi\" <b> & \\ back\n\u0001";
+    private static final GeometryFactory GF = new GeometryFactory();
+
+    @Test
+    public void testGeoJSON() throws Exception {
+        String json = write(FeatureInfoWriter.JSON);
+        assertEquals("{\"type\":\"FeatureCollection\","
+                + "\"crs\":{\"type\":\"name\",\"properties\":{\"name\":\"EPSG:4326\"}},\"features\":["
+                + "{\"type\":\"Feature\",\"id\":\"roads.3\",\"layer\":\"roads\","
+                + "\"geometry\":{\"type\":\"MultiLineString\",\"coordinates\":[[[0,0],[1,1]],[[2,2],[3,3]]]},"
+                + "\"properties\":{\"name\":\"say \\\"hi\\\" <b> & \\\\ back\\n\\u0001\",\"lanes\":2}},"
+                + "{\"type\":\"Feature\",\"id\":\"roads.5\",\"layer\":\"roads\","
+                + "\"geometry\":{\"type\":\"MultiPolygon\",\"coordinates\":"
+                + "[[[[0,0],[4,0],[4,4],[0,4],[0,0]],[[1,1],[2,1],[2,2],[1,1]]]]},"
+                + "\"properties\":{\"name\":null,\"lanes\":1}},"
+                + "{\"type\":\"Feature\",\"id\":\"roads.8\",\"layer\":\"roads\","
+                + "\"geometry\":{\"type\":\"MultiPoint\",\"coordinates\":[[0.5,1],[2,3]]},"
+                + "\"properties\":{\"name\":\"a\",\"lanes\":4}}"
+                + "]}", json);
+    }
+
+    @Test
+    public void testGML() throws Exception {
+        String gml = write(FeatureInfoWriter.GML);
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(gml.getBytes("UTF-8")));
+        Element root = doc.getDocumentElement();
+        assertEquals("FeatureInfoResponse", root.getTagName());
+        Element layer = (Element) root.getElementsByTagName("Layer").item(0);
+        assertEquals("roads", layer.getAttribute("name"));
+        NodeList features = layer.getElementsByTagName("Feature");
+        assertEquals(3, features.getLength());
+
+        Element first = (Element) features.item(0);
+        NodeList fields = first.getElementsByTagName("Field");
+        assertEquals(2, fields.getLength());
+        assertEquals("name", ((Element) fields.item(0)).getAttribute("name"));
+        // The control character can't be written in XML 1.0.
+        assertEquals("say \"hi\" <b> & \\ back\n\ufffd", fields.item(0).getTextContent());
+        assertEquals("2", fields.item(1).getTextContent());
+        assertEquals(2, first.getElementsByTagName("gml:curveMember").getLength());
+        assertEquals("EPSG:4326", ((Element) first.getElementsByTagName("gml:MultiCurve").item(0))
+                .getAttribute("srsName"));
+
+        Element second = (Element) features.item(1);
+        // The null values are left out.
+        assertEquals(1, second.getElementsByTagName("Field").getLength());
+        assertEquals(1, second.getElementsByTagName("gml:surfaceMember").getLength());
+        assertEquals(1, second.getElementsByTagName("gml:interior").getLength());
+        assertEquals("1.0 1.0 2.0 1.0 2.0 2.0 1.0 1.0",
+                second.getElementsByTagName("gml:interior").item(0).getTextContent());
+
+        Element third = (Element) features.item(2);
+        assertEquals(2, third.getElementsByTagName("gml:pointMember").getLength());
+        assertEquals("0.5 1.0", third.getElementsByTagName("gml:pos").item(0).getTextContent());
+    }
+
+    @Test
+    public void testGMLAttributes() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FeatureInfoWriter writer = FeatureInfoWriter.create(FeatureInfoWriter.GML, out, null);
+        writer.start();
+        writer.startLayer("a<b&\"c\"\t\u001f", metadata(), 0);
+        writer.endLayer();
+        writer.end();
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(out.toByteArray()));
+        Element layer = (Element) doc.getDocumentElement().getElementsByTagName("Layer").item(0);
+        assertEquals("a<b&\"c\"\t\ufffd", layer.getAttribute("name"));
+    }
+
+    private static String write(String format) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FeatureInfoWriter writer = FeatureInfoWriter.create(format, out, "EPSG:4326");
+        writer.start();
+        writer.startLayer("roads", metadata(), 0);
+        LineString[] lines = {
+                GF.createLineString(new Coordinate[]{new Coordinate(0, 0), new Coordinate(1, 1)}),
+                GF.createLineString(new Coordinate[]{new Coordinate(2, 2), new Coordinate(3, 3)})};
+        writer.feature(3, new Value[]{value(GF.createMultiLineString(lines)), value(NAME), value(2)});
+        LinearRing shell = GF.createLinearRing(new Coordinate[]{new Coordinate(0, 0), new Coordinate(4, 0),
+                new Coordinate(4, 4), new Coordinate(0, 4), new Coordinate(0, 0)});
+        LinearRing hole = GF.createLinearRing(new Coordinate[]{new Coordinate(1, 1), new Coordinate(2, 1),
+                new Coordinate(2, 2), new Coordinate(1, 1)});
+        Polygon polygon = GF.createPolygon(shell, new LinearRing[]{hole});
+        writer.feature(5, new Value[]{value(GF.createMultiPolygon(new Polygon[]{polygon})), value(null),
+                value(1)});
+        writer.feature(8, new Value[]{value(GF.createMultiPoint(new Coordinate[]{new Coordinate(0.5, 1),
+                new Coordinate(2, 3)})), value("a"), value(4)});
+        writer.endLayer();
+        writer.end();
+        return new String(out.toByteArray(), "UTF-8");
+    }
+
+    /**
+     * The fields of the features : their geometry, a name and a number of lanes.
+     */
+    private static Metadata metadata() {
+        final String[] names = {"the_geom", "name", "lanes"};
+        final int[] types = {Type.GEOMETRY, Type.STRING, Type.INT};
+        return Stubs.of(Metadata.class)
+                .on("getFieldName", new Stubs.Answer() {
+                    @Override
+                    public Object answer(Object stub, Object[] args) {
+                        return names[(Integer) args[0]];
+                    }
+                })
+                .on("getFieldType", new Stubs.Answer() {
+                    @Override
+                    public Object answer(Object stub, Object[] args) {
+                        return Stubs.of(Type.class).returning("getTypeCode", types[(Integer) args[0]]).build();
+                    }
+                })
+                .build();
+    }
+}
@@ -28,12 +28,18 @@
  */
 package org.orbisgis.server.wms;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
 import net.opengis.wms.Layer;
+import org.gdms.data.DataSource;
 import org.junit.Test;
 
 import java.util.HashMap;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -49,5 +55,41 @@ public class GetFeatureInfoHandlerTest {
         System.out.println(envelope);
         assertTrue(envelope.equals(new Envelope(27,28,43,42)));
     }    
-   
+
+    @Test
+    public void testNearest() throws Exception {
+        GeometryFactory gf = new GeometryFactory();
+        Point click = gf.createPoint(new Coordinate(0, 0));
+        DataSource ds = source(new Geometry[]{
+                gf.createPoint(new Coordinate(3, 0)),
+                gf.createPoint(new Coordinate(0, 1)),
+                null,
+                gf.createPoint(new Coordinate(10, 10)),
+                gf.createPoint(new Coordinate(-2, 0)),
+                gf.createPoint(new Coordinate(0, -2))});
+        int[] all = {0, 1, 2, 3, 4, 5};
+        // Sorted from the nearest one, the ties by row, the ones farther than the distance are dropped.
+        assertArrayEquals(new int[]{1, 4, 5, 0}, GetFeatureInfoHandler.nearest(ds, all, click, 5, 0));
+        // Only the candidates given by the index are read.
+        assertArrayEquals(new int[]{5, 3}, GetFeatureInfoHandler.nearest(ds, new int[]{3, 5}, click, 20, 0));
+        // FEATURE_COUNT keeps the nearest ones.
+        assertArrayEquals(new int[]{1, 4}, GetFeatureInfoHandler.nearest(ds, all, click, 5, 2));
+        assertArrayEquals(new int[]{1, 4, 5, 0}, GetFeatureInfoHandler.nearest(ds, all, click, 5, 10));
+        assertArrayEquals(new int[0], GetFeatureInfoHandler.nearest(ds, all, click, 0.5, 1));
+    }
+
+    /**
+     * Builds a source whose only field, the spatial one, holds the given geometries.
+     */
+    private static DataSource source(final Geometry[] geometries) {
+        return Stubs.of(DataSource.class)
+                .returning("getSpatialFieldIndex", 0)
+                .on("getFieldValue", new Stubs.Answer() {
+                    @Override
+                    public Object answer(Object stub, Object[] args) {
+                        return Stubs.value(geometries[((Number) args[0]).intValue()]);
+                    }
+                })
+                .build();
+    }
 }
@@ -0,0 +1,158 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for the GetMapCache class.
+ */
+public class GetMapCacheTest {
+
+    private static Map<String, String[]> request(String bBox, String format, String crs) {
+        Map<String, String[]> ret = new HashMap<String, String[]>();
+        ret.put(GetMapParameters.BBOX, new String[]{bBox});
+        ret.put(GetMapParameters.LAYERS, new String[]{"road,fields"});
+        ret.put(GetMapParameters.STYLES, new String[]{"dash_roads"});
+        ret.put(GetMapParameters.CRS, new String[]{crs});
+        ret.put(GetMapParameters.FORMAT, new String[]{format});
+        ret.put(GetMapParameters.WIDTH, new String[]{"40"});
+        ret.put(GetMapParameters.HEIGHT, new String[]{"50"});
+        ret.put(GetMapParameters.TRANSPARENT, new String[]{"TRUE"});
+        return ret;
+    }
+
+    private static GetMapCache memoryCache() {
+        WMSProperties props = new WMSProperties();
+        props.putProperty(WMSProperties.CACHE_MEMORY_SIZE, 1);
+        return new GetMapCache(props);
+    }
+
+    @Test
+    public void testKeyNormalization() throws Exception {
+        GetMapParameters first = new GetMapParameters(request("0,1,4,5", "image/png", "EPSG:4326"));
+        GetMapParameters second = new GetMapParameters(request("0.0,1.000,4,5.0", "IMAGE/PNG", "epsg:4326"));
+        assertEquals(first.getCacheKey(), second.getCacheKey());
+        GetMapParameters other = new GetMapParameters(request("0,1,4,6", "image/png", "EPSG:4326"));
+        assertEquals(false, first.getCacheKey().equals(other.getCacheKey()));
+        // The default style of fields is named after the layer.
+        assertArrayEquals(new String[]{"dash_roads", "fields"}, first.getRenderStyles());
+
+        GetMapCache cache = memoryCache();
+        byte[] data = {1, 2, 3};
+        cache.put(first.getCacheKey(), cache.getGeneration(), first, "image/png", data);
+        GetMapCache.CachedMap map = cache.get(second.getCacheKey());
+        assertNotNull(map);
+        assertArrayEquals(data, map.getData());
+        assertEquals("image/png", map.getContentType());
+        assertNull(cache.get(other.getCacheKey()));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        GetMapParameters params = new GetMapParameters(request("0,1,4,5", "image/png", "EPSG:4326"));
+        String key = params.getCacheKey();
+        GetMapCache cache = memoryCache();
+        cache.put(key, cache.getGeneration(), params, "image/png", new byte[]{1});
+        cache.invalidateStyle("other");
+        assertNotNull(cache.get(key));
+        cache.invalidateStyle("fields");
+        assertNull(cache.get(key));
+
+        cache.put(key, cache.getGeneration(), params, "image/png", new byte[]{1});
+        cache.invalidateLayer("road");
+        assertNull(cache.get(key));
+
+        cache.put(key, cache.getGeneration(), params, "image/png", new byte[]{1});
+        cache.layerRenamed("fields", "meadows");
+        assertNull(cache.get(key));
+
+        cache.put(key, cache.getGeneration(), params, "image/png", new byte[]{1});
+        cache.clear();
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void testStaleRender() throws Exception {
+        GetMapParameters params = new GetMapParameters(request("0,1,4,5", "image/png", "EPSG:4326"));
+        String key = params.getCacheKey();
+        GetMapCache cache = memoryCache();
+        // The style changes while the map is drawn : the map must not be stored.
+        long generation = cache.getGeneration();
+        cache.invalidateStyle("dash_roads");
+        cache.put(key, generation, params, "image/png", new byte[]{1});
+        assertNull(cache.get(key));
+        cache.put(key, cache.getGeneration(), params, "image/png", new byte[]{2});
+        assertArrayEquals(new byte[]{2}, cache.get(key).getData());
+    }
+
+    @Test
+    public void testDiskTier() throws Exception {
+        File folder = File.createTempFile("mapcache", "");
+        folder.delete();
+        WMSProperties props = new WMSProperties();
+        props.putProperty(WMSProperties.CACHE_MEMORY_SIZE, 1);
+        props.putProperty(WMSProperties.CACHE_DISK_FOLDER, folder.getAbsolutePath());
+        props.putProperty(WMSProperties.CACHE_DISK_SIZE, 8);
+        try {
+            GetMapCache cache = new GetMapCache(props);
+            GetMapParameters first = new GetMapParameters(request("0,1,4,5", "image/png", "EPSG:4326"));
+            GetMapParameters second = new GetMapParameters(request("0,1,4,6", "image/png", "EPSG:4326"));
+            byte[] large = new byte[700 * 1024];
+            large[12] = 7;
+            cache.put(first.getCacheKey(), cache.getGeneration(), first, "image/png", large);
+            // The first map goes to disk to make room for the second one.
+            cache.put(second.getCacheKey(), cache.getGeneration(), second, "image/png", large.clone());
+            assertEquals(1, folder.listFiles().length);
+            assertArrayEquals(large, cache.get(first.getCacheKey()).getData());
+            assertArrayEquals(large, cache.get(second.getCacheKey()).getData());
+            cache.invalidateLayer("road");
+            assertNull(cache.get(first.getCacheKey()));
+            assertEquals(0, folder.listFiles().length);
+        } finally {
+            File[] files = folder.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            folder.delete();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the LayerExtentCache class.
+ */
+public class LayerExtentCacheTest {
+
+    @Test
+    public void testPersistence() throws Exception {
+        File source = File.createTempFile("source", ".shp");
+        File index = File.createTempFile("extents", ".properties");
+        try {
+            write(source, 10);
+            LayerExtentCache cache = new LayerExtentCache(index);
+            assertNull(cache.get(source));
+            cache.put(source, new LayerExtentCache.Extent("EPSG:2154",
+                    new double[]{100.5, 6000000, 1200000.25, 7100000},
+                    new double[]{-5.1, 41.3, 9.6, 51.1}));
+            LayerExtentCache.Extent read = new LayerExtentCache(index).get(source);
+            assertNotNull(read);
+            assertEquals("EPSG:2154", read.getCRS());
+            assertArrayEquals(new double[]{100.5, 6000000, 1200000.25, 7100000}, read.getBox(), 0);
+            assertArrayEquals(new double[]{-5.1, 41.3, 9.6, 51.1}, read.getGeographic(), 0);
+        } finally {
+            source.delete();
+            index.delete();
+        }
+    }
+
+    @Test
+    public void testStale() throws Exception {
+        File source = File.createTempFile("source", ".shp");
+        try {
+            write(source, 10);
+            LayerExtentCache cache = new LayerExtentCache(null);
+            cache.put(source, new LayerExtentCache.Extent("EPSG:4326",
+                    new double[]{0, 0, 1, 1}, new double[]{0, 0, 1, 1}));
+            assertNotNull(cache.get(source));
+            write(source, 20);
+            assertNull(cache.get(source));
+            cache.remove(source);
+            assertNull(cache.get(source));
+        } finally {
+            source.delete();
+        }
+    }
+
+    private static void write(File file, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.junit.Test;
+import org.orbisgis.core.layerModel.ILayer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the LayerPool class.
+ */
+public class LayerPoolTest {
+
+    private final Map<ILayer, Integer> closed = new HashMap<ILayer, Integer>();
+
+    /**
+     * Builds a layer that only counts the calls to close.
+     */
+    private ILayer layer(String name) {
+        return Stubs.of(ILayer.class)
+                .returning("getName", name)
+                .on("close", new Stubs.Answer() {
+                    @Override
+                    public Object answer(Object stub, Object[] args) {
+                        Integer n = closed.get((ILayer) stub);
+                        closed.put((ILayer) stub, n == null ? 1 : n + 1);
+                        return null;
+                    }
+                })
+                .build();
+    }
+
+    private int closeCount(ILayer l) {
+        Integer n = closed.get(l);
+        return n == null ? 0 : n;
+    }
+
+    @Test
+    public void testLeaseAndRelease() {
+        LayerPool pool = new LayerPool(4, 60000);
+        LayerPool.Lease first = pool.lease("roads", "", "EPSG:4326");
+        assertNull(first.getLayer());
+        ILayer roads = layer("roads");
+        first.setLayer(roads);
+        pool.release(first);
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(0, closeCount(roads));
+
+        // Another style or CRS does not get it.
+        assertNull(pool.lease("roads", "thin", "EPSG:4326").getLayer());
+        assertNull(pool.lease("roads", "", "EPSG:3857").getLayer());
+        LayerPool.Lease second = pool.lease("roads", "", "EPSG:4326");
+        assertSame(roads, second.getLayer());
+        assertEquals(0, pool.getIdleCount());
+        // Leased by one request at a time.
+        assertNull(pool.lease("roads", "", "EPSG:4326").getLayer());
+        assertEquals(1, pool.getHits());
+        assertEquals(4, pool.getMisses());
+        pool.release(second);
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testInvalidation() {
+        LayerPool pool = new LayerPool(4, 60000);
+        LayerPool.Lease idle = pool.lease("roads", "thin", "EPSG:4326");
+        ILayer idleRoads = layer("roads");
+        idle.setLayer(idleRoads);
+        pool.release(idle);
+        LayerPool.Lease leased = pool.lease("roads", "thin", "EPSG:3857");
+        ILayer leasedRoads = layer("roads");
+        leased.setLayer(leasedRoads);
+        LayerPool.Lease other = pool.lease("rivers", "", "EPSG:4326");
+        ILayer rivers = layer("rivers");
+        other.setLayer(rivers);
+        pool.release(other);
+
+        pool.invalidateLayer("roads");
+        assertEquals(1, closeCount(idleRoads));
+        assertEquals(0, closeCount(rivers));
+        assertEquals(1, pool.getIdleCount());
+        // Leased before the change : closed once given back instead of being kept.
+        pool.release(leased);
+        assertEquals(1, closeCount(leasedRoads));
+        assertEquals(1, pool.getIdleCount());
+
+        LayerPool.Lease styled = pool.lease("roads", "thin", "EPSG:4326");
+        ILayer styledRoads = layer("roads");
+        styled.setLayer(styledRoads);
+        pool.release(styled);
+        pool.invalidateStyle("thin");
+        assertEquals(1, closeCount(styledRoads));
+        pool.clear();
+        assertEquals(1, closeCount(rivers));
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testIdleExpiry() throws Exception {
+        LayerPool pool = new LayerPool(4, 50);
+        LayerPool.Lease lease = pool.lease("roads", "", "EPSG:4326");
+        ILayer roads = layer("roads");
+        lease.setLayer(roads);
+        pool.release(lease);
+        Thread.sleep(100);
+        assertNull(pool.lease("roads", "", "EPSG:4326").getLayer());
+        assertEquals(1, closeCount(roads));
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testSizeCap() {
+        LayerPool pool = new LayerPool(2, 60000);
+        ILayer[] layers = new ILayer[3];
+        LayerPool.Lease[] leases = new LayerPool.Lease[3];
+        for (int i = 0; i < 3; i++) {
+            leases[i] = pool.lease("layer" + i, "", "EPSG:4326");
+            layers[i] = layer("layer" + i);
+            leases[i].setLayer(layers[i]);
+        }
+        for (LayerPool.Lease l : leases) {
+            pool.release(l);
+        }
+        assertEquals(2, pool.getIdleCount());
+        // The least recently released one is closed first.
+        assertEquals(1, closeCount(layers[0]));
+        assertEquals(0, closeCount(layers[1]));
+        assertEquals(0, closeCount(layers[2]));
+
+        LayerPool disabled = new LayerPool(0, 60000);
+        LayerPool.Lease lease = disabled.lease("roads", "", "EPSG:4326");
+        ILayer roads = layer("roads");
+        lease.setLayer(roads);
+        disabled.release(lease);
+        assertEquals(1, closeCount(roads));
+        assertEquals(0, disabled.getIdleCount());
+    }
+
+    @Test
+    public void testCloseListener() {
+        LayerPool pool = new LayerPool(4, 60000);
+        final int[] released = new int[1];
+        LayerPool.Lease lease = pool.lease("roads", "", "EPSG:3857");
+        lease.setLayer(layer("roads"), new Runnable() {
+            @Override
+            public void run() {
+                released[0]++;
+            }
+        });
+        pool.release(lease);
+        assertEquals(0, released[0]);
+        // Kept with the layer when it is leased again.
+        LayerPool.Lease again = pool.lease("roads", "", "EPSG:3857");
+        pool.release(again);
+        assertEquals(0, released[0]);
+        pool.invalidateLayer("roads");
+        assertEquals(1, released[0]);
+    }
+}
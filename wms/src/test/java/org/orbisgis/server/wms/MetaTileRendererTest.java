@@ -0,0 +1,90 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the slicing of the metatiles.
+ */
+public class MetaTileRendererTest {
+
+    @Test
+    public void testMetaTile() {
+        TileMatrixSet set = TileMatrixSet.EPSG_4326;
+        // 8 x 4 tiles at zoom 2 : the metatile is aligned on multiples of its size.
+        assertArrayEquals(new long[]{4, 0, 4, 4}, MetaTileRenderer.getMetaTile(set, 2, 5, 3, 4));
+        assertArrayEquals(new long[]{0, 0, 4, 4}, MetaTileRenderer.getMetaTile(set, 2, 0, 0, 4));
+        // The metatiles at the right and bottom edges are cut.
+        assertArrayEquals(new long[]{6, 3, 2, 1}, MetaTileRenderer.getMetaTile(set, 2, 7, 3, 3));
+        assertArrayEquals(new long[]{3, 3, 3, 1}, MetaTileRenderer.getMetaTile(set, 2, 4, 3, 3));
+        // 2 x 1 tiles at zoom 0.
+        assertArrayEquals(new long[]{0, 0, 2, 1}, MetaTileRenderer.getMetaTile(set, 0, 1, 0, 4));
+    }
+
+    @Test
+    public void testBBox() {
+        TileMatrixSet set = TileMatrixSet.EPSG_4326;
+        assertArrayEquals(new double[]{-180, -90, 180, 90},
+                MetaTileRenderer.getBBox(set, 0, MetaTileRenderer.getMetaTile(set, 0, 1, 0, 4)), 1e-9);
+        // Tiles of 45 degrees at zoom 2.
+        assertArrayEquals(new double[]{90, -90, 180, -45},
+                MetaTileRenderer.getBBox(set, 2, MetaTileRenderer.getMetaTile(set, 2, 7, 3, 3)), 1e-9);
+    }
+
+    @Test
+    public void testSlice() {
+        BufferedImage img = new BufferedImage(6, 4, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < 6; x++) {
+            for (int y = 0; y < 4; y++) {
+                img.setRGB(x, y, 0xFF000000 | x << 8 | y);
+            }
+        }
+        BufferedImage[][] tiles = MetaTileRenderer.slice(img, 3, 2);
+        assertEquals(3, tiles.length);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(2, tiles[i].length);
+            for (int j = 0; j < 2; j++) {
+                assertEquals(2, tiles[i][j].getWidth());
+                assertEquals(2, tiles[i][j].getHeight());
+                for (int x = 0; x < 2; x++) {
+                    for (int y = 0; y < 2; y++) {
+                        assertEquals(img.getRGB(i * 2 + x, j * 2 + y), tiles[i][j].getRGB(x, y));
+                    }
+                }
+            }
+        }
+        // The last column and row of tiles end on the edges of the image.
+        assertEquals(0xFF000000 | 5 << 8 | 3, tiles[2][1].getRGB(1, 1));
+    }
+}
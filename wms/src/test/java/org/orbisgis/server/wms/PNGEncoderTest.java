@@ -0,0 +1,141 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the PNGEncoder class.
+ */
+public class PNGEncoderTest {
+
+    private static BufferedImage map(int type) {
+        BufferedImage img = new BufferedImage(97, 61, type);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(20, 120, 200, 128));
+        g.fillRect(10, 5, 50, 40);
+        g.setColor(Color.RED);
+        g.drawLine(0, 0, 96, 60);
+        g.dispose();
+        return img;
+    }
+
+    private static BufferedImage roundTrip(PNGEncoder encoder, BufferedImage img, boolean palette)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.write(img, out, palette, 3780);
+        BufferedImage read = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertNotNull(read);
+        assertEquals(img.getWidth(), read.getWidth());
+        assertEquals(img.getHeight(), read.getHeight());
+        return read;
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testFilters() throws Exception {
+        BufferedImage img = map(BufferedImage.TYPE_4BYTE_ABGR);
+        for (PNGEncoder.Filter f : PNGEncoder.Filter.values()) {
+            assertSamePixels(img, roundTrip(new PNGEncoder(6, f), img, false));
+        }
+        BufferedImage rgb = map(BufferedImage.TYPE_3BYTE_BGR);
+        assertSamePixels(rgb, roundTrip(new PNGEncoder(1, PNGEncoder.Filter.PAETH), rgb, false));
+    }
+
+    @Test
+    public void testExactPalette() throws Exception {
+        BufferedImage img = map(BufferedImage.TYPE_4BYTE_ABGR);
+        assertSamePixels(img, roundTrip(new PNGEncoder(9, PNGEncoder.Filter.ADAPTIVE), img, true));
+    }
+
+    @Test
+    public void testQuantizedPalette() throws Exception {
+        BufferedImage img = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 64; y++) {
+            for (int x = 0; x < 64; x++) {
+                img.setRGB(x, y, (x * 4) << 16 | (y * 4) << 8 | (x + y));
+            }
+        }
+        BufferedImage read = roundTrip(new PNGEncoder(6, PNGEncoder.Filter.NONE), img, true);
+        for (int y = 0; y < 64; y++) {
+            for (int x = 0; x < 64; x++) {
+                int e = img.getRGB(x, y);
+                int a = read.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int d = Math.abs(((e >> shift) & 0xff) - ((a >> shift) & 0xff));
+                    assertTrue(d <= 16);
+                }
+            }
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testManyColorsPalette() throws Exception {
+        BufferedImage img = new BufferedImage(512, 512, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 512; y++) {
+            for (int x = 0; x < 512; x++) {
+                // 262,144 distinct colors, enough to grow the color table past 2^16 slots.
+                img.setRGB(x, y, (y << 9 | x) << 6);
+            }
+        }
+        BufferedImage read = roundTrip(new PNGEncoder(1, PNGEncoder.Filter.NONE), img, true);
+        assertTrue(read.getColorModel() instanceof IndexColorModel);
+        assertTrue(((IndexColorModel) read.getColorModel()).getMapSize() <= 256);
+    }
+
+    @Test
+    public void testFormats() {
+        assertEquals(ImageFormats.PNG8, ImageFormats.fromString("image/png; mode=8bit"));
+        assertEquals(ImageFormats.PNG8, ImageFormats.fromString("IMAGE/PNG;mode=8bit"));
+        assertEquals(ImageFormats.PNG8, ImageFormats.fromString("image/png8"));
+        assertEquals(ImageFormats.PNG, ImageFormats.fromString("image/png"));
+        assertEquals(null, ImageFormats.fromString("image/gif"));
+        assertEquals("image/png", ImageFormats.PNG8.getContentType());
+        assertEquals("image/png", ImageFormats.PNG.getContentType());
+    }
+}
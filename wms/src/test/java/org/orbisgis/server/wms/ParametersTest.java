@@ -270,6 +270,13 @@ public class ParametersTest {
         infoBuildFail(map);
     }
 
+    @Test
+    public void testInvalidFeatureCount(){
+        Map<String, String[]> map= getFeatureInfoMap();
+        map.put(GetFeatureInfoParameters.FEATURE_COUNT,new String[]{"patatoïde"});
+        infoBuildFail(map);
+    }
+
     @Test
     public void testInvalidQueryLayers(){
         Map<String, String[]> map= getFeatureInfoMap();
@@ -287,7 +294,66 @@ public class ParametersTest {
         infoBuildFail(map);
     }
 
+    private Map<String,String[]> getTileMap(){
+        Map<String,String[]> ret = new HashMap<String, String[]>();
+        ret.put(GetTileParameters.LAYER, new String[]{"road"});
+        ret.put(GetTileParameters.STYLE, new String[]{"default"});
+        ret.put(GetTileParameters.FORMAT, new String[]{"image/png"});
+        ret.put(GetTileParameters.TILEMATRIXSET, new String[]{"EPSG:3857"});
+        ret.put(GetTileParameters.TILEMATRIX, new String[]{"EPSG:3857:1"});
+        ret.put(GetTileParameters.TILECOL, new String[]{"1"});
+        ret.put(GetTileParameters.TILEROW, new String[]{"0"});
+        return ret;
+    }
+
+    @Test
+    public void testTileParsing() throws Exception{
+        GetTileParameters params = new GetTileParameters(getTileMap());
+        assertTrue(params.getZoom() == 1);
+        assertTrue(params.getCol() == 1);
+        assertTrue(params.getRow() == 0);
+        assertTrue(params.getStyle().isEmpty());
+        assertTrue(params.getRenderStyle().equals("road"));
+        GetMapParameters map = params.toMapParameters();
+        assertTrue(map.getCrs().equals("EPSG:3857"));
+        assertTrue(map.getWidth() == TileMatrixSet.TILE_SIZE);
+        assertTrue(map.isTransparent());
+        assertTrue(Math.abs(map.getbBox()[0]) < EPS);
+        assertTrue(Math.abs(map.getbBox()[1]) < EPS);
+        assertTrue(Math.abs(map.getbBox()[2] - 20037508.342789244) < EPS);
+        assertTrue(Math.abs(map.getbBox()[3] - 20037508.342789244) < EPS);
+    }
 
+    @Test
+    public void testTileOutOfMatrix() throws Exception{
+        Map<String, String[]> map = getTileMap();
+        map.put(GetTileParameters.TILECOL, new String[]{"2"});
+        tileBuildFail(map);
+        map = getTileMap();
+        map.put(GetTileParameters.TILEMATRIXSET, new String[]{"EPSG:2154"});
+        tileBuildFail(map);
+        map = getTileMap();
+        map.remove(GetTileParameters.TILEROW);
+        tileBuildFail(map);
+    }
+
+    @Test
+    public void testTileRange() throws Exception{
+        long[] range = TileMatrixSet.EPSG_4326.getTileRange(2, new double[]{-10, -10, 10, 10});
+        assertTrue(range[0] == 3 && range[2] == 4);
+        assertTrue(range[1] == 1 && range[3] == 2);
+        assertTrue(TileMatrixSet.EPSG_4326.getMatrixWidth(0) == 2);
+        assertTrue(TileMatrixSet.EPSG_4326.getMatrixHeight(0) == 1);
+    }
+
+    private void tileBuildFail(Map<String,String[]> map){
+        try{
+            new GetTileParameters(map);
+            fail();
+        } catch(WMSException e){
+            assertTrue(true);
+        }
+    }
 
     private void mapBuildFail(Map<String,String[]> map){
         try{
@@ -0,0 +1,88 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for the RasterPool class.
+ */
+public class RasterPoolTest {
+
+    @Test
+    public void testReuse() {
+        RasterPool pool = new RasterPool(64 * 1024 * 1024);
+        BufferedImage first = pool.acquire(BufferedImage.TYPE_4BYTE_ABGR, 250, 200);
+        assertEquals(250, first.getWidth());
+        assertEquals(200, first.getHeight());
+        assertEquals(BufferedImage.TYPE_4BYTE_ABGR, first.getType());
+        Graphics2D g = first.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, 250, 200);
+        g.dispose();
+        pool.release(first);
+        assertEquals(256 * 256 * 4, pool.getPooledBytes());
+        BufferedImage second = pool.acquire(BufferedImage.TYPE_4BYTE_ABGR, 240, 220);
+        assertSame(first.getRaster().getParent(), second.getRaster().getParent());
+        assertEquals(0, second.getRGB(10, 10));
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testBounds() {
+        RasterPool pool = new RasterPool(100 * 1024);
+        BufferedImage small = pool.acquire(BufferedImage.TYPE_3BYTE_BGR, 64, 64);
+        BufferedImage big = pool.acquire(BufferedImage.TYPE_3BYTE_BGR, 512, 512);
+        pool.release(big);
+        pool.release(small);
+        pool.release(new BufferedImage(64, 64, BufferedImage.TYPE_3BYTE_BGR));
+        assertEquals(64 * 64 * 3, pool.getPooledBytes());
+        pool.acquire(BufferedImage.TYPE_4BYTE_ABGR, 64, 64);
+        assertEquals(0, pool.getHits());
+        pool.clear();
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testDisabled() {
+        RasterPool pool = new RasterPool(0);
+        pool.release(pool.acquire(BufferedImage.TYPE_4BYTE_ABGR, 64, 64));
+        assertEquals(0, pool.getPooledBytes());
+        pool.acquire(BufferedImage.TYPE_4BYTE_ABGR, 64, 64);
+        assertEquals(0, pool.getHits());
+    }
+}
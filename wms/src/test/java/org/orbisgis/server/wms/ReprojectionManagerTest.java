@@ -0,0 +1,220 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import net.opengis.wms.Layer;
+import org.gdms.source.SourceManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.orbisgis.core.DataManager;
+import org.orbisgis.core.Services;
+import org.orbisgis.core.renderer.se.Style;
+import org.orbisgis.core.workspace.CoreWorkspace;
+import org.orbisgis.utils.FileUtils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.Collections;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the ReprojectionManager class.
+ */
+public class ReprojectionManagerTest {
+
+    private File f;
+    private File fshp;
+    private File fshx;
+    private File fdbf;
+    private File fprj;
+    private File folder;
+    private WMS wms = new WMS();
+    private ReprojectionManager manager;
+    private SourceManager sm;
+
+    @Before
+    public void setUp() throws Exception {
+        f = File.createTempFile("wms", null);
+        f.delete();
+        CoreWorkspace c = new CoreWorkspace();
+        c.setWorkspaceFolder(f.getAbsolutePath());
+        WMSProperties props = new WMSProperties();
+        props.putProperty(WMSProperties.TITLE, "test");
+        wms.init(c, Collections.<String, Style>emptyMap(), Collections.<String, String[]>emptyMap(), props);
+
+        fshp = File.createTempFile("gdms", ".shp");
+        fshp.delete();
+        FileUtils.copy(WMSTest.class.getResourceAsStream("cantons.shp"), fshp);
+        String name = FileUtils.getFileNameWithoutExtensionU(fshp);
+        fdbf = new File(fshp.getParentFile(), name + ".dbf");
+        FileUtils.copy(WMSTest.class.getResourceAsStream("cantons.dbf"), fdbf);
+        fprj = new File(fshp.getParentFile(), name + ".prj");
+        FileUtils.copy(WMSTest.class.getResourceAsStream("cantons.prj"), fprj);
+        fshx = new File(fshp.getParentFile(), name + ".shx");
+        FileUtils.copy(WMSTest.class.getResourceAsStream("cantons.shx"), fshx);
+
+        sm = Services.getService(DataManager.class).getSourceManager();
+        sm.register("cantons", fshp);
+        folder = new File(f, "reprojection-test");
+        manager = newManager();
+    }
+
+    @After
+    public void tearDown() {
+        manager.dispose();
+        wms.destroy();
+        FileUtils.deleteDir(f);
+        FileUtils.deleteDir(fshp);
+        FileUtils.deleteDir(fdbf);
+        FileUtils.deleteDir(fshx);
+        FileUtils.deleteDir(fprj);
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        String wgs84 = project("EPSG:4326");
+        long wgs84Size = manager.getSize();
+        assertTrue(wgs84Size > 0);
+        String lambert = project("EPSG:27582");
+        long lambertSize = manager.getSize() - wgs84Size;
+        String l93 = project("EPSG:2154");
+        long l93Size = manager.getSize() - wgs84Size - lambertSize;
+        assertEquals(wgs84Size + lambertSize + l93Size, sizeOf(cachedFiles()));
+
+        // Used again : the least recently used one is now the second one.
+        project("EPSG:4326");
+        manager.setSizeLimit(wgs84Size + l93Size);
+        assertFalse(manager.isProjection(lambert));
+        assertFalse(sm.exists(lambert));
+        assertTrue(manager.isProjection(wgs84));
+        assertTrue(manager.isProjection(l93));
+        assertEquals(wgs84Size + l93Size, manager.getSize());
+        assertEquals(2, cachedFiles().length);
+
+        manager.setSizeLimit(wgs84Size);
+        assertFalse(manager.isProjection(l93));
+        assertTrue(manager.isProjection(wgs84));
+        assertEquals(wgs84Size, manager.getSize());
+        assertEquals(wgs84Size, sizeOf(cachedFiles()));
+    }
+
+    @Test
+    public void testIndexReload() throws Exception {
+        String wgs84 = project("EPSG:4326");
+        String lambert = project("EPSG:27582");
+        for (File file : cachedFiles()) {
+            file.setLastModified(1000000L);
+        }
+        long size = manager.getSize();
+        manager.dispose();
+
+        manager = newManager();
+        assertTrue(manager.isProjection(wgs84));
+        assertTrue(manager.isProjection(lambert));
+        assertEquals(size, manager.getSize());
+        // The order of the entries has been kept : the first one built is evicted first.
+        manager.setSizeLimit(size - 1);
+        assertFalse(manager.isProjection(wgs84));
+        assertTrue(manager.isProjection(lambert));
+        // The file of the other one is used as it is.
+        assertEquals(lambert, project("EPSG:27582"));
+        File[] files = cachedFiles();
+        assertEquals(1, files.length);
+        assertEquals(1000000L, files[0].lastModified());
+    }
+
+    @Test
+    public void testRebuildOnSourceChange() throws Exception {
+        String wgs84 = project("EPSG:4326");
+        cachedFiles()[0].setLastModified(1000000L);
+        assertEquals(wgs84, project("EPSG:4326"));
+        assertEquals(1000000L, cachedFiles()[0].lastModified());
+
+        assertTrue(fshp.setLastModified(fshp.lastModified() - 60000L));
+        assertEquals(wgs84, project("EPSG:4326"));
+        File[] files = cachedFiles();
+        assertEquals(1, files.length);
+        assertFalse(files[0].lastModified() == 1000000L);
+        assertEquals(files[0].length(), manager.getSize());
+        assertTrue(sm.exists(wgs84));
+    }
+
+    @Test
+    public void testEvictedWhileLeased() throws Exception {
+        String wgs84 = manager.getProjectedSource("cantons", "EPSG:4326");
+        String lambert = project("EPSG:27582");
+        manager.setSizeLimit(0);
+        assertFalse(manager.isProjection(wgs84));
+        assertFalse(manager.isProjection(lambert));
+        assertEquals(0, manager.getSize());
+        assertFalse(sm.exists(lambert));
+        // Still read : kept until it is released.
+        assertTrue(sm.exists(wgs84));
+        assertEquals(1, cachedFiles().length);
+        manager.releaseProjectedSource(wgs84);
+        assertFalse(sm.exists(wgs84));
+        assertEquals(0, cachedFiles().length);
+    }
+
+    /**
+     * Gets the reprojection of the cantons in the given CRS without keeping a reference on it.
+     */
+    private String project(String crs) throws WMSException {
+        String name = manager.getProjectedSource("cantons", crs);
+        manager.releaseProjectedSource(name);
+        return name;
+    }
+
+    private ReprojectionManager newManager() {
+        WMSProperties props = new WMSProperties();
+        props.putProperty(WMSProperties.REPROJECTION_THREADS, "2");
+        return new ReprojectionManager(props, folder, new HashMap<String, Layer>());
+    }
+
+    private File[] cachedFiles() {
+        return folder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(".gdms");
+            }
+        });
+    }
+
+    private static long sizeOf(File[] files) {
+        long ret = 0;
+        for (File file : files) {
+            ret += file.length();
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the RequestCoalescer class.
+ */
+public class RequestCoalescerTest {
+
+    @Test
+    public void testConcurrentCallersShareOneRun() throws Exception {
+        final RequestCoalescer<String> coalescer = new RequestCoalescer<String>();
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> task = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                runs.incrementAndGet();
+                started.countDown();
+                release.await();
+                return "map";
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<RequestCoalescer.Shared<String>>> results =
+                    new ArrayList<Future<RequestCoalescer.Shared<String>>>();
+            Callable<RequestCoalescer.Shared<String>> caller = new Callable<RequestCoalescer.Shared<String>>() {
+                @Override
+                public RequestCoalescer.Shared<String> call() throws Exception {
+                    return coalescer.execute("key", task);
+                }
+            };
+            results.add(executor.submit(caller));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                results.add(executor.submit(caller));
+            }
+            while (coalescer.getFollowers() < 3) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            int leaders = 0;
+            for (Future<RequestCoalescer.Shared<String>> f : results) {
+                RequestCoalescer.Shared<String> shared = f.get(5, TimeUnit.SECONDS);
+                assertEquals("map", shared.getValue());
+                if (shared.isLeader()) {
+                    leaders++;
+                }
+            }
+            assertEquals(1, leaders);
+            assertEquals(1, runs.get());
+            // The key is forgotten once the task is over.
+            assertTrue(coalescer.execute("key", task).isLeader());
+            assertEquals(2, runs.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailureIsOnlyThrownToTheLeader() throws Exception {
+        RequestCoalescer<String> coalescer = new RequestCoalescer<String>();
+        try {
+            coalescer.execute("key", new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    throw new WMSException("failed");
+                }
+            });
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof WMSException);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import com.vividsolutions.jts.geom.Envelope;
+import org.gdms.data.DataSource;
+import org.gdms.source.SourceManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.orbisgis.core.DataManager;
+import org.orbisgis.core.Services;
+import org.orbisgis.core.renderer.se.Style;
+import org.orbisgis.core.workspace.CoreWorkspace;
+import org.orbisgis.utils.FileUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the SpatialIndexService class. The builds are replaced by ones that wait for the test.
+ */
+public class SpatialIndexServiceTest {
+
+    private File f;
+    private File fshp;
+    private File fshx;
+    private File fdbf;
+    private File fprj;
+    private WMS wms = new WMS();
+    private BlockingService service = new BlockingService();
+
+    @Before
+    public void setUp() throws Exception {
+        f = File.createTempFile("wms", null);
+        f.delete();
+        CoreWorkspace c = new CoreWorkspace();
+        c.setWorkspaceFolder(f.getAbsolutePath());
+        WMSProperties props = new WMSProperties();
+        props.putProperty(WMSProperties.TITLE, "test");
+        wms.init(c, Collections.<String, Style>emptyMap(), Collections.<String, String[]>emptyMap(), props);
+
+        fshp = File.createTempFile("gdms", ".shp");
+        fshp.delete();
+        FileUtils.copy(WMSTest.class.getResourceAsStream("cantons.shp"), fshp);
+        String name = FileUtils.getFileNameWithoutExtensionU(fshp);
+        fdbf = new File(fshp.getParentFile(), name + ".dbf");
+        FileUtils.copy(WMSTest.class.getResourceAsStream("cantons.dbf"), fdbf);
+        fprj = new File(fshp.getParentFile(), name + ".prj");
+        FileUtils.copy(WMSTest.class.getResourceAsStream("cantons.prj"), fprj);
+        fshx = new File(fshp.getParentFile(), name + ".shx");
+        FileUtils.copy(WMSTest.class.getResourceAsStream("cantons.shx"), fshx);
+
+        SourceManager sm = Services.getService(DataManager.class).getSourceManager();
+        sm.register("cantons", fshp);
+    }
+
+    @After
+    public void tearDown() {
+        service.release.countDown();
+        service.dispose();
+        wms.destroy();
+        FileUtils.deleteDir(f);
+        FileUtils.deleteDir(fshp);
+        FileUtils.deleteDir(fdbf);
+        FileUtils.deleteDir(fshx);
+        FileUtils.deleteDir(fprj);
+    }
+
+    @Test
+    public void testSharedBuild() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<Future<?>>> calls = new ArrayList<Callable<Future<?>>>();
+            for (int i = 0; i < 8; i++) {
+                calls.add(new Callable<Future<?>>() {
+                    @Override
+                    public Future<?> call() {
+                        return service.build("cantons");
+                    }
+                });
+            }
+            List<Future<Future<?>>> builds = callers.invokeAll(calls);
+            Future<?> first = builds.get(0).get();
+            for (Future<Future<?>> build : builds) {
+                assertSame(first, build.get());
+            }
+            assertFalse(service.isBuilt("cantons"));
+            service.release.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            assertTrue(service.isBuilt("cantons"));
+            assertEquals(1, service.calls.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testScanWhileBuilding() throws Exception {
+        Future<?> build = service.build("cantons");
+        assertTrue(service.started.await(5, TimeUnit.SECONDS));
+        DataSource ds = wms.getContext().getDataManager().getDataSource("cantons");
+        ds.open();
+        try {
+            Envelope all = ds.getFullExtent();
+            Envelope none = new Envelope(all.getMaxX() + 1, all.getMaxX() + 2, all.getMaxY() + 1, all.getMaxY() + 2);
+            assertEquals(ds.getRowCount(), service.query(ds, all).length);
+            assertEquals(0, service.query(ds, none).length);
+        } finally {
+            ds.close();
+        }
+        assertFalse(build.isDone());
+        assertEquals(1, service.calls.get());
+        service.release.countDown();
+        build.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testFailedBuildRetried() throws Exception {
+        service.failures.set(1);
+        service.release.countDown();
+        Future<?> failed = service.build("cantons");
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("Can't read the source", e.getCause().getMessage());
+        }
+        assertFalse(service.isBuilt("cantons"));
+        // The failed build is forgotten once it is over : the next call starts a new one.
+        long deadline = System.currentTimeMillis() + 5000;
+        Future<?> retry = service.build("cantons");
+        while (retry == failed && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            retry = service.build("cantons");
+        }
+        assertNotSame(failed, retry);
+        retry.get(5, TimeUnit.SECONDS);
+        assertTrue(service.isBuilt("cantons"));
+        assertEquals(2, service.calls.get());
+    }
+
+    /**
+     * Counts its builds and blocks them until the test releases them.
+     */
+    private static final class BlockingService extends SpatialIndexService {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+
+        private BlockingService() {
+            super(2);
+        }
+
+        @Override
+        void buildIndex(String sourceName) throws Exception {
+            calls.incrementAndGet();
+            started.countDown();
+            release.await();
+            if (failures.getAndDecrement() > 0) {
+                throw new Exception("Can't read the source");
+            }
+        }
+    }
+}
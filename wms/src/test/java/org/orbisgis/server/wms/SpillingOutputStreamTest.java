@@ -0,0 +1,62 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the SpillingOutputStream class.
+ */
+public class SpillingOutputStreamTest {
+
+    @Test
+    public void testKeepsSmallAnswers() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SpillingOutputStream stream = new SpillingOutputStream(out, 4);
+        stream.write(new byte[]{1, 2, 3}, 0, 3);
+        stream.write(4);
+        stream.flush();
+        assertEquals(0, out.size());
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, stream.getBuffer());
+    }
+
+    @Test
+    public void testWritesThroughBeyondTheLimit() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SpillingOutputStream stream = new SpillingOutputStream(out, 4);
+        stream.write(new byte[]{1, 2, 3}, 0, 3);
+        stream.write(new byte[]{4, 5}, 0, 2);
+        stream.write(6);
+        assertNull(stream.getBuffer());
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, out.toByteArray());
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import com.vividsolutions.jts.geom.Geometry;
+import org.gdms.data.values.Value;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds stubs of the gdms and orbisgis-core interfaces for the tests that don't need a workspace. A stub answers
+ * the methods it has been given by name, compares by identity and throws an UnsupportedOperationException for the
+ * other methods, so that a test fails as soon as the tested code reads something it does not provide.
+ */
+final class Stubs<T> {
+
+    /**
+     * The answer of a stub to the calls of one of its methods.
+     */
+    interface Answer {
+        Object answer(Object stub, Object[] args);
+    }
+
+    private final Class<T> type;
+    private final Map<String, Answer> answers = new HashMap<String, Answer>();
+
+    private Stubs(Class<T> type) {
+        this.type = type;
+    }
+
+    /**
+     * Starts the stub of the given interface.
+     */
+    static <T> Stubs<T> of(Class<T> type) {
+        return new Stubs<T>(type);
+    }
+
+    /**
+     * Answers the calls of the given method.
+     */
+    Stubs<T> on(String method, Answer answer) {
+        answers.put(method, answer);
+        return this;
+    }
+
+    /**
+     * Answers the calls of the given method with the given value.
+     */
+    Stubs<T> returning(String method, final Object value) {
+        return on(method, new Answer() {
+            @Override
+            public Object answer(Object stub, Object[] args) {
+                return value;
+            }
+        });
+    }
+
+    T build() {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        Answer answer = answers.get(method.getName());
+                        if (answer != null) {
+                            return answer.answer(proxy, args);
+                        } else if (method.getName().equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        } else if (method.getName().equals("equals")) {
+                            return proxy == args[0];
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                }));
+    }
+
+    /**
+     * Builds a value holding the given geometry, number or string, or the null value.
+     */
+    static Value value(final Object o) {
+        return of(Value.class)
+                .returning("isNull", o == null)
+                .on("getAsGeometry", new Answer() {
+                    @Override
+                    public Object answer(Object stub, Object[] args) {
+                        return (Geometry) o;
+                    }
+                })
+                .on("getAsLong", new Answer() {
+                    @Override
+                    public Object answer(Object stub, Object[] args) {
+                        return ((Number) o).longValue();
+                    }
+                })
+                .on("getAsDouble", new Answer() {
+                    @Override
+                    public Object answer(Object stub, Object[] args) {
+                        return ((Number) o).doubleValue();
+                    }
+                })
+                .returning("toString", String.valueOf(o))
+                .build();
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.junit.Test;
+import org.orbisgis.core.renderer.se.LineSymbolizer;
+import org.orbisgis.core.renderer.se.PointSymbolizer;
+import org.orbisgis.core.renderer.se.Rule;
+import org.orbisgis.core.renderer.se.Style;
+import org.orbisgis.core.renderer.se.Symbolizer;
+import org.orbisgis.core.renderer.se.common.Uom;
+import org.orbisgis.core.renderer.se.graphic.GraphicCollection;
+import org.orbisgis.core.renderer.se.graphic.MarkGraphic;
+import org.orbisgis.core.renderer.se.graphic.ViewBox;
+import org.orbisgis.core.renderer.se.parameter.real.RealAttribute;
+import org.orbisgis.core.renderer.se.parameter.real.RealLiteral;
+import org.orbisgis.core.renderer.se.stroke.PenStroke;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the SymbolTolerance class.
+ */
+public class SymbolToleranceTest {
+
+    private static final double EPSILON = 1e-9;
+
+    private static Style style(Symbolizer... symbolizers) {
+        Style style = new Style(null, false);
+        Rule rule = new Rule();
+        for (Symbolizer s : symbolizers) {
+            rule.getCompositeSymbolizer().addSymbolizer(s);
+        }
+        style.addRule(rule);
+        return style;
+    }
+
+    private static LineSymbolizer line(Uom uom, double width) {
+        LineSymbolizer line = new LineSymbolizer();
+        line.setUom(uom);
+        PenStroke stroke = new PenStroke();
+        stroke.setWidth(new RealLiteral(width));
+        line.setStroke(stroke);
+        return line;
+    }
+
+    private static PointSymbolizer mark(Uom uom, double size, double strokeWidth) {
+        PointSymbolizer point = new PointSymbolizer();
+        point.setUom(uom);
+        MarkGraphic mark = new MarkGraphic();
+        mark.setViewBox(new ViewBox(new RealLiteral(size)));
+        PenStroke stroke = new PenStroke();
+        stroke.setWidth(new RealLiteral(strokeWidth));
+        mark.setStroke(stroke);
+        GraphicCollection graphics = new GraphicCollection();
+        graphics.addGraphic(mark);
+        point.setGraphicCollection(graphics);
+        return point;
+    }
+
+    @Test
+    public void testPenStroke() {
+        assertEquals(0, SymbolTolerance.getPixels(null, 1), EPSILON);
+        // Half the width of the pen.
+        assertEquals(2, SymbolTolerance.getPixels(style(line(Uom.PX, 4)), 1), EPSILON);
+        assertEquals(0.5 / 0.28, SymbolTolerance.getPixels(style(line(Uom.MM, 1)), 1), EPSILON);
+        // Ground units depend on the size of the pixels.
+        assertEquals(2.5, SymbolTolerance.getPixels(style(line(Uom.GM, 10)), 2), EPSILON);
+    }
+
+    @Test
+    public void testMarkGraphic() {
+        // Half the size of the mark plus half the width of its outline.
+        assertEquals(6, SymbolTolerance.getPixels(style(mark(Uom.PX, 10, 2)), 1), EPSILON);
+        // The largest symbol of the style.
+        assertEquals(6, SymbolTolerance.getPixels(style(line(Uom.PX, 4), mark(Uom.PX, 10, 2)), 1), EPSILON);
+        assertEquals(8, SymbolTolerance.getPixels(style(line(Uom.PX, 16), mark(Uom.PX, 10, 2)), 1), EPSILON);
+    }
+
+    @Test
+    public void testComputedSize() {
+        LineSymbolizer line = new LineSymbolizer();
+        line.setUom(Uom.PX);
+        PenStroke stroke = new PenStroke();
+        stroke.setWidth(new RealAttribute("width"));
+        line.setStroke(stroke);
+        // The sizes computed from the features are ignored.
+        assertEquals(0, SymbolTolerance.getPixels(style(line), 1), EPSILON);
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier
+ * SIG" team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/> or contact
+ * directly: info_at_ orbisgis.org
+ */
+package org.orbisgis.server.wms;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the WMSMetrics class.
+ */
+public class WMSMetricsTest {
+
+    @Test
+    public void testRequests() {
+        WMSMetrics metrics = new WMSMetrics();
+        metrics.recordRequest(Arrays.asList("cantons", "roads"), "image/png", false, 100);
+        metrics.recordRequest(Collections.singletonList("roads"), "text/xml", true, 10);
+        assertEquals(2, metrics.getRequestCount());
+        assertEquals(1, metrics.getErrorCount());
+        assertEquals(110, metrics.getBytesWritten());
+        String json = metrics.toJSON();
+        assertTrue(json.contains("\"layers\":{\"cantons\":{\"requests\":1,\"errors\":0,\"bytes\":100},"
+                + "\"roads\":{\"requests\":2,\"errors\":1,\"bytes\":110}}"));
+        assertTrue(json.contains("\"image/png\":{\"requests\":1,\"errors\":0,\"bytes\":100}"));
+        metrics.reset();
+        assertEquals(0, metrics.getRequestCount());
+        assertTrue(metrics.toJSON().contains("\"layers\":{}"));
+    }
+
+    @Test
+    public void testPhases() throws Exception {
+        WMSMetrics metrics = new WMSMetrics();
+        long start = metrics.start();
+        Thread.sleep(5);
+        metrics.record(WMSMetrics.Phase.DRAW, start);
+        metrics.record(WMSMetrics.Phase.DRAW, metrics.start());
+        assertEquals(2, metrics.getPhaseCount("draw"));
+        assertEquals(0, metrics.getPhaseCount("ENCODE"));
+        assertEquals(0, metrics.getPhaseCount("unknown"));
+        assertTrue(metrics.getPhaseMaxMillis("DRAW") >= 5);
+        assertTrue(metrics.getPhaseMeanMillis("DRAW") <= metrics.getPhaseMaxMillis("DRAW"));
+    }
+}
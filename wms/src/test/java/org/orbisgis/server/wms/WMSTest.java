@@ -44,13 +44,19 @@ import org.orbisgis.core.renderer.se.Style;
 import org.orbisgis.core.workspace.CoreWorkspace;
 import org.orbisgis.utils.FileUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -261,11 +267,87 @@ public class WMSTest {
 
     }
 
+    /**
+     * Checks that the capabilities are answered with an ETag, and not sent again when the client has them.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCapabilitiesCache() throws Exception {
+        HashMap<String, String[]> h = new HashMap<String, String[]>();
+        h.put("REQUEST", new String[]{"GetCapabilities"});
+        h.put("SERVICE", new String[]{"WMS"});
+
+        DummyResponse r = new DummyResponse("http://localhost:9000/wms/wms");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        wms.processRequests(h, out, r);
+        assertEquals(200, r.responseCode);
+        String etag = r.headers.get("ETag");
+        assertNotNull(etag);
+        byte[] plain = out.toByteArray();
+
+        r = new DummyResponse("http://localhost:9000/wms/wms");
+        r.requestHeaders.put("If-None-Match", etag);
+        out = new ByteArrayOutputStream();
+        wms.processRequests(h, out, r);
+        assertEquals(304, r.responseCode);
+        assertEquals(0, out.size());
+
+        r = new DummyResponse("http://localhost:9000/wms/wms");
+        r.requestHeaders.put("Accept-Encoding", "gzip, deflate");
+        out = new ByteArrayOutputStream();
+        wms.processRequests(h, out, r);
+        assertEquals(200, r.responseCode);
+        assertEquals("gzip", r.headers.get("Content-Encoding"));
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()));
+        ByteArrayOutputStream unzipped = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            unzipped.write(buffer, 0, n);
+        }
+        assertTrue(Arrays.equals(plain, unzipped.toByteArray()));
+    }
+
+    /**
+     * Checks that the sources reprojected by the server are not published as layers.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReprojectionNotPublished() throws Exception {
+        HashMap<String, String[]> h = new HashMap<String, String[]>();
+        h.put("REQUEST", new String[]{"GetMap"});
+        h.put("SERVICE", new String[]{"WMS"});
+        h.put("LAYERS", new String[]{"cantons"});
+        h.put("STYLES", new String[]{""});
+        h.put("CRS", new String[]{"EPSG:4326"});
+        h.put("BBOX", new String[]{"-5.372757617915,9.326100042301633,41.3630420705024,51.089386147807105"});
+        h.put("WIDTH", new String[]{"874"});
+        h.put("HEIGHT", new String[]{"593"});
+        h.put("FORMAT", new String[]{"image/png"});
+        h.put("VERSION", new String[]{"1.3.0"});
+        wms.processRequests(h, new ByteArrayOutputStream(), new DummyResponse("http://localhost:9000/wms/wms"));
+        String sourceName = GetMapHandler.getProjectionSourceName("cantons", "EPSG:4326");
+        assertTrue(wms.getContext().getDataManager().getSourceManager().exists(sourceName));
+
+        h = new HashMap<String, String[]>();
+        h.put("REQUEST", new String[]{"GetCapabilities"});
+        h.put("SERVICE", new String[]{"WMS"});
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        wms.processRequests(h, out, new DummyResponse("http://localhost:9000/wms/wms"));
+        String capabilities = out.toString("UTF-8");
+        assertTrue(capabilities.contains("<Name>cantons</Name>"));
+        assertFalse(capabilities.contains(sourceName));
+    }
+
     private static class DummyResponse implements WMSResponse {
 
         private String contentType;
         private String requestUrl;
         private int responseCode;
+        private Map<String, String> headers = new HashMap<String, String>();
+        private Map<String, String> requestHeaders = new HashMap<String, String>();
 
         DummyResponse(String requestUrl) {
             this.requestUrl = requestUrl;
@@ -285,5 +367,20 @@ public class WMSTest {
         public void setResponseCode(int code) {
             responseCode = code;
         }
+
+        @Override
+        public void setHeader(String name, String value) {
+            headers.put(name, value);
+        }
+
+        @Override
+        public String getRequestHeader(String name) {
+            return requestHeaders.get(name);
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "127.0.0.1";
+        }
     }
 }